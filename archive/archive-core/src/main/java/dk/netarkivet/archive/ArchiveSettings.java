@@ -332,5 +332,67 @@ public class ArchiveSettings {
      * Necessary, when the upload happens by other means than the ArcrepositoryClient.store method.
      */
     public static String READONLY_ARCHIVE_MODE = "settings.archive.bitarchive.readonlyArchiveMode";
+
+    /**
+     * <b>settings.archive.bitarchive.checksumCache.enabled</b>: <br>
+     * Whether the bitarchive keeps a persistent cache of the checksums of its files, used to answer checksum batch
+     * jobs without reading the files. A cached checksum is only verified against the file by the scrub, so damage to a
+     * file may not be detected until the scrub reaches it. Default is false.
+     */
+    public static String BITARCHIVE_CHECKSUM_CACHE_ENABLED = "settings.archive.bitarchive.checksumCache.enabled";
+
+    /**
+     * <b>settings.archive.bitarchive.checksumCache.file</b>: <br>
+     * The file where the checksum cache is kept. If empty, a file named checksumcache in the first baseFileDir is used.
+     */
+    public static String BITARCHIVE_CHECKSUM_CACHE_FILE = "settings.archive.bitarchive.checksumCache.file";
+
+    /**
+     * <b>settings.archive.bitarchive.checksumCache.scrubBytesPerSecond</b>: <br>
+     * The maximum number of bytes per second read by the background scrub, which re-verifies the cached checksums.
+     * 0 disables the scrub.
+     */
+    public static String BITARCHIVE_CHECKSUM_CACHE_SCRUB_BYTES_PER_SECOND = "settings.archive.bitarchive.checksumCache.scrubBytesPerSecond";
+
+    /**
+     * <b>settings.archive.bitarchive.checksumCache.scrubMinAge</b>: <br>
+     * The time in milliseconds after which a cached checksum is re-verified by the background scrub.
+     */
+    public static String BITARCHIVE_CHECKSUM_CACHE_SCRUB_MIN_AGE = "settings.archive.bitarchive.checksumCache.scrubMinAge";
+
+    /**
+     * <b>settings.archive.bitarchive.fileListJournal.enabled</b>: <br>
+     * Whether the bitarchive keeps a journal of the files added to and removed from it, used to answer requests for
+     * the changes to its filelist since an earlier request.
+     */
+    public static String BITARCHIVE_FILE_LIST_JOURNAL_ENABLED = "settings.archive.bitarchive.fileListJournal.enabled";
+
+    /**
+     * <b>settings.archive.bitarchive.fileListJournal.file</b>: <br>
+     * The file where the filelist journal is kept. If empty, a file named filelistjournal in the first baseFileDir is
+     * used.
+     */
+    public static String BITARCHIVE_FILE_LIST_JOURNAL_FILE = "settings.archive.bitarchive.fileListJournal.file";
+
+    /**
+     * <b>settings.archive.bitarchive.recordServer.port</b>: <br>
+     * The port of the HTTP endpoint where the bitarchive serves byte ranges of its files directly, e.g. to a wayback
+     * resource store. 0 disables the endpoint.
+     */
+    public static String BITARCHIVE_RECORD_SERVER_PORT = "settings.archive.bitarchive.recordServer.port";
+
+    /**
+     * <b>settings.archive.bitarchive.recordServer.host</b>: <br>
+     * The address the record server endpoint listens on. Empty means all interfaces.
+     */
+    public static String BITARCHIVE_RECORD_SERVER_HOST = "settings.archive.bitarchive.recordServer.host";
+
+    /**
+     * <b>settings.archive.bitarchive.recordServer.secure</b>: <br>
+     * Whether the record server endpoint uses HTTPS with the certificate given by the HTTPSRemoteFile keystore settings
+     * (settings.common.remoteFile.certificateKeyStore), only accepting clients presenting the same certificate. The
+     * default is true. Only disable it on a closed network.
+     */
+    public static String BITARCHIVE_RECORD_SERVER_SECURE = "settings.archive.bitarchive.recordServer.secure";
     
 }
@@ -23,12 +23,14 @@
 package dk.netarkivet.archive.arcrepository.bitpreservation;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Date;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,11 +38,16 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.archive.arcrepositoryadmin.BitPreservationDAO;
 import dk.netarkivet.archive.arcrepositoryadmin.ReplicaCacheDatabase;
 import dk.netarkivet.archive.arcrepositoryadmin.ReplicaFileInfo;
+import dk.netarkivet.archive.bitarchive.FileListChanges;
+import dk.netarkivet.archive.bitarchive.FileListChangesJob;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.PreservationArcRepositoryClient;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.distribute.arcrepository.ReplicaType;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.exceptions.NotImplementedException;
 import dk.netarkivet.common.utils.CleanupHook;
 import dk.netarkivet.common.utils.CleanupIF;
@@ -78,6 +85,12 @@ public final class DatabaseBasedActiveBitPreservation implements ActiveBitPreser
     /** The list of the replicas, which are having their checksums updated. */
     private List<Replica> updateChecksumReplicas = Collections.synchronizedList(new ArrayList<Replica>());
 
+    /**
+     * The filelist journal positions of the bitarchives of each bitarchive replica at the last filelist update, by
+     * replica id. A replica without positions gets a full listing.
+     */
+    private Map<String, Map<String, String>> fileListPositions = new ConcurrentHashMap<String, Map<String, String>>();
+
     /**
      * Constructor. Initialises the database and closeHook.
      */
@@ -123,6 +136,66 @@ public final class DatabaseBasedActiveBitPreservation implements ActiveBitPreser
         return result;
     }
 
+    /**
+     * Method for updating the filelist of a bitarchive replica with the changes since the last update. A
+     * FileListChangesJob is sent to the replica, which the bitarchives answer from their filelist journals. If a
+     * bitarchive no longer knows its position from the last update, e.g. because its journal has been replaced, all
+     * bitarchives are asked for all their files.
+     *
+     * @param replica The bitarchive replica to update the filelist for.
+     * @return true if the filelist was updated, false if the changes could not be retrieved.
+     */
+    private boolean updateFileListChanges(Replica replica) {
+        Map<String, String> positions = fileListPositions.get(replica.getId());
+        if (positions == null) {
+            positions = Collections.emptyMap();
+        }
+        log.info("Retrieving filelist changes from replica '{}' since {}.", replica, positions);
+        File output = null;
+        File fullListing = null;
+        try {
+            BatchStatus status = ArcRepositoryClientFactory.getPreservationInstance().batch(
+                    new FileListChangesJob(positions), replica.getId());
+            if (!status.hasResultFile() || !status.getFilesFailed().isEmpty() || !status.getExceptions().isEmpty()) {
+                log.warn("Could not retrieve the filelist changes from replica '{}': {}", replica, status);
+                fileListPositions.remove(replica.getId());
+                return false;
+            }
+            output = File.createTempFile("filelistchanges", "", FileUtils.getTempDir());
+            fullListing = new File(output.getPath() + ".full");
+            status.copyResults(output);
+            FileListChanges changes = FileListChanges.read(output, fullListing);
+            if (changes.isIncremental() && changes.getPositions().keySet().equals(positions.keySet())) {
+                cache.addFileListChanges(changes.getAdded(), changes.getRemoved(), replica);
+            } else if (changes.isFull()) {
+                cache.addFileListInformation(fullListing, replica);
+            } else if (!positions.isEmpty()) {
+                log.info("Not all bitarchives of replica '{}' could list their changes, asking for all files.",
+                        replica);
+                fileListPositions.remove(replica.getId());
+                return updateFileListChanges(replica);
+            } else {
+                log.warn("Replica '{}' returned no filelist.", replica);
+                return false;
+            }
+            fileListPositions.put(replica.getId(), new HashMap<String, String>(changes.getPositions()));
+            log.info("Updated the filelist of replica '{}', the bitarchives are now at {}.", replica,
+                    changes.getPositions());
+            return true;
+        } catch (IOException | IOFailure | ArgumentNotValid | IllegalState e) {
+            log.warn("Could not retrieve the filelist changes from replica '{}'.", replica, e);
+            fileListPositions.remove(replica.getId());
+            return false;
+        } finally {
+            if (output != null) {
+                FileUtils.remove(output);
+            }
+            if (fullListing != null) {
+                FileUtils.remove(fullListing);
+            }
+        }
+    }
+
     /**
      * Method for retrieving the checksums from a specific replica. A GetAllChecksumsMessage is sent to the specific
      * replica.
@@ -419,6 +492,9 @@ public final class DatabaseBasedActiveBitPreservation implements ActiveBitPreser
     /**
      * This method retrieves the filelist for the replica, and then it updates the database with this list of filenames.
      * Each replica can only be updated once at the time.
+     * <p>
+     * For a bitarchive replica only the changes since the last update are retrieved and applied, see
+     * {@link FileListChangesJob}. If that fails, the full filelist is retrieved.
      *
      * @param replica The replica to find the missing files for.
      * @throws ArgumentNotValid If the replica is null.
@@ -436,6 +512,10 @@ public final class DatabaseBasedActiveBitPreservation implements ActiveBitPreser
         updateFilelistReplicas.add(replica);
         File filenamesFile = null;
         try {
+            if (replica.getType() == ReplicaType.BITARCHIVE && updateFileListChanges(replica)) {
+                log.info("Completed findMissingFiles for replica '{}'.", replica);
+                return;
+            }
             // retrieve the filelist from the replica
             filenamesFile = getFilenamesAsFile(replica);
             // put them into the database.
@@ -22,7 +22,11 @@
  */
 package dk.netarkivet.archive.arcrepository.bitpreservation;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -318,7 +322,7 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
      * Get a list of missing files in a given replica.
      *
      * @param replica A given replica.
-     * @return A list of missing files in a given replica.
+     * @return The missing files in a given replica, read from the work file as they are iterated.
      * @throws IllegalState if the file with the list cannot be found.
      * @throws ArgumentNotValid If the replica is null.
      */
@@ -328,14 +332,14 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
         if (!missingOutput.exists()) {
             throw new IllegalState("Could not find the file: " + missingOutput.getAbsolutePath());
         }
-        return FileUtils.readListFromFile(missingOutput);
+        return FileUtils.iterateLines(missingOutput);
     }
 
     /**
      * This method takes as input the name of a replica for which we wish to retrieve the list of files, either through
      * a FileListJob or a GetAllFilenamesMessage. It also reads in the known files in the arcrepository from the
-     * AdminData directory specified in the Setting DIRS_ARCREPOSITORY_ADMIN. The two file lists are compared and a
-     * subdirectory missingFiles is created with two unsorted files: 'missingba.txt' containing missing files, ie those
+     * AdminData directory specified in the Setting DIRS_ARCREPOSITORY_ADMIN. The two file lists are sorted and compared
+     * in one pass, and a subdirectory missingFiles is created with two sorted files: 'missingba.txt' containing missing files, ie those
      * registered in the admin data, but not found in the replica, and 'missingadmindata.txt' containing extra files,
      * ie. those found in the replica but not in the arcrepository admin data.
      * <p>
@@ -355,47 +359,52 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
         log.trace("Finding missing files in directory '" + WorkFiles.getPreservationDir(replica) + "'");
         admin.synchronize();
 
-        // Create set of file names from replica data
-        Set<String> filesInReplica = new HashSet<String>(WorkFiles.getLines(replica, WorkFiles.FILES_ON_BA));
+        // Compare the sorted listing of the replica with a sorted listing of the admin data, writing the
+        // differences directly to the output files.
+        File filesInReplica = WorkFiles.getSortedFile(WorkFiles.getFile(replica, WorkFiles.FILES_ON_BA));
+        File arcrepNames = writeSortedAdminData(replica, false);
+        final SortedFileDiff.Output extraFilesInAdminData = new SortedFileDiff.Output(WorkFiles.getFile(replica,
+                WorkFiles.MISSING_FILES_BA), MAX_LIST_SIZE);
+        final SortedFileDiff.Output extraFilesInRep = new SortedFileDiff.Output(WorkFiles.getFile(replica,
+                WorkFiles.MISSING_FILES_ADMINDATA), MAX_LIST_SIZE);
+        try {
+            SortedFileDiff.compare(arcrepNames, filesInReplica, new SortedFileDiff.Listener() {
+                @Override
+                public void onlyInFirst(String filename) {
+                    extraFilesInAdminData.add(filename);
+                }
 
-        // Get set of files in arcrepository
-        Set<String> arcrepNameSet = admin.getAllFileNames();
+                @Override
+                public void onlyInSecond(String filename) {
+                    extraFilesInRep.add(filename);
+                }
 
-        // Find difference set 1 (the files missing from the replica).
-        Set<String> extraFilesInAdminData = new HashSet<String>(arcrepNameSet);
-        extraFilesInAdminData.removeAll(filesInReplica);
+                @Override
+                public void inBoth(String filename) {
+                    // Present in both, nothing to report.
+                }
+            });
+        } finally {
+            extraFilesInAdminData.close();
+            extraFilesInRep.close();
+            FileUtils.remove(arcrepNames);
+        }
 
-        // Log result
-        if (extraFilesInAdminData.size() > 0) {
-            log.warn("The "
-                    + extraFilesInAdminData.size()
-                    + " files '"
-                    + new ArrayList<String>(extraFilesInAdminData).subList(0,
-                            Math.min(extraFilesInAdminData.size(), MAX_LIST_SIZE))
+        // Log result (the files missing from the replica).
+        if (extraFilesInAdminData.getCount() > 0) {
+            log.warn("The " + extraFilesInAdminData.getCount() + " files '" + extraFilesInAdminData.getSample()
                     + "' are not present in the replica listing in '"
                     + WorkFiles.getPreservationDir(replica).getAbsolutePath() + "'");
         }
 
-        // Write output data
-        WorkFiles.write(replica, WorkFiles.MISSING_FILES_BA, extraFilesInAdminData);
-
-        // Find difference set 2 (the files missing in admin.data).
-        Set<String> extraFilesInRep = new HashSet<String>(filesInReplica);
-        extraFilesInRep.removeAll(arcrepNameSet);
-
-        // Log result
-        if (extraFilesInRep.size() > 0) {
-            log.warn("The "
-                    + extraFilesInRep.size()
-                    + " files '"
-                    + new ArrayList<String>(extraFilesInRep).subList(0, Math.min(extraFilesInRep.size(), MAX_LIST_SIZE))
+        // Log result (the files missing in admin.data).
+        if (extraFilesInRep.getCount() > 0) {
+            log.warn("The " + extraFilesInRep.getCount() + " files '" + extraFilesInRep.getSample()
                     + "' have been found in the replica listing in '"
                     + WorkFiles.getPreservationDir(replica).getAbsolutePath() + "' though they are not known by the "
                     + "system.");
         }
 
-        // Write output data
-        WorkFiles.write(replica, WorkFiles.MISSING_FILES_ADMINDATA, extraFilesInRep);
         log.trace("Finished finding missing files.");
     }
 
@@ -425,7 +434,7 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
      * Get a list of corrupt files in a given bitarchive.
      *
      * @param bitarchive a bitarchive
-     * @return a list of wrong files in a given bitarchive.
+     * @return the wrong files in a given bitarchive, read from the work file as they are iterated.
      * @throws IllegalState if the file with the list cannot be found.
      */
     public Iterable<String> getChangedFiles(Replica bitarchive) throws IllegalState {
@@ -436,8 +445,8 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
             throw new IllegalState("Could not find the file: " + wrongFilesOutput.getAbsolutePath());
         }
 
-        // Create set of file names from bitarchive data
-        return FileUtils.readListFromFile(wrongFilesOutput);
+        // The file names are read as they are iterated.
+        return FileUtils.iterateLines(wrongFilesOutput);
     }
 
     /**
@@ -460,73 +469,90 @@ public class FileBasedActiveBitPreservation implements ActiveBitPreservation, Cl
         runChecksumJob(replica);
         admin.synchronize();
 
-        // Create set of checksums from bitarchive data
-        Set<String> replicaChecksumSet = new HashSet<String>(WorkFiles.getLines(replica, WorkFiles.CHECKSUMS_ON_BA));
-
-        // Get set of files in arcrepository
-        Set<String> arcrepChecksumSet = new HashSet<String>();
-        for (String fileName : admin.getAllFileNames()) {
-            arcrepChecksumSet.add(ChecksumJob.makeLine(fileName, admin.getCheckSum(fileName)));
-        }
+        // Compare the sorted checksums of the replica with the sorted checksums of the admin data. Both use the
+        // format <filename>##<checksum>, so a line found in both has the correct checksum.
+        File replicaChecksums = WorkFiles.getSortedFile(WorkFiles.getFile(replica, WorkFiles.CHECKSUMS_ON_BA));
+        File arcrepChecksums = writeSortedAdminData(replica, true);
+        final String replicaKey = replica.getIdentificationChannel().getName();
+        final SortedFileDiff.Output wrongChecksums = new SortedFileDiff.Output(WorkFiles.getFile(replica,
+                WorkFiles.WRONG_FILES), MAX_LIST_SIZE);
+        final SortedFileDiff.Output wrongStates = new SortedFileDiff.Output(WorkFiles.getFile(replica,
+                WorkFiles.WRONG_STATES), MAX_LIST_SIZE);
+        try {
+            SortedFileDiff.compare(arcrepChecksums, replicaChecksums, new SortedFileDiff.Listener() {
+                @Override
+                public void onlyInFirst(String checksumLine) {
+                    // Files missing in the replica are handled by missing files operations.
+                }
 
-        // Get set of completed files in arcrepository
-        // Note that these files use the format <filename>##<checksum> to
-        // conform to the checksum output.
-        Set<String> arcrepCompletedChecksumSet = new HashSet<String>();
-        for (String fileName : admin.getAllFileNames(replica, ReplicaStoreState.UPLOAD_COMPLETED)) {
-            arcrepCompletedChecksumSet.add(ChecksumJob.makeLine(fileName, admin.getCheckSum(fileName)));
-        }
+                @Override
+                public void onlyInSecond(String checksumLine) {
+                    // Files unknown in admin data are not ignored, they will be handled by missing files operations.
+                    String filename = ChecksumJob.parseLine(checksumLine).getKey();
+                    if (admin.hasEntry(filename)) {
+                        wrongChecksums.add(filename);
+                    }
+                }
 
-        // Find files where checksums differ
-        Set<String> wrongChecksums = new HashSet<String>(replicaChecksumSet);
-        wrongChecksums.removeAll(arcrepChecksumSet);
-
-        // Find files where state is wrong
-        Set<String> wrongStates = new HashSet<String>(replicaChecksumSet);
-        wrongStates.removeAll(wrongChecksums);
-        wrongStates.removeAll(arcrepCompletedChecksumSet);
-
-        // Remove files unknown in admin data (note - these are not ignored,
-        // they will be handled by missing files operations)
-        for (String checksum : new ArrayList<String>(wrongChecksums)) {
-            Map.Entry<String, String> entry = ChecksumJob.parseLine(checksum);
-            if (!admin.hasEntry(entry.getKey())) {
-                wrongChecksums.remove(checksum);
-                wrongStates.remove(checksum);
-            }
+                @Override
+                public void inBoth(String checksumLine) {
+                    String filename = ChecksumJob.parseLine(checksumLine).getKey();
+                    if (!admin.hasState(filename, replicaKey)
+                            || admin.getState(filename, replicaKey) != ReplicaStoreState.UPLOAD_COMPLETED) {
+                        wrongStates.add(filename);
+                    }
+                }
+            });
+        } finally {
+            wrongChecksums.close();
+            wrongStates.close();
+            FileUtils.remove(arcrepChecksums);
         }
 
         // Log result
-        if (wrongChecksums.size() > 0) {
-            log.warn("The " + wrongChecksums.size() + " files '"
-                    + new ArrayList<String>(wrongChecksums).subList(0, Math.min(wrongChecksums.size(), MAX_LIST_SIZE))
+        if (wrongChecksums.getCount() > 0) {
+            log.warn("The " + wrongChecksums.getCount() + " files '" + wrongChecksums.getSample()
                     + "' have wrong checksum in the bitarchive listing in '"
                     + WorkFiles.getPreservationDir(replica).getAbsolutePath() + "'");
         }
-        if (wrongStates.size() > 0) {
-            log.warn("The " + wrongStates.size() + " files '"
-                    + new ArrayList<String>(wrongStates).subList(0, Math.min(wrongStates.size(), MAX_LIST_SIZE))
+        if (wrongStates.getCount() > 0) {
+            log.warn("The " + wrongStates.getCount() + " files '" + wrongStates.getSample()
                     + "' have wrong states in the bitarchive listing in '"
                     + WorkFiles.getPreservationDir(replica).getAbsolutePath() + "'");
         }
+    }
 
-        // Collect all names of files with the wrong checksum
-        Set<String> wrongChecksumFilenames = new HashSet<String>();
-        for (String checksum : wrongChecksums) {
-            Map.Entry<String, String> entry = ChecksumJob.parseLine(checksum);
-            wrongChecksumFilenames.add(entry.getKey());
-        }
-
-        // Collect all names of files with the wrong state
-        Set<String> wrongStateFilenames = new HashSet<String>();
-        for (String checksum : wrongStates) {
-            Map.Entry<String, String> entry = ChecksumJob.parseLine(checksum);
-            wrongStateFilenames.add(entry.getKey());
+    /**
+     * Write the names of all files in the admin data, or lines in the format <filename>##<checksum> for all of them,
+     * to a sorted temporary file in the preservation directory of the replica. The caller must remove the file.
+     *
+     * @param replica The replica being checked.
+     * @param withChecksums Whether to include the checksums.
+     * @return The sorted file.
+     * @throws IOFailure If the file cannot be written.
+     */
+    private File writeSortedAdminData(Replica replica, boolean withChecksums) throws IOFailure {
+        File adminFile;
+        PrintWriter writer = null;
+        try {
+            adminFile = File.createTempFile("admindata", ".txt", WorkFiles.getPreservationDir(replica));
+            writer = new PrintWriter(new BufferedWriter(new FileWriter(adminFile)));
+            for (String fileName : admin.getAllFileNames()) {
+                writer.println(withChecksums ? ChecksumJob.makeLine(fileName, admin.getCheckSum(fileName)) : fileName);
+            }
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("Error writing the admin data listing");
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not write the admin data listing for replica " + replica, e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
         }
-
-        // Write output data to the files.
-        WorkFiles.write(replica, WorkFiles.WRONG_FILES, wrongChecksumFilenames);
-        WorkFiles.write(replica, WorkFiles.WRONG_STATES, wrongStateFilenames);
+        FileUtils.makeSortedFile(adminFile, adminFile);
+        return adminFile;
     }
 
     /**
@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepository.bitpreservation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Streaming comparison of two files, each sorted with {@link dk.netarkivet.common.utils.FileUtils#makeSortedFile}.
+ * Both files are read once, side by side, and only the current line of each is held in memory. Repeated lines are
+ * reported once.
+ */
+class SortedFileDiff {
+
+    /**
+     * Receiver of the result of a comparison.
+     */
+    interface Listener {
+        /**
+         * @param line A line only found in the first file.
+         */
+        void onlyInFirst(String line);
+
+        /**
+         * @param line A line only found in the second file.
+         */
+        void onlyInSecond(String line);
+
+        /**
+         * @param line A line found in both files.
+         */
+        void inBoth(String line);
+    }
+
+    /** Utility class, do not initialise. */
+    private SortedFileDiff() {
+    }
+
+    /**
+     * Compare two sorted files, reporting every distinct line to the listener in sorted order.
+     *
+     * @param first The first file.
+     * @param second The second file.
+     * @param listener The receiver of the result.
+     * @throws ArgumentNotValid If any argument is null.
+     * @throws IOFailure If one of the files cannot be read.
+     */
+    static void compare(File first, File second, Listener listener) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(first, "File first");
+        ArgumentNotValid.checkNotNull(second, "File second");
+        ArgumentNotValid.checkNotNull(listener, "Listener listener");
+        try {
+            BufferedReader firstReader = new BufferedReader(new FileReader(first));
+            try {
+                BufferedReader secondReader = new BufferedReader(new FileReader(second));
+                try {
+                    String a = firstReader.readLine();
+                    String b = secondReader.readLine();
+                    while (a != null || b != null) {
+                        int cmp = (a == null) ? 1 : (b == null) ? -1 : a.compareTo(b);
+                        if (cmp < 0) {
+                            listener.onlyInFirst(a);
+                            a = nextDistinct(firstReader, a);
+                        } else if (cmp > 0) {
+                            listener.onlyInSecond(b);
+                            b = nextDistinct(secondReader, b);
+                        } else {
+                            listener.inBoth(a);
+                            a = nextDistinct(firstReader, a);
+                            b = nextDistinct(secondReader, b);
+                        }
+                    }
+                } finally {
+                    secondReader.close();
+                }
+            } finally {
+                firstReader.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not compare '" + first + "' with '" + second + "'", e);
+        }
+    }
+
+    /**
+     * Read past any repetitions of the current line.
+     *
+     * @param reader The reader of a sorted file.
+     * @param current The line last read.
+     * @return The next line different from the current one, or null at the end of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private static String nextDistinct(BufferedReader reader, String current) throws IOException {
+        String line = reader.readLine();
+        while (line != null && line.equals(current)) {
+            line = reader.readLine();
+        }
+        return line;
+    }
+
+    /**
+     * Writer of one of the results of a comparison to a file, counting the lines and keeping the first few of them for
+     * logging. A line equal to the one just written is skipped.
+     */
+    static class Output {
+        /** The writer to the output file. */
+        private final PrintWriter writer;
+        /** The first lines written. */
+        private final List<String> sample = new ArrayList<String>();
+        /** The maximal size of the sample. */
+        private final int sampleSize;
+        /** The number of lines written. */
+        private long count;
+        /** The line last written. */
+        private String last;
+
+        /**
+         * @param file The file to write to. It will be overwritten.
+         * @param sampleSize The number of lines to keep for logging.
+         * @throws IOFailure If the file cannot be opened.
+         */
+        Output(File file, int sampleSize) throws IOFailure {
+            try {
+                writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+            } catch (IOException e) {
+                throw new IOFailure("Could not write to '" + file + "'", e);
+            }
+            this.sampleSize = sampleSize;
+        }
+
+        /**
+         * @param line The line to write.
+         */
+        void add(String line) {
+            if (line.equals(last)) {
+                return;
+            }
+            writer.println(line);
+            last = line;
+            if (sample.size() < sampleSize) {
+                sample.add(line);
+            }
+            count++;
+        }
+
+        /**
+         * @return The number of lines written.
+         */
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The first lines written.
+         */
+        List<String> getSample() {
+            return sample;
+        }
+
+        /**
+         * Flush and close the output file.
+         *
+         * @throws IOFailure If writing to the file failed.
+         */
+        void close() throws IOFailure {
+            writer.close();
+            if (writer.checkError()) {
+                throw new IOFailure("Error writing comparison output");
+            }
+        }
+    }
+}
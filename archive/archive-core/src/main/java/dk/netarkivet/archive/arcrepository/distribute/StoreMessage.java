@@ -31,7 +31,7 @@ import dk.netarkivet.common.distribute.Channels;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
-import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.PrecomputedChecksums;
 
 /**
  * Messages requesting store of file. This message is sent to the arc repository which distributes the file to the known
@@ -52,7 +52,7 @@ public class StoreMessage extends ArchiveMessage {
         super(Channels.getTheRepos(), replyTo);
         ArgumentNotValid.checkNotNull(arcfile, "arcfile");
         theRemoteFile = RemoteFileFactory.getDistributefileInstance(arcfile);
-        precomputedChecksum = ChecksumCalculator.calculateMd5(arcfile);
+        precomputedChecksum = PrecomputedChecksums.calculateMd5(arcfile);
     }
 
     /**
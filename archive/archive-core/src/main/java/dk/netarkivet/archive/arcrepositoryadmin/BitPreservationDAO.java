@@ -24,6 +24,7 @@ package dk.netarkivet.archive.arcrepositoryadmin;
 
 import java.io.File;
 import java.sql.Date;
+import java.util.Collection;
 
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.utils.CleanupIF;
@@ -51,6 +52,16 @@ public interface BitPreservationDAO extends CleanupIF {
      */
     void addFileListInformation(File filelistOutput, Replica replica);
 
+    /**
+     * Given the files added to and removed from a replica since its filelist was last added, update the database
+     * accordingly. Files not mentioned keep their filelist status.
+     *
+     * @param added The names of the files added to the replica.
+     * @param removed The names of the files removed from the replica.
+     * @param replica The replica the changes are for.
+     */
+    void addFileListChanges(Collection<String> added, Collection<String> removed, Replica replica);
+
     /**
      * Return files with upload_status = COMPLETE for the replica, but the filelist_status = MISSING. This is done by
      * querying the database for files with no or different update date from the last known update date for bitarchive,
@@ -929,6 +929,56 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         }
     }
 
+    /**
+     * Method for adding the changes to the list of filenames on a replica since the last filelist update.
+     * <p>
+     * For each added file the replicafileinfo entry is updated as by {@link #addFileListInformation(File, Replica)}, and
+     * for each removed file known by the database the filelist_status is set to missing. Files not mentioned are left
+     * untouched, i.e. they keep the status found by the previous update.
+     *
+     * @param added The names of the files added to the replica.
+     * @param removed The names of the files removed from the replica.
+     * @param replica The replica the changes are for.
+     * @throws ArgumentNotValid If an argument is null.
+     * @throws UnknownID If the replica does not already exist in the database.
+     */
+    @Override
+    public void addFileListChanges(Collection<String> added, Collection<String> removed, Replica replica)
+            throws ArgumentNotValid, UnknownID {
+        ArgumentNotValid.checkNotNull(added, "Collection<String> added");
+        ArgumentNotValid.checkNotNull(removed, "Collection<String> removed");
+        ArgumentNotValid.checkNotNull(replica, "Replica replica");
+
+        Connection con = ArchiveDBConnection.get();
+        try {
+            if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
+                String errorMsg = "Cannot add filelist changes, since the replica '" + replica.toString()
+                        + "' does not exist in the database.";
+                log.warn(errorMsg);
+                throw new UnknownID(errorMsg);
+            }
+            log.info("Processing {} added and {} removed files for replica {}", added.size(), removed.size(),
+                    replica.getId());
+            for (String file : added) {
+                ReplicaCacheHelpers.addFileInformation(file, replica, con);
+            }
+            for (String file : removed) {
+                long fileId = ReplicaCacheHelpers.retrieveIdForFile(file, con);
+                long rfi = (fileId < 0) ? -1 : ReplicaCacheHelpers.retrieveReplicaFileInfoGuid(fileId,
+                        replica.getId(), con);
+                if (rfi < 0) {
+                    log.debug("The removed file '{}' is not known for replica '{}'", file, replica.getId());
+                    continue;
+                }
+                log.warn("The file '{}' has been removed from replica '{}'.", file, replica.getId());
+                ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
+            }
+            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
+        } finally {
+            ArchiveDBConnection.release(con);
+        }
+    }
+
     /**
      * Get the date for the last file list job.
      *
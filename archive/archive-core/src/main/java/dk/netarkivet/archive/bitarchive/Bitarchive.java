@@ -26,7 +26,10 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
@@ -34,6 +37,7 @@ import org.archive.io.ArchiveRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
@@ -43,7 +47,9 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
 /**
@@ -61,6 +67,12 @@ public class Bitarchive {
     /** The instance of the bitarchive. */
     private static Bitarchive instance;
 
+    /** The checksums of the files in this bitarchive, or null if checksums are not cached. */
+    private BitarchiveChecksumCache checksumCache;
+
+    /** The journal of the files added to and removed from this bitarchive, or null if no journal is kept. */
+    private BitarchiveFileJournal fileJournal;
+
     /**
      * Create a new Bitarchive with files stored on local disk in one or more directories. This can reopen an existing
      * bit archive or create a Bitarchive from scratch, with no files on disk.
@@ -70,12 +82,41 @@ public class Bitarchive {
     private Bitarchive() throws PermissionDenied {
         log.debug("Starting bit archive");
         admin = BitarchiveAdmin.getInstance();
+        if (Settings.getBoolean(ArchiveSettings.BITARCHIVE_CHECKSUM_CACHE_ENABLED)) {
+            String cacheFile = Settings.get(ArchiveSettings.BITARCHIVE_CHECKSUM_CACHE_FILE);
+            if (cacheFile.isEmpty()) {
+                cacheFile = new File(Settings.getAll(ArchiveSettings.BITARCHIVE_SERVER_FILEDIR)[0], "checksumcache")
+                        .getPath();
+            }
+            checksumCache = new BitarchiveChecksumCache(new File(cacheFile));
+            long bytesPerSecond = Settings.getLong(ArchiveSettings.BITARCHIVE_CHECKSUM_CACHE_SCRUB_BYTES_PER_SECOND);
+            if (bytesPerSecond > 0) {
+                checksumCache.startScrub(admin, bytesPerSecond,
+                        Settings.getLong(ArchiveSettings.BITARCHIVE_CHECKSUM_CACHE_SCRUB_MIN_AGE));
+            }
+        }
+        if (Settings.getBoolean(ArchiveSettings.BITARCHIVE_FILE_LIST_JOURNAL_ENABLED)) {
+            String journalFile = Settings.get(ArchiveSettings.BITARCHIVE_FILE_LIST_JOURNAL_FILE);
+            if (journalFile.isEmpty()) {
+                journalFile = new File(Settings.getAll(ArchiveSettings.BITARCHIVE_SERVER_FILEDIR)[0],
+                        "filelistjournal").getPath();
+            }
+            fileJournal = new BitarchiveFileJournal(new File(journalFile));
+            // Record the changes made while the bitarchive was down
+            fileJournal.update(getFilenames());
+        }
     }
 
     /**
      * Release all resources allocated by the bitarchive Ensures that all admin data and log data are flushed.
      */
     public void close() {
+        if (checksumCache != null) {
+            checksumCache.close();
+        }
+        if (fileJournal != null) {
+            fileJournal.close();
+        }
         admin.close();
         instance = null;
     }
@@ -190,6 +231,15 @@ public class Bitarchive {
         log.info("Starting batch job on bitarchive application with id '{}': '{}', on filename-pattern: '{}'",
                 bitarchiveAppId, job.getClass().getName(), job.getFilenamePattern());
         BatchStatus returnStatus;
+        if (fileJournal != null && job instanceof FileListChangesJob) {
+            return listFileChanges(bitarchiveAppId, (FileListChangesJob) job);
+        }
+        FileBatchJob runJob = job;
+        if (checksumCache != null && job.getClass() == ChecksumJob.class) {
+            // Plain checksum jobs are answered from the checksum cache
+            runJob = new CachedChecksumJob(checksumCache);
+            runJob.processOnlyFilesMatching(job.getFilenamePattern().pattern());
+        }
 
         File tmpFile = null;
         try {
@@ -202,7 +252,7 @@ public class Bitarchive {
                 File[] processFiles = admin.getFilesMatching(job.getFilenamePattern());
 
                 final BatchLocalFiles localBatchRunner = new BatchLocalFiles(processFiles);
-                localBatchRunner.run(job, os);
+                localBatchRunner.run(runJob, os);
                 log.debug("Batch: Job {} finished at {}", job, new Date());
             } finally { // Make sure the OutputStream is closed no matter what.
                 // This allows us to delete the file on Windows
@@ -215,8 +265,8 @@ public class Bitarchive {
                 }
             }
             // write output from batch job back to remote file
-            returnStatus = new BatchStatus(bitarchiveAppId, job.getFilesFailed(), job.getNoOfFilesProcessed(),
-                    RemoteFileFactory.getMovefileInstance(tmpFile), job.getExceptions());
+            returnStatus = new BatchStatus(bitarchiveAppId, runJob.getFilesFailed(), runJob.getNoOfFilesProcessed(),
+                    RemoteFileFactory.getMovefileInstance(tmpFile), runJob.getExceptions());
         } catch (IOException e) {
             log.error("Failed to create temporary file for batch {}", job, e);
             throw new IOFailure("Failed to create temporary file for batch " + job, e);
@@ -227,6 +277,62 @@ public class Bitarchive {
         return returnStatus;
     }
 
+    /**
+     * Answers a FileListChangesJob from the filelist journal, without visiting the files. If the journal does not know
+     * the position asked from, all files are listed.
+     *
+     * @param bitarchiveAppId A String representing the bitarchive AppId.
+     * @param job The job asking for the changes.
+     * @return A BatchStatus with the changes
+     * @throws IOFailure if the journal cannot be read or the result cannot be written
+     */
+    private BatchStatus listFileChanges(String bitarchiveAppId, FileListChangesJob job) throws IOFailure {
+        fileJournal.update(getFilenames());
+        String position = fileJournal.getPosition();
+        String since = job.getPosition(bitarchiveAppId);
+        Map<String, Boolean> changes = (since == null) ? null : fileJournal.getChangesSince(since);
+        File tmpFile = null;
+        int listed;
+        try {
+            tmpFile = File.createTempFile("BatchOutput", "", FileUtils.getTempDir());
+            OutputStream os = new FileOutputStream(tmpFile);
+            try {
+                if (changes != null) {
+                    FileListChangesJob.writeChanges(os, bitarchiveAppId, position, changes);
+                    listed = changes.size();
+                } else {
+                    log.info("Listing all files for position '{}', the journal is at '{}'", since, position);
+                    List<String> files = new ArrayList<String>(fileJournal.getFiles());
+                    FileListChangesJob.writeFull(os, bitarchiveAppId, position, files);
+                    listed = files.size();
+                }
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            if (tmpFile != null) {
+                FileUtils.remove(tmpFile);
+            }
+            throw new IOFailure("Failed to write the filelist changes for " + job, e);
+        }
+        log.info("Listed {} filelist changes since '{}' on bitarchive application with id '{}', now at '{}'", listed,
+                since, bitarchiveAppId, position);
+        return new BatchStatus(bitarchiveAppId, new ArrayList<File>(), listed,
+                RemoteFileFactory.getMovefileInstance(tmpFile), job.getExceptions());
+    }
+
+    /**
+     * @return The names of the files in the archive.
+     */
+    private List<String> getFilenames() {
+        File[] files = admin.getFiles();
+        List<String> names = new ArrayList<String>(files.length);
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        return names;
+    }
+
     /**
      * Copies a remote file into the bitarchive storage and returns the storage position of the file.
      *
@@ -257,6 +363,14 @@ public class Bitarchive {
             }
             throw new IOFailure("Can't copy file into archive: " + fileName, e);
         }
+        if (checksumCache != null) {
+            try {
+                // Read while the file is likely still in the page cache
+                checksumCache.getChecksum(destination);
+            } catch (IOFailure e) {
+                log.warn("Could not cache the checksum of '{}'", destination, e);
+            }
+        }
         return destination;
     }
 
@@ -0,0 +1,475 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.NotificationType;
+import dk.netarkivet.common.utils.NotificationsFactory;
+
+/**
+ * A persistent cache of the MD5 checksums of the files in a bitarchive, so that checksum requests can be answered
+ * without reading the files.
+ * <p>
+ * A cached checksum is only used while the name, size, modification time and file key (the inode on Unix) of the file
+ * are the same as when it was calculated. Otherwise the checksum is calculated again. To still catch bit rot, a
+ * background scrub re-reads the files whose checksums were verified longest ago, within a budget of bytes read per
+ * second. A checksum that changes without the file changing is reported as an error, and the new checksum is cached,
+ * so that checksum requests reveal the damaged file.
+ * <p>
+ * The cache is kept in memory and in a journal file, to which every new checksum is appended. The journal is
+ * compacted when the cache is opened.
+ */
+public class BitarchiveChecksumCache {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(BitarchiveChecksumCache.class);
+
+    /** Separates the fields of a journal line. */
+    private static final String SEPARATOR = "\t";
+
+    /** Size of the read buffer used when checksumming. */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** The time the scrub waits when there is nothing to verify. */
+    private static final long SCRUB_IDLE_MILLIS = 60 * 1000L;
+
+    /** The number of files verified by the scrub between rescans of the archive. */
+    private static final int SCRUB_BATCH_SIZE = 1000;
+
+    /** The journal file. */
+    private final File cacheFile;
+
+    /** The cached checksums, by filename. */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** The journal, open for appending. Guarded by this. */
+    private Writer journal;
+
+    /** The background scrub, if started. */
+    private Thread scrubber;
+
+    /** Set when the cache is closed. */
+    private volatile boolean closed;
+
+    /**
+     * Opens a checksum cache, reading the checksums kept in the given file if it exists.
+     *
+     * @param cacheFile The journal file of the cache
+     * @throws ArgumentNotValid if cacheFile is null
+     * @throws IOFailure if the journal cannot be read or written
+     */
+    public BitarchiveChecksumCache(File cacheFile) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(cacheFile, "File cacheFile");
+        this.cacheFile = cacheFile;
+        try {
+            if (cacheFile.exists()) {
+                load();
+            }
+            compact();
+            journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFile, true),
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IOFailure("Could not open checksum cache '" + cacheFile + "'", e);
+        }
+        log.info("Opened checksum cache '{}' with {} checksums", cacheFile, entries.size());
+    }
+
+    /**
+     * Caches the checksum of a file, e.g. calculated when it was uploaded.
+     *
+     * @param file A file in the archive
+     * @param md5 The MD5 checksum of the file
+     * @throws IOFailure if the file cannot be examined or the journal cannot be written
+     */
+    public void put(File file, String md5) throws IOFailure {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNullOrEmpty(md5, "String md5");
+        record(file.getName(), FileState.of(file), md5, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the cached checksum of a file.
+     *
+     * @param file A file in the archive
+     * @return The cached checksum, or null if there is none or the file has changed since it was calculated
+     */
+    public String getCachedChecksum(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        Entry entry = entries.get(file.getName());
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return entry.describes(FileState.of(file)) ? entry.md5 : null;
+        } catch (IOFailure e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the checksum of a file, from the cache if possible, otherwise by reading the file and caching the result.
+     *
+     * @param file A file in the archive
+     * @return The MD5 checksum of the file
+     * @throws IOFailure if the file cannot be read
+     */
+    public String getChecksum(File file) throws IOFailure {
+        String md5 = getCachedChecksum(file);
+        if (md5 != null) {
+            return md5;
+        }
+        FileState before = FileState.of(file);
+        md5 = ChecksumCalculator.calculateMd5(file);
+        if (before.equals(FileState.of(file))) {
+            record(file.getName(), before, md5, System.currentTimeMillis());
+        }
+        return md5;
+    }
+
+    /**
+     * @return the number of cached checksums, valid or not.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Starts the background scrub of the files of the given bitarchive.
+     *
+     * @param admin The bitarchive whose files are scrubbed
+     * @param bytesPerSecond The maximum number of bytes read per second
+     * @param minAge The time in milliseconds after which a cached checksum is verified again
+     */
+    public synchronized void startScrub(final BitarchiveAdmin admin, final long bytesPerSecond, final long minAge) {
+        ArgumentNotValid.checkNotNull(admin, "BitarchiveAdmin admin");
+        ArgumentNotValid.checkPositive(bytesPerSecond, "long bytesPerSecond");
+        ArgumentNotValid.checkNotNegative(minAge, "long minAge");
+        if (scrubber != null) {
+            return;
+        }
+        scrubber = new Thread("BitarchiveChecksumScrub") {
+            @Override
+            public void run() {
+                log.info("Starting checksum scrub, reading at most {} bytes per second", bytesPerSecond);
+                while (!closed) {
+                    try {
+                        if (scrub(admin.getFiles(), bytesPerSecond, minAge) == 0) {
+                            Thread.sleep(SCRUB_IDLE_MILLIS);
+                        }
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (Exception e) {
+                        log.warn("Checksum scrub failed, trying again later", e);
+                        try {
+                            Thread.sleep(SCRUB_IDLE_MILLIS);
+                        } catch (InterruptedException e1) {
+                            break;
+                        }
+                    }
+                }
+                log.info("Checksum scrub stopped");
+            }
+        };
+        scrubber.setDaemon(true);
+        scrubber.setPriority(Thread.MIN_PRIORITY);
+        scrubber.start();
+    }
+
+    /**
+     * Verifies the checksums of some of the given files: first the files without a valid cached checksum, then the
+     * files whose checksums were verified longest ago, if that is more than minAge ago.
+     *
+     * @param files The files of the archive
+     * @param bytesPerSecond The maximum number of bytes read per second
+     * @param minAge The time in milliseconds after which a cached checksum is verified again
+     * @return The number of files verified
+     * @throws InterruptedException if interrupted while waiting for the read budget
+     */
+    int scrub(File[] files, long bytesPerSecond, long minAge) throws InterruptedException {
+        final Map<File, Long> lastVerified = new ConcurrentHashMap<File, Long>();
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            Entry entry = entries.get(file.getName());
+            try {
+                if (entry == null || !entry.describes(FileState.of(file))) {
+                    lastVerified.put(file, Long.MIN_VALUE);
+                } else if (now - entry.verified >= minAge) {
+                    lastVerified.put(file, entry.verified);
+                }
+            } catch (IOFailure e) {
+                log.debug("Skipping file '{}' in scrub", file, e);
+            }
+        }
+        List<File> candidates = new ArrayList<File>(lastVerified.keySet());
+        Collections.sort(candidates, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(lastVerified.get(f1), lastVerified.get(f2));
+            }
+        });
+        int verified = 0;
+        for (File file : candidates.subList(0, Math.min(SCRUB_BATCH_SIZE, candidates.size()))) {
+            if (closed) {
+                break;
+            }
+            try {
+                verify(file, bytesPerSecond);
+                verified++;
+            } catch (IOFailure e) {
+                log.warn("Could not verify the checksum of '{}'", file, e);
+            }
+        }
+        return verified;
+    }
+
+    /**
+     * Stops the scrub and closes the journal.
+     */
+    public void close() {
+        closed = true;
+        Thread t;
+        synchronized (this) {
+            t = scrubber;
+            scrubber = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(SCRUB_IDLE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            IOUtils.closeQuietly(journal);
+            journal = null;
+        }
+    }
+
+    /**
+     * Reads a file within the read budget and compares its checksum to the cached one.
+     *
+     * @param file The file to verify
+     * @param bytesPerSecond The maximum number of bytes read per second
+     * @throws InterruptedException if interrupted while waiting for the read budget
+     */
+    private void verify(File file, long bytesPerSecond) throws InterruptedException {
+        FileState before = FileState.of(file);
+        MessageDigest md5 = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5);
+        InputStream in = null;
+        long start = System.currentTimeMillis();
+        long read = 0;
+        try {
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                md5.update(buffer, 0, count);
+                read += count;
+                long due = start + read * 1000L / bytesPerSecond;
+                long wait = due - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+                if (closed) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read '" + file + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (!before.equals(FileState.of(file))) {
+            log.debug("File '{}' changed while being verified", file);
+            return;
+        }
+        String checksum = ChecksumCalculator.toHex(md5.digest());
+        Entry cached = entries.get(file.getName());
+        if (cached != null && cached.describes(before) && !cached.md5.equals(checksum)) {
+            String msg = "The checksum of file '" + file + "' has changed from " + cached.md5 + " to " + checksum
+                    + " although the file has not been modified since " + cached.lastModified;
+            log.error(msg);
+            NotificationsFactory.getInstance().notify(msg, NotificationType.ERROR);
+        }
+        record(file.getName(), before, checksum, System.currentTimeMillis());
+    }
+
+    /**
+     * Caches a checksum and appends it to the journal.
+     */
+    private void record(String filename, FileState state, String md5, long verified) {
+        Entry entry = new Entry(state.size, state.lastModified, state.fileKey, md5, verified);
+        synchronized (this) {
+            entries.put(filename, entry);
+            if (journal == null) {
+                return;
+            }
+            try {
+                journal.write(entry.toLine(filename));
+                journal.flush();
+            } catch (IOException e) {
+                throw new IOFailure("Could not write to checksum cache '" + cacheFile + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the journal. Later lines override earlier ones; malformed lines, e.g. a partly written last line, are
+     * ignored.
+     */
+    private void load() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile),
+                StandardCharsets.UTF_8));
+        try {
+            String line;
+            int skipped = 0;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR, -1);
+                try {
+                    if (parts.length != 6) {
+                        throw new NumberFormatException("Expected 6 fields, got " + parts.length);
+                    }
+                    entries.put(parts[0], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3],
+                            parts[4], Long.parseLong(parts[5])));
+                } catch (NumberFormatException e) {
+                    skipped++;
+                }
+            }
+            if (skipped > 0) {
+                log.warn("Skipped {} malformed lines in checksum cache '{}'", skipped, cacheFile);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the current entries.
+     */
+    private void compact() throws IOException {
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+        try {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(entry.getValue().toLine(entry.getKey()));
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** The attributes of a file that must not change for a cached checksum to remain valid. */
+    private static final class FileState {
+        final long size;
+        final long lastModified;
+        final String fileKey;
+
+        private FileState(long size, long lastModified, String fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        static FileState of(File file) throws IOFailure {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                return new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        String.valueOf(attributes.fileKey()));
+            } catch (IOException e) {
+                throw new IOFailure("Could not read the attributes of '" + file + "'", e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) o;
+            return size == other.size && lastModified == other.lastModified && fileKey.equals(other.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (size ^ lastModified) ^ fileKey.hashCode();
+        }
+    }
+
+    /** A cached checksum, with the attributes of the file when it was calculated. */
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final String fileKey;
+        final String md5;
+        /** When the checksum was last calculated from the file. */
+        final long verified;
+
+        Entry(long size, long lastModified, String fileKey, String md5, long verified) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.md5 = md5;
+            this.verified = verified;
+        }
+
+        boolean describes(FileState state) {
+            return size == state.size && lastModified == state.lastModified && fileKey.equals(state.fileKey);
+        }
+
+        String toLine(String filename) {
+            return filename + SEPARATOR + size + SEPARATOR + lastModified + SEPARATOR + fileKey + SEPARATOR + md5
+                    + SEPARATOR + verified + "\n";
+        }
+    }
+
+}
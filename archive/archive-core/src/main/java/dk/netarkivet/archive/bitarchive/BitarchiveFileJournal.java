@@ -0,0 +1,326 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * An append-only journal of the files added to and removed from a bitarchive.
+ * <p>
+ * Every change is given a generation number, one higher than the previous change. A position in the journal is the
+ * epoch of the journal, i.e. the time it was created, together with a generation, so that a position handed out by an
+ * earlier journal that has since been lost or rewritten is never mistaken for one in the current journal.
+ * <p>
+ * The journal does not watch the archive itself; it is updated with the current filelist of the archive before
+ * changes are read from it, and records the difference to the filelist it knew.
+ */
+public class BitarchiveFileJournal {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(BitarchiveFileJournal.class);
+
+    /** The first line of the journal, followed by the epoch. */
+    private static final String EPOCH_PREFIX = "#epoch ";
+
+    /** Separates the fields of a journal line. */
+    private static final String SEPARATOR = "\t";
+
+    /** Marks an added file in the journal. */
+    private static final String ADDED = "+";
+
+    /** Marks a removed file in the journal. */
+    private static final String REMOVED = "-";
+
+    /** The number of generations between the remembered offsets into the journal. */
+    private static final int CHECKPOINT_INTERVAL = 1024;
+
+    /** The journal file. */
+    private final File journalFile;
+
+    /** The time the journal was created. */
+    private long epoch;
+
+    /** The generation of the latest change. */
+    private long generation;
+
+    /** The files in the archive according to the journal. */
+    private final Set<String> files = new HashSet<String>();
+
+    /** The offset in the journal of every {@link #CHECKPOINT_INTERVAL}th generation, starting with generation 1. */
+    private final List<Long> checkpoints = new ArrayList<Long>();
+
+    /** The length of the journal. */
+    private long length;
+
+    /** The journal, open for appending. */
+    private Writer writer;
+
+    /**
+     * Opens a journal, reading the changes kept in the given file if it exists. A journal that cannot be read to its
+     * end is replaced by a new journal with a new epoch, starting from the files it was able to read.
+     *
+     * @param journalFile The journal file
+     * @throws ArgumentNotValid if journalFile is null
+     * @throws IOFailure if the journal cannot be read or written
+     */
+    public BitarchiveFileJournal(File journalFile) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(journalFile, "File journalFile");
+        this.journalFile = journalFile;
+        try {
+            if (!journalFile.exists() || !load()) {
+                rewrite();
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true),
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IOFailure("Could not open filelist journal '" + journalFile + "'", e);
+        }
+        log.info("Opened filelist journal '{}' at position {} with {} files", journalFile, getPosition(),
+                files.size());
+    }
+
+    /**
+     * @return The current position of the journal, on the form epoch:generation.
+     */
+    public synchronized String getPosition() {
+        return epoch + ":" + generation;
+    }
+
+    /**
+     * @return The files in the archive according to the journal.
+     */
+    public synchronized Set<String> getFiles() {
+        return new HashSet<String>(files);
+    }
+
+    /**
+     * Records the differences between the given filelist and the filelist known by the journal.
+     *
+     * @param currentFiles The names of the files currently in the archive
+     * @return The number of changes recorded
+     * @throws IOFailure if the journal cannot be written
+     */
+    public synchronized int update(Collection<String> currentFiles) throws IOFailure {
+        ArgumentNotValid.checkNotNull(currentFiles, "Collection<String> currentFiles");
+        Set<String> current = new HashSet<String>(currentFiles);
+        List<String> removed = new ArrayList<String>();
+        for (String name : files) {
+            if (!current.contains(name)) {
+                removed.add(name);
+            }
+        }
+        int changes = 0;
+        try {
+            for (String name : removed) {
+                append(REMOVED, name);
+                changes++;
+            }
+            for (String name : current) {
+                if (!files.contains(name)) {
+                    append(ADDED, name);
+                    changes++;
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new IOFailure("Could not write to filelist journal '" + journalFile + "'", e);
+        }
+        if (changes > 0) {
+            log.debug("Recorded {} filelist changes, journal is now at {}", changes, getPosition());
+        }
+        return changes;
+    }
+
+    /**
+     * Get the changes made since the given position.
+     *
+     * @param position A position previously returned by {@link #getPosition()}
+     * @return The files changed since the position, mapped to true if the file is now in the archive and false if it
+     * has been removed, or null if the position does not belong to this journal
+     * @throws IOFailure if the journal cannot be read
+     */
+    public synchronized Map<String, Boolean> getChangesSince(String position) throws IOFailure {
+        ArgumentNotValid.checkNotNullOrEmpty(position, "String position");
+        long since;
+        try {
+            int separator = position.indexOf(':');
+            if (separator < 0 || Long.parseLong(position.substring(0, separator)) != epoch) {
+                return null;
+            }
+            since = Long.parseLong(position.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (since < 0 || since > generation) {
+            return null;
+        }
+        Map<String, Boolean> changes = new LinkedHashMap<String, Boolean>();
+        if (since == generation) {
+            return changes;
+        }
+        int checkpoint = (int) (since / CHECKPOINT_INTERVAL);
+        BufferedReader reader = null;
+        try {
+            FileInputStream in = new FileInputStream(journalFile);
+            in.getChannel().position(checkpoints.get(checkpoint));
+            reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR, 3);
+                long lineGeneration = Long.parseLong(parts[0]);
+                if (lineGeneration > generation) {
+                    break;
+                }
+                if (lineGeneration > since) {
+                    changes.put(parts[2], ADDED.equals(parts[1]));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IOFailure("Could not read the filelist journal '" + journalFile + "' from " + position, e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return changes;
+    }
+
+    /**
+     * Closes the journal.
+     */
+    public synchronized void close() {
+        IOUtils.closeQuietly(writer);
+        writer = null;
+    }
+
+    /**
+     * Appends a change to the journal.
+     */
+    private void append(String change, String name) throws IOException {
+        generation++;
+        if ((generation - 1) % CHECKPOINT_INTERVAL == 0) {
+            checkpoints.add(length);
+        }
+        String line = generation + SEPARATOR + change + SEPARATOR + name + "\n";
+        writer.write(line);
+        length += line.getBytes(StandardCharsets.UTF_8).length;
+        if (ADDED.equals(change)) {
+            files.add(name);
+        } else {
+            files.remove(name);
+        }
+    }
+
+    /**
+     * Reads the journal.
+     *
+     * @return false if the journal could not be read to its end
+     */
+    private boolean load() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile),
+                StandardCharsets.UTF_8));
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(EPOCH_PREFIX)) {
+                log.warn("The filelist journal '{}' has no epoch, starting a new journal", journalFile);
+                return false;
+            }
+            epoch = Long.parseLong(line.substring(EPOCH_PREFIX.length()));
+            length = line.getBytes(StandardCharsets.UTF_8).length + 1;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR, 3);
+                if (parts.length != 3 || Long.parseLong(parts[0]) != generation + 1
+                        || !(ADDED.equals(parts[1]) || REMOVED.equals(parts[1]))) {
+                    log.warn("Malformed line '{}' in filelist journal '{}', starting a new journal", line,
+                            journalFile);
+                    return false;
+                }
+                generation++;
+                if ((generation - 1) % CHECKPOINT_INTERVAL == 0) {
+                    checkpoints.add(length);
+                }
+                length += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (ADDED.equals(parts[1])) {
+                    files.add(parts[2]);
+                } else {
+                    files.remove(parts[2]);
+                }
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            log.warn("Malformed filelist journal '{}', starting a new journal", journalFile, e);
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Replaces the journal by a new journal with a new epoch, recording the currently known files as added.
+     */
+    private void rewrite() throws IOException {
+        File tmp = new File(journalFile.getPath() + ".tmp");
+        Set<String> known = new HashSet<String>(files);
+        files.clear();
+        checkpoints.clear();
+        generation = 0;
+        epoch = Math.max(System.currentTimeMillis(), epoch + 1);
+        String header = EPOCH_PREFIX + epoch + "\n";
+        length = header.getBytes(StandardCharsets.UTF_8).length;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+        try {
+            writer.write(header);
+            for (String name : known) {
+                append(ADDED, name);
+            }
+        } finally {
+            writer.close();
+            writer = null;
+        }
+        Files.move(tmp.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * A checksum job that takes the checksums from the checksum cache of the bitarchive, only reading the files whose
+ * checksums are not cached. Its output is the same as that of {@link ChecksumJob}. It is only run locally by the
+ * bitarchive in place of a plain ChecksumJob, and is never sent anywhere.
+ */
+@SuppressWarnings({"serial"})
+class CachedChecksumJob extends ChecksumJob {
+
+    /** The checksum cache of the bitarchive. */
+    private final transient BitarchiveChecksumCache cache;
+
+    /**
+     * Create a checksum job using the given cache.
+     *
+     * @param cache The checksum cache of the bitarchive
+     */
+    CachedChecksumJob(BitarchiveChecksumCache cache) {
+        ArgumentNotValid.checkNotNull(cache, "BitarchiveChecksumCache cache");
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean processFile(File file, OutputStream os) {
+        ArgumentNotValid.checkNotNull(file, "file");
+        try {
+            os.write((makeLine(file.getName(), cache.getChecksum(file)) + "\n").getBytes());
+        } catch (IOException | IOFailure e) {
+            log.warn("Checksumming of file {} failed: ", file.getName(), e);
+            return false;
+        }
+        return true;
+    }
+
+}
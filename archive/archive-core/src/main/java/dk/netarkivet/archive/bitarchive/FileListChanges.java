@@ -0,0 +1,196 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * The combined output of a {@link FileListChangesJob} from all the bitarchives of a replica.
+ * <p>
+ * The sections listing changes are kept in memory, since they are expected to be small. The files of the sections
+ * listing all files are written to a separate file, one name per line, in the format of a FileListJob.
+ */
+public final class FileListChanges {
+
+    /** The positions to ask from next time, by bitarchive application id. */
+    private final Map<String, String> positions = new HashMap<String, String>();
+
+    /** The changed files, mapped to whether they are in the archive. */
+    private final Map<String, Boolean> changes = new LinkedHashMap<String, Boolean>();
+
+    /** The number of sections listing changes. */
+    private int changeSections;
+
+    /** The number of sections listing all files. */
+    private int fullSections;
+
+    /**
+     * Private constructor, use {@link #read(File, File)}.
+     */
+    private FileListChanges() {
+    }
+
+    /**
+     * Reads the output of a FileListChangesJob.
+     *
+     * @param output The output of the job
+     * @param fullListing The file where the files of sections listing all files are written
+     * @return The changes read
+     * @throws ArgumentNotValid if a file is null or the output is not the output of a FileListChangesJob
+     * @throws IOFailure if reading or writing fails
+     */
+    public static FileListChanges read(File output, File fullListing) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(output, "File output");
+        ArgumentNotValid.checkNotNull(fullListing, "File fullListing");
+        FileListChanges result = new FileListChanges();
+        BufferedReader reader = null;
+        Writer writer = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(output), StandardCharsets.UTF_8));
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fullListing),
+                    StandardCharsets.UTF_8));
+            boolean inFullSection = false;
+            boolean inSection = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.startsWith("#")) {
+                    String[] header = line.split(" ");
+                    if (FileListChangesJob.CHANGES.equals(header[0]) && header.length == 3) {
+                        inFullSection = false;
+                        result.changeSections++;
+                    } else if (FileListChangesJob.FULL.equals(header[0])
+                            && (header.length == 1 || header.length == 3)) {
+                        inFullSection = true;
+                        result.fullSections++;
+                    } else {
+                        throw new ArgumentNotValid("Unexpected header '" + line + "' in '" + output + "'");
+                    }
+                    if (header.length == 3) {
+                        result.positions.put(header[1], header[2]);
+                    }
+                    inSection = true;
+                    continue;
+                }
+                char change = line.charAt(0);
+                String name = line.substring(1);
+                if (!inSection
+                        || (change != FileListChangesJob.ADDED && change != FileListChangesJob.REMOVED)) {
+                    throw new ArgumentNotValid("Unexpected line '" + line + "' in '" + output + "'");
+                }
+                if (inFullSection) {
+                    writer.write(name + "\n");
+                } else if (change == FileListChangesJob.ADDED || !result.changes.containsKey(name)) {
+                    // A file removed from one bitarchive and added to another is still in the replica
+                    result.changes.put(name, change == FileListChangesJob.ADDED);
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read the filelist changes in '" + output + "'", e);
+        } finally {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+                if (reader != null) {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                throw new IOFailure("Could not close the filelist changes", e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if every bitarchive listed its changes, i.e. there is nothing in the full listing.
+     */
+    public boolean isIncremental() {
+        return changeSections > 0 && fullSections == 0;
+    }
+
+    /**
+     * @return true if every bitarchive listed all its files, i.e. the full listing is the complete filelist.
+     */
+    public boolean isFull() {
+        return fullSections > 0 && changeSections == 0;
+    }
+
+    /**
+     * @return The positions to ask from next time, by bitarchive application id.
+     */
+    public Map<String, String> getPositions() {
+        return Collections.unmodifiableMap(positions);
+    }
+
+    /**
+     * @return The files added to the archive by the listed changes.
+     */
+    public List<String> getAdded() {
+        return filesWithState(true);
+    }
+
+    /**
+     * @return The files removed from the archive by the listed changes.
+     */
+    public List<String> getRemoved() {
+        return filesWithState(false);
+    }
+
+    /**
+     * Get the changed files that are now in or out of the archive.
+     *
+     * @param inArchive Whether to return the files in the archive or the ones removed
+     * @return the files
+     */
+    private List<String> filesWithState(boolean inArchive) {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            if (change.getValue() == inArchive) {
+                result.add(change.getKey());
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+
+/**
+ * A batch job asking each bitarchive for the changes to its filelist since a given position in its
+ * {@link BitarchiveFileJournal}.
+ * <p>
+ * A bitarchive keeping a filelist journal answers the job directly from the journal, without visiting its files. The
+ * output of each bitarchive is a section starting with a header line, followed by a line per file: '+' and the name
+ * of a file in the archive, or '-' and the name of a removed file. The header is either
+ * <ul>
+ * <li>{@value #CHANGES} appId position: the files changed since the requested position, or</li>
+ * <li>{@value #FULL} appId position: all files in the archive, when the requested position is unknown to the
+ * journal.</li>
+ * </ul>
+ * The position in the header is the position to ask from the next time. A bitarchive without a journal runs the job
+ * as an ordinary batch job, giving a {@value #FULL} header without application id and position followed by all its
+ * files.
+ *
+ * @see FileListChanges
+ */
+@SuppressWarnings({"serial"})
+public class FileListChangesJob extends FileBatchJob {
+
+    /** The logger for this class. */
+    private static final transient Logger log = LoggerFactory.getLogger(FileListChangesJob.class);
+
+    /** The header of a section listing changed files. */
+    public static final String CHANGES = "#changes";
+
+    /** The header of a section listing all files. */
+    public static final String FULL = "#full";
+
+    /** The prefix of a file in the archive. */
+    public static final char ADDED = '+';
+
+    /** The prefix of a file removed from the archive. */
+    public static final char REMOVED = '-';
+
+    /** The position of the last request, by bitarchive application id. */
+    private final HashMap<String, String> positions;
+
+    /**
+     * Create a job asking for the changes since the given positions.
+     *
+     * @param positions The journal positions returned the last time, by bitarchive application id. Bitarchives not
+     * mentioned list all their files.
+     * @throws ArgumentNotValid if positions is null
+     */
+    public FileListChangesJob(Map<String, String> positions) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(positions, "Map<String, String> positions");
+        this.positions = new HashMap<String, String>(positions);
+    }
+
+    /**
+     * Get the position to list the changes from for a bitarchive.
+     *
+     * @param bitarchiveAppId The application id of the bitarchive
+     * @return The position, or null if the bitarchive should list all its files
+     */
+    public String getPosition(String bitarchiveAppId) {
+        return positions.get(bitarchiveAppId);
+    }
+
+    /**
+     * Writes the header for a bitarchive without a journal.
+     *
+     * @param os the OutputStream to which data is to be written
+     */
+    @Override
+    public void initialize(OutputStream os) {
+        try {
+            os.write((FULL + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            addInitializeException(ExceptionOccurrence.UNKNOWN_OFFSET, e);
+        }
+    }
+
+    /**
+     * Writes the name of the file as a file in the archive.
+     *
+     * @param file a file in the archive
+     * @param os the OutputStream to which data is to be written
+     * @return false If listing of this file fails; otherwise true
+     */
+    @Override
+    public boolean processFile(File file, OutputStream os) {
+        ArgumentNotValid.checkNotNull(file, "file");
+        try {
+            os.write((ADDED + file.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("Listing of file {} failed: ", file.getName(), e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Does nothing.
+     *
+     * @param os the OutputStream to which data is to be written
+     */
+    @Override
+    public void finish(OutputStream os) {
+    }
+
+    /**
+     * Writes the section for a bitarchive listing its changed files.
+     *
+     * @param os the OutputStream to which data is to be written
+     * @param bitarchiveAppId The application id of the bitarchive
+     * @param position The current position of the journal of the bitarchive
+     * @param changes The changed files, mapped to whether they are in the archive
+     * @throws IOException if writing fails
+     */
+    static void writeChanges(OutputStream os, String bitarchiveAppId, String position, Map<String, Boolean> changes)
+            throws IOException {
+        os.write((CHANGES + " " + bitarchiveAppId + " " + position + "\n").getBytes(StandardCharsets.UTF_8));
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            os.write(((change.getValue() ? ADDED : REMOVED) + change.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes the section for a bitarchive listing all its files.
+     *
+     * @param os the OutputStream to which data is to be written
+     * @param bitarchiveAppId The application id of the bitarchive
+     * @param position The current position of the journal of the bitarchive
+     * @param files The files in the archive
+     * @throws IOException if writing fails
+     */
+    static void writeFull(OutputStream os, String bitarchiveAppId, String position, Collection<String> files)
+            throws IOException {
+        os.write((FULL + " " + bitarchiveAppId + " " + position + "\n").getBytes(StandardCharsets.UTF_8));
+        for (String name : files) {
+            os.write((ADDED + name + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Return a human-readable representation of a FileListChangesJob.
+     *
+     * @return a human-readable representation of a FileListChangesJob
+     */
+    @Override
+    public String toString() {
+        return "\nFileListChanges job:\nPositions = " + positions + "\nFiles Processed = " + noOfFilesProcessed;
+    }
+
+}
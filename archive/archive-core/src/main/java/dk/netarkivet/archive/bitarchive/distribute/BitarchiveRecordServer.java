@@ -0,0 +1,299 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive.distribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.bio.SocketConnector;
+import org.mortbay.jetty.handler.AbstractHandler;
+import org.mortbay.jetty.security.SslSocketConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.HTTPSRemoteFile;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A lightweight HTTP endpoint serving byte ranges of the files in a bitarchive, so that a record can be read at a
+ * known offset without a GetMessage round trip through the ArcRepository.
+ * <p>
+ * A file is addressed by its name, e.g. <code>http://host:port/1-1-20090706131100-00000-host.arc</code>. HEAD tells
+ * whether the file is present, and GET returns the file, or the part of it given by a single
+ * <code>Range: bytes=first-last</code> or <code>Range: bytes=first-</code> header.
+ * <p>
+ * A secure endpoint is served over HTTPS with the shared certificate used by HTTPSRemoteFile, and only accepts clients
+ * presenting the same certificate, so only other NetarchiveSuite applications can read the files.
+ */
+public class BitarchiveRecordServer {
+
+    /** The class logger. */
+    private static final Logger log = LoggerFactory.getLogger(BitarchiveRecordServer.class);
+
+    /** The size of the buffer used when copying a range to the response. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The prefix of a byte range header. */
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * Finder of the files served.
+     */
+    public interface FileLocator {
+        /**
+         * @param filename The name of a file, without path.
+         * @return The file, or null if it is not found.
+         */
+        File locate(String filename);
+    }
+
+    /** The address the endpoint listens on, or null for all interfaces. */
+    private final String host;
+
+    /** The port the endpoint listens on. */
+    private final int port;
+
+    /** Whether the endpoint uses HTTPS with the shared certificate. */
+    private final boolean secure;
+
+    /** The finder of the files served. */
+    private final FileLocator locator;
+
+    /** The embedded server, or null if not started. */
+    private Server server;
+
+    /**
+     * Create an endpoint. It is not started until {@link #start()} is called.
+     *
+     * @param host The address to listen on, or null or empty for all interfaces.
+     * @param port The port to listen on.
+     * @param secure Whether to use HTTPS with the shared certificate given by the HTTPSRemoteFile keystore settings,
+     * and only accept clients presenting it.
+     * @param locator The finder of the files served.
+     * @throws ArgumentNotValid If the port is not positive or the locator is null.
+     */
+    public BitarchiveRecordServer(String host, int port, boolean secure, FileLocator locator) throws ArgumentNotValid {
+        ArgumentNotValid.checkPositive(port, "int port");
+        ArgumentNotValid.checkNotNull(locator, "FileLocator locator");
+        this.host = host == null || host.trim().isEmpty() ? null : host.trim();
+        this.port = port;
+        this.secure = secure;
+        this.locator = locator;
+    }
+
+    /**
+     * Start serving requests.
+     *
+     * @throws IOFailure If the server cannot be started.
+     */
+    public synchronized void start() throws IOFailure {
+        if (server != null) {
+            return;
+        }
+        Server newServer = new Server();
+        SocketConnector connector = secure ? createSecureConnector() : new SocketConnector();
+        if (host != null) {
+            connector.setHost(host);
+        }
+        connector.setPort(port);
+        newServer.addConnector(connector);
+        newServer.setHandler(new RangeHandler());
+        try {
+            newServer.start();
+        } catch (Exception e) {
+            throw new IOFailure("Cannot start bitarchive record server on port " + port, e);
+        }
+        server = newServer;
+        log.info("Bitarchive record server listening on {}:{} ({})", host == null ? "*" : host, port,
+                secure ? "https" : "http");
+    }
+
+    /**
+     * @return A connector using the shared certificate, which clients must present too.
+     */
+    private static SocketConnector createSecureConnector() {
+        String keystore = Settings.get(HTTPSRemoteFile.HTTPSREMOTEFILE_KEYSTORE_FILE);
+        String keystorePassword = Settings.get(HTTPSRemoteFile.HTTPSREMOTEFILE_KEYSTORE_PASSWORD);
+        SslSocketConnector connector = new SslSocketConnector();
+        connector.setKeystore(keystore);
+        connector.setPassword(keystorePassword);
+        connector.setKeyPassword(Settings.get(HTTPSRemoteFile.HTTPSREMOTEFILE_KEY_PASSWORD));
+        connector.setTruststore(keystore);
+        connector.setTrustPassword(keystorePassword);
+        connector.setNeedClientAuth(true);
+        return connector;
+    }
+
+    /**
+     * Stop serving requests.
+     */
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.stop();
+        } catch (Exception e) {
+            log.warn("Unable to stop bitarchive record server on port {}", port, e);
+        }
+        server = null;
+    }
+
+    /**
+     * @return The port the endpoint listens on.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Parse a byte range header against a file of a given length.
+     *
+     * @param range The value of the Range header.
+     * @param length The length of the file.
+     * @return The first and last byte of the range, or null if the header is not a single satisfiable byte range.
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith(BYTES_UNIT) || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash <= 0) {
+            // Suffix ranges ("bytes=-n") are of no use to readers of records, and are not supported.
+            return null;
+        }
+        try {
+            long first = Long.parseLong(spec.substring(0, dash).trim());
+            String lastSpec = spec.substring(dash + 1).trim();
+            long last = lastSpec.isEmpty() ? length - 1 : Math.min(Long.parseLong(lastSpec), length - 1);
+            if (first < 0 || first >= length || last < first) {
+                return null;
+            }
+            return new long[] {first, last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Copy a part of a file to a stream.
+     *
+     * @param file The file.
+     * @param first The first byte to copy.
+     * @param count The number of bytes to copy.
+     * @param out The stream to copy to.
+     * @throws IOException If reading or writing fails.
+     */
+    private static void copyRange(File file, long first, long count, OutputStream out) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(count, 1))];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(first);
+            long remaining = count;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Unexpected end of '" + file + "' with " + remaining + " bytes left");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * The handler of HEAD and GET requests for files.
+     */
+    private class RangeHandler extends AbstractHandler {
+        /**
+         * A method for handling Jetty requests.
+         *
+         * @param target The path of the request.
+         * @param httpServletRequest request object.
+         * @param httpServletResponse the response to write to.
+         * @param dispatch Unused dispatch type.
+         * @throws IOException On trouble in communication.
+         * @throws ServletException On servlet trouble.
+         */
+        @Override
+        public void handle(String target, HttpServletRequest httpServletRequest,
+                HttpServletResponse httpServletResponse, int dispatch) throws IOException, ServletException {
+            // since this is a jetty handle method, we know it is a Jetty request object.
+            Request request = (Request) httpServletRequest;
+            request.setHandled(true);
+            String method = httpServletRequest.getMethod();
+            boolean isHead = "HEAD".equals(method);
+            if (!isHead && !"GET".equals(method)) {
+                httpServletResponse.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+                return;
+            }
+            String filename = target.startsWith("/") ? target.substring(1) : target;
+            if (filename.isEmpty() || filename.contains("/") || filename.contains("\\") || filename.startsWith(".")) {
+                httpServletResponse.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            File file = locator.locate(filename);
+            if (file == null || !file.isFile()) {
+                log.trace("File '{}' not found in this bitarchive", filename);
+                httpServletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            long length = file.length();
+            long first = 0;
+            long count = length;
+            httpServletResponse.setHeader("Accept-Ranges", "bytes");
+            String range = httpServletRequest.getHeader("Range");
+            if (range != null) {
+                long[] bounds = parseRange(range, length);
+                if (bounds == null) {
+                    httpServletResponse.setHeader("Content-Range", "bytes */" + length);
+                    httpServletResponse.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                first = bounds[0];
+                count = bounds[1] - bounds[0] + 1;
+                httpServletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                httpServletResponse.setHeader("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + length);
+            } else {
+                httpServletResponse.setStatus(HttpServletResponse.SC_OK);
+            }
+            httpServletResponse.setContentType("application/octet-stream");
+            httpServletResponse.setHeader("Content-Length", Long.toString(count));
+            if (!isHead) {
+                copyRange(file, first, count, httpServletResponse.getOutputStream());
+                log.trace("Served {} bytes at offset {} of '{}'", count, first, filename);
+            }
+        }
+    }
+}
@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.archive.bitarchive.Bitarchive;
+import dk.netarkivet.archive.bitarchive.BitarchiveARCFile;
 import dk.netarkivet.archive.bitarchive.BitarchiveAdmin;
 import dk.netarkivet.archive.distribute.ArchiveMessageHandler;
 import dk.netarkivet.common.CommonSettings;
@@ -90,6 +91,9 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
     /** Channel to send BatchEnded messages to when replying. */
     private ChannelID baMon;
 
+    /** The HTTP endpoint serving byte ranges of the files in the bitarchive, or null if disabled. */
+    private BitarchiveRecordServer recordServer;
+
     /** Map between running batchjob processes and their message id. */
     public Map<String, Thread> batchProcesses;
 
@@ -155,6 +159,21 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
         	}
         }
 
+        int recordServerPort = Settings.getInt(ArchiveSettings.BITARCHIVE_RECORD_SERVER_PORT);
+        if (recordServerPort > 0) {
+            final BitarchiveAdmin admin = baa;
+            recordServer = new BitarchiveRecordServer(Settings.get(ArchiveSettings.BITARCHIVE_RECORD_SERVER_HOST),
+                    recordServerPort, Settings.getBoolean(ArchiveSettings.BITARCHIVE_RECORD_SERVER_SECURE),
+                    new BitarchiveRecordServer.FileLocator() {
+                        @Override
+                        public File locate(String filename) {
+                            BitarchiveARCFile arcFile = admin.lookup(filename);
+                            return arcFile == null ? null : arcFile.getFilePath();
+                        }
+                    });
+            recordServer.start();
+        }
+
         // create map for batchjobs
         batchProcesses = Collections.synchronizedMap(new HashMap<String, Thread>());
 
@@ -194,6 +213,10 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
      * Ends the heartbeat sender before next loop.
      */
     public void cleanup() {
+        if (recordServer != null) {
+            recordServer.close();
+            recordServer = null;
+        }
         if (ba != null) {
             ba.close();
             ba = null;
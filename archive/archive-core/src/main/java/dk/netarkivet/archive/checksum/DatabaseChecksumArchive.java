@@ -22,10 +22,15 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
 import org.apache.commons.io.IOUtils;
@@ -35,7 +40,9 @@ import org.slf4j.LoggerFactory;
 import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
@@ -55,12 +62,20 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.KeyValuePair;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.ChecksumJob;
 
 /**
  * A ChecksumArchive persisted with a Berkeley DB JE Database. Migrating from the {@link FileChecksumArchive} to the
  * DatabaseChecksumArchive is done with the {@link LoadDatabaseChecksumArchive} tool.
+ * <p>
+ * Filenames are stored with the tuple {@link StringBinding}, and MD5 checksums are stored as their 16 raw bytes (see
+ * {@link ChecksumBinding}). Databases written by earlier versions, which used serial bindings, are converted the first
+ * time they are opened.
+ * <p>
+ * Uploads are not synchronized; the check for an existing entry and the insertion of a new one are done within a
+ * single JE transaction, so concurrent uploads of the same file cannot both succeed with different checksums.
  */
 public class DatabaseChecksumArchive implements ChecksumArchive {
 
@@ -74,22 +89,21 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     /** The subdirectory to the databaseBaseDir, where the database is located. */
     private static final String DATABASE_SUBDIR = "DB";
     /** The name of the database. */
-    private static final String DATABASE_NAME = "CHECKSUM";
+    private static final String DATABASE_NAME = "CHECKSUMS";
     /** The Database environment. */
     private Environment env;
     /** The Checksum Database itself */
     private Database checksumDB;
 
-    /** The Database to store class information. */
-    private Database classDB;
-    /** The name of the class database. */
+    /** The name of the database used by earlier versions, where both keys and checksums were serialized Strings. */
+    private static final String LEGACY_DATABASE_NAME = "CHECKSUM";
+    /** The name of the class database used by the serial bindings of the legacy database. */
     private static final String CLASS_DATABASE_NAME = "CLASS";
+    /** The number of entries converted from the legacy database within each transaction. */
+    private static final int CONVERSION_BATCH_SIZE = 10000;
 
-    /**
-     * The Berkeley DB binder for the data object and keyObject in our database, i.e. Url and Long, respectively.
-     */
-    private EntryBinding objectBinding;
-    private EntryBinding keyBinding;
+    /** The binding for the checksums. The filenames are bound with the static methods of {@link StringBinding}. */
+    private static final ChecksumBinding checksumBinding = new ChecksumBinding();
 
     /** The minSpaceLeft value. */
     private long minSpaceLeft;
@@ -163,30 +177,156 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     private void initializeDatabase() throws DatabaseException {
         databaseBaseDir = Settings.getFile(ArchiveSettings.CHECKSUM_BASEDIR);
         File homeDirectory = new File(databaseBaseDir, DATABASE_SUBDIR);
+        log.info("Opening ChecksumDB-environment in: {}", homeDirectory.getAbsolutePath());
+        env = openEnvironment(homeDirectory, true);
+
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(true);
+        dbConfig.setAllowCreate(true);
+
+        Transaction nullTransaction = null;
+        checksumDB = env.openDatabase(nullTransaction, DATABASE_NAME, dbConfig);
+
+        if (env.getDatabaseNames().contains(LEGACY_DATABASE_NAME)) {
+            convertLegacyDatabase();
+        }
+    }
+
+    /**
+     * Open the database environment in the given directory, creating the directory if necessary.
+     *
+     * @param homeDirectory The directory of the environment.
+     * @param transactional Whether the environment should support transactions.
+     * @return The environment.
+     * @throws DatabaseException If the environment cannot be opened.
+     */
+    private static Environment openEnvironment(File homeDirectory, boolean transactional) throws DatabaseException {
         if (!homeDirectory.isDirectory()) {
             homeDirectory.mkdirs();
         }
-        log.info("Opening ChecksumDB-environment in: {}", homeDirectory.getAbsolutePath());
-
         EnvironmentConfig envConfig = new EnvironmentConfig();
-        envConfig.setTransactional(true);
+        envConfig.setTransactional(transactional);
         envConfig.setAllowCreate(true);
+        return new Environment(homeDirectory, envConfig);
+    }
 
+    /**
+     * Copy the entries of a database written with the serial bindings of earlier versions into the checksum database,
+     * and remove the old database and its class catalog afterwards. The entries are copied in batches of
+     * {@link #CONVERSION_BATCH_SIZE}, so an interrupted conversion is simply resumed the next time the archive is
+     * opened.
+     */
+    private void convertLegacyDatabase() throws DatabaseException {
+        log.info("Converting the checksum database '{}' to the tuple based format", LEGACY_DATABASE_NAME);
         DatabaseConfig dbConfig = new DatabaseConfig();
         dbConfig.setTransactional(true);
         dbConfig.setAllowCreate(true);
-
         Transaction nullTransaction = null;
-        env = new Environment(homeDirectory, envConfig);
-        checksumDB = env.openDatabase(nullTransaction, DATABASE_NAME, dbConfig);
-        // Open the database that stores your class information.
 
-        classDB = env.openDatabase(nullTransaction, CLASS_DATABASE_NAME, dbConfig);
-        StoredClassCatalog classCatalog = new StoredClassCatalog(classDB);
+        Database legacyDB = env.openDatabase(nullTransaction, LEGACY_DATABASE_NAME, dbConfig);
+        Database classDB = env.openDatabase(nullTransaction, CLASS_DATABASE_NAME, dbConfig);
+        long converted = 0;
+        try {
+            StoredClassCatalog classCatalog = new StoredClassCatalog(classDB);
+            EntryBinding<String> serialBinding = new SerialBinding<String>(classCatalog, String.class);
+
+            Cursor cursor = legacyDB.openCursor(nullTransaction, CursorConfig.READ_COMMITTED);
+            try {
+                DatabaseEntry foundKey = new DatabaseEntry();
+                DatabaseEntry foundData = new DatabaseEntry();
+                DatabaseEntry theKey = new DatabaseEntry();
+                DatabaseEntry theData = new DatabaseEntry();
+                Transaction txn = env.beginTransaction(null, null);
+                try {
+                    while (cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+                        StringBinding.stringToEntry(serialBinding.entryToObject(foundKey), theKey);
+                        checksumBinding.objectToEntry(serialBinding.entryToObject(foundData), theData);
+                        checksumDB.put(txn, theKey, theData);
+                        if (++converted % CONVERSION_BATCH_SIZE == 0) {
+                            txn.commit();
+                            txn = env.beginTransaction(null, null);
+                            log.debug("Converted {} checksum entries", converted);
+                        }
+                    }
+                    txn.commit();
+                    txn = null;
+                } finally {
+                    if (txn != null) {
+                        txn.abort();
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            legacyDB.close();
+            classDB.close();
+        }
+        env.removeDatabase(nullTransaction, LEGACY_DATABASE_NAME);
+        env.removeDatabase(nullTransaction, CLASS_DATABASE_NAME);
+        log.info("Converted {} checksum entries from the database '{}'", converted, LEGACY_DATABASE_NAME);
+    }
 
-        // Create the binding
-        objectBinding = new SerialBinding(classCatalog, String.class);
-        keyBinding = new SerialBinding(classCatalog, String.class);
+    /**
+     * Load the entries of a checksum file, in the format of the {@link FileChecksumArchive}, into the database in the
+     * given base directory. The database is opened in deferred-write mode without transactions, and is only written
+     * to disk when all entries have been loaded, which is much faster than committing every entry.
+     * <p>
+     * This must not be done while a DatabaseChecksumArchive is using the same database.
+     *
+     * @param baseDir The base directory of the database, i.e. the value of {@link ArchiveSettings#CHECKSUM_BASEDIR}.
+     * @param checksumFile The file with the checksum entries.
+     * @param logInterval The number of lines between each progress message logged.
+     * @return The number of entries loaded.
+     * @throws ArgumentNotValid If one of the files are null or the logInterval is not positive.
+     * @throws IOFailure If the checksum file cannot be read.
+     * @throws DatabaseException If the entries cannot be written to the database.
+     */
+    public static long bulkLoad(File baseDir, File checksumFile, int logInterval) throws ArgumentNotValid,
+            IOFailure, DatabaseException {
+        ArgumentNotValid.checkNotNull(baseDir, "File baseDir");
+        ArgumentNotValid.checkNotNull(checksumFile, "File checksumFile");
+        ArgumentNotValid.checkPositive(logInterval, "int logInterval");
+
+        // Deferred-write databases are not transactional, and cannot share the environment with transactional handles.
+        Environment bulkEnv = openEnvironment(new File(baseDir, DATABASE_SUBDIR), false);
+        long lines = 0;
+        try {
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setAllowCreate(true);
+            dbConfig.setDeferredWrite(true);
+            Database db = bulkEnv.openDatabase(null, DATABASE_NAME, dbConfig);
+            try {
+                DatabaseEntry theKey = new DatabaseEntry();
+                DatabaseEntry theData = new DatabaseEntry();
+                BufferedReader in = new BufferedReader(new FileReader(checksumFile));
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
+                        StringBinding.stringToEntry(entry.getKey(), theKey);
+                        checksumBinding.objectToEntry(entry.getValue(), theData);
+                        db.put(null, theKey, theData);
+                        if (++lines % logInterval == 0) {
+                            log.info("Loaded {} checksum entries", lines);
+                        }
+                    }
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+                db.sync();
+            } finally {
+                db.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read data from " + checksumFile.getAbsolutePath(), e);
+        } finally {
+            bulkEnv.close();
+        }
+        return lines;
     }
 
     @Override
@@ -298,7 +438,7 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
         Transaction nullTransaction = null;
         LockMode nullLockMode = null;
         DatabaseEntry key = new DatabaseEntry();
-        keyBinding.objectToEntry(filename, key);
+        StringBinding.stringToEntry(filename, key);
         DatabaseEntry data = new DatabaseEntry();
 
         OperationStatus status = null;
@@ -310,7 +450,7 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
 
         String resultChecksum = null;
         if (status == OperationStatus.SUCCESS) {
-            resultChecksum = (String) objectBinding.entryToObject(data);
+            resultChecksum = checksumBinding.entryToObject(data);
         }
 
         return resultChecksum;
@@ -322,7 +462,7 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     }
 
     @Override
-    public synchronized void upload(RemoteFile file, String filename) {
+    public void upload(RemoteFile file, String filename) {
         ArgumentNotValid.checkNotNull(file, "RemoteFile file");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
@@ -330,54 +470,68 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
 
         try {
             input = file.getInputStream();
-            String newChecksum = calculateChecksum(input);
-            if (hasEntry(filename)) {
-                // fetch already stored checksum
-                String oldChecksum = getChecksum(filename);
-                if (newChecksum.equals(oldChecksum)) {
-                    log.warn(
-                            "Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
-                            filename, oldChecksum);
-                } else {
-                    throw new IllegalState("Cannot upload archivefile '" + filename
-                            + "', it is already archived with different checksum." + " Archive checksum: '"
-                            + oldChecksum + "' and the uploaded file has: '" + newChecksum + "'.");
-                }
-                // It is considered a success that it already is within the archive,
-                // thus do not throw an exception.
-                return;
-            } else {
-                put(filename, newChecksum);
-            }
+            upload(calculateChecksum(input), filename);
         } finally {
             if (input != null) {
                 IOUtils.closeQuietly(input);
             }
         }
     }
-    
-    public synchronized void upload(String checksum, String filename) {
-    	ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
-    	ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
-
-    	if (hasEntry(filename)) {
-    		// fetch already stored checksum
-    		String oldChecksum = getChecksum(filename);
-    		if (checksum.equals(oldChecksum)) {
-    			log.warn(
-    					"Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
-    					filename, oldChecksum);
-    		} else {
-    			throw new IllegalState("Cannot upload archivefile '" + filename
-    					+ "', it is already archived with different checksum." + " Archive checksum: '"
-    					+ oldChecksum + "' and the uploaded file has: '" + checksum + "'.");
-    		}
-    		// It is considered a success that it already is within the archive,
-    		// thus do not throw an exception.
-    		return;
-    	} else {
-    		put(filename, checksum);
-    	}
+
+    /**
+     * Add an entry for a file with the given checksum, unless the archive already has an entry for the file. The
+     * lookup of an existing entry and the insertion of the new one is done within one transaction.
+     *
+     * @param checksum The checksum of the file.
+     * @param filename The name of the file.
+     * @throws IllegalState If the file is already archived with a different checksum.
+     * @throws IOFailure If the database cannot be updated.
+     */
+    public void upload(String checksum, String filename) {
+        ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+
+        DatabaseEntry theKey = new DatabaseEntry();
+        DatabaseEntry theData = new DatabaseEntry();
+        StringBinding.stringToEntry(filename, theKey);
+        checksumBinding.objectToEntry(checksum, theData);
+
+        String oldChecksum = null;
+        Transaction txn = null;
+        try {
+            txn = env.beginTransaction(null, null);
+            if (checksumDB.putNoOverwrite(txn, theKey, theData) == OperationStatus.KEYEXIST) {
+                DatabaseEntry foundData = new DatabaseEntry();
+                if (checksumDB.get(txn, theKey, foundData, LockMode.RMW) == OperationStatus.SUCCESS) {
+                    oldChecksum = checksumBinding.entryToObject(foundData);
+                }
+            }
+            txn.commit();
+            txn = null;
+        } catch (DatabaseException e) {
+            throw new IOFailure("Database exception occuring during ingest", e);
+        } finally {
+            if (txn != null) {
+                try {
+                    txn.abort();
+                } catch (DatabaseException e) {
+                    log.warn("Unable to abort the transaction for uploading '{}'", filename, e);
+                }
+            }
+        }
+
+        if (oldChecksum != null) {
+            if (checksum.equals(oldChecksum)) {
+                log.warn("Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
+                        filename, oldChecksum);
+            } else {
+                throw new IllegalState("Cannot upload archivefile '" + filename
+                        + "', it is already archived with different checksum." + " Archive checksum: '"
+                        + oldChecksum + "' and the uploaded file has: '" + checksum + "'.");
+            }
+            // It is considered a success that it already is within the archive,
+            // thus do not throw an exception.
+        }
     }
 
     /**
@@ -392,8 +546,8 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
 
         DatabaseEntry theKey = new DatabaseEntry();
         DatabaseEntry theData = new DatabaseEntry();
-        keyBinding.objectToEntry(filename, theKey);
-        objectBinding.objectToEntry(checksum, theData);
+        StringBinding.stringToEntry(filename, theKey);
+        checksumBinding.objectToEntry(checksum, theData);
         Transaction nullTransaction = null;
 
         try {
@@ -429,42 +583,42 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     }
 
     /**
-     * Write the contents of the database to the given file.
+     * Write the contents of the database to the given file. The entries are written directly from the cursor, and the
+     * file is handed over to the reply message as a movable {@link RemoteFile}, so the dump is never held in memory
+     * or copied.
      *
      * @param outputFile The outputfile whereto the data is written.
      * @param writeOnlyFilenames If true, we only write the filenames to the files, not the checksums
      * @throws IOException If unable to write to file for some reason
      */
-    private void dumpDatabaseToFile(File tempFile, boolean writeOnlyFilenames) throws IOException {
+    private void dumpDatabaseToFile(File outputFile, boolean writeOnlyFilenames) throws IOException {
         Cursor cursor = null;
-        File resultFile = tempFile;
 
-        FileWriter fw = new FileWriter(resultFile);
+        Writer writer = new BufferedWriter(new FileWriter(outputFile));
         try {
-            cursor = checksumDB.openCursor(null, null);
+            // Reading committed data only lets uploads continue while the dump runs.
+            cursor = checksumDB.openCursor(null, CursorConfig.READ_COMMITTED);
 
             DatabaseEntry foundKey = new DatabaseEntry();
             DatabaseEntry foundData = new DatabaseEntry();
+            if (writeOnlyFilenames) {
+                // Do not read the checksums at all.
+                foundData.setPartial(0, 0, true);
+            }
 
             while (cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
-                String keyString = new String(foundKey.getData());
-                String dataString = new String(foundData.getData());
-                if (writeOnlyFilenames) {
-                    fw.append(keyString);
-                } else {
-                    fw.append(keyString);
-                    fw.append(ChecksumJob.STRING_FILENAME_SEPARATOR);
-                    fw.append(dataString);
+                writer.write(StringBinding.entryToString(foundKey));
+                if (!writeOnlyFilenames) {
+                    writer.write(ChecksumJob.STRING_FILENAME_SEPARATOR);
+                    writer.write(checksumBinding.entryToObject(foundData));
                 }
-                fw.append('\n'); // end with newline
+                writer.write('\n'); // end with newline
             }
-            fw.flush();
+            writer.flush();
         } catch (DatabaseException de) {
             throw new IOFailure("Error accessing database." + de);
         } finally {
-            if (fw != null) {
-                IOUtils.closeQuietly(fw);
-            }
+            IOUtils.closeQuietly(writer);
             if (cursor != null) {
                 try {
                     cursor.close();
@@ -502,5 +656,83 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
                 log.warn("Unable to close database. The error was :", e);
             }
         }
+        if (env != null) {
+            try {
+                env.close();
+            } catch (DatabaseException e) {
+                log.warn("Unable to close database environment. The error was :", e);
+            }
+        }
+    }
+
+    /**
+     * Binding between checksums and their raw database representation. A checksum consisting of 32 lower case hex
+     * digits, i.e. an MD5 checksum as written by {@link ChecksumCalculator}, is stored as its 16 bytes. Any other
+     * checksum is stored as its UTF-8 bytes, padded with zero bytes to more than 16 bytes, so it can never be
+     * mistaken for a binary checksum.
+     */
+    static final class ChecksumBinding implements EntryBinding<String> {
+
+        /** The length of a binary MD5 checksum. */
+        private static final int MD5_LENGTH = 16;
+        /** The hex digits of a checksum. */
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        @Override
+        public String entryToObject(DatabaseEntry entry) {
+            byte[] data = entry.getData();
+            int offset = entry.getOffset();
+            int size = entry.getSize();
+            if (size == MD5_LENGTH) {
+                char[] hex = new char[2 * MD5_LENGTH];
+                for (int i = 0; i < MD5_LENGTH; i++) {
+                    int b = data[offset + i] & 0xff;
+                    hex[2 * i] = HEX[b >>> 4];
+                    hex[2 * i + 1] = HEX[b & 0x0f];
+                }
+                return new String(hex);
+            }
+            int length = 0;
+            while (length < size && data[offset + length] != 0) {
+                length++;
+            }
+            return new String(data, offset, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void objectToEntry(String checksum, DatabaseEntry entry) {
+            if (checksum.length() == 2 * MD5_LENGTH) {
+                byte[] md5 = new byte[MD5_LENGTH];
+                boolean isHex = true;
+                for (int i = 0; i < MD5_LENGTH && isHex; i++) {
+                    int high = hexValue(checksum.charAt(2 * i));
+                    int low = hexValue(checksum.charAt(2 * i + 1));
+                    isHex = high >= 0 && low >= 0;
+                    md5[i] = (byte) (high << 4 | low);
+                }
+                if (isHex) {
+                    entry.setData(md5);
+                    return;
+                }
+            }
+            byte[] text = checksum.getBytes(StandardCharsets.UTF_8);
+            byte[] data = new byte[Math.max(text.length + 1, MD5_LENGTH + 1)];
+            System.arraycopy(text, 0, data, 0, text.length);
+            entry.setData(data);
+        }
+
+        /**
+         * @param c A character.
+         * @return The value of the character as a lower case hex digit, or -1 if it is not one.
+         */
+        private static int hexValue(char c) {
+            if (c >= '0' && c <= '9') {
+                return c - '0';
+            }
+            if (c >= 'a' && c <= 'f') {
+                return c - 'a' + 10;
+            }
+            return -1;
+        }
     }
 }
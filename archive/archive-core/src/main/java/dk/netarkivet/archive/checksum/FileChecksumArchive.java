@@ -23,16 +23,16 @@
 package dk.netarkivet.archive.checksum;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -48,7 +48,6 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
-import dk.netarkivet.common.utils.KeyValuePair;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.ChecksumJob;
 
@@ -102,15 +101,16 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * The last modified date for the checksum file. This variable is used for determining whether to reload the archive
      * from the checksum file, when they are synchronized. This has to be updated whenever the checksum file is changed.
      */
-    private long lastModifiedChecksumFile;
+    private volatile long lastModifiedChecksumFile;
 
     /**
      * This map consists of the archive loaded into the memory. It is faster to use a memory archive than the the
      * checksum file, though all entries must exist both in the file and the memory.
      * <p>
-     * Map(file -> checksum).
+     * Map(file -> checksum), kept outside the heap. It is replaced, not cleared, when the archive is reloaded, so
+     * lookups never see a half loaded archive.
      */
-    private Map<String, String> checksumArchive = Collections.synchronizedMap(new HashMap<String, String>());
+    private volatile PackedChecksumStore checksumArchive = new PackedChecksumStore();
 
     /** The minimum space left. */
     private long minSpaceLeft;
@@ -249,48 +249,32 @@ public final class FileChecksumArchive implements ChecksumArchive {
     }
 
     /**
-     * Loads an existing checksum archive file into the memory. This will go through every line, and if the line is
-     * valid, then it is loaded into the checksumArchive map in the memory. If the line is invalid then a warning is
-     * issued and the line is put into the wrongEntryFile.
+     * Loads an existing checksum archive file into the memory. The file is memory mapped and every line is parsed from
+     * the mapped bytes, and if the line is valid, then it is loaded into a new checksumArchive map, which replaces the
+     * current one. If the line is invalid then a warning is issued and the line is put into the wrongEntryFile.
      * <p>
      * If a bad entry is found, then the archive file has to be recreated afterwards, since the bad entry otherwise
      * still would be in the archive file.
      */
     private void loadFile() {
-        // Checks whether a bad entry was found, to decide whether the archive
-        // file should be recreated.
-        boolean recreate = false;
-
-        // extract all the data from the file.
-        List<String> entries;
+        // The entries not in the format of a ChecksumJob.
+        List<String> invalidLines = new ArrayList<String>();
+        PackedChecksumStore loaded = new PackedChecksumStore();
 
         // This should be synchronized to prevent reading the file while it is
         // being written.
         synchronized (this) {
-            entries = FileUtils.readListFromFile(checksumFile);
+            loaded.load(checksumFile, invalidLines);
         }
+        checksumArchive = loaded;
+        log.info("Loaded {} entries from the checksum file '{}'", loaded.size(), checksumFile);
 
-        String filename;
-        String checksum;
-
-        // go through all entries and extract their filename and checksum.
-        for (String record : entries) {
-            try {
-                KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
-                // extract the filename and checksum
-                filename = entry.getKey();
-                checksum = entry.getValue();
-                // If their are extracted correct, then they will be put
-                // into the archive.
-                checksumArchive.put(filename, checksum);
-            } catch (IllegalState e) {
-                log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.", record,
-                        e);
-                // put into wrongEntryFile!
-                appendWrongRecordToWrongEntryFile(record);
-                recreate = true;
-            }
+        // put the invalid entries into wrongEntryFile!
+        for (String record : invalidLines) {
+            log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.", record);
+            appendWrongRecordToWrongEntryFile(record);
         }
+        boolean recreate = !invalidLines.isEmpty();
 
         // If a bad entry is found, then the archive file should be recreated.
         // Otherwise the bad entries might still be in the archive file next
@@ -410,12 +394,14 @@ public final class FileChecksumArchive implements ChecksumArchive {
                 }
 
                 // put the archive into the file.
-                FileWriter fw = new FileWriter(recreateFile);
+                final Writer fw = new BufferedWriter(new FileWriter(recreateFile));
                 try {
-                    for (Map.Entry<String, String> entry : checksumArchive.entrySet()) {
-                        String record = entry.getKey() + CHECKSUM_SEPARATOR + entry.getValue();
-                        fw.append(record + "\n");
-                    }
+                    checksumArchive.visit(new PackedChecksumStore.EntryVisitor() {
+                        @Override
+                        public void visit(String filename, String checksum) throws IOException {
+                            fw.append(filename).append(CHECKSUM_SEPARATOR).append(checksum).append("\n");
+                        }
+                    });
                 } finally {
                     fw.flush();
                     fw.close();
@@ -784,15 +770,16 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
         try {
             File tempFile = File.createTempFile("tmp", "tmp", FileUtils.getTempDir());
-            FileWriter fw = new FileWriter(tempFile);
+            final Writer fw = new BufferedWriter(new FileWriter(tempFile));
 
             try {
                 // put the content into the file.
-                for (String filename : checksumArchive.keySet()) {
-                    fw.append(filename);
-                    fw.append("\n");
-                }
-
+                checksumArchive.visit(new PackedChecksumStore.EntryVisitor() {
+                    @Override
+                    public void visit(String filename, String checksum) throws IOException {
+                        fw.append(filename).append("\n");
+                    }
+                });
             } finally {
                 // flush and close the file, before returning it.
                 fw.flush();
@@ -810,20 +797,22 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * Ensures that the file and memory archives are identical.
      * <p>
      * The timestamp of last communication with the file (read/write) will be checked whether it corresponds the 'last
-     * modified' date of the file. If they are different, then the memory archive is reloaded from the file.
+     * modified' date of the file. If they are different, then the memory archive is reloaded from the file. Only a
+     * reload takes the lock.
      */
-    private synchronized void synchronizeMemoryWithFile() {
-        log.debug("Synchronizing memory archive with file archive.");
-
+    private void synchronizeMemoryWithFile() {
         // Check if the checksum file has changed since last access.
-        if (checksumFile.lastModified() > lastModifiedChecksumFile) {
-            log.warn("Archive in memory out of sync with archive in file.");
+        if (checksumFile.lastModified() <= lastModifiedChecksumFile) {
+            return;
+        }
+        synchronized (this) {
+            if (checksumFile.lastModified() > lastModifiedChecksumFile) {
+                log.warn("Archive in memory out of sync with archive in file.");
 
-            // The archive is then reloaded by clearing the current memory
-            // archive and loading the file again.
-            checksumArchive.clear();
-            // The 'last modified' is reset during loading.
-            loadFile();
+                // The archive is then replaced by loading the file again.
+                // The 'last modified' is reset during loading.
+                loadFile();
+            }
         }
     }
 
@@ -834,9 +823,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
     public void cleanup() {
         checksumFile = null;
         instance = null;
-        if (checksumArchive != null) {
-            checksumArchive.clear();
-        }
+        checksumArchive = new PackedChecksumStore();
     }
 
 }
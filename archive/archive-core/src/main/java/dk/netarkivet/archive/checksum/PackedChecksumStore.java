@@ -0,0 +1,565 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.StampedLock;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * A compact map from filenames to checksums, kept outside the Java heap.
+ * <p>
+ * The entries are kept in an open addressing hash table of fixed size slots in direct buffers. A slot holds a
+ * reference to the filename, the hash of the filename and the checksum. An MD5 checksum in lower case hex is kept as
+ * its 16 bytes; any other checksum is kept as text. The filenames, and the checksums kept as text, are appended to an
+ * arena of direct buffers, each entry being the length and the UTF-8 bytes.
+ * <p>
+ * Lookups are lock-free: they read optimistically and only take the read lock if a write happened meanwhile. Writes
+ * take the write lock. Entries cannot be removed, only given a new checksum.
+ */
+final class PackedChecksumStore {
+
+    /** Visitor of the entries of the store. */
+    interface EntryVisitor {
+        /**
+         * Visit an entry.
+         *
+         * @param filename The filename of the entry
+         * @param checksum The checksum of the entry
+         * @throws IOException if the visitor fails
+         */
+        void visit(String filename, String checksum) throws IOException;
+    }
+
+    /** The size of a slot in bytes. */
+    private static final int SLOT_SIZE = 32;
+    /** Offset in a slot of the reference to the filename; 0 for an empty slot. */
+    private static final int NAME_REF = 0;
+    /** Offset in a slot of the hash of the filename. */
+    private static final int HASH = 8;
+    /** Offset in a slot of the kind of checksum. */
+    private static final int KIND = 12;
+    /** Offset in a slot of the checksum, or of the reference to the checksum text. */
+    private static final int CHECKSUM = 16;
+    /** The kind of a checksum kept as the 16 bytes of an MD5. */
+    private static final int KIND_MD5 = 1;
+    /** The kind of a checksum kept as text in the arena. */
+    private static final int KIND_TEXT = 2;
+    /** The length of an MD5 in bytes. */
+    private static final int MD5_LENGTH = 16;
+
+    /** The number of slots in a page of the table, as a power of two. */
+    private static final int PAGE_BITS = 16;
+    /** The minimum number of slots in the table. */
+    private static final int MIN_CAPACITY = 1 << PAGE_BITS;
+    /** The table is grown when it is this full. */
+    private static final double LOAD_FACTOR = 0.7;
+    /** The size of a chunk of the arena. */
+    private static final int ARENA_CHUNK_SIZE = 4 * 1024 * 1024;
+    /** The part of the checksum file mapped at a time while loading. */
+    private static final int LOAD_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Hex digits for formatting MD5s. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Guards the table and the arena. */
+    private final StampedLock lock = new StampedLock();
+
+    /** The hash table. */
+    private volatile Table table = new Table(MIN_CAPACITY);
+
+    /** The chunks of the arena. Replaced, never changed, when a chunk is added. */
+    private volatile ByteBuffer[] arena = new ByteBuffer[0];
+
+    /** The position of the next entry in the last chunk of the arena. */
+    private int arenaPosition;
+
+    /** The number of entries. */
+    private volatile int size;
+
+    /**
+     * @return The number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if there are no entries.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the checksum of a file.
+     *
+     * @param filename The filename
+     * @return The checksum, or null if there is no entry for the filename
+     */
+    String get(String filename) {
+        byte[] key = filename.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key, key.length);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                String checksum = lookup(key, key.length, hash);
+                if (lock.validate(stamp)) {
+                    return checksum;
+                }
+            } catch (RuntimeException e) {
+                // A write was seen halfway; read again under the lock.
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return lookup(key, key.length, hash);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param filename The filename
+     * @return true if there is an entry for the filename
+     */
+    boolean containsKey(String filename) {
+        return get(filename) != null;
+    }
+
+    /**
+     * Add an entry, or give an existing entry a new checksum.
+     *
+     * @param filename The filename
+     * @param checksum The checksum
+     */
+    void put(String filename, String checksum) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNull(checksum, "String checksum");
+        byte[] key = filename.getBytes(StandardCharsets.UTF_8);
+        byte[] text = checksum.getBytes(StandardCharsets.UTF_8);
+        put(key, key.length, text, text.length);
+    }
+
+    /**
+     * Visit all entries, in no particular order. Writes wait until the visit is done.
+     *
+     * @param visitor The visitor
+     * @throws IOException if the visitor fails
+     */
+    void visit(EntryVisitor visitor) throws IOException {
+        long stamp = lock.readLock();
+        try {
+            Table t = table;
+            for (long slot = 0; slot < t.capacity; slot++) {
+                long nameRef = t.getLong(slot, NAME_REF);
+                if (nameRef != 0L) {
+                    visitor.visit(arenaString(nameRef), checksum(t, slot));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Loads a checksum file with a line per entry in the format of a ChecksumJob, 'filename##checksum', by mapping it
+     * into memory. Later lines override earlier ones. Empty lines are skipped.
+     *
+     * @param file The checksum file
+     * @param invalidLines Where lines that are not in the format of a ChecksumJob are added
+     * @throws IOFailure if the file cannot be read
+     */
+    void load(File file, Collection<String> invalidLines) throws IOFailure {
+        byte[] line = new byte[1024];
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            long fileSize = channel.size();
+            long position = 0;
+            while (position < fileSize) {
+                int window = (int) Math.min(LOAD_WINDOW_SIZE, fileSize - position);
+                boolean lastWindow = position + window == fileSize;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                int lineStart = 0;
+                for (int i = 0; i < window; i++) {
+                    if (buffer.get(i) == '\n') {
+                        line = loadLine(buffer, lineStart, i, line, invalidLines);
+                        lineStart = i + 1;
+                    }
+                }
+                if (lastWindow) {
+                    if (lineStart < window) {
+                        line = loadLine(buffer, lineStart, window, line, invalidLines);
+                    }
+                    position = fileSize;
+                } else if (lineStart == 0) {
+                    throw new IOFailure("A line in '" + file + "' is longer than " + LOAD_WINDOW_SIZE + " bytes");
+                } else {
+                    position += lineStart;
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read the checksum file '" + file + "'", e);
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Only reading, nothing is lost
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a line of a checksum file.
+     *
+     * @param buffer The mapped checksum file
+     * @param start The start of the line
+     * @param end The end of the line, excluding the newline
+     * @param line A buffer for the line, which is replaced if too small
+     * @param invalidLines Where invalid lines are added
+     * @return The buffer for the line
+     */
+    private byte[] loadLine(ByteBuffer buffer, int start, int end, byte[] line, Collection<String> invalidLines) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        int length = end - start;
+        if (length == 0) {
+            return line;
+        }
+        if (line.length < length) {
+            line = new byte[Math.max(length, line.length * 2)];
+        }
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(start + i);
+            line[i] = b;
+            ascii &= b >= 0;
+        }
+        // Same as ChecksumJob.parseLine: exactly one separator, with text on both sides
+        int separator = indexOfSeparator(line, 0, length);
+        if (separator <= 0 || separator + 2 >= length || indexOfSeparator(line, separator + 2, length) >= 0) {
+            invalidLines.add(new String(line, 0, length, Charset.defaultCharset()));
+            return line;
+        }
+        int checksumStart = separator + 2;
+        byte[] checksum = Arrays.copyOfRange(line, checksumStart, length);
+        if (ascii) {
+            put(line, separator, checksum, checksum.length);
+        } else {
+            // The file is written in the platform encoding, the store uses UTF-8
+            String text = new String(line, 0, length, Charset.defaultCharset());
+            int textSeparator = text.indexOf("##");
+            put(text.substring(0, textSeparator), text.substring(textSeparator + 2));
+        }
+        return line;
+    }
+
+    /**
+     * Add an entry, or give an existing entry a new checksum.
+     *
+     * @param key The UTF-8 bytes of the filename
+     * @param keyLength The length of the filename
+     * @param text The UTF-8 bytes of the checksum
+     * @param textLength The length of the checksum
+     */
+    private void put(byte[] key, int keyLength, byte[] text, int textLength) {
+        int hash = hash(key, keyLength);
+        byte[] md5 = parseMd5(text, textLength);
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            long slot = find(t, key, keyLength, hash);
+            if (t.getLong(slot, NAME_REF) == 0L) {
+                if (size + 1 > t.capacity * LOAD_FACTOR) {
+                    t = grow(t);
+                    slot = find(t, key, keyLength, hash);
+                }
+                writeChecksum(t, slot, md5, text, textLength);
+                t.putInt(slot, HASH, hash);
+                t.putLong(slot, NAME_REF, append(key, keyLength));
+                size++;
+            } else {
+                writeChecksum(t, slot, md5, text, textLength);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Look up the checksum of a filename. May be called without the lock, in which case garbage or exceptions may
+     * result if a write happens meanwhile.
+     */
+    private String lookup(byte[] key, int keyLength, int hash) {
+        Table t = table;
+        long slot = find(t, key, keyLength, hash);
+        if (t.getLong(slot, NAME_REF) == 0L) {
+            return null;
+        }
+        return checksum(t, slot);
+    }
+
+    /**
+     * Find the slot of a filename, or the empty slot where it belongs.
+     */
+    private long find(Table t, byte[] key, int keyLength, int hash) {
+        long mask = t.capacity - 1;
+        long slot = spread(hash) & mask;
+        for (long probes = 0; probes < t.capacity; probes++) {
+            long nameRef = t.getLong(slot, NAME_REF);
+            if (nameRef == 0L || (t.getInt(slot, HASH) == hash && arenaEquals(nameRef, key, keyLength))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        throw new IllegalStateException("No free slot in the checksum table");
+    }
+
+    /**
+     * Double the size of the table.
+     */
+    private Table grow(Table old) {
+        Table t = new Table(old.capacity * 2);
+        long mask = t.capacity - 1;
+        for (long oldSlot = 0; oldSlot < old.capacity; oldSlot++) {
+            long nameRef = old.getLong(oldSlot, NAME_REF);
+            if (nameRef == 0L) {
+                continue;
+            }
+            int hash = old.getInt(oldSlot, HASH);
+            long slot = spread(hash) & mask;
+            while (t.getLong(slot, NAME_REF) != 0L) {
+                slot = (slot + 1) & mask;
+            }
+            t.copySlot(old, oldSlot, slot);
+        }
+        table = t;
+        return t;
+    }
+
+    private void writeChecksum(Table t, long slot, byte[] md5, byte[] text, int textLength) {
+        if (md5 != null) {
+            t.putInt(slot, KIND, KIND_MD5);
+            for (int i = 0; i < MD5_LENGTH; i++) {
+                t.putByte(slot, CHECKSUM + i, md5[i]);
+            }
+        } else {
+            long ref = append(text, textLength);
+            t.putInt(slot, KIND, KIND_TEXT);
+            t.putLong(slot, CHECKSUM, ref);
+        }
+    }
+
+    private String checksum(Table t, long slot) {
+        if (t.getInt(slot, KIND) == KIND_TEXT) {
+            return arenaString(t.getLong(slot, CHECKSUM));
+        }
+        char[] hex = new char[MD5_LENGTH * 2];
+        for (int i = 0; i < MD5_LENGTH; i++) {
+            int b = t.getByte(slot, CHECKSUM + i) & 0xff;
+            hex[2 * i] = HEX[b >>> 4];
+            hex[2 * i + 1] = HEX[b & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Append bytes to the arena.
+     *
+     * @return The reference to the bytes: the chunk number plus one in the high 32 bits and the offset in the low 32
+     * bits.
+     */
+    private long append(byte[] bytes, int length) {
+        ByteBuffer[] chunks = arena;
+        if (chunks.length == 0 || arenaPosition + 4 + length > chunks[chunks.length - 1].capacity()) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = ByteBuffer.allocateDirect(Math.max(ARENA_CHUNK_SIZE, 4 + length));
+            arena = chunks;
+            arenaPosition = 0;
+        }
+        ByteBuffer chunk = chunks[chunks.length - 1];
+        int offset = arenaPosition;
+        chunk.putInt(offset, length);
+        for (int i = 0; i < length; i++) {
+            chunk.put(offset + 4 + i, bytes[i]);
+        }
+        arenaPosition += 4 + length;
+        return ((long) chunks.length << 32) | offset;
+    }
+
+    private boolean arenaEquals(long ref, byte[] key, int keyLength) {
+        ByteBuffer chunk = arena[(int) (ref >>> 32) - 1];
+        int offset = (int) ref;
+        if (chunk.getInt(offset) != keyLength) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (chunk.get(offset + 4 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String arenaString(long ref) {
+        ByteBuffer chunk = arena[(int) (ref >>> 32) - 1];
+        int offset = (int) ref;
+        byte[] bytes = new byte[chunk.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = chunk.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The index of the first '##' in the bytes from start to end, or -1 if there is none.
+     */
+    private static int indexOfSeparator(byte[] bytes, int start, int end) {
+        for (int i = start; i + 1 < end; i++) {
+            if (bytes[i] == '#' && bytes[i + 1] == '#') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The 16 bytes of the checksum if it is an MD5 in lower case hex, otherwise null.
+     */
+    private static byte[] parseMd5(byte[] text, int length) {
+        if (length != MD5_LENGTH * 2) {
+            return null;
+        }
+        byte[] md5 = new byte[MD5_LENGTH];
+        for (int i = 0; i < MD5_LENGTH; i++) {
+            int high = hexValue(text[2 * i]);
+            int low = hexValue(text[2 * i + 1]);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            md5[i] = (byte) ((high << 4) | low);
+        }
+        return md5;
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /** FNV-1a hash of the bytes. */
+    private static int hash(byte[] key, int length) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            h ^= key[i] & 0xff;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    /** Spreads the bits of a hash before it is used as an index. */
+    private static long spread(int hash) {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & 0xffffffffL;
+    }
+
+    /** The slots of the hash table, in pages of direct buffers. */
+    private static final class Table {
+        final long capacity;
+        private final ByteBuffer[] pages;
+
+        Table(long capacity) {
+            this.capacity = capacity;
+            pages = new ByteBuffer[(int) (capacity >>> PAGE_BITS)];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = ByteBuffer.allocateDirect(SLOT_SIZE << PAGE_BITS);
+            }
+        }
+
+        private ByteBuffer page(long slot) {
+            return pages[(int) (slot >>> PAGE_BITS)];
+        }
+
+        private static int offset(long slot, int field) {
+            return (int) (slot & ((1 << PAGE_BITS) - 1)) * SLOT_SIZE + field;
+        }
+
+        long getLong(long slot, int field) {
+            return page(slot).getLong(offset(slot, field));
+        }
+
+        void putLong(long slot, int field, long value) {
+            page(slot).putLong(offset(slot, field), value);
+        }
+
+        int getInt(long slot, int field) {
+            return page(slot).getInt(offset(slot, field));
+        }
+
+        void putInt(long slot, int field, int value) {
+            page(slot).putInt(offset(slot, field), value);
+        }
+
+        byte getByte(long slot, int field) {
+            return page(slot).get(offset(slot, field));
+        }
+
+        void putByte(long slot, int field, byte value) {
+            page(slot).put(offset(slot, field), value);
+        }
+
+        void copySlot(Table from, long fromSlot, long toSlot) {
+            ByteBuffer source = from.page(fromSlot);
+            ByteBuffer target = page(toSlot);
+            int sourceOffset = offset(fromSlot, 0);
+            int targetOffset = offset(toSlot, 0);
+            for (int i = 0; i < SLOT_SIZE; i += 8) {
+                target.putLong(targetOffset + i, source.getLong(sourceOffset + i));
+            }
+        }
+    }
+
+}
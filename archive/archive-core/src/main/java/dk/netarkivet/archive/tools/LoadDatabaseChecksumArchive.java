@@ -22,24 +22,20 @@
  */
 package dk.netarkivet.archive.tools;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.Date;
 
 import com.sleepycat.je.DatabaseException;
 
-import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.archive.checksum.DatabaseChecksumArchive;
 import dk.netarkivet.common.exceptions.IOFailure;
-import dk.netarkivet.common.utils.KeyValuePair;
-import dk.netarkivet.common.utils.Settings;
-import dk.netarkivet.common.utils.batch.ChecksumJob;
 
 /**
  * Program for uploading data from the filebased FileChecksumArchive to a DatabaseChecksumArchive. The two arguments are
  * /full/path/to/databaseBaseDirectory and /full/path/to/checksum_CS.md5
+ * <p>
+ * The entries are loaded with {@link DatabaseChecksumArchive#bulkLoad(File, File, int)}, so the checksum replica
+ * must not be running while the tool is used.
  */
 public class LoadDatabaseChecksumArchive {
     /**
@@ -64,33 +60,8 @@ public class LoadDatabaseChecksumArchive {
             throw new IOFailure(errMsg);
         }
         System.out.println("Started loading database at: " + new Date());
-        Settings.set(ArchiveSettings.CHECKSUM_BASEDIR, databaseBasedir.getAbsolutePath());
-        DatabaseChecksumArchive dca = new DatabaseChecksumArchive();
-
-        BufferedReader in = null;
         int loginterval = 10000;
-        int currentLine = 0;
-        try {
-            try {
-                in = new BufferedReader(new FileReader(checksumCSFile));
-                String line;
-                while ((line = in.readLine()) != null) {
-                    currentLine++;
-                    if (currentLine % loginterval == 0) {
-                        System.out.println("Processing line " + currentLine);
-                    }
-                    KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
-                    dca.put(entry.getKey(), entry.getValue());
-                }
-            } finally {
-                if (in != null) {
-                    in.close();
-                }
-            }
-        } catch (IOException e) {
-            String msg = "Could not read data from " + checksumCSFile.getAbsolutePath();
-            throw new IOFailure(msg, e);
-        }
+        long currentLine = DatabaseChecksumArchive.bulkLoad(databaseBasedir, checksumCSFile, loginterval);
 
         System.out.println("Finished importing " + currentLine + " lines into the database at " + new Date());
     }
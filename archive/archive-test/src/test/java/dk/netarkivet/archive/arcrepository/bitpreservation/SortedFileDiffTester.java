@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepository.bitpreservation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the SortedFileDiff class.
+ */
+public class SortedFileDiffTester {
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        FileUtils.createDir(TestInfo.WORKING_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+    }
+
+    /**
+     * Every distinct line is reported once, to the right callback, in sorted order.
+     */
+    @Test
+    public void testCompare() {
+        File first = new File(TestInfo.WORKING_DIR, "first.txt");
+        File second = new File(TestInfo.WORKING_DIR, "second.txt");
+        FileUtils.writeCollectionToFile(first, Arrays.asList("a", "b", "b", "d", "f"));
+        FileUtils.writeCollectionToFile(second, Arrays.asList("b", "c", "d", "d", "g", "h"));
+
+        final List<String> onlyInFirst = new ArrayList<String>();
+        final List<String> onlyInSecond = new ArrayList<String>();
+        final List<String> inBoth = new ArrayList<String>();
+        SortedFileDiff.compare(first, second, new SortedFileDiff.Listener() {
+            @Override
+            public void onlyInFirst(String line) {
+                onlyInFirst.add(line);
+            }
+
+            @Override
+            public void onlyInSecond(String line) {
+                onlyInSecond.add(line);
+            }
+
+            @Override
+            public void inBoth(String line) {
+                inBoth.add(line);
+            }
+        });
+
+        assertEquals(Arrays.asList("a", "f"), onlyInFirst);
+        assertEquals(Arrays.asList("c", "g", "h"), onlyInSecond);
+        assertEquals(Arrays.asList("b", "d"), inBoth);
+    }
+
+    /**
+     * The output writes each line once, counts the lines and keeps a bounded sample.
+     */
+    @Test
+    public void testOutput() {
+        File file = new File(TestInfo.WORKING_DIR, "output.txt");
+        SortedFileDiff.Output output = new SortedFileDiff.Output(file, 2);
+        for (String line : Arrays.asList("x", "x", "y", "z")) {
+            output.add(line);
+        }
+        output.close();
+
+        assertEquals(3, output.getCount());
+        assertEquals(Arrays.asList("x", "y"), output.getSample());
+        assertEquals(Arrays.asList("x", "y", "z"), FileUtils.readListFromFile(file));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.NotificationType;
+import dk.netarkivet.common.utils.RememberNotifications;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit tests for the class BitarchiveChecksumCache.
+ */
+public class BitarchiveChecksumCacheTester {
+
+    private static final File CACHE_DIR = new File(TestInfo.WORKING_DIR, "checksumcache");
+    private static final File CACHE_FILE = new File(CACHE_DIR, "checksumcache");
+
+    ReloadSettings rs = new ReloadSettings();
+
+    private File file;
+    private BitarchiveChecksumCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        Settings.set(CommonSettings.NOTIFICATIONS_CLASS, RememberNotifications.class.getName());
+        RememberNotifications.resetSingleton();
+        FileUtils.removeRecursively(CACHE_DIR);
+        FileUtils.createDir(CACHE_DIR);
+        file = new File(CACHE_DIR, "test.arc");
+        FileUtils.writeBinaryFile(file, "some archived content".getBytes());
+        cache = new BitarchiveChecksumCache(CACHE_FILE);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+        FileUtils.removeRecursively(CACHE_DIR);
+        RememberNotifications.resetSingleton();
+        rs.tearDown();
+    }
+
+    @Test
+    public void testChecksumIsCachedUntilFileChanges() throws Exception {
+        assertNull("Nothing should be cached yet", cache.getCachedChecksum(file));
+        String md5 = ChecksumCalculator.calculateMd5(file);
+        assertEquals(md5, cache.getChecksum(file));
+        assertEquals("The checksum should now be cached", md5, cache.getCachedChecksum(file));
+
+        FileUtils.writeBinaryFile(file, "other archived content".getBytes());
+        file.setLastModified(file.lastModified() + 2000);
+        assertNull("A changed file should not use the cached checksum", cache.getCachedChecksum(file));
+        assertEquals(ChecksumCalculator.calculateMd5(file), cache.getChecksum(file));
+    }
+
+    @Test
+    public void testChecksumsSurviveReopen() throws Exception {
+        cache.put(file, "0123456789abcdef0123456789abcdef");
+        cache.close();
+        cache = new BitarchiveChecksumCache(CACHE_FILE);
+        assertEquals("The checksum should be read from the journal", "0123456789abcdef0123456789abcdef",
+                cache.getCachedChecksum(file));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testScrubReplacesWrongChecksum() throws Exception {
+        cache.put(file, "0123456789abcdef0123456789abcdef");
+        assertEquals("The stale checksum should be verified", 1,
+                cache.scrub(new File[] {file}, Long.MAX_VALUE / 1000, 0L));
+        assertEquals("A changed checksum of an unchanged file should be reported", NotificationType.ERROR,
+                RememberNotifications.getInstance().type);
+        assertEquals("The scrub should cache the checksum actually read", ChecksumCalculator.calculateMd5(file),
+                cache.getCachedChecksum(file));
+        assertEquals("A recently verified checksum should not be verified again", 0,
+                cache.scrub(new File[] {file}, Long.MAX_VALUE / 1000, 60 * 1000L));
+    }
+
+}
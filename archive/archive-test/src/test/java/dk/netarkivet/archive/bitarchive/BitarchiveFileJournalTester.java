@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the classes BitarchiveFileJournal and FileListChanges.
+ */
+public class BitarchiveFileJournalTester {
+
+    private static final File JOURNAL_DIR = new File(TestInfo.WORKING_DIR, "filelistjournal");
+    private static final File JOURNAL_FILE = new File(JOURNAL_DIR, "filelistjournal");
+
+    private BitarchiveFileJournal journal;
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(JOURNAL_DIR);
+        FileUtils.createDir(JOURNAL_DIR);
+        journal = new BitarchiveFileJournal(JOURNAL_FILE);
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+        FileUtils.removeRecursively(JOURNAL_DIR);
+    }
+
+    @Test
+    public void testChangesSincePosition() {
+        journal.update(Arrays.asList("a.arc", "b.arc"));
+        String position = journal.getPosition();
+        assertEquals("Nothing should have changed", 0, journal.update(Arrays.asList("b.arc", "a.arc")));
+        assertTrue(journal.getChangesSince(position).isEmpty());
+
+        assertEquals(2, journal.update(Arrays.asList("b.arc", "c.arc")));
+        Map<String, Boolean> changes = journal.getChangesSince(position);
+        assertEquals(2, changes.size());
+        assertFalse("a.arc should be removed", changes.get("a.arc"));
+        assertTrue("c.arc should be added", changes.get("c.arc"));
+    }
+
+    @Test
+    public void testChangesAcrossCheckpoints() {
+        String[] names = new String[3000];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "file" + i + ".warc";
+        }
+        journal.update(Arrays.asList(names).subList(0, 2000));
+        String position = journal.getPosition();
+        journal.update(Arrays.asList(names));
+        Map<String, Boolean> changes = journal.getChangesSince(position);
+        assertEquals("Only the last 1000 files should be listed", 1000, changes.size());
+        assertTrue(changes.containsKey("file2000.warc"));
+        assertFalse(changes.containsKey("file1999.warc"));
+    }
+
+    @Test
+    public void testJournalSurvivesReopen() {
+        journal.update(Arrays.asList("a.arc", "b.arc"));
+        String position = journal.getPosition();
+        journal.close();
+        journal = new BitarchiveFileJournal(JOURNAL_FILE);
+        assertEquals("The position should be kept", position, journal.getPosition());
+        assertEquals(2, journal.getFiles().size());
+        journal.update(Collections.singletonList("a.arc"));
+        assertEquals(Collections.singletonMap("b.arc", false), journal.getChangesSince(position));
+    }
+
+    @Test
+    public void testUnknownPositions() {
+        journal.update(Arrays.asList("a.arc"));
+        assertNull("Another epoch should not be known", journal.getChangesSince("1:0"));
+        assertNull("A future generation should not be known", journal.getChangesSince(journal.getPosition() + "0"));
+        assertNull("Garbage should not be known", journal.getChangesSince("garbage"));
+    }
+
+    @Test
+    public void testReadFileListChanges() throws Exception {
+        File output = new File(JOURNAL_DIR, "output");
+        File full = new File(JOURNAL_DIR, "full");
+        Map<String, Boolean> changes = new LinkedHashMap<String, Boolean>();
+        changes.put("a.arc", true);
+        changes.put("b.arc", false);
+        OutputStream os = new FileOutputStream(output);
+        FileListChangesJob.writeChanges(os, "BA1", "1:4", changes);
+        FileListChangesJob.writeChanges(os, "BA2", "2:7", Collections.singletonMap("b.arc", true));
+        os.close();
+        FileListChanges result = FileListChanges.read(output, full);
+        assertTrue(result.isIncremental());
+        assertEquals(Arrays.asList("a.arc", "b.arc"), result.getAdded());
+        assertTrue("A file added to another bitarchive is not removed", result.getRemoved().isEmpty());
+        Map<String, String> positions = new HashMap<String, String>();
+        positions.put("BA1", "1:4");
+        positions.put("BA2", "2:7");
+        assertEquals(positions, result.getPositions());
+
+        os = new FileOutputStream(output);
+        FileListChangesJob.writeFull(os, "BA1", "1:4", Arrays.asList("a.arc", "c.arc"));
+        new FileListChangesJob(positions).processFile(new File("d.arc"), os);
+        os.close();
+        result = FileListChanges.read(output, full);
+        assertTrue(result.isFull());
+        assertEquals(Arrays.asList("a.arc", "c.arc", "d.arc"), FileUtils.readListFromFile(full));
+    }
+
+}
@@ -22,13 +22,37 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
 
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
 @SuppressWarnings({"unused"})
 public class DatabaseChecksumTester {
 
+    ReloadSettings rs = new ReloadSettings();
+    DatabaseChecksumArchive dca;
+
     /**
      * @param args
      * @throws Exception
@@ -37,9 +61,90 @@ public class DatabaseChecksumTester {
         DatabaseChecksumArchive dca = new DatabaseChecksumArchive();
     }
 
+    @Before
+    public void setUp() {
+        rs.setUp();
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        TestInfo.CHECKSUM_DIR.mkdirs();
+        Settings.set(ArchiveSettings.CHECKSUM_BASEDIR, TestInfo.CHECKSUM_DIR.getAbsolutePath());
+        Settings.set(CommonSettings.USE_REPLICA_ID, "THREE");
+    }
+
+    @After
+    public void tearDown() {
+        if (dca != null) {
+            dca.cleanup();
+        }
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        rs.tearDown();
+    }
+
     @Test
     public void testConstructor() throws DatabaseException {
-        DatabaseChecksumArchive dca = new DatabaseChecksumArchive();
+        dca = new DatabaseChecksumArchive();
+    }
+
+    /**
+     * MD5 checksums are stored as 16 bytes, other checksums as text that is never 16 bytes long.
+     */
+    @Test
+    public void testChecksumBinding() {
+        DatabaseChecksumArchive.ChecksumBinding binding = new DatabaseChecksumArchive.ChecksumBinding();
+        DatabaseEntry entry = new DatabaseEntry();
+
+        binding.objectToEntry(TestInfo.TEST1_CHECKSUM, entry);
+        assertEquals("An MD5 checksum should be stored binary", 16, entry.getSize());
+        assertEquals(TestInfo.TEST1_CHECKSUM, binding.entryToObject(entry));
+
+        for (String checksum : new String[] {"1234567890", "123456789012345", "616FDEF40001383B80991B1B4D582A69"}) {
+            binding.objectToEntry(checksum, entry);
+            assertTrue("A text checksum must not look like a binary one", entry.getSize() != 16);
+            assertEquals(checksum, binding.entryToObject(entry));
+        }
+    }
+
+    @Test
+    public void testUploadAndDump() throws Exception {
+        dca = new DatabaseChecksumArchive();
+        dca.upload(TestInfo.TEST1_CHECKSUM, "file1");
+        dca.upload("1234567890", "file2");
+        // Uploading the same checksum again is accepted.
+        dca.upload(TestInfo.TEST1_CHECKSUM, "file1");
+        try {
+            dca.upload(TestInfo.TEST2_CHECKSUM, "file1");
+            fail("Uploading a different checksum for an archived file should fail");
+        } catch (IllegalState e) {
+            // expected
+        }
+        assertEquals(TestInfo.TEST1_CHECKSUM, dca.getChecksum("file1"));
+        assertNull(dca.getChecksum("file3"));
+
+        List<String> entries = FileUtils.readListFromFile(dca.getArchiveAsFile());
+        assertEquals(2, entries.size());
+        assertTrue(entries.contains("file1##" + TestInfo.TEST1_CHECKSUM));
+        assertTrue(entries.contains("file2##1234567890"));
+
+        List<String> names = FileUtils.readListFromFile(dca.getAllFilenames());
+        assertEquals(2, names.size());
+        assertTrue(names.contains("file1"));
+        assertTrue(names.contains("file2"));
+    }
+
+    @Test
+    public void testBulkLoad() throws IOException {
+        File checksumFile = new File(TestInfo.WORKING_DIR, "checksum_THREE.md5");
+        FileWriter fw = new FileWriter(checksumFile);
+        fw.write("file1##" + TestInfo.TEST1_CHECKSUM + "\n");
+        fw.write("file2##" + TestInfo.TEST2_CHECKSUM + "\n");
+        fw.write("\n");
+        fw.close();
+
+        assertEquals(2, DatabaseChecksumArchive.bulkLoad(TestInfo.CHECKSUM_DIR, checksumFile, 1));
+
+        dca = new DatabaseChecksumArchive();
+        assertEquals(TestInfo.TEST1_CHECKSUM, dca.getChecksum("file1"));
+        assertEquals(TestInfo.TEST2_CHECKSUM, dca.getChecksum("file2"));
+        assertFalse(dca.hasEntry("file3"));
     }
 
 }
@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the class PackedChecksumStore.
+ */
+public class PackedChecksumStoreTester {
+
+    private static final File STORE_DIR = new File(TestInfo.WORKING_DIR, "packedstore");
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(STORE_DIR);
+        FileUtils.createDir(STORE_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(STORE_DIR);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        PackedChecksumStore store = new PackedChecksumStore();
+        assertTrue(store.isEmpty());
+        store.put("TEST1.arc", TestInfo.TEST1_CHECKSUM);
+        store.put("TEST2.arc", "1234567890");
+        store.put("TEST3.arc", TestInfo.TEST2_CHECKSUM.toUpperCase());
+        assertEquals(TestInfo.TEST1_CHECKSUM, store.get("TEST1.arc"));
+        assertEquals("Checksums that are not MD5s should be kept as they are", "1234567890", store.get("TEST2.arc"));
+        assertEquals("Upper case MD5s should be kept as they are", TestInfo.TEST2_CHECKSUM.toUpperCase(),
+                store.get("TEST3.arc"));
+        assertNull(store.get("TEST4.arc"));
+        assertFalse(store.containsKey("TEST4.arc"));
+
+        store.put("TEST1.arc", TestInfo.TEST2_CHECKSUM);
+        assertEquals("The checksum should be replaced", TestInfo.TEST2_CHECKSUM, store.get("TEST1.arc"));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void testGrowsAndVisitsAllEntries() throws IOException {
+        PackedChecksumStore store = new PackedChecksumStore();
+        int entries = 200000;
+        for (int i = 0; i < entries; i++) {
+            store.put("file-" + i + ".warc.gz", String.format("%032x", i));
+        }
+        assertEquals(entries, store.size());
+        assertEquals(String.format("%032x", 123456), store.get("file-123456.warc.gz"));
+        final Map<String, String> visited = new HashMap<String, String>();
+        store.visit(new PackedChecksumStore.EntryVisitor() {
+            @Override
+            public void visit(String filename, String checksum) {
+                visited.put(filename, checksum);
+            }
+        });
+        assertEquals(entries, visited.size());
+        assertEquals(String.format("%032x", 7), visited.get("file-7.warc.gz"));
+    }
+
+    @Test
+    public void testLoad() {
+        File checksumFile = new File(STORE_DIR, "checksum.md5");
+        FileUtils.writeBinaryFile(checksumFile, ("TEST1.arc##" + TestInfo.TEST1_CHECKSUM + "\n" + "invalid line\n"
+                + "\n" + "TEST2.arc##" + TestInfo.TEST2_CHECKSUM + "\r\n" + "TEST1.arc##" + TestInfo.TEST2_CHECKSUM
+                + "\n" + "a##b##c\n" + "TEST3.arc##abc").getBytes());
+        PackedChecksumStore store = new PackedChecksumStore();
+        List<String> invalid = new ArrayList<String>();
+        store.load(checksumFile, invalid);
+        assertEquals(3, store.size());
+        assertEquals("Later lines should override earlier ones", TestInfo.TEST2_CHECKSUM, store.get("TEST1.arc"));
+        assertEquals(TestInfo.TEST2_CHECKSUM, store.get("TEST2.arc"));
+        assertEquals("The last line needs no newline", "abc", store.get("TEST3.arc"));
+        assertEquals(2, invalid.size());
+        assertEquals("invalid line", invalid.get(0));
+        assertEquals("a##b##c", invalid.get(1));
+    }
+
+    @Test
+    public void testReadsDuringWrites() throws Exception {
+        final PackedChecksumStore store = new PackedChecksumStore();
+        store.put("fixed.arc", TestInfo.TEST1_CHECKSUM);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200000 && failure.get() == null; i++) {
+                    String checksum = store.get("fixed.arc");
+                    if (!TestInfo.TEST1_CHECKSUM.equals(checksum)) {
+                        failure.set(checksum);
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < 200000; i++) {
+            store.put("file-" + i + ".arc", TestInfo.TEST2_CHECKSUM);
+        }
+        reader.join();
+        assertNull("A lookup during writes returned the wrong checksum", failure.get());
+    }
+
+}
@@ -539,6 +539,19 @@ public class CommonSettings {
      * The setting for the FTP data timeout in seconds. The default value is 600 (10 minutes).
      */
     public static String FTP_DATATIMEOUT_SETTINGS = "settings.common.remoteFile.datatimeout";
+    /**
+     * <b>settings.common.remoteFile.parallelConnections</b>: <br>
+     * The number of FTP connections ExtendedFTPRemoteFile uses at once to transfer a record larger than
+     * settings.common.remoteFile.segmentSize. The record is transferred in segments, each with its own checksum. The
+     * default value 1 transfers every record as one file over one connection.
+     */
+    public static String FTP_PARALLEL_CONNECTIONS = "settings.common.remoteFile.parallelConnections";
+    /**
+     * <b>settings.common.remoteFile.segmentSize</b>: <br>
+     * The size in bytes of the segments ExtendedFTPRemoteFile transfers over parallel connections. One segment per
+     * connection is held in memory during upload. The default value is 8388608 (8 MB).
+     */
+    public static String FTP_SEGMENT_SIZE = "settings.common.remoteFile.segmentSize";
 
     /**
      * <b>settings.common.organization</b>: <br>
@@ -649,6 +662,13 @@ public class CommonSettings {
      */
     public static String HADOOP_MAP_MEMORY_CORES = "settings.common.hadoop.mapred.mapMemoryCores";
 
+    /**
+     * The number of reduce tasks used by metadata extraction jobs whose output must be sorted, e.g. crawl logs and CDX
+     * lines for deduplication indices. Each reducer writes a sorted part, and the parts are merged when the output is
+     * collected. If set to zero, these jobs are map-only and the output is sorted locally afterwards.
+     */
+    public static String HADOOP_MAPRED_SORTED_OUTPUT_REDUCERS = "settings.common.hadoop.mapred.sortedOutputReducers";
+
     /**
      * Whether to enable caching of "local" (ie non-hdfs) warcfiles to hdfs before processing. This should
      * speed up future jobs working on the same files.
@@ -24,18 +24,24 @@
 package dk.netarkivet.common.distribute;
 
 import static dk.netarkivet.common.CommonSettings.FTP_DATATIMEOUT_SETTINGS;
+import static dk.netarkivet.common.CommonSettings.FTP_PARALLEL_CONNECTIONS;
 import static dk.netarkivet.common.CommonSettings.FTP_RETRIES_SETTINGS;
+import static dk.netarkivet.common.CommonSettings.FTP_SEGMENT_SIZE;
 import static dk.netarkivet.common.CommonSettings.FTP_SERVER_NAME;
 import static dk.netarkivet.common.CommonSettings.FTP_SERVER_PORT;
 import static dk.netarkivet.common.CommonSettings.FTP_USER_NAME;
 import static dk.netarkivet.common.CommonSettings.FTP_USER_PASSWORD;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.List;
 import java.util.UUID;
 
 import org.apache.commons.io.IOUtils;
@@ -48,6 +54,7 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.NotificationType;
 import dk.netarkivet.common.utils.NotificationsFactory;
@@ -96,6 +103,18 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
 
 	private FTPConnectionManager connectionManager;
 
+    /**
+     * The segments the record was uploaded in, when it was transferred over parallel connections, or null when it was
+     * uploaded as one file.
+     */
+    private List<SegmentedFTPTransfer.Segment> segments;
+
+    /** The MD5 checksum of the record, when it was uploaded in segments. */
+    private String checksum;
+
+    /** The number of connections the segments were uploaded over, which is also used to download them. */
+    private int parallelConnections;
+
     /**
      * Create an instance of this class connected to an ARC or WARC record. Unfortunately the reflection we use to find
      * the factory method cannot find this method directly because the runtime-class of the parameter is not
@@ -175,6 +194,14 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
         if (log.isDebugEnabled()) {
             log.debug("Writing {} to {}", toString(), destFile.getAbsolutePath());
         }
+        if (segments != null) {
+            try {
+                downloadSegments(destFile);
+            } finally {
+                cleanup();
+            }
+            return;
+        }
         FileOutputStream fos = null;
         try {
             fos = new FileOutputStream(destFile);
@@ -190,6 +217,17 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
     @Override
     public void appendTo(OutputStream out) {
         ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        if (segments != null) {
+            File tempFile = createTempFile();
+            try {
+                downloadSegments(tempFile);
+                FileUtils.writeFileToStream(tempFile, out);
+            } finally {
+                FileUtils.remove(tempFile);
+                cleanup();
+            }
+            return;
+        }
         connectionManager.logOn();
         try {
             if (!connectionManager.getFTPClient().retrieveFile(ftpFileName, out)) {
@@ -214,6 +252,29 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
 
     @Override
     public InputStream getInputStream() {
+        if (segments != null) {
+            final File tempFile = createTempFile();
+            try {
+                downloadSegments(tempFile);
+                return new FilterInputStream(new FileInputStream(tempFile)) {
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            FileUtils.remove(tempFile);
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                FileUtils.remove(tempFile);
+                throw new IOFailure("Could not read segments of '" + ftpFileName + "' from " + tempFile, e);
+            } catch (IOFailure e) {
+                FileUtils.remove(tempFile);
+                throw e;
+            } finally {
+                cleanup();
+            }
+        }
     	connectionManager.logOn();
         try {
             InputStream in = connectionManager.getFTPClient().retrieveFileStream(ftpFileName);
@@ -244,13 +305,13 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
     }
 
     /**
-     * Checksums are not available in this implementation. Returns null.
+     * Checksums are only available for records uploaded in segments over parallel connections.
      *
-     * @return null
+     * @return The MD5 checksum of a record uploaded in segments, otherwise null
      */
     @Override
     public String getChecksum() {
-        return null;
+        return checksum;
     }
 
     /**
@@ -258,6 +319,16 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
      */
     @Override
     public void cleanup() {
+        if (segments != null) {
+            log.debug("Deleting {} segments of '{}' from ftp server", segments.size(), ftpFileName);
+            SegmentedFTPTransfer transfer = new SegmentedFTPTransfer(connectionManager, 1);
+            try {
+                transfer.delete(segments);
+            } finally {
+                transfer.close();
+            }
+            return;
+        }
         log.debug("Deleting file '{}' from ftp server", ftpFileName);
         try {
         	connectionManager.logOn();
@@ -315,7 +386,30 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
         		Settings.getInt(FTP_SERVER_PORT), 
         		Settings.getInt(FTP_RETRIES_SETTINGS), 
         		Settings.getInt(FTP_DATATIMEOUT_SETTINGS));
-        
+
+        this.parallelConnections = Settings.getInt(FTP_PARALLEL_CONNECTIONS);
+        int segmentSize = Settings.getInt(FTP_SEGMENT_SIZE);
+        if (parallelConnections > 1 && getSize() > segmentSize) {
+            uploadSegments(segmentSize);
+        } else {
+            upload();
+        }
+        try {
+            if (record != null) {
+                record.close();
+            }
+        } catch (IOException e) {
+            // not a serious bug
+            log.warn("Problem closing inputstream: ", e);
+        }
+    }
+
+    /**
+     * Upload the record as one file over one connection.
+     *
+     * @throws IOFailure If the upload fails.
+     */
+    private void upload() {
         connectionManager.logOn();
         boolean success = false;
         int tried = 0;
@@ -345,16 +439,71 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
             throw new IOFailure(msg);
         }
         log.debug("Completed writing the file '{}'", ftpFileName);
+        connectionManager.logOut();
+        log.debug("Ftp logout");
+    }
+
+    /**
+     * Upload the record in segments over parallel connections, calculating the checksum of the whole record on the
+     * way.
+     *
+     * @param segmentSize The size of the segments.
+     * @throws IOFailure If the upload fails.
+     */
+    private void uploadSegments(int segmentSize) {
+        MessageDigest digest = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5);
+        SegmentedFTPTransfer transfer = new SegmentedFTPTransfer(connectionManager, parallelConnections);
         try {
-            if (record != null) {
-                record.close();
+            segments = transfer.upload(new DigestInputStream(record, digest), segmentSize, ftpFileName);
+        } catch (IOFailure e) {
+            final String msg = "Failed to upload '" + name + "' in segments: " + e.getMessage();
+            log.warn(msg, e);
+            // Send an Notification because of this
+            NotificationsFactory.getInstance().notify(msg, NotificationType.ERROR);
+            throw new IOFailure(msg, e);
+        } finally {
+            transfer.close();
+        }
+        checksum = ChecksumCalculator.toHex(digest.digest());
+        log.debug("Completed writing '{}' in {} segments with checksum {}", ftpFileName, segments.size(), checksum);
+    }
+
+    /**
+     * Download the segments of the record into a file, and check the file against the checksum of the record. The
+     * segments are downloaded from the FTP server they were uploaded to, with the connection parameters of the sender.
+     *
+     * @param destFile The file to write.
+     * @throws IOFailure If the download fails, or the file does not match the checksum. The file is removed.
+     */
+    private void downloadSegments(File destFile) {
+        SegmentedFTPTransfer transfer = new SegmentedFTPTransfer(connectionManager, Math.max(1,
+                Math.min(segments.size(), parallelConnections)));
+        try {
+            transfer.download(segments, destFile);
+            String fileChecksum = ChecksumCalculator.calculateMd5(destFile);
+            if (!checksum.equals(fileChecksum)) {
+                throw new IOFailure("Checksum mismatch for '" + ftpFileName + "': expected " + checksum + ", got "
+                        + fileChecksum);
             }
+        } catch (IOFailure e) {
+            FileUtils.remove(destFile);
+            log.warn("Could not download segments of '{}' to {}", ftpFileName, destFile, e);
+            throw e;
+        } finally {
+            transfer.close();
+        }
+    }
+
+    /**
+     * @return A new file in the temporary directory.
+     * @throws IOFailure If the file cannot be created.
+     */
+    private File createTempFile() {
+        try {
+            return File.createTempFile(name, ".segments", FileUtils.getTempDir());
         } catch (IOException e) {
-            // not a serious bug
-            log.warn("Problem closing inputstream: ", e);
+            throw new IOFailure("Could not create a temporary file for '" + ftpFileName + "'", e);
         }
-        connectionManager.logOut();
-        log.debug("Ftp logout");
     }
 
     /**
@@ -363,6 +512,10 @@ public class ExtendedFTPRemoteFile implements RemoteFile {
      * @return description of this object.
      */
     public String toString() {
+        if (record == null) {
+            // The record is not sent along with the remote file
+            return "(" + name + ")";
+        }
         return record.getHeader().getRecordIdentifier() + "_" + record.getHeader().getOffset() + "_" + "(" + name + ")";
     }
 }
@@ -53,6 +53,22 @@ public class FTPConnectionManager implements Serializable {
 		this.ftpRetries = ftpRetries;
 		this.ftpDataTimeout = ftpDataTimeout;
 	}
+
+    /**
+     * Create a connection manager, not yet connected, with the same connection parameters as another one. The server
+     * name is the one resolved by the other manager, so a copy made after deserialization still connects to the server
+     * seen by the sender.
+     *
+     * @param other The connection manager to copy the parameters from.
+     */
+    FTPConnectionManager(FTPConnectionManager other) {
+        this.ftpUserName = other.ftpUserName;
+        this.ftpUserPassword = other.ftpUserPassword;
+        this.ftpServerName = other.ftpServerName;
+        this.ftpServerPort = other.ftpServerPort;
+        this.ftpRetries = other.ftpRetries;
+        this.ftpDataTimeout = other.ftpDataTimeout;
+    }
 	
 	/**
      * Create FTPClient and log on to ftp-server, if not already connected to ftp-server. Attempts to set binary mode
@@ -155,4 +171,11 @@ public class FTPConnectionManager implements Serializable {
 		return ftpServerName;
 	}
 
+    /**
+     * @return How many times a connection or transfer is tried.
+     */
+    int getFtpRetries() {
+        return ftpRetries;
+    }
+
 }
@@ -38,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.PrecomputedChecksums;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SystemUtils;
 
@@ -99,7 +100,7 @@ public class HTTPRemoteFile extends AbstractRemoteFile {
             this.url = null;
         }
         if (useChecksums) {
-            this.checksum = ChecksumCalculator.calculateMd5(file);
+            this.checksum = PrecomputedChecksums.calculateMd5(file);
         } else {
             this.checksum = null;
         }
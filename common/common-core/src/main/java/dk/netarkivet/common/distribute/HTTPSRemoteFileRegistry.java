@@ -77,22 +77,36 @@ public class HTTPSRemoteFileRegistry extends HTTPRemoteFileRegistry {
      */
     private final SSLContext sslContext;
 
-    // This all initialises the ssl context to use the key in the keystore above.
     private HTTPSRemoteFileRegistry() {
+        sslContext = createSSLContext();
+    }
+
+    /**
+     * Create an SSL context using the shared certificate in the keystore given in the settings, both to identify this
+     * end of a connection and as the only certificate trusted from the other end. Other endpoints secured with the
+     * shared certificate use this to connect.
+     *
+     * @return The SSL context.
+     * @throws IOFailure If the keystore cannot be read.
+     */
+    public static SSLContext createSSLContext() {
+        String keystorePath = Settings.get(HTTPSRemoteFile.HTTPSREMOTEFILE_KEYSTORE_FILE);
         FileInputStream keyStoreInputStream = null;
         try {
-            keyStoreInputStream = new FileInputStream(KEYSTORE_PATH);
+            keyStoreInputStream = new FileInputStream(keystorePath);
             KeyStore store = KeyStore.getInstance(SUN_JCEKS_KEYSTORE_TYPE);
-            store.load(keyStoreInputStream, KEYSTORE_PASSWORD.toCharArray());
+            store.load(keyStoreInputStream,
+                    Settings.get(HTTPSRemoteFile.HTTPSREMOTEFILE_KEYSTORE_PASSWORD).toCharArray());
             KeyManagerFactory kmf = KeyManagerFactory.getInstance(SUN_X509_CERTIFICATE_ALGORITHM);
-            kmf.init(store, KEY_PASSWORD.toCharArray());
+            kmf.init(store, Settings.get(HTTPSRemoteFile.HTTPSREMOTEFILE_KEY_PASSWORD).toCharArray());
             TrustManagerFactory tmf = TrustManagerFactory.getInstance(SUN_X509_CERTIFICATE_ALGORITHM);
             tmf.init(store);
-            sslContext = SSLContext.getInstance(SSL_PROTOCOL);
-            sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(),
+            SSLContext context = SSLContext.getInstance(SSL_PROTOCOL);
+            context.init(kmf.getKeyManagers(), tmf.getTrustManagers(),
                     SecureRandom.getInstance(SHA1_PRNG_RANDOM_ALGORITHM));
+            return context;
         } catch (GeneralSecurityException | IOException e) {
-            throw new IOFailure("Unable to create secure environment for keystore '" + KEYSTORE_PATH + "'", e);
+            throw new IOFailure("Unable to create secure environment for keystore '" + keystorePath + "'", e);
         } finally {
             IOUtils.closeQuietly(keyStoreInputStream);
         }
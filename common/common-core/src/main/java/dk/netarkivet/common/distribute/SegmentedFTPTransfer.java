@@ -0,0 +1,470 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static dk.netarkivet.common.CommonSettings.FTP_DATATIMEOUT_SETTINGS;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * Transfers data to and from the FTP server in segments over several connections at once, so that the throughput of a
+ * high-latency link is not limited to what one connection gets.
+ * <p>
+ * On upload each segment is stored as a file of its own on the FTP server, as the server cannot write to one file from
+ * several connections. On download the segments are written at their offsets in a file of the full size. Every segment
+ * carries its own checksum, and a segment that arrives incomplete or damaged is fetched again. An interrupted segment
+ * download is resumed from where it stopped, using the FTP REST command.
+ */
+class SegmentedFTPTransfer {
+
+    /** A named logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(SegmentedFTPTransfer.class);
+
+    /** The suffix of the name of a segment on the FTP server, followed by the number of the segment. */
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    /** The size of the buffer used for reading segments. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** A segment of the transferred data, stored as a file on the FTP server. */
+    static class Segment implements Serializable {
+        /** The name of the segment on the FTP server. */
+        private final String ftpFileName;
+        /** The offset of the segment in the data. */
+        private final long offset;
+        /** The length of the segment. */
+        private final long length;
+        /** The MD5 checksum of the segment. */
+        private final String checksum;
+
+        /**
+         * @param ftpFileName The name of the segment on the FTP server.
+         * @param offset The offset of the segment in the data.
+         * @param length The length of the segment.
+         * @param checksum The MD5 checksum of the segment.
+         */
+        Segment(String ftpFileName, long offset, long length, String checksum) {
+            this.ftpFileName = ftpFileName;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return The name of the segment on the FTP server.
+         */
+        String getFtpFileName() {
+            return ftpFileName;
+        }
+    }
+
+    /** The connections not in use. */
+    private final BlockingQueue<FTPConnectionManager> connections;
+
+    /** The number of connections. */
+    private final int connectionCount;
+
+    /** How many times a segment is tried transferred. */
+    private final int retries;
+
+    /**
+     * Create a transfer using the FTP server and connection parameters of a connection manager. The receiver of a
+     * remote file uses the connection manager of the sender, so both use the same server. Connections are only opened
+     * when needed.
+     *
+     * @param connectionParams The connection manager to copy the connection parameters from.
+     * @param connectionCount The number of connections to use at once.
+     * @throws ArgumentNotValid If connectionParams is null or connectionCount is not positive.
+     */
+    SegmentedFTPTransfer(FTPConnectionManager connectionParams, int connectionCount) {
+        ArgumentNotValid.checkNotNull(connectionParams, "FTPConnectionManager connectionParams");
+        ArgumentNotValid.checkPositive(connectionCount, "int connectionCount");
+        this.connectionCount = connectionCount;
+        this.retries = connectionParams.getFtpRetries();
+        this.connections = new ArrayBlockingQueue<FTPConnectionManager>(connectionCount);
+        for (int i = 0; i < connectionCount; i++) {
+            connections.add(new FTPConnectionManager(connectionParams));
+        }
+    }
+
+    /**
+     * Upload data as segments stored on the FTP server, while it is read. At most one segment per connection is held
+     * in memory.
+     *
+     * @param in The data to upload. It is read to the end, but not closed.
+     * @param segmentSize The size of the segments.
+     * @param ftpFileName The name the segment names on the FTP server are made from.
+     * @return The uploaded segments, in order.
+     * @throws IOFailure If the data could not be read, or a segment could not be uploaded. Segments already uploaded
+     * are deleted.
+     */
+    List<Segment> upload(InputStream in, int segmentSize, String ftpFileName) throws IOFailure {
+        ArgumentNotValid.checkNotNull(in, "InputStream in");
+        ArgumentNotValid.checkPositive(segmentSize, "int segmentSize");
+        ExecutorService pool = Executors.newFixedThreadPool(connectionCount, new TransferThreads());
+        final Semaphore buffers = new Semaphore(connectionCount);
+        List<Future<Segment>> futures = new ArrayList<Future<Segment>>();
+        List<Segment> segments = new ArrayList<Segment>();
+        try {
+            long offset = 0;
+            while (true) {
+                buffers.acquire();
+                byte[] buffer = new byte[segmentSize];
+                int length = IOUtils.read(in, buffer);
+                if (length == 0) {
+                    break;
+                }
+                final byte[] data = (length == segmentSize) ? buffer : Arrays.copyOf(buffer, length);
+                final String name = ftpFileName + SEGMENT_SUFFIX + futures.size();
+                final long segmentOffset = offset;
+                futures.add(pool.submit(new Callable<Segment>() {
+                    @Override
+                    public Segment call() {
+                        try {
+                            return uploadSegment(name, segmentOffset, data);
+                        } finally {
+                            buffers.release();
+                        }
+                    }
+                }));
+                offset += length;
+            }
+            for (Future<Segment> future : futures) {
+                segments.add(getResult(future));
+            }
+            log.debug("Uploaded {} bytes to '{}' in {} segments", offset, ftpFileName, segments.size());
+            return segments;
+        } catch (IOException e) {
+            throw abortUpload(pool, ftpFileName, futures.size(), new IOFailure("Could not read data for '"
+                    + ftpFileName + "'", e));
+        } catch (InterruptedException e) {
+            throw abortUpload(pool, ftpFileName, futures.size(), new IOFailure("Interrupted while uploading '"
+                    + ftpFileName + "'", e));
+        } catch (IOFailure e) {
+            throw abortUpload(pool, ftpFileName, futures.size(), e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Stop an upload and delete the segments that may have been uploaded.
+     *
+     * @param pool The threads uploading segments.
+     * @param ftpFileName The name the segment names are made from.
+     * @param segmentCount The number of segments started.
+     * @param failure The cause of the stop.
+     * @return The cause of the stop.
+     */
+    private IOFailure abortUpload(ExecutorService pool, String ftpFileName, int segmentCount, IOFailure failure) {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(Settings.getInt(FTP_DATATIMEOUT_SETTINGS), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Segment> started = new ArrayList<Segment>();
+        for (int i = 0; i < segmentCount; i++) {
+            started.add(new Segment(ftpFileName + SEGMENT_SUFFIX + i, 0, 0, null));
+        }
+        delete(started);
+        return failure;
+    }
+
+    /**
+     * Upload one segment, trying again if it fails.
+     *
+     * @param ftpFileName The name of the segment on the FTP server.
+     * @param offset The offset of the segment in the data.
+     * @param data The contents of the segment.
+     * @return The uploaded segment.
+     * @throws IOFailure If the segment could not be uploaded.
+     */
+    private Segment uploadSegment(String ftpFileName, long offset, byte[] data) throws IOFailure {
+        String checksum = ChecksumCalculator.calculateMd5(data);
+        FTPConnectionManager connection = takeConnection();
+        try {
+            String message;
+            for (int tried = 1;; tried++) {
+                try {
+                    connection.logOn();
+                    if (connection.getFTPClient().storeFile(ftpFileName, new ByteArrayInputStream(data))) {
+                        return new Segment(ftpFileName, offset, data.length, checksum);
+                    }
+                    message = connection.getFtpErrorMessage();
+                } catch (IOException e) {
+                    message = e.toString();
+                    connection.logOut();
+                }
+                if (tried >= retries) {
+                    throw new IOFailure("Failed to upload segment '" + ftpFileName + "' after " + tried
+                            + " attempts. Reason for last failure: " + message);
+                }
+                log.debug("Upload of segment '{}' failed on attempt {} of {}: {}", ftpFileName, tried, retries,
+                        message);
+            }
+        } finally {
+            connections.add(connection);
+        }
+    }
+
+    /**
+     * Download segments into a file. The file is given the full size, and every segment is written at its offset.
+     *
+     * @param segments The segments to download.
+     * @param destFile The file to write. It is overwritten.
+     * @throws IOFailure If the file could not be written, or a segment could not be downloaded intact.
+     */
+    void download(List<Segment> segments, File destFile) throws IOFailure {
+        ArgumentNotValid.checkNotNull(segments, "List<Segment> segments");
+        ArgumentNotValid.checkNotNull(destFile, "File destFile");
+        long size = 0;
+        for (Segment segment : segments) {
+            size = Math.max(size, segment.offset + segment.length);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(connectionCount, new TransferThreads());
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(destFile, "rw");
+            file.setLength(size);
+            final FileChannel channel = file.getChannel();
+            List<Future<Segment>> futures = new ArrayList<Future<Segment>>();
+            for (final Segment segment : segments) {
+                futures.add(pool.submit(new Callable<Segment>() {
+                    @Override
+                    public Segment call() {
+                        downloadSegment(segment, channel);
+                        return segment;
+                    }
+                }));
+            }
+            for (Future<Segment> future : futures) {
+                getResult(future);
+            }
+            log.debug("Downloaded {} bytes to '{}' in {} segments", size, destFile, segments.size());
+        } catch (IOException e) {
+            throw new IOFailure("Could not write segments to '" + destFile + "'", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while downloading to '" + destFile + "'", e);
+        } finally {
+            pool.shutdownNow();
+            IOUtils.closeQuietly(file);
+        }
+    }
+
+    /**
+     * Download one segment and write it at its offset. A transfer that breaks off is resumed where it stopped, and a
+     * segment that does not match its checksum is downloaded again. Failing to write the file is not a transfer
+     * failure, and is not tried again.
+     *
+     * @param segment The segment.
+     * @param channel The channel of the file to write.
+     * @throws IOFailure If the segment could not be downloaded intact, or could not be written.
+     */
+    private void downloadSegment(Segment segment, FileChannel channel) throws IOFailure {
+        MessageDigest digest = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5);
+        long received = 0;
+        FTPConnectionManager connection = takeConnection();
+        try {
+            String message;
+            for (int tried = 1;; tried++) {
+                try {
+                    connection.logOn();
+                    FTPClient client = connection.getFTPClient();
+                    client.setRestartOffset(received);
+                    InputStream in = client.retrieveFileStream(segment.ftpFileName);
+                    if (in == null) {
+                        message = connection.getFtpErrorMessage();
+                    } else {
+                        try {
+                            byte[] buffer = new byte[BUFFER_SIZE];
+                            int n;
+                            while ((n = in.read(buffer)) != -1) {
+                                digest.update(buffer, 0, n);
+                                write(channel, buffer, n, segment.offset + received);
+                                received += n;
+                            }
+                        } finally {
+                            in.close();
+                        }
+                        if (!client.completePendingCommand()) {
+                            message = connection.getFtpErrorMessage();
+                        } else if (received == segment.length
+                                && ChecksumCalculator.toHex(digest.digest()).equals(segment.checksum)) {
+                            return;
+                        } else {
+                            message = "Segment has " + received + " bytes and does not match checksum "
+                                    + segment.checksum;
+                            received = 0;
+                            digest.reset();
+                        }
+                    }
+                } catch (IOException e) {
+                    message = e.toString();
+                    connection.logOut();
+                } catch (IOFailure e) {
+                    // The connection may be left in the middle of a transfer
+                    connection.logOut();
+                    throw e;
+                }
+                if (tried >= retries) {
+                    throw new IOFailure("Failed to download segment '" + segment.ftpFileName + "' after " + tried
+                            + " attempts. Reason for last failure: " + message);
+                }
+                log.debug("Download of segment '{}' failed on attempt {} of {}, {} bytes received: {}",
+                        segment.ftpFileName, tried, retries, received, message);
+            }
+        } finally {
+            connections.add(connection);
+        }
+    }
+
+    /**
+     * Write bytes to a file at a given position.
+     *
+     * @param channel The channel of the file.
+     * @param buffer The bytes to write.
+     * @param length The number of bytes to write.
+     * @param position The position in the file to write at.
+     * @throws IOFailure If the bytes could not be written, e.g. because the disk is full.
+     */
+    private static void write(FileChannel channel, byte[] buffer, int length, long position) throws IOFailure {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, position + bytes.position());
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not write " + length + " bytes at offset " + position, e);
+        }
+    }
+
+    /**
+     * Delete segments from the FTP server. Failures are logged.
+     *
+     * @param segments The segments to delete.
+     */
+    void delete(List<Segment> segments) {
+        FTPConnectionManager connection = takeConnection();
+        try {
+            connection.logOn();
+            for (Segment segment : segments) {
+                if (!connection.getFTPClient().deleteFile(segment.ftpFileName)) {
+                    log.debug("Could not delete segment '{}': {}", segment.ftpFileName,
+                            connection.getFtpErrorMessage());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Error while deleting {} segments from the ftp server", segments.size(), e);
+        } finally {
+            connections.add(connection);
+        }
+    }
+
+    /**
+     * Log out all connections.
+     */
+    void close() {
+        for (FTPConnectionManager connection : connections) {
+            connection.logOut();
+        }
+    }
+
+    /**
+     * @return A connection not in use, waiting for one if necessary.
+     * @throws IOFailure If interrupted while waiting.
+     */
+    private FTPConnectionManager takeConnection() throws IOFailure {
+        try {
+            return connections.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting for an ftp connection", e);
+        }
+    }
+
+    /**
+     * @param future The future of a segment transfer.
+     * @return The transferred segment.
+     * @throws IOFailure If the transfer failed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private static Segment getResult(Future<Segment> future) throws IOFailure, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOFailure) {
+                throw (IOFailure) e.getCause();
+            }
+            throw new IOFailure("Segment transfer failed", e.getCause());
+        }
+    }
+
+    /**
+     * The threads transferring segments.
+     */
+    private static class TransferThreads implements ThreadFactory {
+
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "FTPSegmentTransfer-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+/**
+ * A stream that updates a digest with the bytes read through it, for checksumming a file while it is parsed by a
+ * reader. Unlike {@link DigestInputStream}, it does not allow mark/reset, which would make bytes count twice, and
+ * closing it leaves the underlying stream open, so the rest of the file can be read with {@link #drain()} once the
+ * reader is done with it.
+ */
+public class ChecksummingInputStream extends DigestInputStream {
+
+    /** Size of the buffer used when draining the stream. */
+    private static final int DRAIN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Create a stream that updates the given digest.
+     *
+     * @param in The stream to read from. Must be closed by the caller.
+     * @param digest The digest to update.
+     */
+    public ChecksummingInputStream(InputStream in, MessageDigest digest) {
+        super(in, digest);
+    }
+
+    /**
+     * Reads the rest of the underlying stream, so that the digest covers all of it.
+     *
+     * @throws IOException if reading fails
+     */
+    public void drain() throws IOException {
+        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+        while (read(buffer) != -1) {
+            // Just reading
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // The underlying stream is closed by the owner
+    }
+
+}
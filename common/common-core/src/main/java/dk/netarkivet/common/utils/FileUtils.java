@@ -23,6 +23,7 @@
 package dk.netarkivet.common.utils;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -40,9 +41,13 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 
+import org.apache.commons.io.LineIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +66,9 @@ public class FileUtils {
     /** The logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(FileUtils.class);
 
+    /** The maximal number of lines held in memory by {@link #makeSortedFile(File, File)}. */
+    public static final int SORT_CHUNK_LINES = 100000;
+
     /** Extension used for CDX files, including separator . */
     public static final String CDX_EXTENSION = ".cdx";
 
@@ -598,18 +606,191 @@ public class FileUtils {
     }
 
     /**
-     * Sort a file into another. The current implementation slurps all lines into memory. This will not scale forever.
+     * Sort a file into another. The lines are sorted in chunks of at most {@link #SORT_CHUNK_LINES} lines, which are
+     * written to temporary files and merged, so the memory used does not depend on the size of the file.
      *
      * @param unsortedFile A file to sort
      * @param sortedOutput The file to sort into
      */
     public static void makeSortedFile(File unsortedFile, File sortedOutput) {
+        makeSortedFile(unsortedFile, sortedOutput, SORT_CHUNK_LINES);
+    }
+
+    /**
+     * Sort a file into another, holding at most the given number of lines in memory at a time. The lines are sorted
+     * in their natural (String) order.
+     *
+     * @param unsortedFile A file to sort
+     * @param sortedOutput The file to sort into. It may be the same as the unsorted file.
+     * @param maxLinesInMemory The maximal number of lines sorted in memory at a time.
+     * @throws IOFailure If the files cannot be read or written.
+     */
+    public static void makeSortedFile(File unsortedFile, File sortedOutput, int maxLinesInMemory) {
         ArgumentNotValid.checkNotNull(unsortedFile, "File unsortedFile");
         ArgumentNotValid.checkNotNull(sortedOutput, "File sortedOutput");
-        List<String> lines;
-        lines = readListFromFile(unsortedFile);
+        ArgumentNotValid.checkPositive(maxLinesInMemory, "int maxLinesInMemory");
+        List<File> chunks = new ArrayList<File>();
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(unsortedFile));
+            try {
+                List<String> lines = new ArrayList<String>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lines.add(line);
+                    if (lines.size() == maxLinesInMemory) {
+                        chunks.add(writeSortedChunk(lines, sortedOutput));
+                        lines.clear();
+                    }
+                }
+                if (chunks.isEmpty()) {
+                    // Everything fitted in memory.
+                    Collections.sort(lines);
+                    writeCollectionToFile(sortedOutput, lines);
+                    return;
+                }
+                if (!lines.isEmpty()) {
+                    chunks.add(writeSortedChunk(lines, sortedOutput));
+                }
+            } finally {
+                in.close();
+            }
+            mergeSortedFiles(chunks, sortedOutput);
+        } catch (IOException e) {
+            String msg = "Could not sort " + unsortedFile.getAbsolutePath() + " into " + sortedOutput;
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
+        } finally {
+            for (File chunk : chunks) {
+                remove(chunk);
+            }
+        }
+    }
+
+    /**
+     * Sort the given lines and write them to a new temporary file next to the given output file.
+     *
+     * @param lines The lines to sort.
+     * @param sortedOutput The final output of the sort.
+     * @return The temporary file.
+     * @throws IOException If the file cannot be written.
+     */
+    private static File writeSortedChunk(List<String> lines, File sortedOutput) throws IOException {
         Collections.sort(lines);
-        writeCollectionToFile(sortedOutput, lines);
+        File chunk = File.createTempFile("sortchunk", ".txt", sortedOutput.getAbsoluteFile().getParentFile());
+        writeCollectionToFile(chunk, lines);
+        return chunk;
+    }
+
+    /**
+     * Merge a number of sorted files into one sorted file, reading each of the files once. The output file may not be
+     * one of the input files.
+     *
+     * @param sortedFiles The files to merge. Each of these must be sorted in the natural (String) order of the lines.
+     * @param sortedOutput The file to write the merged lines to.
+     * @throws IOFailure If the files cannot be read or written.
+     */
+    public static void mergeSortedFiles(List<File> sortedFiles, File sortedOutput) {
+        ArgumentNotValid.checkNotNull(sortedFiles, "List<File> sortedFiles");
+        ArgumentNotValid.checkNotNull(sortedOutput, "File sortedOutput");
+        List<BufferedReader> readers = new ArrayList<BufferedReader>(sortedFiles.size());
+        try {
+            try {
+                // Each queue element holds the current line and the index of the reader it came from.
+                PriorityQueue<KeyValuePair<String, Integer>> heads = new PriorityQueue<KeyValuePair<String, Integer>>(
+                        Math.max(1, sortedFiles.size()), new Comparator<KeyValuePair<String, Integer>>() {
+                            @Override
+                            public int compare(KeyValuePair<String, Integer> a, KeyValuePair<String, Integer> b) {
+                                int result = a.getKey().compareTo(b.getKey());
+                                return result != 0 ? result : a.getValue().compareTo(b.getValue());
+                            }
+                        });
+                for (File file : sortedFiles) {
+                    BufferedReader reader = new BufferedReader(new FileReader(file));
+                    readers.add(reader);
+                    String line = reader.readLine();
+                    if (line != null) {
+                        heads.add(new KeyValuePair<String, Integer>(line, readers.size() - 1));
+                    }
+                }
+                PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(sortedOutput)));
+                try {
+                    while (!heads.isEmpty()) {
+                        KeyValuePair<String, Integer> head = heads.poll();
+                        writer.println(head.getKey());
+                        String line = readers.get(head.getValue()).readLine();
+                        if (line != null) {
+                            heads.add(new KeyValuePair<String, Integer>(line, head.getValue()));
+                        }
+                    }
+                    writer.flush();
+                    if (writer.checkError()) {
+                        throw new IOException("Error writing to " + sortedOutput);
+                    }
+                } finally {
+                    writer.close();
+                }
+            } finally {
+                for (BufferedReader reader : readers) {
+                    reader.close();
+                }
+            }
+        } catch (IOException e) {
+            String msg = "Could not merge " + sortedFiles + " into " + sortedOutput.getAbsolutePath();
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
+        }
+    }
+
+    /**
+     * Iterate over the lines of a file without reading them all into memory. The file is opened each time an iterator
+     * is created, and closed when that iterator has returned the last line.
+     *
+     * @param file The file to read from.
+     * @return An Iterable over the lines of the file.
+     * @throws IOFailure If the file does not exist, or cannot be read when it is iterated.
+     */
+    public static Iterable<String> iterateLines(final File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        if (!file.exists()) {
+            String errMsg = "File '" + file.getAbsolutePath() + "' does not exist";
+            log.warn(errMsg);
+            throw new IOFailure(errMsg);
+        }
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                try {
+                    final LineIterator lines = org.apache.commons.io.FileUtils.lineIterator(file);
+                    return new Iterator<String>() {
+                        @Override
+                        public boolean hasNext() {
+                            boolean hasNext = lines.hasNext();
+                            if (!hasNext) {
+                                LineIterator.closeQuietly(lines);
+                            }
+                            return hasNext;
+                        }
+
+                        @Override
+                        public String next() {
+                            return lines.nextLine();
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException("Lines cannot be removed from " + file);
+                        }
+                    };
+                } catch (IOException e) {
+                    throw new IOFailure("Could not read data from " + file.getAbsolutePath(), e);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "lines of " + file;
+            }
+        };
     }
 
     /**
@@ -0,0 +1,364 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+
+/**
+ * Writes a sequence of parts to an output stream, producing the parts in parallel. Each part is written by a worker
+ * thread to a spool of its own. The spool is kept in memory until it grows beyond a threshold, and is then moved to a
+ * temporary file. A single sequencer thread appends the spools to the output stream in the order the parts were
+ * submitted, so the output is the same as if the parts had been written to the stream one after the other.
+ * <p>
+ * This is meant for archive files where each record is compressed as an independent gzip member, so the records can
+ * be compressed at the same time.
+ * <p>
+ * Parts are submitted by one thread. At most twice as many parts as there are workers are pending at a time;
+ * {@link #submit(Part)} blocks until there is room for another. If a part fails, the parts after it are not written,
+ * and the failure is thrown from the next call to {@link #submit(Part)}, {@link #flush()} or {@link #close()}.
+ */
+public class OrderedParallelWriter {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(OrderedParallelWriter.class);
+
+    /**
+     * A part of the output.
+     */
+    public interface Part {
+        /**
+         * Write this part. This is called from a worker thread.
+         *
+         * @param out The stream to write the part to. It should not be closed.
+         * @throws IOException If the part cannot be written.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** The stream the parts are appended to. */
+    private final OutputStream out;
+    /** The largest spool kept in memory. */
+    private final int memoryThreshold;
+    /** The directory for spools too large to keep in memory. */
+    private final File tmpDir;
+    /** The threads writing parts to spools. */
+    private final ExecutorService workers;
+    /** The single thread appending spools to the output stream. */
+    private final ExecutorService sequencer;
+    /** Permits for parts submitted but not yet appended. */
+    private final Semaphore pending;
+    /** The last part given to the sequencer, or null if none has been. */
+    private Future<?> last;
+    /** The first failure writing a part, or null if there has been none. */
+    private volatile Throwable failure;
+
+    /**
+     * Create a writer. It must be closed to stop its threads.
+     *
+     * @param out The stream to append the parts to. It is not closed by this writer.
+     * @param threads The number of parts to write at a time.
+     * @param memoryThreshold The size in bytes of the largest part kept in memory while waiting to be appended.
+     * @param tmpDir The directory to spool larger parts in.
+     * @throws ArgumentNotValid If out or tmpDir is null, if threads is not positive or if memoryThreshold is
+     * negative.
+     */
+    public OrderedParallelWriter(OutputStream out, int threads, int memoryThreshold, File tmpDir)
+            throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        ArgumentNotValid.checkNotNegative(memoryThreshold, "int memoryThreshold");
+        ArgumentNotValid.checkNotNull(tmpDir, "File tmpDir");
+        this.out = out;
+        this.memoryThreshold = memoryThreshold;
+        this.tmpDir = tmpDir;
+        this.workers = Executors.newFixedThreadPool(threads, new WriterThreads("OrderedParallelWriter-worker-"));
+        this.sequencer = Executors.newSingleThreadExecutor(new WriterThreads("OrderedParallelWriter-sequencer-"));
+        this.pending = new Semaphore(2 * threads);
+    }
+
+    /**
+     * Submit a part to be written after the parts submitted before it. The part is written some time later; any
+     * resources it reads from must be left unchanged until {@link #flush()} has returned.
+     *
+     * @param part The part to write.
+     * @throws ArgumentNotValid If part is null.
+     * @throws IOFailure If writing an earlier part failed, or if interrupted while waiting for room for the part.
+     * @throws IllegalState If the writer is closed.
+     */
+    public void submit(final Part part) throws ArgumentNotValid, IOFailure, IllegalState {
+        ArgumentNotValid.checkNotNull(part, "Part part");
+        checkFailure();
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting to write a part", e);
+        }
+        try {
+            final Future<Spool> spool = workers.submit(new Callable<Spool>() {
+                @Override
+                public Spool call() throws IOException {
+                    Spool spool = new Spool();
+                    try {
+                        part.writeTo(spool);
+                        spool.close();
+                    } catch (IOException | RuntimeException e) {
+                        spool.discard();
+                        throw e;
+                    }
+                    return spool;
+                }
+            });
+            last = sequencer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    append(spool);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            throw new IllegalState("The writer is closed", e);
+        }
+    }
+
+    /**
+     * Wait until all submitted parts are written to the output stream, and flush it.
+     *
+     * @throws IOFailure If writing a part or flushing the stream failed, or if interrupted while waiting.
+     */
+    public void flush() throws IOFailure {
+        if (last != null) {
+            try {
+                last.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOFailure("Interrupted while waiting for parts to be written", e);
+            } catch (ExecutionException e) {
+                fail(e.getCause());
+            }
+            last = null;
+        }
+        checkFailure();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new IOFailure("Could not flush the output", e);
+        }
+    }
+
+    /**
+     * Write all submitted parts and stop the threads of this writer. The output stream is left open.
+     *
+     * @throws IOFailure If writing a part failed.
+     */
+    public void close() throws IOFailure {
+        try {
+            if (!sequencer.isShutdown()) {
+                flush();
+            }
+        } finally {
+            workers.shutdownNow();
+            sequencer.shutdownNow();
+        }
+    }
+
+    /**
+     * Append a spool to the output stream, unless an earlier part failed. Called by the sequencer thread.
+     *
+     * @param spool The spool of the next part.
+     */
+    private void append(Future<Spool> spool) {
+        Spool s = null;
+        try {
+            s = spool.get();
+            if (failure == null) {
+                s.appendTo(out);
+            }
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        } catch (InterruptedException e) {
+            fail(e);
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            if (s != null) {
+                s.discard();
+            }
+            pending.release();
+        }
+    }
+
+    /**
+     * Register a failure, keeping only the first.
+     *
+     * @param e The cause of the failure.
+     */
+    private synchronized void fail(Throwable e) {
+        if (failure == null) {
+            log.warn("Failed writing a part", e);
+            failure = e;
+        }
+    }
+
+    /**
+     * @throws IOFailure If a part has failed.
+     */
+    private void checkFailure() throws IOFailure {
+        if (failure != null) {
+            throw new IOFailure("Could not write a part", failure);
+        }
+    }
+
+    /**
+     * A part waiting to be appended. It is held in memory until it exceeds the memory threshold, and is then moved to a
+     * temporary file.
+     */
+    private class Spool extends OutputStream {
+        /** The part while it is held in memory, or null if it has been moved to a file. */
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        /** The temporary file of the part, or null if it is held in memory. */
+        private File file;
+        /** The stream to the temporary file while the part is being written. */
+        private OutputStream fileOut;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (memory != null && memory.size() + 1 > memoryThreshold) {
+                moveToFile();
+            }
+            if (memory != null) {
+                memory.write(b);
+            } else {
+                fileOut.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (memory != null && memory.size() + len > memoryThreshold) {
+                moveToFile();
+            }
+            if (memory != null) {
+                memory.write(b, off, len);
+            } else {
+                fileOut.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+                fileOut = null;
+            }
+        }
+
+        /**
+         * Move the part written so far to a temporary file, and write the rest of it there.
+         *
+         * @throws IOException If the file cannot be written.
+         */
+        private void moveToFile() throws IOException {
+            file = File.createTempFile("part", ".spool", tmpDir);
+            fileOut = new BufferedOutputStream(new FileOutputStream(file), Constants.IO_BUFFER_SIZE);
+            memory.writeTo(fileOut);
+            memory = null;
+        }
+
+        /**
+         * @param target The stream to copy the part to.
+         * @throws IOException If the part cannot be read or copied.
+         */
+        void appendTo(OutputStream target) throws IOException {
+            if (memory != null) {
+                memory.writeTo(target);
+            } else {
+                Files.copy(file.toPath(), target);
+            }
+        }
+
+        /**
+         * Release the part, deleting its temporary file if any.
+         */
+        void discard() {
+            try {
+                close();
+            } catch (IOException e) {
+                log.debug("Could not close spool file {}", file, e);
+            }
+            memory = null;
+            if (file != null && !file.delete()) {
+                log.warn("Could not delete spool file {}", file);
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Factory for the daemon threads of a writer.
+     */
+    private static class WriterThreads implements ThreadFactory {
+        /** Counter for numbering the threads. */
+        private static final AtomicInteger threadCount = new AtomicInteger();
+        /** The prefix of the thread names. */
+        private final String prefix;
+
+        /**
+         * @param prefix The prefix of the thread names.
+         */
+        WriterThreads(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
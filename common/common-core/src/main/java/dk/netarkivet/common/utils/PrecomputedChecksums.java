@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Remembers MD5 checksums that have already been calculated for local files in this JVM, so that a file that was read
+ * in full for some other reason (e.g. indexing) need not be read again to checksum it before it is sent elsewhere.
+ * <p>
+ * A checksum is only handed out while the size and modification time of the file are the same as when it was
+ * registered. At most {@link #MAX_ENTRIES} checksums are remembered; the oldest are forgotten first.
+ */
+public final class PrecomputedChecksums {
+
+    /** The maximum number of checksums remembered. */
+    static final int MAX_ENTRIES = 10000;
+
+    /** The known checksums, keyed by absolute path. Guarded by itself. */
+    private static final Map<String, Entry> checksums = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /** Utility class, do not instantiate. */
+    private PrecomputedChecksums() {
+    }
+
+    /**
+     * Registers the MD5 checksum of a file, as it looks now.
+     *
+     * @param file An existing file
+     * @param md5 The MD5 checksum of the contents of the file, as a hex string
+     * @throws ArgumentNotValid if file is not an existing file or md5 is null or empty
+     */
+    public static void put(File file, String md5) {
+        ArgumentNotValid.checkExistsNormalFile(file, "File file");
+        ArgumentNotValid.checkNotNullOrEmpty(md5, "String md5");
+        Entry entry = new Entry(file.length(), file.lastModified(), md5);
+        synchronized (checksums) {
+            checksums.put(file.getAbsolutePath(), entry);
+        }
+    }
+
+    /**
+     * Get the registered MD5 checksum of a file.
+     *
+     * @param file A file
+     * @return The registered checksum, or null if no checksum is registered or the file has changed since
+     */
+    public static String get(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        String path = file.getAbsolutePath();
+        synchronized (checksums) {
+            Entry entry = checksums.get(path);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.length != file.length() || entry.lastModified != file.lastModified()) {
+                checksums.remove(path);
+                return null;
+            }
+            return entry.md5;
+        }
+    }
+
+    /**
+     * Get the MD5 checksum of a file, using the registered checksum if there is one and calculating it otherwise.
+     *
+     * @param file An existing file
+     * @return The MD5 checksum of the file, as a hex string
+     * @throws dk.netarkivet.common.exceptions.IOFailure if the file cannot be read
+     */
+    public static String calculateMd5(File file) {
+        String md5 = get(file);
+        if (md5 == null) {
+            md5 = ChecksumCalculator.calculateMd5(file);
+        }
+        return md5;
+    }
+
+    /**
+     * Forgets the checksum of a file, e.g. because it is deleted.
+     *
+     * @param file A file
+     */
+    public static void remove(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        synchronized (checksums) {
+            checksums.remove(file.getAbsolutePath());
+        }
+    }
+
+    /** The checksum of a file and the attributes of the file when it was calculated. */
+    private static final class Entry {
+        final long length;
+        final long lastModified;
+        final String md5;
+
+        Entry(long length, long lastModified, String md5) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.md5 = md5;
+        }
+    }
+
+}
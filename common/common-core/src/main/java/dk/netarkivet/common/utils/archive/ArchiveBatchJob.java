@@ -24,6 +24,7 @@ package dk.netarkivet.common.utils.archive;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Iterator;
 
@@ -77,22 +78,57 @@ public abstract class ArchiveBatchJob extends ArchiveBatchJobBase {
     public final boolean processFile(File archiveFile, OutputStream os) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(archiveFile, "archiveFile");
         ArgumentNotValid.checkNotNull(os, "os");
-        long arcFileIndex = 0;
-        boolean success = true;
         log.info("Processing archive file: {}", archiveFile.getName());
+        ArchiveReader archiveReader = null;
+        try {
+            archiveReader = ArchiveReaderFactory.get(archiveFile);
+        } catch (Exception e) {
+            handleException(e, archiveFile, 0);
+            return false; // Can't process file after exception
+        }
+        return processRecords(archiveReader, archiveFile, os);
+    }
 
-        try { // This outer try-catch block catches all unexpected exceptions
-              // Create an ArchiveReader and retrieve its Iterator:
-            ArchiveReader archiveReader = null;
-
-            try {
-                archiveReader = ArchiveReaderFactory.get(archiveFile);
-            } catch (IOException e) { // Some IOException
-                handleException(e, archiveFile, arcFileIndex);
+    /**
+     * As {@link #processFile(File, OutputStream)}, but reads the records sequentially from the given stream instead of
+     * opening the file. This lets the caller look at the bytes of the file while it is processed, e.g. to calculate a
+     * checksum over the whole file. The stream is closed when all records have been read.
+     *
+     * @param archiveFile The arc(.gz) or warc(.gz) file to be processed.
+     * @param in The contents of the archive file, positioned at the first record.
+     * @param os the OutputStream to which output is to be written
+     * @return true, if file processed successful, otherwise false
+     * @throws ArgumentNotValid if any argument is null
+     */
+    public final boolean processFile(File archiveFile, InputStream in, OutputStream os) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(archiveFile, "archiveFile");
+        ArgumentNotValid.checkNotNull(in, "in");
+        ArgumentNotValid.checkNotNull(os, "os");
+        log.info("Processing archive file: {}", archiveFile.getName());
+        ArchiveReader archiveReader = null;
+        try {
+            archiveReader = ArchiveReaderFactory.get(archiveFile.getAbsolutePath(), in, true);
+        } catch (Exception e) {
+            handleException(e, archiveFile, 0);
+            return false; // Can't process file after exception
+        }
+        return processRecords(archiveReader, archiveFile, os);
+    }
 
-                return false; // Can't process file after exception
-            }
+    /**
+     * Runs through all records of the given reader and calls processRecord() on every record that is allowed by
+     * getFilter(). The reader is closed afterwards.
+     *
+     * @param archiveReader A reader of the records of the archive file
+     * @param archiveFile The archive file being processed
+     * @param os the OutputStream to which output is to be written
+     * @return true, if file processed successful, otherwise false
+     */
+    private boolean processRecords(ArchiveReader archiveReader, File archiveFile, OutputStream os) {
+        long arcFileIndex = 0;
+        boolean success = true;
 
+        try { // This outer try-catch block catches all unexpected exceptions
             try {
                 Iterator<? extends ArchiveRecord> it = archiveReader.iterator();
                 /* Process all records from this Iterator: */
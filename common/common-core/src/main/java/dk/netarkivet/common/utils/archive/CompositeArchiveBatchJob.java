@@ -0,0 +1,527 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.NetarkivetException;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.ChecksummingInputStream;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * Batch job that runs several ARC/WARC batch jobs over a single read of each file. Each record is read and
+ * decompressed once, and handed to the processRecord() of every sub-job whose filter accepts it. Optionally, the MD5
+ * checksum of each file is calculated from the same read, with output in the format of {@link ChecksumJob}.
+ * <p>
+ * Every sub-job writes to its own output. The outputs are multiplexed on the output stream of this job, as frames of
+ * an output number, a length and that many bytes of output. Frames are self-contained, so the output of several
+ * bitarchives may simply be concatenated. Use {@link #splitOutput(InputStream, OutputStream...)} to get the output of
+ * each sub-job back. Output number i belongs to the i'th sub-job; the checksums, if requested, have the output number
+ * {@link #getChecksumOutput()}.
+ * <p>
+ * The filename patterns of the sub-jobs are honoured, but this job itself processes the files matching its own
+ * pattern, which by default is all files.
+ */
+@SuppressWarnings({"serial"})
+public class CompositeArchiveBatchJob extends ArchiveBatchJobBase {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(CompositeArchiveBatchJob.class);
+
+    /** The amount of output buffered for each sub-job before it is written as a frame. */
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    /** The amount of a record payload that is kept in memory when several sub-jobs read it. */
+    private static final int RECORD_MEMORY_LIMIT = 1024 * 1024;
+
+    /** Size of the read buffer used when reading a file. */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** The sub-jobs. */
+    private final List<ArchiveBatchJob> jobs;
+
+    /** Whether the checksum of each file is calculated. */
+    private final boolean includeChecksums;
+
+    /** The output of each sub-job, followed by the checksum output. Created by initialize(). */
+    private transient FrameOutputStream[] outputs;
+
+    /**
+     * Create a job running the given sub-jobs.
+     *
+     * @param includeChecksums If true, the MD5 checksum of each file is output as well, as a {@link ChecksumJob}
+     * would.
+     * @param jobs The sub-jobs to run.
+     * @throws ArgumentNotValid if jobs is null or contains null, or if there is nothing to do.
+     */
+    public CompositeArchiveBatchJob(boolean includeChecksums, ArchiveBatchJob... jobs) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(jobs, "ArchiveBatchJob... jobs");
+        for (int i = 0; i < jobs.length; i++) {
+            ArgumentNotValid.checkNotNull(jobs[i], "Null sub-job at index " + i);
+        }
+        ArgumentNotValid.checkTrue(includeChecksums || jobs.length > 0, "Must have at least one thing to do");
+        this.jobs = new ArrayList<ArchiveBatchJob>(Arrays.asList(jobs));
+        this.includeChecksums = includeChecksums;
+    }
+
+    /**
+     * @return the sub-jobs, in the order of their output numbers.
+     */
+    public List<ArchiveBatchJob> getJobs() {
+        return Collections.unmodifiableList(jobs);
+    }
+
+    /**
+     * @return the output number of the checksums, or -1 if checksums are not calculated.
+     */
+    public int getChecksumOutput() {
+        return includeChecksums ? jobs.size() : -1;
+    }
+
+    /**
+     * @return the number of outputs multiplexed in the output of this job.
+     */
+    public int getNumberOfOutputs() {
+        return includeChecksums ? jobs.size() + 1 : jobs.size();
+    }
+
+    /**
+     * The timeout is the longest of the timeouts of the sub-jobs.
+     *
+     * @return timeout in miliseconds.
+     */
+    @Override
+    public long getBatchJobTimeout() {
+        long timeout = super.getBatchJobTimeout();
+        if (batchJobTimeout != -1) {
+            return timeout;
+        }
+        for (ArchiveBatchJob job : jobs) {
+            timeout = Math.max(timeout, job.getBatchJobTimeout());
+        }
+        return timeout;
+    }
+
+    /**
+     * Initializes the sub-jobs.
+     *
+     * @param os The OutputStream to which output data is written
+     */
+    @Override
+    public void initialize(OutputStream os) {
+        outputs = new FrameOutputStream[getNumberOfOutputs()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new FrameOutputStream(i);
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                jobs.get(i).initialize(outputs[i].to(os));
+            } catch (Exception e) {
+                log.warn("Exception while initializing sub-job {}", jobs.get(i), e);
+                addInitializeException(ExceptionOccurrence.UNKNOWN_OFFSET, e);
+            }
+        }
+        flushOutputs();
+    }
+
+    /**
+     * Reads the given file once, handing each record to the sub-jobs that want it and checksumming the file if
+     * requested.
+     *
+     * @param file The file to process
+     * @param os The OutputStream to which output data is written
+     * @return false if any sub-job failed on the file or the file could not be read
+     */
+    @Override
+    public boolean processFile(File file, OutputStream os) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNull(os, "OutputStream os");
+        List<Integer> active = new ArrayList<Integer>();
+        for (int i = 0; i < jobs.size(); i++) {
+            if (jobs.get(i).getFilenamePattern().matcher(file.getName()).matches()) {
+                active.add(i);
+            }
+        }
+        if (active.isEmpty() && !includeChecksums) {
+            return true;
+        }
+        boolean success = true;
+        MessageDigest md5 = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5);
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE);
+            ChecksummingInputStream checksummed = new ChecksummingInputStream(in, md5);
+            if (!active.isEmpty()) {
+                RecordDispatcher dispatcher = new RecordDispatcher(file, active, os);
+                success = dispatcher.processFile(file, checksummed, os) && !dispatcher.failed;
+                noOfRecordsProcessed += dispatcher.noOfRecordsProcessed();
+                // Problems reading the file concern every sub-job
+                for (ExceptionOccurrence e : dispatcher.getExceptions()) {
+                    if (!maxExceptionsReached()) {
+                        exceptions.add(e);
+                    }
+                }
+            }
+            if (includeChecksums) {
+                checksummed.drain();
+                String line = ChecksumJob.makeLine(file.getName(), ChecksumCalculator.toHex(md5.digest())) + "\n";
+                outputs[getChecksumOutput()].to(os).write(line.getBytes());
+            }
+        } catch (IOException e) {
+            log.warn("Could not read file {}", file, e);
+            addException(file, 0, ExceptionOccurrence.UNKNOWN_OFFSET, e);
+            success = false;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        flushOutputs();
+        return success;
+    }
+
+    /**
+     * Finishes the sub-jobs.
+     *
+     * @param os The OutputStream to which output data is written
+     */
+    @Override
+    public void finish(OutputStream os) {
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                jobs.get(i).finish(outputs[i].to(os));
+            } catch (Exception e) {
+                log.warn("Exception while finishing sub-job {}", jobs.get(i), e);
+                addFinishException(ExceptionOccurrence.UNKNOWN_OFFSET, e);
+            }
+        }
+        flushOutputs();
+    }
+
+    /**
+     * The exceptions of this job are the exceptions of all the sub-jobs, and the exceptions from reading the files.
+     *
+     * @return List of exceptions together with information on where they happened.
+     */
+    @Override
+    public List<ExceptionOccurrence> getExceptions() {
+        List<ExceptionOccurrence> all = new ArrayList<ExceptionOccurrence>(super.getExceptions());
+        for (ArchiveBatchJob job : jobs) {
+            all.addAll(job.getExceptions());
+        }
+        return all;
+    }
+
+    /**
+     * Lets each sub-job post process its own output. The result is multiplexed like the output of the job.
+     *
+     * @param input The inputstream to the file containing the concatenated results.
+     * @param output The outputstream where the resulting data should be written.
+     * @return true if any sub-job post processed its output
+     */
+    @Override
+    public boolean postProcess(InputStream input, OutputStream output) {
+        ArgumentNotValid.checkNotNull(input, "InputStream input");
+        ArgumentNotValid.checkNotNull(output, "OutputStream output");
+        File dir = FileUtils.createUniqueTempDir(FileUtils.getTempDir(), "composite-batch");
+        try {
+            File[] results = new File[getNumberOfOutputs()];
+            OutputStream[] splits = new OutputStream[results.length];
+            try {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = new File(dir, "output-" + i);
+                    splits[i] = new BufferedOutputStream(new FileOutputStream(results[i]));
+                }
+                splitOutput(input, splits);
+            } finally {
+                for (OutputStream split : splits) {
+                    IOUtils.closeQuietly(split);
+                }
+            }
+            boolean postProcessed = false;
+            for (int i = 0; i < jobs.size(); i++) {
+                File postFile = new File(dir, "post-" + i);
+                InputStream in = new FileInputStream(results[i]);
+                OutputStream out = new FileOutputStream(postFile);
+                try {
+                    if (jobs.get(i).postProcess(in, out)) {
+                        results[i] = postFile;
+                        postProcessed = true;
+                    }
+                } finally {
+                    IOUtils.closeQuietly(in);
+                    IOUtils.closeQuietly(out);
+                }
+            }
+            if (!postProcessed) {
+                return false;
+            }
+            for (int i = 0; i < results.length; i++) {
+                FrameOutputStream frames = new FrameOutputStream(i);
+                frames.to(output);
+                InputStream in = new FileInputStream(results[i]);
+                try {
+                    IOUtils.copy(in, frames);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+                frames.flush();
+            }
+            output.flush();
+            return true;
+        } catch (IOException e) {
+            throw new IOFailure("Could not post process the output of " + this, e);
+        } finally {
+            FileUtils.removeRecursively(dir);
+        }
+    }
+
+    /**
+     * Splits the multiplexed output of a composite job into the output of each sub-job.
+     *
+     * @param combined The output of a composite job, possibly concatenated from several runs.
+     * @param outputs Where to write each output, indexed by output number. Outputs given as null, or with a number
+     * beyond the array, are skipped.
+     * @throws IOFailure if the combined output cannot be read or is malformed, or an output cannot be written.
+     */
+    public static void splitOutput(InputStream combined, OutputStream... outputs) throws IOFailure {
+        ArgumentNotValid.checkNotNull(combined, "InputStream combined");
+        ArgumentNotValid.checkNotNull(outputs, "OutputStream... outputs");
+        DataInputStream in = new DataInputStream(new BufferedInputStream(combined));
+        byte[] buffer = new byte[FRAME_SIZE];
+        try {
+            while (true) {
+                int output;
+                try {
+                    output = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = in.readInt();
+                if (output < 0 || length < 0) {
+                    throw new IOFailure("Malformed frame for output " + output + " of length " + length);
+                }
+                OutputStream target = output < outputs.length ? outputs[output] : null;
+                while (length > 0) {
+                    int count = Math.min(length, buffer.length);
+                    in.readFully(buffer, 0, count);
+                    if (target != null) {
+                        target.write(buffer, 0, count);
+                    }
+                    length -= count;
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not split the output of a composite batch job", e);
+        }
+    }
+
+    /**
+     * Writes the buffered output of all sub-jobs.
+     */
+    private void flushOutputs() {
+        for (FrameOutputStream output : outputs) {
+            try {
+                output.flush();
+            } catch (IOException e) {
+                throw new IOFailure("Could not write batch output", e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " of " + jobs + (includeChecksums ? " with checksums" : "");
+    }
+
+    /**
+     * Hands the records of one file to the sub-jobs.
+     */
+    private class RecordDispatcher extends ArchiveBatchJob {
+
+        /** The file being read. */
+        private final File file;
+
+        /** The indexes of the sub-jobs that process this file. */
+        private final List<Integer> active;
+
+        /** The output stream of the composite job. */
+        private final OutputStream os;
+
+        /** Sub-jobs that have met an unexpected exception, and will get no more records from this file. */
+        private final boolean[] stopped;
+
+        /** True if any sub-job has met an exception. */
+        private boolean failed;
+
+        RecordDispatcher(File file, List<Integer> active, OutputStream os) {
+            this.file = file;
+            this.active = active;
+            this.os = os;
+            this.stopped = new boolean[jobs.size()];
+        }
+
+        @Override
+        public void initialize(OutputStream os) {
+        }
+
+        @Override
+        public void processRecord(ArchiveRecordBase record, OutputStream ignored) {
+            List<Integer> accepting = new ArrayList<Integer>(active.size());
+            for (int i : active) {
+                if (!stopped[i] && jobs.get(i).getFilter().accept(record)) {
+                    accepting.add(i);
+                }
+            }
+            if (accepting.size() == 1) {
+                dispatch(accepting.get(0), record);
+            } else if (accepting.size() > 1) {
+                SharedArchiveRecord shared = new SharedArchiveRecord(record, RECORD_MEMORY_LIMIT);
+                try {
+                    for (int i : accepting) {
+                        dispatch(i, shared.newView());
+                    }
+                } finally {
+                    shared.close();
+                }
+            }
+        }
+
+        /**
+         * Hands a record to a sub-job, and handles its exceptions as if the sub-job had been run on its own.
+         *
+         * @param i the index of the sub-job
+         * @param record the record
+         */
+        private void dispatch(int i, ArchiveRecordBase record) {
+            ArchiveBatchJob job = jobs.get(i);
+            try {
+                job.processRecord(record, outputs[i].to(os));
+                ++job.noOfRecordsProcessed;
+            } catch (NetarkivetException e) {
+                failed = true;
+                job.handleOurException(e, file, record.getHeader().getOffset());
+            } catch (Exception e) {
+                failed = true;
+                stopped[i] = true;
+                job.handleException(e, file, record.getHeader().getOffset());
+            }
+        }
+
+        @Override
+        public void finish(OutputStream os) {
+        }
+    }
+
+    /**
+     * Buffers the output of one sub-job, and writes it as frames to the output stream of the composite job.
+     */
+    private static class FrameOutputStream extends ByteArrayOutputStream {
+
+        /** The output number. */
+        private final int output;
+
+        /** Where frames are written. */
+        private OutputStream target;
+
+        FrameOutputStream(int output) {
+            super(FRAME_SIZE);
+            this.output = output;
+        }
+
+        /**
+         * Sets where frames are written.
+         *
+         * @param target the output stream of the composite job
+         * @return this stream
+         */
+        FrameOutputStream to(OutputStream target) {
+            if (this.target != target && this.target != null) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new IOFailure("Could not write batch output", e);
+                }
+            }
+            this.target = target;
+            return this;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            super.write(b);
+            writeFrameIfFull();
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, len);
+            writeFrameIfFull();
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (count > 0) {
+                DataOutputStream out = new DataOutputStream(target);
+                out.writeInt(output);
+                out.writeInt(count);
+                out.write(buf, 0, count);
+                out.flush();
+                reset();
+            }
+        }
+
+        private void writeFrameIfFull() {
+            if (count >= FRAME_SIZE) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new IOFailure("Could not write batch output", e);
+                }
+            }
+        }
+    }
+
+}
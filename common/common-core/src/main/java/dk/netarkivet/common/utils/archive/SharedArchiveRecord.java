@@ -0,0 +1,230 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Lets several consumers read the payload of one archive record, which can only be read once from the archive file.
+ * Each consumer gets its own view of the record, with a stream starting at the beginning of the payload. The payload
+ * is only read from the archive as far as the furthest reading consumer needs it; what has been read is kept in
+ * memory, or in a temporary file once it is larger than the given memory limit.
+ * <p>
+ * Not thread safe. The record must be closed after use, to remove any temporary file.
+ */
+class SharedArchiveRecord {
+
+    /** Size of the chunks read from the record. */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /** The record being shared. */
+    private final ArchiveRecordBase record;
+
+    /** The payload stream of the shared record. */
+    private final InputStream source;
+
+    /** The number of payload bytes kept in memory before switching to a temporary file. */
+    private final int memoryLimit;
+
+    /** The payload read so far, as long as it fits within the memory limit. */
+    private byte[] memory = new byte[CHUNK_SIZE];
+
+    /** The payload read so far, once it does not fit within the memory limit. */
+    private RandomAccessFile spill;
+
+    /** The file behind {@link #spill}. */
+    private File spillFile;
+
+    /** The number of payload bytes read so far. */
+    private long length;
+
+    /** True when all of the payload has been read. */
+    private boolean exhausted;
+
+    /**
+     * Prepare a record to be shared.
+     *
+     * @param record the record to share
+     * @param memoryLimit the number of payload bytes to keep in memory before switching to a temporary file
+     */
+    SharedArchiveRecord(ArchiveRecordBase record, int memoryLimit) {
+        this.record = record;
+        this.source = record.getInputStream();
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Get a view of the shared record for one consumer. The payload stream of the view starts at the beginning of the
+     * payload, independently of the streams of other views.
+     *
+     * @return a view of the record
+     */
+    ArchiveRecordBase newView() {
+        ArchiveRecordBase view = new ArchiveRecordBase() {
+            private final InputStream in = new ViewInputStream();
+
+            @Override
+            public ArchiveHeaderBase getHeader() {
+                return record.getHeader();
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return in;
+            }
+        };
+        view.bIsArc = record.bIsArc;
+        view.bIsWarc = record.bIsWarc;
+        return view;
+    }
+
+    /**
+     * Removes the temporary file, if any.
+     */
+    void close() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // Not much to do about it, the file is removed anyway
+            }
+            FileUtils.remove(spillFile);
+            spill = null;
+        }
+        memory = null;
+    }
+
+    /**
+     * Reads from the record until more than the given number of bytes have been read, or the payload is exhausted.
+     *
+     * @param position a position in the payload
+     * @return true if the byte at the position has been read, false if the payload ends before it
+     * @throws IOException if reading fails
+     */
+    private boolean fill(long position) throws IOException {
+        byte[] chunk = null;
+        while (length <= position && !exhausted) {
+            if (chunk == null) {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            int read = source.read(chunk);
+            if (read == -1) {
+                exhausted = true;
+            } else {
+                append(chunk, read);
+            }
+        }
+        return position < length;
+    }
+
+    /**
+     * Keeps bytes read from the record.
+     *
+     * @param bytes the bytes read
+     * @param count the number of bytes read
+     * @throws IOException if writing to the temporary file fails
+     */
+    private void append(byte[] bytes, int count) throws IOException {
+        if (spill == null && length + count <= memoryLimit) {
+            if (length + count > memory.length) {
+                byte[] larger = new byte[(int) Math.min(memoryLimit, Math.max(memory.length * 2L, length + count))];
+                System.arraycopy(memory, 0, larger, 0, (int) length);
+                memory = larger;
+            }
+            System.arraycopy(bytes, 0, memory, (int) length, count);
+        } else {
+            if (spill == null) {
+                spillFile = File.createTempFile("shared-record", ".tmp", FileUtils.getTempDir());
+                spill = new RandomAccessFile(spillFile, "rw");
+                spill.write(memory, 0, (int) length);
+                memory = null;
+            }
+            spill.seek(length);
+            spill.write(bytes, 0, count);
+        }
+        length += count;
+    }
+
+    /**
+     * Copies kept bytes.
+     *
+     * @param position the position in the payload to copy from; must be below {@link #length}
+     * @param b where to copy to
+     * @param off the offset to copy to
+     * @param len the maximum number of bytes to copy
+     * @return the number of bytes copied
+     * @throws IOException if reading the temporary file fails
+     */
+    private int copy(long position, byte[] b, int off, int len) throws IOException {
+        int count = (int) Math.min(len, length - position);
+        if (spill == null) {
+            System.arraycopy(memory, (int) position, b, off, count);
+            return count;
+        }
+        spill.seek(position);
+        spill.readFully(b, off, count);
+        return count;
+    }
+
+    /** The payload stream of one view. */
+    private class ViewInputStream extends InputStream {
+
+        /** The position of this stream in the payload. */
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read == -1 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (memory == null && spill == null) {
+                throw new IOFailure("The shared record has been closed");
+            }
+            if (!fill(position)) {
+                return -1;
+            }
+            int count = copy(position, b, off, len);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - position));
+        }
+    }
+
+}
@@ -23,18 +23,37 @@
 
 package dk.netarkivet.common.utils.cdx;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.ChecksummingInputStream;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.PrecomputedChecksums;
 import dk.netarkivet.common.utils.archive.ArchiveProfile;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
 
@@ -47,6 +66,9 @@ public class CDXUtils {
     /** The logger. */
     private static final Logger log = LoggerFactory.getLogger(CDXUtils.class);
 
+    /** Size of the read buffer used when indexing a file. */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
     /**
      * Add cdx info for a given archive file to a given OutputStream. Note, any exceptions are logged on level FINE but
      * otherwise ignored.
@@ -58,6 +80,50 @@ public class CDXUtils {
         ArchiveExtractCDXJob job = new ArchiveExtractCDXJob();
         BatchLocalFiles runner = new BatchLocalFiles(new File[] {archivefile});
         runner.run(job, cdxstream);
+        logIndexResult(job, archivefile);
+    }
+
+    /**
+     * As {@link #writeCDXInfo(File, OutputStream)}, but reads the file only once to both index it and calculate its MD5
+     * checksum. The checksum is registered with {@link PrecomputedChecksums}, so that it need not be calculated again
+     * when the file is uploaded.
+     *
+     * @param archivefile A file with archive records
+     * @param cdxstream An output stream to add CDX lines to
+     * @throws IOFailure if the file could not be read
+     */
+    public static void writeCDXInfoAndChecksum(File archivefile, OutputStream cdxstream) {
+        ArchiveExtractCDXJob job = new ArchiveExtractCDXJob();
+        MessageDigest md5 = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5);
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(archivefile), READ_BUFFER_SIZE);
+            ChecksummingInputStream checksummed = new ChecksummingInputStream(in, md5);
+            job.initialize(cdxstream);
+            try {
+                job.processFile(archivefile, checksummed, cdxstream);
+            } finally {
+                job.finish(cdxstream);
+            }
+            // The reader may stop before the end of the file, e.g. on a broken record, but the checksum must cover
+            // the whole file.
+            checksummed.drain();
+        } catch (IOException e) {
+            throw new IOFailure("Could not read '" + archivefile + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        PrecomputedChecksums.put(archivefile, ChecksumCalculator.toHex(md5.digest()));
+        logIndexResult(job, archivefile);
+    }
+
+    /**
+     * Logs the outcome of indexing a file.
+     *
+     * @param job The job that indexed the file
+     * @param archivefile The indexed file
+     */
+    private static void logIndexResult(ArchiveExtractCDXJob job, File archivefile) {
         log.trace("Created index for {} records on file '{}'", job.noOfRecordsProcessed(), archivefile);
         Exception[] exceptions = job.getExceptionArray();
         if (exceptions.length > 0) {
@@ -85,7 +151,25 @@ public class CDXUtils {
      */
     public static void generateCDX(ArchiveProfile archiveProfile, File archiveFileDirectory, File cdxFileDirectory)
             throws ArgumentNotValid {
+        generateCDX(archiveProfile, archiveFileDirectory, cdxFileDirectory, 1);
+    }
+
+    /**
+     * As {@link #generateCDX(ArchiveProfile, File, File)}, but indexes up to the given number of files at a time. Each
+     * file is read only once, and its MD5 checksum is registered with {@link PrecomputedChecksums} on the way, so
+     * that it need not be read again when it is uploaded.
+     *
+     * @param archiveProfile archive profile including filters, patterns, etc.
+     * @param archiveFileDirectory A directory with archive files to generate index for
+     * @param cdxFileDirectory A directory to generate CDX files in
+     * @param threads The maximum number of files to index at a time
+     * @throws ArgumentNotValid if any of directories are null or is not an existing directory, or if cdxFileDirectory
+     * is not writable, or if threads is not positive.
+     */
+    public static void generateCDX(ArchiveProfile archiveProfile, File archiveFileDirectory, File cdxFileDirectory,
+            int threads) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(archiveProfile, "ArchiveProfile archiveProfile");
+        ArgumentNotValid.checkPositive(threads, "int threads");
         ArgumentNotValid.checkNotNull(archiveFileDirectory, "File archiveFileDirectory");
         ArgumentNotValid.checkNotNull(cdxFileDirectory, "File cdxFileDirectory");
         if (!archiveFileDirectory.isDirectory() || !archiveFileDirectory.canRead()) {
@@ -96,7 +180,7 @@ public class CDXUtils {
             throw new ArgumentNotValid("The directory for cdx files '" + archiveFileDirectory
                     + "' is not a writable directory");
         }
-        Map<File, Exception> exceptions = new HashMap<File, Exception>();
+        Map<File, Exception> exceptions = new LinkedHashMap<File, Exception>();
         File[] filesToProcess = archiveFileDirectory.listFiles(archiveProfile.filename_filter);
         if (filesToProcess.length == 0) {
             log.warn("Found no related arcfiles to process in the archive dir '{}'.",
@@ -105,20 +189,43 @@ public class CDXUtils {
             log.debug("Found {} related arcfiles to process in the archive dir '{}'.", filesToProcess.length,
                     archiveFileDirectory.getAbsolutePath());
         }
-        for (File arcfile : filesToProcess) {
-            File cdxfile = new File(cdxFileDirectory, arcfile.getName() + FileUtils.CDX_EXTENSION);
+        if (filesToProcess.length > 0) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, filesToProcess.length),
+                    new IndexerThreads());
             try {
-                OutputStream cdxstream = null;
-                try {
-                    cdxstream = new FileOutputStream(cdxfile);
-                    writeCDXInfo(arcfile, cdxstream);
-                } finally {
-                    if (cdxstream != null) {
-                        cdxstream.close();
+                List<File> cdxfiles = new ArrayList<File>(filesToProcess.length);
+                List<Future<Void>> results = new ArrayList<Future<Void>>(filesToProcess.length);
+                for (final File arcfile : filesToProcess) {
+                    final File cdxfile = new File(cdxFileDirectory, arcfile.getName() + FileUtils.CDX_EXTENSION);
+                    cdxfiles.add(cdxfile);
+                    results.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            OutputStream cdxstream = null;
+                            try {
+                                cdxstream = new FileOutputStream(cdxfile);
+                                writeCDXInfoAndChecksum(arcfile, cdxstream);
+                            } finally {
+                                if (cdxstream != null) {
+                                    cdxstream.close();
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (int i = 0; i < results.size(); i++) {
+                    try {
+                        results.get(i).get();
+                    } catch (ExecutionException e) {
+                        exceptions.put(cdxfiles.get(i), (Exception) e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOFailure("Interrupted while generating cdx files in '" + cdxFileDirectory + "'", e);
                     }
                 }
-            } catch (Exception e) {
-                exceptions.put(cdxfile, e);
+            } finally {
+                pool.shutdownNow();
             }
         }
         // Log any errors
@@ -135,4 +242,19 @@ public class CDXUtils {
         }
     }
 
+    /**
+     * Names the indexing threads, to make them recognizable in thread dumps.
+     */
+    private static class IndexerThreads implements ThreadFactory {
+
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CDXIndexer-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
 }
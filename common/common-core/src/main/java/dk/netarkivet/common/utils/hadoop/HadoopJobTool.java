@@ -9,7 +9,9 @@ import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.chain.ChainMapper;
 import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
@@ -18,7 +20,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A simple generic Hadoop map-only tool that runs a given mapper on the passed input file
- * containing new-line separated file paths and outputs the job's resulting files in the passed output path
+ * containing new-line separated file paths and outputs the job's resulting files in the passed output path.
+ *
+ * If the configuration requests a {@link MetadataSortOrder}, the mapper is chained with a {@link SortKeyMapper} and
+ * the job gets a reduce phase with {@link SortedLinesReducer}, so every "part-r" file is sorted in that order and can
+ * be merged with {@link HadoopJobUtils#collectSortedOutputLines}.
  */
 public class HadoopJobTool extends Configured implements Tool {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
@@ -50,15 +56,30 @@ public class HadoopJobTool extends Configured implements Tool {
             job.setOutputFormatClass(TextOutputFormat.class);
             NLineInputFormat.addInputPath(job, inputPath);
             TextOutputFormat.setOutputPath(job, outputPath);
-            job.setMapperClass(mapper.getClass());
-            job.setNumReduceTasks(0); // Ensure job is map-only
 
             // How many files should each node process at a time (how many lines are read from the input file)
             NLineInputFormat.setNumLinesPerSplit(job, 5);
 
-            // In- and output types
-            job.setMapOutputKeyClass(NullWritable.class);
-            job.setMapOutputValueClass(Text.class);
+            MetadataSortOrder sortOrder = MetadataSortOrder.fromConf(conf);
+            if (sortOrder == null) {
+                job.setMapperClass(mapper.getClass());
+                job.setNumReduceTasks(0); // Ensure job is map-only
+                job.setMapOutputKeyClass(NullWritable.class);
+                job.setMapOutputValueClass(Text.class);
+            } else {
+                log.info("Output of the job will be sorted in {} order", sortOrder);
+                ChainMapper.addMapper(job, mapper.getClass(), LongWritable.class, Text.class, NullWritable.class,
+                        Text.class, null);
+                ChainMapper.addMapper(job, SortKeyMapper.class, NullWritable.class, Text.class, Text.class,
+                        Text.class, null);
+                job.setMapperClass(ChainMapper.class);
+                job.setReducerClass(SortedLinesReducer.class);
+                job.setNumReduceTasks(Math.max(1, conf.getInt(MRJobConfig.NUM_REDUCES, 1)));
+                job.setMapOutputKeyClass(Text.class);
+                job.setMapOutputValueClass(Text.class);
+            }
+
+            // Output types
             job.setOutputKeyClass(NullWritable.class);
             job.setOutputValueClass(Text.class);
 
@@ -2,14 +2,20 @@ package dk.netarkivet.common.utils.hadoop;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.stream.Collectors;
 import java.util.Optional;
 
@@ -28,6 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.KeyValuePair;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
 import sun.security.krb5.KrbException;
@@ -140,6 +147,31 @@ public class HadoopJobUtils {
         return configuration;
     }
 
+    /**
+     * Configure a job to have its output sorted by a reduce phase. The reducers get the same memory and cores as the
+     * mappers. Ubertasking is only used with a single reducer, as an uber task cannot run more.
+     *
+     * @param configuration The configuration of the job.
+     * @param sortOrder The order of the output.
+     * @param reducers The number of reduce tasks, each writing one sorted part.
+     * @param memory The memory of each reduce task and the extra memory of the application master.
+     * @param cores The cores of each reduce task and the extra cores of the application master.
+     * @return The configuration.
+     */
+    public static Configuration enableSortedOutput(Configuration configuration, MetadataSortOrder sortOrder,
+            int reducers, Integer memory, Integer cores) {
+        setReducerMemory(configuration, memory);
+        setReduceCoresPerTask(configuration, cores);
+        configuration.setInt(MRJobConfig.NUM_REDUCES, reducers);
+        sortOrder.configure(configuration);
+        if (reducers == 1 && Settings.getBoolean(CommonSettings.HADOOP_MAPRED_ENABLE_UBERTASK)) {
+            enableUberTask(configuration, memory, cores);
+        } else {
+            configuration.setBoolean(MRJobConfig.JOB_UBERTASK_ENABLE, false);
+        }
+        return configuration;
+    }
+
     public static Configuration setMapMemory(Configuration configuration, int memory) {
         configuration.setInt(MRJobConfig.MAP_MEMORY_MB, memory);
         configuration.set(MRJobConfig.MAP_JAVA_OPTS, "-Xmx" + Math.max(memory - 512, 512) + "m");
@@ -213,7 +245,7 @@ public class HadoopJobUtils {
         RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(outputFolder, false);
         while (iterator.hasNext()) {
             Path subPath = iterator.next().getPath();
-            if (subPath.getName().startsWith("part-m")) {
+            if (isOutputPart(subPath)) {
                 try (BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(
                         fileSystem.open(subPath))))) {
                     String line;
@@ -241,7 +273,7 @@ public class HadoopJobUtils {
         RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(outputFolder, false);
         while (iterator.hasNext()) {
             Path subPath = iterator.next().getPath();
-            if (subPath.getName().startsWith("part-m")) {
+            if (isOutputPart(subPath)) {
                 log.info("Collection output from {}", subPath);
                 IOUtils.copy(fileSystem.open(subPath), outputStream);
             }
@@ -249,6 +281,70 @@ public class HadoopJobUtils {
         log.info("Finished collection of hadoop output from {}", outputFolder);
     }
 
+    /**
+     * Merge the sorted output parts of a job with a reduce phase into one sorted stream of lines. Only the current
+     * line of each part is held in memory.
+     *
+     * @param fileSystem The filesystem that the result is collected from.
+     * @param outputFolder The output folder to find the job result files in.
+     * @param sortOrder The order of the lines in each part.
+     * @param outputStream The stream to write the merged lines to. It is not closed.
+     * @throws IOException If the output folder or its contents cannot be read, or the output cannot be written.
+     */
+    public static void collectSortedOutputLines(FileSystem fileSystem, Path outputFolder,
+            final MetadataSortOrder sortOrder, OutputStream outputStream) throws IOException {
+        log.info("Starting merge of sorted hadoop output from {}", outputFolder);
+        List<BufferedReader> readers = new ArrayList<>();
+        try {
+            RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(outputFolder, false);
+            while (iterator.hasNext()) {
+                Path subPath = iterator.next().getPath();
+                if (isOutputPart(subPath)) {
+                    readers.add(new BufferedReader(new InputStreamReader(fileSystem.open(subPath),
+                            StandardCharsets.UTF_8)));
+                }
+            }
+            // Each entry is the current line of a part and the index of its reader
+            PriorityQueue<KeyValuePair<String, Integer>> heads = new PriorityQueue<>(Math.max(1, readers.size()),
+                    new Comparator<KeyValuePair<String, Integer>>() {
+                        @Override
+                        public int compare(KeyValuePair<String, Integer> o1, KeyValuePair<String, Integer> o2) {
+                            return sortOrder.compare(o1.getKey(), o2.getKey());
+                        }
+                    });
+            for (int i = 0; i < readers.size(); i++) {
+                String line = readers.get(i).readLine();
+                if (line != null) {
+                    heads.add(new KeyValuePair<String, Integer>(line, i));
+                }
+            }
+            Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            while (!heads.isEmpty()) {
+                KeyValuePair<String, Integer> head = heads.poll();
+                out.write(head.getKey());
+                out.write('\n');
+                String line = readers.get(head.getValue()).readLine();
+                if (line != null) {
+                    heads.add(new KeyValuePair<String, Integer>(line, head.getValue()));
+                }
+            }
+            out.flush();
+        } finally {
+            for (BufferedReader reader : readers) {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+        log.info("Finished merge of {} sorted parts from {}", readers.size(), outputFolder);
+    }
+
+    /**
+     * @param path A file in the output folder of a job.
+     * @return true if the file is an output part of a map-only job or of a job with a reduce phase.
+     */
+    private static boolean isOutputPart(Path path) {
+        return path.getName().startsWith("part-m") || path.getName().startsWith("part-r");
+    }
+
     /**
      * TODO now here's some code that would look better with streams
      * Converts a list of CDX line strings to a list of CDXRecords
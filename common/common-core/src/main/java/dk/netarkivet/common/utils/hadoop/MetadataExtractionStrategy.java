@@ -28,6 +28,7 @@ public class MetadataExtractionStrategy implements HadoopJobStrategy {
     private final Configuration hadoopConf;
     private final Pattern urlPattern;
     private final Pattern mimePattern;
+    private final MetadataSortOrder sortOrder;
 
     /**
      * Constructor.
@@ -36,26 +37,54 @@ public class MetadataExtractionStrategy implements HadoopJobStrategy {
      * @param fileSystem The Hadoop FileSystem used.
      */
     public MetadataExtractionStrategy(long jobID, FileSystem fileSystem) {
+        this(jobID, fileSystem, null);
+    }
+
+    /**
+     * Constructor for a job whose output is sorted by the cluster. Unless sorted output is disabled by setting
+     * {@link CommonSettings#HADOOP_MAPRED_SORTED_OUTPUT_REDUCERS} to zero, the job gets a reduce phase writing sorted
+     * parts, which must be collected with {@link HadoopJobUtils#collectSortedOutputLines}.
+     *
+     * @param jobID The ID for the job.
+     * @param fileSystem The Hadoop FileSystem used.
+     * @param sortOrder The order of the output, or null for unsorted output from a map-only job.
+     */
+    public MetadataExtractionStrategy(long jobID, FileSystem fileSystem, MetadataSortOrder sortOrder) {
         this.jobID = jobID;
         this.fileSystem = fileSystem;
         hadoopConf = fileSystem.getConf();
         int totalMemory = Settings.getInt(CommonSettings.HADOOP_MAP_MEMORY_MB);
         int totalCores = Settings.getInt(CommonSettings.HADOOP_MAP_MEMORY_CORES);
+        int reducers = Settings.getInt(CommonSettings.HADOOP_MAPRED_SORTED_OUTPUT_REDUCERS);
         HadoopJobUtils.setMapMemory(hadoopConf, totalMemory);
         HadoopJobUtils.setMapCoresPerTask(hadoopConf, totalCores);
-        HadoopJobUtils.enableMapOnlyUberTask(hadoopConf, totalMemory, totalCores);
+        if (sortOrder != null && reducers > 0) {
+            HadoopJobUtils.enableSortedOutput(hadoopConf, sortOrder, reducers, totalMemory, totalCores);
+            this.sortOrder = sortOrder;
+        } else {
+            HadoopJobUtils.enableMapOnlyUberTask(hadoopConf, totalMemory, totalCores);
+            hadoopConf.unset(MetadataSortOrder.SORT_ORDER);
+            this.sortOrder = null;
+        }
         HadoopJobUtils.configureCaching(hadoopConf);
         urlPattern = hadoopConf.getPattern(GetMetadataMapper.URL_PATTERN, Pattern.compile(".*"));
         mimePattern = hadoopConf.getPattern(GetMetadataMapper.MIME_PATTERN, Pattern.compile(".*"));
         HadoopJobUtils.setBatchQueue(hadoopConf);
     }
 
+    /**
+     * @return The order of the output parts of the job, or null if the output is unsorted.
+     */
+    public MetadataSortOrder getSortOrder() {
+        return sortOrder;
+    }
+
     @Override
     public int runJob(Path jobInputFile, Path jobOutputDir) {
         int exitCode;
         try {
-            log.info("URL/MIME patterns used for metadata extraction job {} are '{}' and '{}'",
-                    jobID, urlPattern, mimePattern);
+            log.info("URL/MIME patterns used for metadata extraction job {} are '{}' and '{}', output order is {}",
+                    jobID, urlPattern, mimePattern, sortOrder);
             exitCode = ToolRunner.run(new HadoopJobTool(hadoopConf, new GetMetadataMapper()),
                     new String[] {jobInputFile.toString(), jobOutputDir.toString()});
         } catch (Exception e) {
@@ -0,0 +1,150 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+import org.apache.hadoop.conf.Configuration;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * The orders in which extracted metadata lines can be delivered by a Hadoop job. Each order corresponds to the order
+ * the lines were given by {@link dk.netarkivet.common.utils.FileUtils#sortCrawlLog(File, File)} and
+ * {@link dk.netarkivet.common.utils.FileUtils#sortCDX(File, File)}, i.e. Unix sort with LANG=C: lines are compared by
+ * a sort key, and lines with equal keys by the whole line, both in byte order of their UTF-8 encoding.
+ */
+public enum MetadataSortOrder {
+    /** Crawl log order: by the fourth field and the rest of the line, ignoring leading blanks ("sort -k 4b"). */
+    CRAWL_LOG {
+        @Override
+        public String sortKey(String line) {
+            int i = 0;
+            for (int field = 1; field < 4; field++) {
+                i = skipBlanks(line, i);
+                while (i < line.length() && !isBlank(line.charAt(i))) {
+                    i++;
+                }
+            }
+            return line.substring(skipBlanks(line, i));
+        }
+    },
+    /** CDX order: by the whole line. */
+    CDX {
+        @Override
+        public String sortKey(String line) {
+            return line;
+        }
+    };
+
+    /** The configuration key used to request sorted output from a job. */
+    public static final String SORT_ORDER = "netarchivesuite.metadata.sort.order";
+
+    /**
+     * Get the part of the line which decides its position in this order.
+     *
+     * @param line A metadata line.
+     * @return The sort key of the line.
+     */
+    public abstract String sortKey(String line);
+
+    /**
+     * Compare two lines in this order.
+     *
+     * @param line1 A metadata line.
+     * @param line2 Another metadata line.
+     * @return A negative number, zero or a positive number if line1 is before, equal to or after line2.
+     */
+    public int compare(String line1, String line2) {
+        int result = compareCodePoints(sortKey(line1), sortKey(line2));
+        return result != 0 ? result : compareCodePoints(line1, line2);
+    }
+
+    /**
+     * @return A Comparator for lines in this order.
+     */
+    public Comparator<String> comparator() {
+        return new Comparator<String>() {
+            @Override
+            public int compare(String line1, String line2) {
+                return MetadataSortOrder.this.compare(line1, line2);
+            }
+        };
+    }
+
+    /**
+     * Check whether the lines of a file are in this order, reading the file once.
+     *
+     * @param file A file of metadata lines.
+     * @return true if every line is in order with the line before it.
+     * @throws IOFailure If the file cannot be read.
+     */
+    public boolean isSorted(File file) throws IOFailure {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String previous = in.readLine();
+            String line;
+            while (previous != null && (line = in.readLine()) != null) {
+                if (compare(previous, line) > 0) {
+                    return false;
+                }
+                previous = line;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new IOFailure("Could not read " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Request output in this order from Hadoop jobs run with the given configuration.
+     *
+     * @param conf A Hadoop configuration.
+     */
+    public void configure(Configuration conf) {
+        conf.set(SORT_ORDER, name());
+    }
+
+    /**
+     * @param conf A Hadoop configuration.
+     * @return The order requested in the configuration, or null if no order is requested.
+     */
+    public static MetadataSortOrder fromConf(Configuration conf) {
+        String order = conf.get(SORT_ORDER);
+        return (order == null || order.isEmpty()) ? null : valueOf(order);
+    }
+
+    /**
+     * Compare two strings by code points, which is the same as comparing the bytes of their UTF-8 encodings. This is
+     * the order Hadoop uses for Text keys.
+     */
+    static int compareCodePoints(String s1, String s2) {
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < s1.length() && i2 < s2.length()) {
+            int c1 = s1.codePointAt(i1);
+            int c2 = s2.codePointAt(i2);
+            if (c1 != c2) {
+                return c1 < c2 ? -1 : 1;
+            }
+            i1 += Character.charCount(c1);
+            i2 += Character.charCount(c2);
+        }
+        return (s1.length() - i1) - (s2.length() - i2);
+    }
+
+    private static int skipBlanks(String line, int i) {
+        while (i < line.length() && isBlank(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+}
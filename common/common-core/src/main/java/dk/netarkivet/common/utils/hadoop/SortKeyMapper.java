@@ -0,0 +1,33 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Hadoop Mapper keying each output line of a preceding mapper by its sort key in the {@link MetadataSortOrder} given
+ * in the job configuration, so the shuffle delivers the lines to {@link SortedLinesReducer} in that order.
+ */
+public class SortKeyMapper extends Mapper<NullWritable, Text, Text, Text> {
+    /** The order of the output. */
+    private MetadataSortOrder sortOrder;
+    /** The key object reused for every line. */
+    private final Text sortKey = new Text();
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        sortOrder = MetadataSortOrder.fromConf(context.getConfiguration());
+        if (sortOrder == null) {
+            sortOrder = MetadataSortOrder.CDX;
+        }
+    }
+
+    @Override
+    protected void map(NullWritable key, Text line, Context context) throws IOException, InterruptedException {
+        sortKey.set(sortOrder.sortKey(line.toString()));
+        context.write(sortKey, line);
+    }
+}
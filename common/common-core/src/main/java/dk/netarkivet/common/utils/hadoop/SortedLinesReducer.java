@@ -0,0 +1,46 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Hadoop Reducer writing the lines keyed by {@link SortKeyMapper}. The keys arrive sorted, so only lines sharing a
+ * sort key need to be ordered here, which makes every part file sorted in the {@link MetadataSortOrder} of the job.
+ */
+public class SortedLinesReducer extends Reducer<Text, Text, NullWritable, Text> {
+    /** The order of the output. */
+    private MetadataSortOrder sortOrder;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        sortOrder = MetadataSortOrder.fromConf(context.getConfiguration());
+        if (sortOrder == null) {
+            sortOrder = MetadataSortOrder.CDX;
+        }
+    }
+
+    @Override
+    protected void reduce(Text sortKey, Iterable<Text> lines, Context context) throws IOException,
+            InterruptedException {
+        List<String> group = new ArrayList<String>();
+        for (Text line : lines) {
+            // Hadoop reuses the Text object between values
+            group.add(line.toString());
+        }
+        if (group.size() > 1) {
+            Collections.sort(group, sortOrder.comparator());
+        }
+        Text value = new Text();
+        for (String line : group) {
+            value.set(line);
+            context.write(NullWritable.get(), value);
+        }
+    }
+}
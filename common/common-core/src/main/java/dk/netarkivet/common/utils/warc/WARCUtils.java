@@ -29,6 +29,7 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -54,7 +55,6 @@ import org.archive.util.anvl.ANVLRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import dk.netarkivet.common.Constants;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
@@ -285,14 +285,14 @@ public class WARCUtils {
 
         int payloadLength = (int) (length - header.getContentBegin());
 
-        // read from stream
-        byte[] tmpbuffer = new byte[payloadLength];
-        byte[] buffer = new byte[Constants.IO_BUFFER_SIZE];
+        // read from stream, directly into the array returned
+        byte[] payload = new byte[payloadLength];
         int bytesRead;
         int totalBytes = 0;
         try {
-            for (; (totalBytes < payloadLength) && ((bytesRead = record.read(buffer)) != -1); totalBytes += bytesRead) {
-                System.arraycopy(buffer, 0, tmpbuffer, totalBytes, bytesRead);
+            while (totalBytes < payloadLength
+                    && (bytesRead = record.read(payload, totalBytes, payloadLength - totalBytes)) != -1) {
+                totalBytes += bytesRead;
             }
         } catch (IOException e) {
             throw new IOFailure("Failure when reading the WARC-record", e);
@@ -300,14 +300,12 @@ public class WARCUtils {
 
         // Check if the number of bytes read (= totalbytes) matches the
         // size of the buffer.
-        if (tmpbuffer.length != totalBytes) {
+        if (totalBytes != payloadLength) {
             // make sure we only return an array with bytes we actually read
-            byte[] truncateBuffer = new byte[totalBytes];
-            System.arraycopy(tmpbuffer, 0, truncateBuffer, 0, totalBytes);
-            log.debug("Storing {} bytes. Expected to store: {}", totalBytes, tmpbuffer.length);
-            return truncateBuffer;
+            log.debug("Storing {} bytes. Expected to store: {}", totalBytes, payloadLength);
+            return Arrays.copyOf(payload, totalBytes);
         } else {
-            return tmpbuffer;
+            return payload;
         }
 
     }
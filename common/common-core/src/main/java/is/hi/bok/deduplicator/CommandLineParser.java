@@ -103,6 +103,10 @@ public class CommandLineParser {
         this.options.addOption(new Option("d", "skip-duplicates", false,
                 "If set, URIs marked as duplicates will not be added to the " + "index."));
 
+        opt = new Option("n", "threads", true, "The number of threads adding documents to the index. Default: 1.");
+        opt.setArgName("number");
+        this.options.addOption(opt);
+
         PosixParser parser = new PosixParser();
         try {
             this.commandLine = parser.parse(this.options, args, false);
@@ -26,7 +26,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import org.apache.commons.cli.Option;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
@@ -37,6 +48,7 @@ import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.archive.util.ArchiveUtils;
@@ -87,6 +99,34 @@ public class DigestIndexer {
     /** Both URL and hash are indexed. * */
     public static final String MODE_BOTH = "BOTH";
 
+    /**
+     * The size in MB of the buffer where added documents are kept before they are flushed to a new segment. Larger
+     * than Lucene's default, so a crawl log gives fewer and larger segments to merge.
+     */
+    public static final double RAM_BUFFER_SIZE_MB = 64;
+    /**
+     * The number of segments of about the same size allowed before they are merged, and the number merged at once.
+     * Higher than Lucene's default of 10, so fewer merges are made while the index is built. The index server merges
+     * the finished index down to a few segments anyway.
+     */
+    public static final int SEGMENTS_PER_TIER = 20;
+    /** The number of items given to a feeding thread at a time when several threads feed the index. */
+    private static final int FEEDING_BATCH_SIZE = 1000;
+    /** The maximal number of mimetypes whose verdict is remembered by a mimefilter. */
+    private static final int MAX_CACHED_MIMETYPES = 1000;
+
+    /** Field type for fields stored, but not indexed. */
+    private static final FieldType STORED_NOT_INDEXED = new FieldType(StringField.TYPE_STORED);
+    /** Field type for fields stored and indexed, but not analyzed. */
+    private static final FieldType STORED_NOT_ANALYZED = new FieldType(StringField.TYPE_STORED);
+
+    static {
+        STORED_NOT_INDEXED.setIndexed(false);
+        STORED_NOT_INDEXED.freeze();
+        STORED_NOT_ANALYZED.setOmitNorms(false);
+        STORED_NOT_ANALYZED.freeze();
+    }
+
     /** Lucene Storage used by the indexwriter. */
     private Directory luceneDirectory;
 
@@ -143,7 +183,12 @@ public class DigestIndexer {
         // Set up the index writer
         IndexWriterConfig config = new IndexWriterConfig(Constants.LUCENE_VERSION, new WhitespaceAnalyzer(
                 Constants.LUCENE_VERSION));
-        // TODO Possibly change the default MergePolicy, see NAS-2119
+        config.setRAMBufferSizeMB(RAM_BUFFER_SIZE_MB);
+        config.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(SEGMENTS_PER_TIER);
+        mergePolicy.setMaxMergeAtOnce(SEGMENTS_PER_TIER);
+        config.setMergePolicy(mergePolicy);
         if (!addToExistingIndex) {
             config.setOpenMode(OpenMode.CREATE);
         } else {
@@ -191,23 +236,75 @@ public class DigestIndexer {
      */
     public long writeToIndex(CrawlDataIterator dataIt, String mimefilter, boolean blacklist, String defaultOrigin,
             boolean verbose, boolean skipDuplicates) throws IOException {
+        return writeToIndex(dataIt, mimefilter, blacklist, defaultOrigin, verbose, skipDuplicates, 1);
+    }
+
+    /**
+     * Writes the contents of a {@link CrawlDataIterator} to this index.
+     * <p>
+     * This method may be invoked multiple times with different CrawlDataIterators until {@link #close} has been called.
+     * With more than one thread, the items are read and filtered by the calling thread, and handed in batches to the
+     * feeding threads, which make the documents and add them to the index. The documents are then not added in the
+     * order of the items.
+     *
+     * @param dataIt The CrawlDataIterator that provides the data to index.
+     * @param mimefilter A regular expression that is used as a filter on the mimetypes to include in the index.
+     * @param blacklist If true then the <code>mimefilter</code> is used as a blacklist for mimetypes. If false then the
+     * <code>mimefilter</code> is treated as a whitelist.
+     * @param defaultOrigin If an item is missing an origin, this default value will be assigned to it. Can be null if
+     * no default origin value should be assigned.
+     * @param verbose If true then progress information will be sent to System.out.
+     * @param skipDuplicates Do not add URLs that are marked as duplicates to the index
+     * @param threads The number of threads adding documents to the index.
+     * @return The number of items added to the index.
+     * @throws IOException If an error occurs writing the index.
+     */
+    public long writeToIndex(CrawlDataIterator dataIt, String mimefilter, boolean blacklist, String defaultOrigin,
+            boolean verbose, boolean skipDuplicates, int threads) throws IOException {
+        MimeFilter filter = new MimeFilter(mimefilter, blacklist);
         int count = 0;
         int skipped = 0;
-        while (dataIt.hasNext()) {
-            CrawlDataItem item = dataIt.next();
-            if (!(skipDuplicates && item.duplicate) && item.mimetype.matches(mimefilter) != blacklist) {
-                // Ok, we wish to index this URL/Digest
-                count++;
-                if (verbose && count % 10000 == 0) {
-                    System.out.println("Indexed " + count + " - Last URL " + "from " + item.getTimestamp());
+        if (threads <= 1) {
+            DocumentBuilder builder = new DocumentBuilder(defaultOrigin);
+            while (dataIt.hasNext()) {
+                CrawlDataItem item = dataIt.next();
+                if (!(skipDuplicates && item.duplicate) && filter.accepts(item.mimetype)) {
+                    // Ok, we wish to index this URL/Digest
+                    count++;
+                    if (verbose && count % 10000 == 0) {
+                        System.out.println("Indexed " + count + " - Last URL " + "from " + item.getTimestamp());
+                    }
+                    index.addDocument(builder.build(item));
+                } else {
+                    skipped++;
                 }
-
-                Document doc = createDocument(item, defaultOrigin);
-                index.addDocument(doc);
-                // needed with new IndexWriter (see line 144)
-                // index.commit();
-            } else {
-                skipped++;
+            }
+        } else {
+            Feeder feeder = new Feeder(threads, defaultOrigin);
+            try {
+                List<CrawlDataItem> batch = new ArrayList<CrawlDataItem>(FEEDING_BATCH_SIZE);
+                while (dataIt.hasNext()) {
+                    CrawlDataItem item = dataIt.next();
+                    if (!(skipDuplicates && item.duplicate) && filter.accepts(item.mimetype)) {
+                        count++;
+                        if (verbose && count % 10000 == 0) {
+                            System.out.println("Indexed " + count + " - Last URL " + "from " + item.getTimestamp());
+                        }
+                        batch.add(item);
+                        if (batch.size() == FEEDING_BATCH_SIZE) {
+                            feeder.feed(batch);
+                            batch = new ArrayList<CrawlDataItem>(FEEDING_BATCH_SIZE);
+                        }
+                    } else {
+                        skipped++;
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    feeder.feed(batch);
+                }
+                feeder.await();
+            } finally {
+                feeder.shutdown();
             }
         }
         index.commit();
@@ -218,55 +315,260 @@ public class DigestIndexer {
     }
 
     /**
-     * Create Lucene Document for given CrawlDataItem.
-     * @param item A CrawlDataItem
-     * @param defaultOrigin
-     * @return Lucene Document for the given CrawlDataItem
+     * A mimetype filter, with the regular expression compiled once, and the verdict on each mimetype remembered, as a
+     * crawl log has few distinct mimetypes.
      */
-    private Document createDocument(CrawlDataItem item, String defaultOrigin) {
-        Document doc = new Document();
+    private static class MimeFilter {
+        /** The regular expression of the filter. */
+        private final Pattern pattern;
+        /** Whether the matching mimetypes are excluded rather than included. */
+        private final boolean blacklist;
+        /** The verdict on each mimetype seen. */
+        private final Map<String, Boolean> verdicts = new HashMap<String, Boolean>();
+
+        /**
+         * @param mimefilter A regular expression matching whole mimetypes.
+         * @param blacklist Whether the matching mimetypes are excluded rather than included.
+         */
+        MimeFilter(String mimefilter, boolean blacklist) {
+            this.pattern = Pattern.compile(mimefilter);
+            this.blacklist = blacklist;
+        }
 
-        FieldType storedNotIndexed = new FieldType(StringField.TYPE_STORED);
-        storedNotIndexed.setIndexed(false);
+        /**
+         * @param mimetype A mimetype.
+         * @return true if items with the mimetype are to be indexed.
+         */
+        boolean accepts(String mimetype) {
+            Boolean verdict = verdicts.get(mimetype);
+            if (verdict == null) {
+                verdict = pattern.matcher(mimetype).matches() != blacklist;
+                if (verdicts.size() < MAX_CACHED_MIMETYPES) {
+                    verdicts.put(mimetype, verdict);
+                }
+            }
+            return verdict;
+        }
+    }
 
-        FieldType storedNotAnalyzed = new FieldType(StringField.TYPE_STORED);
-        storedNotAnalyzed.setOmitNorms(false);
+    /**
+     * Maker of Lucene Documents for CrawlDataItems. The Document and its Fields are reused for every item, so a
+     * builder must only be used by one thread, and the Document it returns must be added to the index before the next
+     * one is built.
+     */
+    private class DocumentBuilder {
+        /** The document reused for every item. */
+        private final Document doc = new Document();
+        /** The default origin, or null if no origin is added. */
+        private final String defaultOrigin;
+        /** The URL field. */
+        private final Field urlField;
+        /** The normalized URL field, or null if not included. */
+        private final Field urlNormalizedField;
+        /** The digest field. */
+        private final Field digestField;
+        /** The timestamp field, or null if not included. */
+        private final Field timestampField;
+        /** The etag field, or null if not included. */
+        private final Field etagField;
+        /** The origin field, or null if not included. */
+        private final Field originField;
+        /** Whether the etag field is in the document. */
+        private boolean hasEtag;
+
+        /**
+         * @param defaultOrigin If an item is missing an origin, this default value will be assigned to it. Can be null
+         * if no default origin value should be assigned.
+         */
+        DocumentBuilder(String defaultOrigin) {
+            this.defaultOrigin = defaultOrigin;
+            FieldType urlType = indexURL ? STORED_NOT_ANALYZED : STORED_NOT_INDEXED;
+            urlField = new Field(FIELD_URL, "", urlType);
+            doc.add(urlField);
+            urlNormalizedField = equivalent ? new Field(FIELD_URL_NORMALIZED, "", urlType) : null;
+            if (urlNormalizedField != null) {
+                doc.add(urlNormalizedField);
+            }
+            digestField = new Field(FIELD_DIGEST, "", indexDigest ? STORED_NOT_ANALYZED : STORED_NOT_INDEXED);
+            doc.add(digestField);
+            timestampField = timestamp ? new Field(FIELD_TIMESTAMP, "", STORED_NOT_INDEXED) : null;
+            if (timestampField != null) {
+                doc.add(timestampField);
+            }
+            etagField = etag ? new Field(FIELD_ETAG, "", STORED_NOT_INDEXED) : null;
+            originField = defaultOrigin != null ? new Field(FIELD_ORIGIN, "", STORED_NOT_INDEXED) : null;
+            if (originField != null) {
+                doc.add(originField);
+            }
+        }
 
-        // Add URL to index.
-        if (indexURL) {
-            doc.add(new Field(FIELD_URL, item.getURL(), storedNotAnalyzed));
-            if (equivalent) {
-                doc.add(new Field(FIELD_URL_NORMALIZED, stripURL(item.getURL()), storedNotAnalyzed));
+        /**
+         * Create Lucene Document for given CrawlDataItem.
+         *
+         * @param item A CrawlDataItem
+         * @return Lucene Document for the given CrawlDataItem, valid until the next call.
+         */
+        Document build(CrawlDataItem item) {
+            urlField.setStringValue(item.getURL());
+            if (urlNormalizedField != null) {
+                urlNormalizedField.setStringValue(stripURL(item.getURL()));
             }
-        } else {
-            doc.add(new Field(FIELD_URL, item.getURL(), storedNotIndexed));
-            if (equivalent) {
-                doc.add(new Field(FIELD_URL_NORMALIZED, stripURL(item.getURL()), storedNotIndexed));
+            digestField.setStringValue(item.getContentDigest());
+            if (timestampField != null) {
+                timestampField.setStringValue(item.getTimestamp());
             }
+            if (etagField != null) {
+                boolean itemHasEtag = item.getEtag() != null;
+                if (itemHasEtag) {
+                    etagField.setStringValue(item.getEtag());
+                }
+                if (itemHasEtag != hasEtag) {
+                    if (itemHasEtag) {
+                        doc.add(etagField);
+                    } else {
+                        doc.removeField(FIELD_ETAG);
+                    }
+                    hasEtag = itemHasEtag;
+                }
+            }
+            if (originField != null) {
+                String origin = item.getOrigin();
+                originField.setStringValue(origin == null ? defaultOrigin : origin);
+            }
+            return doc;
         }
+    }
 
-        // Add digest to index
-        if (indexDigest) {
-            doc.add(new Field(FIELD_DIGEST, item.getContentDigest(), storedNotAnalyzed));
-        } else {
-            doc.add(new Field(FIELD_DIGEST, item.getContentDigest(), storedNotIndexed));
+    /**
+     * Threads making documents from batches of items and adding them to the index, each with its own
+     * DocumentBuilder. When all threads are busy and the queue is full, the calling thread makes the documents of the
+     * next batch itself.
+     */
+    private class Feeder {
+        /** The feeding threads. */
+        private final ThreadPoolExecutor executor;
+        /** The builder of each feeding thread, and of the calling thread. */
+        private final ThreadLocal<DocumentBuilder> builders;
+        /** The batches not yet known to be added. */
+        private final List<Future<?>> outstanding = new ArrayList<Future<?>>();
+
+        /**
+         * @param threads The number of feeding threads.
+         * @param defaultOrigin The default origin of the documents, or null.
+         */
+        Feeder(int threads, final String defaultOrigin) {
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads), new FeedingThreads(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            builders = new ThreadLocal<DocumentBuilder>() {
+                @Override
+                protected DocumentBuilder initialValue() {
+                    return new DocumentBuilder(defaultOrigin);
+                }
+            };
         }
-        // Add timestamp to index
-        if (timestamp) {
-            doc.add(new Field(FIELD_TIMESTAMP, item.getTimestamp(), storedNotIndexed));
+
+        /**
+         * Add the documents of a batch of items to the index.
+         *
+         * @param batch The items.
+         * @throws IOException If a previous batch could not be added.
+         */
+        void feed(final List<CrawlDataItem> batch) throws IOException {
+            outstanding.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    DocumentBuilder builder = builders.get();
+                    try {
+                        for (CrawlDataItem item : batch) {
+                            index.addDocument(builder.build(item));
+                        }
+                    } catch (IOException e) {
+                        throw new FeedingException(e);
+                    }
+                }
+            }));
+            // Check the finished batches now and then, so a failure stops the reading early.
+            if (outstanding.size() >= 100) {
+                List<Future<?>> unfinished = new ArrayList<Future<?>>();
+                for (Future<?> f : outstanding) {
+                    if (f.isDone()) {
+                        get(f);
+                    } else {
+                        unfinished.add(f);
+                    }
+                }
+                outstanding.clear();
+                outstanding.addAll(unfinished);
+            }
         }
-        // Add etag to index
-        if (etag && item.getEtag() != null) {
-            doc.add(new Field(FIELD_ETAG, item.getEtag(), storedNotIndexed));
+
+        /**
+         * Wait until all batches have been added.
+         *
+         * @throws IOException If a batch could not be added.
+         */
+        void await() throws IOException {
+            for (Future<?> f : outstanding) {
+                get(f);
+            }
+            outstanding.clear();
+        }
+
+        /** Stop the feeding threads. */
+        void shutdown() {
+            executor.shutdownNow();
         }
-        if (defaultOrigin != null) {
-            String tmp = item.getOrigin();
-            if (tmp == null) {
-                tmp = defaultOrigin;
+
+        /**
+         * @param f The future of a batch.
+         * @throws IOException If the batch could not be added.
+         */
+        private void get(Future<?> f) throws IOException {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while feeding the index", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof FeedingException) {
+                    throw ((FeedingException) e.getCause()).getCause();
+                }
+                throw new IOException("Error feeding the index", e.getCause());
             }
-            doc.add(new Field(FIELD_ORIGIN, tmp, storedNotIndexed));
         }
-        return doc;
+    }
+
+    /**
+     * Wraps an IOException from a feeding thread.
+     */
+    private static class FeedingException extends RuntimeException {
+        /**
+         * @param cause The IOException.
+         */
+        FeedingException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Names the feeding threads, and makes them daemons.
+     */
+    private static class FeedingThreads implements ThreadFactory {
+        /** The number of threads made. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "DigestIndexer-feeder-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
     }
 
     /**
@@ -311,6 +613,7 @@ public class DigestIndexer {
         String iteratorClassName = CrawlLogIterator.class.getName();
         String origin = null;
         boolean skipDuplicates = false;
+        int threads = 1;
 
         // Process the options
         Option[] opts = clp.getCommandLineOptions();
@@ -350,6 +653,9 @@ public class DigestIndexer {
             case 'd':
                 skipDuplicates = true;
                 break;
+            case 'n':
+                threads = Integer.parseInt(opt.getValue());
+                break;
             default:
                 System.err.println("Unhandled option id: " + opt.getId());
             }
@@ -375,6 +681,7 @@ public class DigestIndexer {
         System.out.println(" - Includes" + (equivalent ? " <equivalent URL>" : "") + (timestamp ? " <timestamp>" : "")
                 + (etag ? " <etag>" : ""));
         System.out.println(" - Skip duplicates: " + (skipDuplicates ? "yes" : "no"));
+        System.out.println(" - Feeding threads: " + threads);
         System.out.println(" - Iterator: " + iteratorClassName);
         System.out.println("   - " + iterator.getSourceType());
         System.out.println("Target: " + cargs.get(1));
@@ -387,7 +694,7 @@ public class DigestIndexer {
         DigestIndexer di = new DigestIndexer((String) cargs.get(1), indexMode, equivalent, timestamp, etag, addToIndex);
 
         // Create the index
-        di.writeToIndex(iterator, mimefilter, blacklist, origin, true, skipDuplicates);
+        di.writeToIndex(iterator, mimefilter, blacklist, origin, true, skipDuplicates, threads);
 
         // Clean-up
         di.close();
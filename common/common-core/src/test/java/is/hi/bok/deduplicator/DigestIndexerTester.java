@@ -0,0 +1,217 @@
+/* DigestIndexer
+ * 
+ * Created on 10.04.2006
+ *
+ * Copyright (C) 2006 National and University Library of Iceland
+ * 
+ * This file is part of the DeDuplicator (Heritrix add-on module).
+ * 
+ * DeDuplicator is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ * 
+ * DeDuplicator is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser Public License
+ * along with DeDuplicator; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package is.hi.bok.deduplicator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.SlowTest;
+
+/** Unit tests and indexing rate benchmark for DigestIndexer. */
+public class DigestIndexerTester {
+
+    private static final Logger log = LoggerFactory.getLogger(DigestIndexerTester.class);
+
+    private static final File WORKING_DIR = new File("tests/is/hi/bok/deduplicator/working");
+
+    /** The number of crawl log lines indexed by the benchmark. */
+    private static final int BENCHMARK_ITEMS = 1000000;
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(WORKING_DIR);
+        WORKING_DIR.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(WORKING_DIR);
+    }
+
+    /**
+     * Test that the filtered items are indexed with the same fields by one and by several feeding threads.
+     */
+    @Test
+    public void testWriteToIndex() throws IOException {
+        for (int threads : new int[] {1, 4}) {
+            File indexDir = new File(WORKING_DIR, "index" + threads);
+            DigestIndexer indexer = new DigestIndexer(indexDir.getPath(), DigestIndexer.MODE_BOTH, false, true, true,
+                    false);
+            long count = indexer.writeToIndex(new SyntheticCrawlLog(10000), "^text/.*", true, "default", false, false,
+                    threads);
+            indexer.close();
+            // every third item is text/html, and excluded by the blacklist
+            assertEquals(6666, count);
+
+            try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexDir))) {
+                assertEquals(6666, reader.numDocs());
+                IndexSearcher searcher = new IndexSearcher(reader);
+                Document withEtag = findByDigest(searcher, SyntheticCrawlLog.digest(4));
+                assertEquals("http://www.example.org/4", withEtag.get(DigestIndexer.FIELD_URL));
+                assertEquals("etag4", withEtag.get(DigestIndexer.FIELD_ETAG));
+                assertEquals("default", withEtag.get(DigestIndexer.FIELD_ORIGIN));
+                assertEquals(SyntheticCrawlLog.TIMESTAMP, withEtag.get(DigestIndexer.FIELD_TIMESTAMP));
+                Document withoutEtag = findByDigest(searcher, SyntheticCrawlLog.digest(5));
+                assertNull(withoutEtag.get(DigestIndexer.FIELD_ETAG));
+                assertEquals("origin5", withoutEtag.get(DigestIndexer.FIELD_ORIGIN));
+            }
+        }
+    }
+
+    /**
+     * Index a synthetic crawl log of a million lines the way it was done before documents were reused, and then with
+     * one and with several feeding threads, logging the indexing rate of each.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testIndexingRate() throws IOException {
+        File legacyDir = new File(WORKING_DIR, "legacy");
+        long start = System.nanoTime();
+        long count = legacyWriteToIndex(legacyDir, new SyntheticCrawlLog(BENCHMARK_ITEMS), "^text/.*");
+        logRate("Per-item documents, default writer config", count, start);
+
+        for (int threads : new int[] {1, 4}) {
+            File indexDir = new File(WORKING_DIR, "index" + threads);
+            start = System.nanoTime();
+            DigestIndexer indexer = new DigestIndexer(indexDir.getPath(), DigestIndexer.MODE_BOTH, false, true, true,
+                    false);
+            count = indexer.writeToIndex(new SyntheticCrawlLog(BENCHMARK_ITEMS), "^text/.*", true, "default", false,
+                    false, threads);
+            indexer.close();
+            logRate("DigestIndexer with " + threads + " feeding thread(s)", count, start);
+            FileUtils.removeRecursively(indexDir);
+        }
+    }
+
+    private static void logRate(String what, long count, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.info("{}: {} items in {} s, {} items/second", what, count, String.format("%.1f", seconds),
+                String.format("%.0f", count / seconds));
+    }
+
+    private static Document findByDigest(IndexSearcher searcher, String digest) throws IOException {
+        TopDocs hits = searcher.search(new TermQuery(new Term(DigestIndexer.FIELD_DIGEST, digest)), 2);
+        assertEquals(1, hits.totalHits);
+        return searcher.doc(hits.scoreDocs[0].doc);
+    }
+
+    /**
+     * Index the items the way DigestIndexer did before: matching the mimefilter and making new field types, fields
+     * and document for every item, with Lucene's default buffer and merge policy.
+     */
+    private static long legacyWriteToIndex(File indexDir, CrawlDataIterator dataIt, String mimefilter)
+            throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(Constants.LUCENE_VERSION, new WhitespaceAnalyzer(
+                Constants.LUCENE_VERSION));
+        long count = 0;
+        try (FSDirectory dir = FSDirectory.open(indexDir); IndexWriter index = new IndexWriter(dir, config)) {
+            while (dataIt.hasNext()) {
+                CrawlDataItem item = dataIt.next();
+                if (!item.mimetype.matches(mimefilter)) {
+                    count++;
+                    FieldType storedNotIndexed = new FieldType(StringField.TYPE_STORED);
+                    storedNotIndexed.setIndexed(false);
+                    FieldType storedNotAnalyzed = new FieldType(StringField.TYPE_STORED);
+                    storedNotAnalyzed.setOmitNorms(false);
+                    Document doc = new Document();
+                    doc.add(new Field(DigestIndexer.FIELD_URL, item.getURL(), storedNotAnalyzed));
+                    doc.add(new Field(DigestIndexer.FIELD_DIGEST, item.getContentDigest(), storedNotAnalyzed));
+                    doc.add(new Field(DigestIndexer.FIELD_TIMESTAMP, item.getTimestamp(), storedNotIndexed));
+                    if (item.getEtag() != null) {
+                        doc.add(new Field(DigestIndexer.FIELD_ETAG, item.getEtag(), storedNotIndexed));
+                    }
+                    String origin = item.getOrigin() == null ? "default" : item.getOrigin();
+                    doc.add(new Field(DigestIndexer.FIELD_ORIGIN, origin, storedNotIndexed));
+                    index.addDocument(doc);
+                }
+            }
+            index.commit();
+        }
+        return count;
+    }
+
+    /**
+     * A crawl log of generated items. Every third item is text/html, the others image/png. Even items have an etag,
+     * odd items an origin of their own.
+     */
+    private static class SyntheticCrawlLog extends CrawlDataIterator {
+        static final String TIMESTAMP = "20200101120000000";
+        private final int size;
+        private int next;
+
+        SyntheticCrawlLog(int size) {
+            super("synthetic");
+            this.size = size;
+        }
+
+        static String digest(int i) {
+            return String.format("sha1:%032d", i);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public CrawlDataItem next() {
+            int i = next++;
+            return new CrawlDataItem("http://www.example.org/" + i, digest(i), TIMESTAMP, i % 2 == 0 ? "etag" + i
+                    : null, i % 3 == 0 ? "text/html" : "image/png", i % 2 == 1 ? "origin" + i : null, false);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getSourceType() {
+            return "Synthetic crawl log";
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.Ftplet;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.Serial;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Tests of segmented transfers over parallel connections, against an embedded FTP server which delays every command.
+ */
+public class SegmentedFTPTransferTester {
+
+    private static final File ARC_FILE = new File("tests/dk/netarkivet/common/utils/arc/data/input/fyensdk.arc");
+
+    /** The delay of every FTP command, in milliseconds. */
+    private static final long LATENCY = 20;
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    ReloadSettings rs = new ReloadSettings();
+
+    private FtpServer server;
+
+    private File ftpHome;
+
+    private File destFile;
+
+    /** The segments whose first download is broken off halfway. */
+    private final Set<String> segmentsToBreak = Collections.synchronizedSet(new HashSet<String>());
+
+    /** The number of downloads resumed from a non-zero offset. */
+    private final AtomicInteger resumedDownloads = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        ftpHome = FileUtils.createUniqueTempDir(FileUtils.getTempDir(), "ftphome");
+        destFile = new File(FileUtils.getTempDir(), "segmented-" + ftpHome.getName());
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setPort(port);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        UserManager userManager = new PropertiesUserManagerFactory().createUserManager();
+        BaseUser user = new BaseUser();
+        user.setName("test");
+        user.setPassword("test");
+        user.setHomeDirectory(ftpHome.getAbsolutePath());
+        user.setAuthorities(Collections.<Authority>singletonList(new WritePermission()));
+        userManager.save(user);
+        serverFactory.setUserManager(userManager);
+        serverFactory.setFtplets(Collections.<String, Ftplet>singletonMap("latency", new DefaultFtplet() {
+            @Override
+            public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException,
+                    IOException {
+                try {
+                    Thread.sleep(LATENCY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if ("REST".equals(request.getCommand()) && Long.parseLong(request.getArgument()) > 0) {
+                    resumedDownloads.incrementAndGet();
+                }
+                return super.beforeCommand(session, request);
+            }
+
+            @Override
+            public FtpletResult onDownloadStart(FtpSession session, FtpRequest request) throws FtpException,
+                    IOException {
+                if (!segmentsToBreak.remove(request.getArgument())) {
+                    return FtpletResult.DEFAULT;
+                }
+                // Send the first half of the segment, then break off the transfer.
+                byte[] data = FileUtils.readBinaryFile(new File(ftpHome, request.getArgument()));
+                session.write(new DefaultFtpReply(FtpReply.REPLY_150_FILE_STATUS_OKAY, "Sending half of it"));
+                DataConnection connection = session.getDataConnection().openConnection();
+                connection.transferToClient(session, new ByteArrayInputStream(data, 0, data.length / 2));
+                session.getDataConnection().closeDataConnection();
+                session.write(new DefaultFtpReply(FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED,
+                        "Transfer broken off"));
+                return FtpletResult.SKIP;
+            }
+        }));
+        server = serverFactory.createServer();
+        server.start();
+
+        Settings.set(CommonSettings.FTP_SERVER_NAME, "localhost");
+        Settings.set(CommonSettings.FTP_SERVER_PORT, Integer.toString(port));
+        Settings.set(CommonSettings.FTP_USER_NAME, "test");
+        Settings.set(CommonSettings.FTP_USER_PASSWORD, "test");
+        Settings.set(CommonSettings.FTP_RETRIES_SETTINGS, "2");
+        Settings.set(CommonSettings.FTP_PARALLEL_CONNECTIONS, "4");
+        Settings.set(CommonSettings.FTP_SEGMENT_SIZE, Integer.toString(SEGMENT_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        FileUtils.removeRecursively(ftpHome);
+        FileUtils.remove(destFile);
+        rs.tearDown();
+    }
+
+    @Test
+    public void testTransferInSegments() {
+        byte[] data = new byte[25 * SEGMENT_SIZE + 17];
+        new Random(42).nextBytes(data);
+        SegmentedFTPTransfer transfer = new SegmentedFTPTransfer(connectionParams(), 4);
+        try {
+            List<SegmentedFTPTransfer.Segment> segments = transfer.upload(new ByteArrayInputStream(data),
+                    SEGMENT_SIZE, "data");
+            assertEquals(26, segments.size());
+            assertEquals(26, ftpHome.list().length);
+
+            transfer.download(segments, destFile);
+            assertArrayEquals(data, FileUtils.readBinaryFile(destFile));
+
+            transfer.delete(segments);
+            assertEquals(0, ftpHome.list().length);
+        } finally {
+            transfer.close();
+        }
+    }
+
+    @Test
+    public void testDamagedSegmentIsRejected() throws IOException {
+        byte[] data = new byte[4 * SEGMENT_SIZE];
+        new Random(42).nextBytes(data);
+        SegmentedFTPTransfer transfer = new SegmentedFTPTransfer(connectionParams(), 2);
+        try {
+            List<SegmentedFTPTransfer.Segment> segments = transfer.upload(new ByteArrayInputStream(data),
+                    SEGMENT_SIZE, "data");
+            File segmentFile = new File(ftpHome, segments.get(2).getFtpFileName());
+            RandomAccessFile damaged = new RandomAccessFile(segmentFile, "rw");
+            try {
+                damaged.seek(100);
+                damaged.write(~data[2 * SEGMENT_SIZE + 100]);
+            } finally {
+                damaged.close();
+            }
+            try {
+                transfer.download(segments, destFile);
+                fail("A damaged segment should not be accepted");
+            } catch (IOFailure e) {
+                // expected
+            }
+
+            FileUtils.writeBinaryFile(segmentFile, Arrays.copyOfRange(data, 2 * SEGMENT_SIZE,
+                    3 * SEGMENT_SIZE));
+            transfer.download(segments, destFile);
+            assertArrayEquals(data, FileUtils.readBinaryFile(destFile));
+        } finally {
+            transfer.close();
+        }
+    }
+
+    @Test
+    public void testBrokenOffSegmentIsResumed() {
+        byte[] data = new byte[4 * SEGMENT_SIZE];
+        new Random(42).nextBytes(data);
+        SegmentedFTPTransfer transfer = new SegmentedFTPTransfer(connectionParams(), 2);
+        try {
+            List<SegmentedFTPTransfer.Segment> segments = transfer.upload(new ByteArrayInputStream(data),
+                    SEGMENT_SIZE, "data");
+            segmentsToBreak.add(segments.get(1).getFtpFileName());
+            segmentsToBreak.add(segments.get(3).getFtpFileName());
+
+            transfer.download(segments, destFile);
+            assertTrue("The broken off segments should have been downloaded", segmentsToBreak.isEmpty());
+            assertEquals("The broken off segments should be resumed where they stopped", 2, resumedDownloads.get());
+            assertArrayEquals(data, FileUtils.readBinaryFile(destFile));
+        } finally {
+            transfer.close();
+        }
+    }
+
+    @Test
+    public void testExtendedFTPRemoteFileInSegments() throws Exception {
+        long offset = -1;
+        ArchiveReader reader = ArchiveReaderFactory.get(ARC_FILE);
+        try {
+            for (ArchiveRecord record : reader) {
+                if (record.getHeader().getLength() > 3 * SEGMENT_SIZE) {
+                    offset = record.getHeader().getOffset();
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        assertFalse("The test file should have a record of several segments", offset < 0);
+
+        ArchiveReader recordReader = ArchiveReaderFactory.get(ARC_FILE, offset);
+        RemoteFile remoteFile;
+        try {
+            remoteFile = ExtendedFTPRemoteFile.getInstance(recordReader.get());
+        } finally {
+            recordReader.close();
+        }
+        assertNotNull("A record uploaded in segments should have a checksum", remoteFile.getChecksum());
+
+        // The receiver should use the FTP server of the sender, not the one in its own settings.
+        RemoteFile received = Serial.serial(remoteFile);
+        Settings.set(CommonSettings.FTP_SERVER_PORT, Integer.toString(1));
+        Settings.set(CommonSettings.FTP_USER_NAME, "nobody");
+        Settings.set(CommonSettings.FTP_PARALLEL_CONNECTIONS, "1");
+
+        received.copyTo(destFile);
+        assertEquals(remoteFile.getSize(), destFile.length());
+        assertEquals(remoteFile.getChecksum(), received.getChecksum());
+        assertEquals(remoteFile.getChecksum(), ChecksumCalculator.calculateMd5(destFile));
+        assertEquals("The segments should be removed after the copy", 0, ftpHome.list().length);
+
+        recordReader = ArchiveReaderFactory.get(ARC_FILE, offset);
+        try {
+            assertArrayEquals(IOUtils.toByteArray(recordReader.get()), FileUtils.readBinaryFile(destFile));
+        } finally {
+            recordReader.close();
+        }
+    }
+
+    /**
+     * @return A connection manager for the FTP server given in the settings.
+     */
+    private static FTPConnectionManager connectionParams() {
+        return new FTPConnectionManager(Settings.get(CommonSettings.FTP_USER_NAME),
+                Settings.get(CommonSettings.FTP_USER_PASSWORD), Settings.get(CommonSettings.FTP_SERVER_NAME),
+                Settings.getInt(CommonSettings.FTP_SERVER_PORT), Settings.getInt(CommonSettings.FTP_RETRIES_SETTINGS),
+                Settings.getInt(CommonSettings.FTP_DATATIMEOUT_SETTINGS));
+    }
+}
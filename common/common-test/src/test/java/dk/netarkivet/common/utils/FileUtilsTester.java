@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -515,4 +516,33 @@ public class FileUtilsTester {
         String outputThree = FileUtils.getHumanReadableFileSize(RATHER_BIG_FILE);
         assertTrue("Wrong output, was " + outputThree, outputThree.equals("5.6 Kbytes"));
     }
+
+    /**
+     * Sorting with a small chunk size must merge the sorted chunks into the same result as an in-memory sort, and
+     * remove the temporary chunk files.
+     */
+    @Test
+    public void testMakeSortedFileInChunks() {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 250; i++) {
+            lines.add("file" + ((i * 7919) % 100) + ".arc");
+        }
+        File unsorted = new File(WORKING, "unsorted.txt");
+        File sorted = new File(WORKING, "sorted.txt");
+        FileUtils.writeCollectionToFile(unsorted, lines);
+        int filesBefore = WORKING.list().length;
+
+        FileUtils.makeSortedFile(unsorted, sorted, 17);
+
+        List<String> expected = new ArrayList<String>(lines);
+        Collections.sort(expected);
+        assertEquals("The lines should be sorted", expected, FileUtils.readListFromFile(sorted));
+        assertEquals("Only the sorted file should have been added", filesBefore + 1, WORKING.list().length);
+
+        List<String> iterated = new ArrayList<String>();
+        for (String line : FileUtils.iterateLines(sorted)) {
+            iterated.add(line);
+        }
+        assertEquals("Iterating the lines should give the whole file", expected, iterated);
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+
+public class OrderedParallelWriterTester {
+
+    private File tmpDir;
+
+    @Before
+    public void setUp() {
+        tmpDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "spool");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(tmpDir);
+    }
+
+    @Test
+    public void testOutputIsSameAsSequential() throws IOException {
+        List<OrderedParallelWriter.Part> parts = new ArrayList<OrderedParallelWriter.Part>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            // Some parts are larger than the memory threshold and are spooled to files
+            byte[] data = new byte[random.nextInt(i % 10 == 0 ? 200000 : 2000)];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) ('a' + random.nextInt(4));
+            }
+            parts.add(new GzipPart(data, random.nextInt(3)));
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (OrderedParallelWriter.Part part : parts) {
+            part.writeTo(expected);
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        OrderedParallelWriter writer = new OrderedParallelWriter(actual, 4, 10000, tmpDir);
+        try {
+            for (OrderedParallelWriter.Part part : parts) {
+                writer.submit(part);
+            }
+            writer.flush();
+            assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+            // Parts submitted after a flush are written on close
+            writer.submit(parts.get(0));
+            parts.get(0).writeTo(expected);
+        } finally {
+            writer.close();
+        }
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        assertEquals("Spool files should be deleted", 0, tmpDir.list().length);
+    }
+
+    @Test
+    public void testFailureStopsOutput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OrderedParallelWriter writer = new OrderedParallelWriter(out, 2, 100, tmpDir);
+        try {
+            writer.submit(new GzipPart(new byte[10], 0));
+            writer.submit(new OrderedParallelWriter.Part() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(new byte[1000]);
+                    throw new IOException("Failed on purpose");
+                }
+            });
+            for (int i = 0; i < 10; i++) {
+                writer.submit(new GzipPart(new byte[10], 0));
+            }
+            writer.flush();
+            fail("The failure of a part should be thrown");
+        } catch (IOFailure e) {
+            assertEquals("Failed on purpose", e.getCause().getMessage());
+        } finally {
+            try {
+                writer.close();
+                fail("The failure should be thrown again on close");
+            } catch (IOFailure e) {
+                // expected
+            }
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new GzipPart(new byte[10], 0).writeTo(expected);
+        assertArrayEquals("Only the part before the failure should be written", expected.toByteArray(),
+                out.toByteArray());
+        assertEquals("Spool files should be deleted", 0, tmpDir.list().length);
+    }
+
+    @Test
+    public void testClosedWriter() {
+        OrderedParallelWriter writer = new OrderedParallelWriter(new ByteArrayOutputStream(), 1, 100, tmpDir);
+        writer.close();
+        writer.close();
+        try {
+            writer.submit(new GzipPart(new byte[10], 0));
+            fail("Should not accept parts after close");
+        } catch (IllegalState e) {
+            // expected
+        }
+    }
+
+    /**
+     * A part that is a gzip member of its own, written at a varying pace.
+     */
+    private static class GzipPart implements OrderedParallelWriter.Part {
+        private final byte[] data;
+        private final int delay;
+
+        GzipPart(byte[] data, int delay) {
+            this.data = data;
+            this.delay = delay;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(data);
+            gzip.finish();
+        }
+    }
+}
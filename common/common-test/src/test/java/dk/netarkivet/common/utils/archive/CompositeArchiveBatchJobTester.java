@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.common.utils.cdx.ArchiveExtractCDXJob;
+
+/**
+ * Tests of running several batch jobs over a single read of each file.
+ */
+public class CompositeArchiveBatchJobTester {
+
+    private static final File WARC_DIR = new File("tests/dk/netarkivet/common/utils/cdx/data/input/warcs");
+
+    private static final File[] WARC_FILES = {new File(WARC_DIR, "netarkivet-20081105135926-00000.warc"),
+            new File(WARC_DIR, "netarkivet-20081105135926-00001.warc"),
+            new File(WARC_DIR, "netarkivet-20081105140044-00002.warc")};
+
+    /**
+     * Each sub-job must produce the same output as when it is run on its own, also when several sub-jobs read the
+     * payload of the same record.
+     */
+    @Test
+    public void testOutputIsSameAsSeparateRuns() {
+        CompositeArchiveBatchJob composite = new CompositeArchiveBatchJob(true, new ArchiveExtractCDXJob(true),
+                new ArchiveExtractCDXJob(false), new ArchiveExtractCDXJob(true));
+        ByteArrayOutputStream combined = new ByteArrayOutputStream();
+        new BatchLocalFiles(WARC_FILES).run(composite, combined);
+        assertTrue("No exceptions expected, got " + composite.getExceptions(), composite.getExceptions().isEmpty());
+
+        ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[composite.getNumberOfOutputs()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+        }
+        CompositeArchiveBatchJob.splitOutput(new ByteArrayInputStream(combined.toByteArray()), outputs);
+
+        String withChecksums = runAlone(new ArchiveExtractCDXJob(true));
+        assertTrue("Expected some CDX lines", withChecksums.length() > 0);
+        assertEquals(withChecksums, outputs[0].toString());
+        assertEquals(runAlone(new ArchiveExtractCDXJob(false)), outputs[1].toString());
+        assertEquals(withChecksums, outputs[2].toString());
+        assertEquals("The checksums should be those of a ChecksumJob", runAlone(new ChecksumJob()),
+                outputs[composite.getChecksumOutput()].toString());
+    }
+
+    /**
+     * The output of several runs may be concatenated, as the bitarchive monitor does.
+     */
+    @Test
+    public void testConcatenatedOutputCanBeSplit() {
+        ByteArrayOutputStream combined = new ByteArrayOutputStream();
+        for (File warc : WARC_FILES) {
+            CompositeArchiveBatchJob composite = new CompositeArchiveBatchJob(true, new ArchiveExtractCDXJob(false));
+            new BatchLocalFiles(new File[] {warc}).run(composite, combined);
+        }
+        ByteArrayOutputStream cdx = new ByteArrayOutputStream();
+        ByteArrayOutputStream checksums = new ByteArrayOutputStream();
+        CompositeArchiveBatchJob.splitOutput(new ByteArrayInputStream(combined.toByteArray()), cdx, checksums);
+        assertEquals(runAlone(new ArchiveExtractCDXJob(false)), cdx.toString());
+        assertEquals(runAlone(new ChecksumJob()), checksums.toString());
+    }
+
+    private static String runAlone(FileBatchJob job) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BatchLocalFiles(WARC_FILES).run(job, out);
+        return out.toString();
+    }
+
+}
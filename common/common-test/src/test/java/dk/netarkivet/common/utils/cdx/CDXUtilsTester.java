@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.PrecomputedChecksums;
+import dk.netarkivet.common.utils.archive.ArchiveProfile;
+
+/**
+ * Tests of the generation of CDX files for a directory of archive files.
+ */
+public class CDXUtilsTester {
+
+    private static final File SEQUENTIAL_DIR = new File(TestInfo.CDX_DIR, "sequential");
+    private static final File PARALLEL_DIR = new File(TestInfo.CDX_DIR, "parallel");
+
+    @Before
+    public void setUp() {
+        FileUtils.createDir(SEQUENTIAL_DIR);
+        FileUtils.createDir(PARALLEL_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.CDX_DIR);
+    }
+
+    /**
+     * Indexing several files at a time must give the same CDX files as indexing them one at a time.
+     */
+    @Test
+    public void testParallelGenerationGivesSameResult() throws Exception {
+        CDXUtils.generateCDX(ArchiveProfile.WARC_PROFILE, TestInfo.WARC_DIR, SEQUENTIAL_DIR, 1);
+        CDXUtils.generateCDX(ArchiveProfile.WARC_PROFILE, TestInfo.WARC_DIR, PARALLEL_DIR, 3);
+        File[] warcs = TestInfo.WARC_DIR.listFiles(ArchiveProfile.WARC_PROFILE.filename_filter);
+        assertEquals(3, warcs.length);
+        for (File warc : warcs) {
+            String cdxName = warc.getName() + FileUtils.CDX_EXTENSION;
+            String sequential = FileUtils.readFile(new File(SEQUENTIAL_DIR, cdxName));
+            assertTrue("Expected CDX lines for " + warc, sequential.length() > 0);
+            assertEquals("Parallel indexing should give the same index of " + warc, sequential,
+                    FileUtils.readFile(new File(PARALLEL_DIR, cdxName)));
+        }
+    }
+
+    /**
+     * Reading the records from a stream while checksumming must give the same index as reading them from the file, and
+     * the checksum of the whole file must be registered.
+     */
+    @Test
+    public void testSinglePassIndexAndChecksum() {
+        for (File warc : new File[] {TestInfo.WARC_FILE1, TestInfo.WARC_FILE2, TestInfo.WARC_FILE3}) {
+            PrecomputedChecksums.remove(warc);
+            ByteArrayOutputStream fromFile = new ByteArrayOutputStream();
+            CDXUtils.writeCDXInfo(warc, fromFile);
+            ByteArrayOutputStream fromStream = new ByteArrayOutputStream();
+            CDXUtils.writeCDXInfoAndChecksum(warc, fromStream);
+            assertEquals("Indexing from a stream should give the same index of " + warc, fromFile.toString(),
+                    fromStream.toString());
+            assertEquals("The checksum of the whole file should be registered",
+                    ChecksumCalculator.calculateMd5(warc), PrecomputedChecksums.get(warc));
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link MetadataSortOrder} class.
+ */
+public class MetadataSortOrderTester {
+
+    private static final String LINE1 = "2020-01-01T10:00:00.000Z   200       1234 http://b.dk/ L http://a.dk/ text/html";
+    private static final String LINE2 = "2020-01-01T09:00:00.000Z   200         12 http://a.dk/x L http://a.dk/ text/html";
+    private static final String LINE3 = "2020-01-01T11:00:00.000Z   404         12 http://a.dk/x L http://a.dk/ text/html";
+
+    @Test
+    public void testCrawlLogSortKey() {
+        assertEquals("http://b.dk/ L http://a.dk/ text/html", MetadataSortOrder.CRAWL_LOG.sortKey(LINE1));
+        assertEquals("d", MetadataSortOrder.CRAWL_LOG.sortKey(" a\tb  c \td"));
+        assertEquals("", MetadataSortOrder.CRAWL_LOG.sortKey("a b"));
+        assertEquals(LINE1, MetadataSortOrder.CDX.sortKey(LINE1));
+    }
+
+    /**
+     * The orders must be the same as Unix sort with LANG=C: "sort -k 4b" for crawl logs and "sort" for CDX.
+     */
+    @Test
+    public void testCompare() {
+        List<String> lines = new ArrayList<String>(Arrays.asList(LINE3, LINE1, LINE2));
+        Collections.sort(lines, MetadataSortOrder.CRAWL_LOG.comparator());
+        assertEquals(Arrays.asList(LINE2, LINE3, LINE1), lines);
+        Collections.sort(lines, MetadataSortOrder.CDX.comparator());
+        assertEquals(Arrays.asList(LINE2, LINE1, LINE3), lines);
+
+        // Bytes, not chars: U+FB01 is before U+1F600 in UTF-8, but not in UTF-16
+        assertTrue(MetadataSortOrder.CDX.compare("\ufb01", "\ud83d\ude00") < 0);
+        assertTrue(MetadataSortOrder.CDX.compare("Z", "a") < 0);
+        assertTrue(MetadataSortOrder.CDX.compare("a", "ab") < 0);
+        assertEquals(0, MetadataSortOrder.CRAWL_LOG.compare(LINE1, LINE1));
+    }
+
+    @Test
+    public void testIsSorted() throws IOException {
+        File file = File.createTempFile("sortorder", "txt");
+        try {
+            Files.write(file.toPath(), Arrays.asList(LINE2, LINE3, LINE1), StandardCharsets.UTF_8);
+            assertTrue(MetadataSortOrder.CRAWL_LOG.isSorted(file));
+            assertFalse(MetadataSortOrder.CDX.isSorted(file));
+            Files.write(file.toPath(), new byte[0]);
+            assertTrue(MetadataSortOrder.CDX.isSorted(file));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -95,6 +95,8 @@ insert into schemaversions ( tablename, version )
     values ( 'runningjobsmonitor', 3);
 insert into schemaversions ( tablename, version )
     values ( 'frontierreportmonitor', 1);
+insert into schemaversions ( tablename, version )
+    values ( 'frontierreportsnapshot', 1);
 
 INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'extendedfieldtype', 1);
@@ -599,6 +601,18 @@ CREATE TABLE frontierReportMonitor (
      UNIQUE (jobId, filterId, domainName)
 );
 
+-- This table contains the latest frontier report per job and filter as a compressed columnar blob
+CREATE TABLE frontierReportSnapshot (
+     jobId bigint NOT NULL,
+     filterId varchar(200) NOT NULL,
+     tstamp timestamp NOT NULL,
+     lineCount integer NOT NULL,
+     digest varchar(32) NOT NULL,
+     snapshotData blob(64M) NOT NULL,
+     deltaData blob(64M),
+     PRIMARY KEY (jobId, filterId)
+);
+
 create table extendedfieldtype (
     extendedfieldtype_id bigint not null primary key,
     name VARCHAR(50) not null
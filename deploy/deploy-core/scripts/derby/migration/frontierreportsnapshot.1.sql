@@ -0,0 +1,10 @@
+CREATE TABLE frontierReportSnapshot (
+	jobId BIGINT NOT NULL,
+	filterId VARCHAR(200) NOT NULL,
+	tstamp TIMESTAMP NOT NULL,
+	lineCount INTEGER NOT NULL,
+	digest VARCHAR(32) NOT NULL,
+	snapshotData BLOB(64M) NOT NULL,
+	deltaData BLOB(64M),
+	PRIMARY KEY (jobId, filterId)
+);
@@ -0,0 +1,12 @@
+CREATE TABLE frontierReportSnapshot (
+	jobId BIGINT NOT NULL,
+	filterId VARCHAR(200) NOT NULL,
+	tstamp TIMESTAMP NOT NULL,
+	lineCount INTEGER NOT NULL,
+	digest VARCHAR(32) NOT NULL,
+	snapshotData BYTEA NOT NULL,
+	deltaData BYTEA NULL,
+	CONSTRAINT pkFrontierReportSnapshot PRIMARY KEY (jobId, filterId)
+);
+
+GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE frontierReportSnapshot TO netarchivesuite;
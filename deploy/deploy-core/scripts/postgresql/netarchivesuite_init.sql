@@ -93,6 +93,8 @@ INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'runningjobsmonitor', 3);
 INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'frontierreportmonitor', 1);
+INSERT INTO schemaversions ( tablename, version )
+    VALUES ( 'frontierreportsnapshot', 1);
 INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'extendedfieldtype', 1);
 INSERT INTO schemaversions ( tablename, version )
@@ -538,6 +540,20 @@ CREATE TABLE frontierReportMonitor (
 
 GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE frontierReportMonitor TO netarchivesuite;
 
+-- This table contains the latest frontier report per job and filter as a compressed columnar blob
+CREATE TABLE frontierReportSnapshot (
+     jobId bigint NOT NULL,
+     filterId varchar(200) NOT NULL,
+     tstamp timestamp NOT NULL,
+     lineCount integer NOT NULL,
+     digest varchar(32) NOT NULL,
+     snapshotData bytea NOT NULL,
+     deltaData bytea NULL,
+     CONSTRAINT pkFrontierReportSnapshot PRIMARY KEY (jobId, filterId)
+);
+
+GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE frontierReportSnapshot TO netarchivesuite;
+
 -- *****************************************************************************
 -- Area: Extended fields definitions
 -- *****************************************************************************
@@ -123,6 +123,9 @@ public class HarvestSchedulerMonitorServer
                 } else {
                     log.info("Job #{} succesfully completed", jobID);
                 }
+                if (cmsg.getUploadStatistics() != null) {
+                    log.info("Job #{} upload statistics: {}", jobID, cmsg.getUploadStatistics());
+                }
                 job.setStatus(newStatus);
                 job.appendHarvestErrors(cmsg.getHarvestErrors());
                 job.appendHarvestErrorDetails(cmsg.getHarvestErrorDetails());
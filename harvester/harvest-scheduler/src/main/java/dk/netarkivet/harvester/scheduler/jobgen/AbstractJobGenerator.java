@@ -35,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.ConfigurationExpectations;
 import dk.netarkivet.harvester.datamodel.Constants;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.FullHarvest;
@@ -57,7 +58,8 @@ import dk.netarkivet.harvester.datamodel.eav.EAV;
  * <p>
  * The base algorithm iterates over domain configurations within the harvest definition, and according to the
  * configuration ({@link HarvesterSettings#JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE}, constitutes a subset of domain
- * configurations from which one or more jobs will be generated.
+ * configurations from which one or more jobs will be generated. Generators which split each subset further into
+ * partitions that can be turned into jobs in parallel extend {@link PartitioningJobGenerator}.
  */
 abstract class AbstractJobGenerator implements JobGenerator {
 
@@ -76,6 +78,8 @@ abstract class AbstractJobGenerator implements JobGenerator {
     public int generateJobs(HarvestDefinition harvest) {
         log.info("Generating jobs for harvestdefinition #{} using class '{}'", harvest.getOid(), this.getClass());
         int jobsMade = 0;
+        // Expectations are computed many times per configuration while sorting and packing
+        ConfigurationExpectations.getInstance().load();
         final Iterator<DomainConfiguration> domainConfigurations = harvest.getDomainConfigurations();
         log.info("Now ready to iterate over the domainConfigurations for harvestdefinition #{}", harvest.getOid());
         harvest.setNumEvents(harvest.getNumEvents() + 1);
@@ -88,16 +92,10 @@ abstract class AbstractJobGenerator implements JobGenerator {
                 subset.add(domainConfigurations.next());
             }
 
-            final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
-                    harvest);
-            log.trace("Sorting domains with instance of " + domainConfigurationSubsetComparator.getClass().getName());
-            Collections.sort(subset, domainConfigurationSubsetComparator);
-            log.trace("{} domainconfigs now sorted and ready to processing for harvest #{}", subset.size(),
-                    harvest.getOid());
             if (subset.size() == 0) {
                 log.warn("Processing a domain config subset of zero size for HD #{}.", harvest.getOid());
             }
-            jobsMade += processDomainConfigurationSubset(harvest, subset.iterator());
+            jobsMade += processSubset(harvest, subset);
             if (jobsMade == 0) {
                 log.warn("Created 0 jobs for HD #{} from domain cfg subset size {}.", harvest.getOid(), subset.size());
             } else {
@@ -138,6 +136,25 @@ abstract class AbstractJobGenerator implements JobGenerator {
         return jobsMade;
     }
 
+    /**
+     * Sorts a subset of domain configurations with the comparator returned by
+     * {@link #getDomainConfigurationSubsetComparator(HarvestDefinition)} and makes jobs from it with
+     * {@link #processDomainConfigurationSubset(HarvestDefinition, Iterator)}.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param subset the configurations to make jobs from.
+     * @return the number of jobs created.
+     */
+    protected int processSubset(HarvestDefinition harvest, List<DomainConfiguration> subset) {
+        final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
+                harvest);
+        log.trace("Sorting domains with instance of " + domainConfigurationSubsetComparator.getClass().getName());
+        Collections.sort(subset, domainConfigurationSubsetComparator);
+        log.trace("{} domainconfigs now sorted and ready to processing for harvest #{}", subset.size(),
+                harvest.getOid());
+        return processDomainConfigurationSubset(harvest, subset.iterator());
+    }
+
     /**
      * Instantiates a new job.
      *
@@ -0,0 +1,209 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.HarvestDefinition;
+import dk.netarkivet.harvester.datamodel.Job;
+
+/**
+ * A job generator packing configurations into jobs of a target size with a first-fit-decreasing pass over each
+ * partition of the configurations. The partitions and the limits a configuration must share with its job are the same
+ * as for the {@link DefaultJobGenerator}, but instead of limiting the relative size difference of the configurations
+ * in a job, the configurations are placed, largest first, into the first job with room for them. Every job is then
+ * filled up to the same expected number of objects and bytes, instead of leaving many small jobs behind the large ones.
+ * <p>
+ * The target size of a job is {@link HarvesterSettings#JOBGEN_BIN_PACKING_MAX_EXPECTED_OBJECTS} objects and
+ * {@link HarvesterSettings#JOBGEN_BIN_PACKING_MAX_EXPECTED_BYTES} bytes, but the object target is lowered to split a
+ * partition evenly into as few jobs as the target allows, and into at least
+ * {@link HarvesterSettings#JOBGEN_BIN_PACKING_HARVESTERS} jobs, so the expected run time of the jobs is balanced over
+ * the harvesters.
+ */
+public class BinPackingJobGenerator extends DefaultJobGenerator {
+
+    /** Logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(BinPackingJobGenerator.class);
+
+    /** The largest number of objects a job is expected to harvest. */
+    private final long MAX_EXPECTED_OBJECTS = Settings.getLong(HarvesterSettings.JOBGEN_BIN_PACKING_MAX_EXPECTED_OBJECTS);
+
+    /** The largest number of bytes a job is expected to harvest. */
+    private final long MAX_EXPECTED_BYTES = Settings.getLong(HarvesterSettings.JOBGEN_BIN_PACKING_MAX_EXPECTED_BYTES);
+
+    /** The number of harvesters sharing the jobs. */
+    private final int HARVESTERS = Math.max(1, Settings.getInt(HarvesterSettings.JOBGEN_BIN_PACKING_HARVESTERS));
+
+    /** Singleton instance. */
+    private static BinPackingJobGenerator instance;
+
+    /**
+     * @return the singleton instance, builds it if necessary.
+     */
+    public static synchronized BinPackingJobGenerator getInstance() {
+        if (instance == null) {
+            instance = new BinPackingJobGenerator();
+        }
+        return instance;
+    }
+
+    /**
+     * A configuration and the expected size of its harvest.
+     */
+    private static class Item {
+        private final DomainConfiguration cfg;
+        private final long objects;
+        private final long bytes;
+
+        Item(DomainConfiguration cfg, long objects, long bytes) {
+            this.cfg = cfg;
+            this.objects = objects;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A job being filled, and the expected size of its harvest so far.
+     */
+    private static class Bin {
+        private final Job job;
+        private long objects;
+        private long bytes;
+
+        Bin(Job job) {
+            this.job = job;
+        }
+
+        /**
+         * @param item a configuration placed in the job.
+         */
+        void add(Item item) {
+            objects += item.objects;
+            bytes += item.bytes;
+        }
+    }
+
+    /**
+     * Orders items by decreasing expected number of objects.
+     */
+    private static final Comparator<Item> LARGEST_FIRST = new Comparator<Item>() {
+        @Override
+        public int compare(Item item1, Item item2) {
+            return item1.objects == item2.objects ? 0 : (item1.objects > item2.objects ? -1 : 1);
+        }
+    };
+
+    @Override
+    protected List<Job> packDomainConfigurations(HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfPartition) {
+        long objectLimit = harvest.getMaxCountObjects();
+        long byteLimit = harvest.getMaxBytes();
+        List<Item> items = new ArrayList<Item>();
+        long totalObjects = 0;
+        long largest = 0;
+        while (domainConfPartition.hasNext()) {
+            DomainConfiguration cfg = domainConfPartition.next();
+            if (isExcluded(cfg)) {
+                continue;
+            }
+            Item item = new Item(cfg, cfg.getExpectedNumberOfObjects(objectLimit, byteLimit),
+                    cfg.getExpectedNumberOfBytes(objectLimit, byteLimit));
+            items.add(item);
+            totalObjects += item.objects;
+            largest = Math.max(largest, item.objects);
+        }
+        // The sort is stable, so configurations of equal size stay in the order of the partition
+        Collections.sort(items, LARGEST_FIRST);
+        long objectBudget = getObjectBudget(totalObjects, largest);
+
+        List<Bin> bins = new ArrayList<Bin>();
+        for (Item item : items) {
+            Bin target = null;
+            for (Bin bin : bins) {
+                if (bin.objects + item.objects <= objectBudget && bin.bytes + item.bytes <= MAX_EXPECTED_BYTES
+                        && canAccept(bin.job, item.cfg, null)) {
+                    target = bin;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new Bin(getNewJob(harvest, item.cfg));
+                bins.add(target);
+            } else {
+                target.job.addConfiguration(item.cfg);
+            }
+            target.add(item);
+        }
+
+        List<Job> jobs = new ArrayList<Job>(bins.size());
+        for (Bin bin : bins) {
+            editJobOrderXml(bin.job);
+            jobs.add(bin.job);
+            log.trace("Packed job with {} configurations, expected to harvest {} objects and {} bytes",
+                    bin.job.getDomainConfigurationMap().size(), bin.objects, bin.bytes);
+        }
+        log.debug("Packed {} configurations for harvest #{} into {} jobs of at most {} expected objects",
+                items.size(), harvest.getOid(), jobs.size(), objectBudget);
+        return jobs;
+    }
+
+    /**
+     * The expected number of objects to fill each job with: the total split evenly into as few jobs as
+     * {@link #MAX_EXPECTED_OBJECTS} allows, but at least {@link #HARVESTERS} jobs, and never less than the largest
+     * configuration.
+     *
+     * @param totalObjects the expected number of objects of all configurations of a partition.
+     * @param largest the expected number of objects of the largest configuration of the partition.
+     * @return the target number of objects per job.
+     */
+    long getObjectBudget(long totalObjects, long largest) {
+        long jobs = Math.max(HARVESTERS, (totalObjects + MAX_EXPECTED_OBJECTS - 1) / MAX_EXPECTED_OBJECTS);
+        long evenShare = (totalObjects + jobs - 1) / jobs;
+        return Math.min(MAX_EXPECTED_OBJECTS, Math.max(largest, evenShare));
+    }
+
+    /**
+     * Only the limits which a job needs its configurations to share are checked here; the size of the job is handled
+     * by the packing.
+     */
+    @Override
+    protected boolean checkSpecificAcceptConditions(Job job, DomainConfiguration cfg) {
+        return checkLimitConditions(job, cfg);
+    }
+
+    /** Only to be used by unittests. */
+    public static void reset() {
+        instance = null;
+    }
+
+}
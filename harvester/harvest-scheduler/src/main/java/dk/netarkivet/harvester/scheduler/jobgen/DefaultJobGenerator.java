@@ -22,21 +22,21 @@
  */
 package dk.netarkivet.harvester.scheduler.jobgen;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.Job;
-import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.NumberUtils;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 
@@ -44,7 +44,7 @@ import dk.netarkivet.harvester.datamodel.eav.EAV;
  * The legacy job generator implementation. Aims at generating jobs that execute in a predictable time by taking
  * advantage of previous crawls statistics.
  */
-public class DefaultJobGenerator extends AbstractJobGenerator {
+public class DefaultJobGenerator extends PartitioningJobGenerator {
 
     /** Logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(DefaultJobGenerator.class);
@@ -144,40 +144,62 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
     }
 
     /**
-     * Create new jobs from a collection of configurations. All configurations must use the same order.xml file.Jobs
-     *
-     * @param harvest the {@link HarvestDefinition} being processed.
-     * @param domainConfSubset the configurations to use to create the jobs
-     * @return The number of jobs created
-     * @throws ArgumentNotValid if any of the parameters is null or if the cfglist does not contain any configurations
+     * Configurations are partitioned by harvest template, EAV attributes and, unless jobs are split by object limit,
+     * by byte limit, which are the first criteria of {@link CompareConfigsDesc}. A job never holds configurations that
+     * differ in any of these.
      */
     @Override
-    protected int processDomainConfigurationSubset(HarvestDefinition harvest,
+    protected Comparator<DomainConfiguration> getPartitionComparator(HarvestDefinition harvest) {
+        return new ComparePartitions(harvest.getMaxBytes(), Settings.getBoolean(HarvesterSettings.SPLIT_BY_OBJECTLIMIT));
+    }
+
+    /**
+     * Compare the partition criteria of two configurations in the same order as {@link CompareConfigsDesc}.
+     */
+    private static class ComparePartitions implements Comparator<DomainConfiguration> {
+
+        private final long byteLimit;
+        private final boolean splitByObjectLimit;
+
+        ComparePartitions(long byteLimit, boolean splitByObjectLimit) {
+            this.byteLimit = byteLimit;
+            this.splitByObjectLimit = splitByObjectLimit;
+        }
+
+        @Override
+        public int compare(DomainConfiguration cfg1, DomainConfiguration cfg2) {
+            int cmp = cfg1.getOrderXmlName().compareTo(cfg2.getOrderXmlName());
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = EAV.compare(cfg1.getAttributesAndTypes(), cfg2.getAttributesAndTypes());
+            if (cmp != 0 || splitByObjectLimit) {
+                return cmp;
+            }
+            long bytelimit1 = NumberUtils.minInf(cfg1.getMaxBytes(), byteLimit);
+            long bytelimit2 = NumberUtils.minInf(cfg2.getMaxBytes(), byteLimit);
+            return NumberUtils.compareInf(bytelimit2, bytelimit1);
+        }
+    }
+
+    @Override
+    protected List<Job> packDomainConfigurations(HarvestDefinition harvest,
             Iterator<DomainConfiguration> domainConfSubset) {
-        int jobsMade = 0;
+        List<Job> jobs = new ArrayList<Job>();
         Job job = null;
         log.debug("Adding domainconfigs with the same order.xml for harvest #{}", harvest.getOid());
-        JobDAO dao = JobDAO.getInstance();
         DomainConfiguration previousDomainConf = null;
         while (domainConfSubset.hasNext()) {
             DomainConfiguration cfg = domainConfSubset.next();
             log.trace("Processing " + DomainConfiguration.cfgToString(cfg));
-            if (EXCLUDE_ZERO_BUDGET && (0 == cfg.getMaxBytes() || 0 == cfg.getMaxObjects())) {
-                log.info("Config '{}' for '{}'" + " excluded (0{})", cfg.getName(), cfg.getDomainName(),
-                        (cfg.getMaxBytes() == 0 ? " bytes" : " objects"));
+            if (isExcluded(cfg)) {
                 continue;
             }
-            // excluding configs with no active seeds
-            if (ignoreConfiguration(cfg)) {
-            	log.info("Ignoring config '{}' for domain '{}' - no active seeds !", cfg.getName(), cfg.getDomainName());
-            	continue;
-            }
-            
+
             if ((job == null) || (!canAccept(job, cfg, previousDomainConf))) {
                 if (job != null) {
-                    // If we're done with a job, write it out
-                    ++jobsMade;
-                    dao.create(job);
+                    // If we're done with a job, keep it for writing out
+                    jobs.add(job);
                 }
                 job = getNewJob(harvest, cfg);
                 log.trace("Created new job for harvest #{} to add configuration {} for domain {}", harvest.getOid(),
@@ -191,9 +213,8 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
             previousDomainConf = cfg;
         }
         if (job != null) {
-            ++jobsMade;
             editJobOrderXml(job);
-            dao.create(job);
+            jobs.add(job);
             if (log.isTraceEnabled()) {
                 log.trace("Generated job: '{}'", job.toString());
                 StringBuilder logMsg = new StringBuilder("Job configurationsDomain:");
@@ -202,47 +223,40 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
                 }
                 log.trace(logMsg.toString());
             }
-            log.debug("Created {} jobs for harvest #{}", jobsMade, harvest.getOid());
+            log.debug("Created {} jobs for harvest #{}", jobs.size(), harvest.getOid());
         }
-        return jobsMade;
+        return jobs;
     }
 
+    /**
+     * Tests whether a configuration should be left out of the jobs: if it has a zero budget and such configurations
+     * are excluded, or if it has no active seeds.
+     *
+     * @param cfg the {@link DomainConfiguration} being processed
+     * @return true if no job should harvest the configuration.
+     */
+    protected boolean isExcluded(DomainConfiguration cfg) {
+        if (EXCLUDE_ZERO_BUDGET && (0 == cfg.getMaxBytes() || 0 == cfg.getMaxObjects())) {
+            log.info("Config '{}' for '{}'" + " excluded (0{})", cfg.getName(), cfg.getDomainName(),
+                    (cfg.getMaxBytes() == 0 ? " bytes" : " objects"));
+            return true;
+        }
+        // excluding configs with no active seeds
+        if (ignoreConfiguration(cfg)) {
+            log.info("Ignoring config '{}' for domain '{}' - no active seeds !", cfg.getName(), cfg.getDomainName());
+            return true;
+        }
+        return false;
+    }
 
     @Override
     protected boolean checkSpecificAcceptConditions(Job job, DomainConfiguration cfg) {
-        if (job.isSnapshot()
-                && CONFIG_COUNT_SNAPSHOT != null
-                && CONFIG_COUNT_SNAPSHOT > 0
-                && job.getDomainConfigurationMap().size() >= CONFIG_COUNT_SNAPSHOT
-                ) {
-            log.debug("Job for HD #{} has now reached the CONFIG_COUNT_SNAPSHOT limit {}", job.getOrigHarvestDefinitionID(), CONFIG_COUNT_SNAPSHOT);
+        if (!checkLimitConditions(job, cfg)) {
             return false;
         }
 
-        // By default byte limit is used as base criterion for splitting a
-        // harvest in config chunks, however the configuration can override
-        // this and instead use object limit.
-        boolean splitByObjectLimit = Settings.getBoolean(HarvesterSettings.SPLIT_BY_OBJECTLIMIT);
         long forceMaxObjectsPerDomain = job.getForceMaxObjectsPerDomain();
         long forceMaxBytesPerDomain = job.getForceMaxBytesPerDomain();
-        if (splitByObjectLimit) {
-            if (NumberUtils.compareInf(cfg.getMaxObjects(), forceMaxObjectsPerDomain) < 0
-                    || (job.isConfigurationSetsObjectLimit() && NumberUtils.compareInf(cfg.getMaxObjects(),
-                            forceMaxObjectsPerDomain) != 0)) {
-                log.debug("Job for HD #{} OBJECT_LIMIT of config (domain,config={},{}) incompatible with current job", 
-                        job.getOrigHarvestDefinitionID(), cfg.getDomainName(), cfg.getName());
-                return false;
-            }
-        } else {
-            if (NumberUtils.compareInf(cfg.getMaxBytes(), forceMaxBytesPerDomain) < 0
-                    || (job.isConfigurationSetsByteLimit() && NumberUtils.compareInf(cfg.getMaxBytes(),
-                            forceMaxBytesPerDomain) != 0)) {
-                log.debug("Job for HD #{} BYTE_LIMIT of config (domain,config={},{}) incompatible with current job", 
-                        job.getOrigHarvestDefinitionID(), cfg.getDomainName(), cfg.getName());
-                return false;
-            }
-        }
-
         long maxCountObjects = job.getMaxCountObjects();
         long minCountObjects = job.getMinCountObjects();
 
@@ -301,6 +315,51 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
         return true;
     }
 
+    /**
+     * Tests the limits a configuration must share with a job to be added to it: the job must not have reached the
+     * {@link HarvesterSettings#JOBGEN_FIXED_CONFIG_COUNT_SNAPSHOT} limit, and the byte limit (or object limit, if
+     * {@link HarvesterSettings#SPLIT_BY_OBJECTLIMIT} is set) of the configuration must be compatible with the job.
+     *
+     * @param job the {@link Job} being built
+     * @param cfg the {@link DomainConfiguration} to test
+     * @return true if the configuration passes the conditions.
+     */
+    protected boolean checkLimitConditions(Job job, DomainConfiguration cfg) {
+        if (job.isSnapshot()
+                && CONFIG_COUNT_SNAPSHOT != null
+                && CONFIG_COUNT_SNAPSHOT > 0
+                && job.getDomainConfigurationMap().size() >= CONFIG_COUNT_SNAPSHOT
+                ) {
+            log.debug("Job for HD #{} has now reached the CONFIG_COUNT_SNAPSHOT limit {}", job.getOrigHarvestDefinitionID(), CONFIG_COUNT_SNAPSHOT);
+            return false;
+        }
+
+        // By default byte limit is used as base criterion for splitting a
+        // harvest in config chunks, however the configuration can override
+        // this and instead use object limit.
+        boolean splitByObjectLimit = Settings.getBoolean(HarvesterSettings.SPLIT_BY_OBJECTLIMIT);
+        long forceMaxObjectsPerDomain = job.getForceMaxObjectsPerDomain();
+        long forceMaxBytesPerDomain = job.getForceMaxBytesPerDomain();
+        if (splitByObjectLimit) {
+            if (NumberUtils.compareInf(cfg.getMaxObjects(), forceMaxObjectsPerDomain) < 0
+                    || (job.isConfigurationSetsObjectLimit() && NumberUtils.compareInf(cfg.getMaxObjects(),
+                            forceMaxObjectsPerDomain) != 0)) {
+                log.debug("Job for HD #{} OBJECT_LIMIT of config (domain,config={},{}) incompatible with current job", 
+                        job.getOrigHarvestDefinitionID(), cfg.getDomainName(), cfg.getName());
+                return false;
+            }
+        } else {
+            if (NumberUtils.compareInf(cfg.getMaxBytes(), forceMaxBytesPerDomain) < 0
+                    || (job.isConfigurationSetsByteLimit() && NumberUtils.compareInf(cfg.getMaxBytes(),
+                            forceMaxBytesPerDomain) != 0)) {
+                log.debug("Job for HD #{} BYTE_LIMIT of config (domain,config={},{}) incompatible with current job", 
+                        job.getOrigHarvestDefinitionID(), cfg.getDomainName(), cfg.getName());
+                return false;
+            }
+        }
+        return true;
+    }
+
     /** Only to be used by unittests. */
     public static void reset() {
         instance = null;
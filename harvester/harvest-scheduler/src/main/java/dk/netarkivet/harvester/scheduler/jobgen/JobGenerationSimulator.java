@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.HarvestDefinition;
+import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
+import dk.netarkivet.harvester.datamodel.HarvestInfo;
+import dk.netarkivet.harvester.datamodel.Job;
+
+/**
+ * Compares job generators on a harvest definition, without creating any jobs. The configurations of the harvest
+ * definition are split into jobs by the {@link DefaultJobGenerator} and the {@link BinPackingJobGenerator}, and the
+ * jobs are dispatched, in the order they would be created, to the first idle of a given number of harvesters. The run
+ * time of a job is taken to be proportional to the number of objects its configurations harvested the last time the
+ * harvest definition ran, or the expected number of objects for configurations not harvested by it before.
+ * <p>
+ * For each generator, the number of jobs, the size of the jobs, the makespan (the time until all jobs are done) and
+ * the utilization of the harvesters during the makespan is reported.
+ * <p>
+ * Usage: JobGenerationSimulator harvestDefinitionName numberOfHarvesters [objectsPerSecond]
+ * <p>
+ * Without objectsPerSecond, time is reported as a number of objects harvested by one harvester.
+ */
+public class JobGenerationSimulator {
+
+    /** The harvest definition to simulate job generation for. */
+    private final HarvestDefinition harvest;
+    /** The number of harvesters running the jobs. */
+    private final int harvesters;
+    /** The configurations of the harvest definition, by domain name. */
+    private final Map<String, DomainConfiguration> configurations = new HashMap<String, DomainConfiguration>();
+    /** The configurations of the harvest definition, in the order they are given to job generators. */
+    private final List<DomainConfiguration> configurationList = new ArrayList<DomainConfiguration>();
+
+    /**
+     * @param harvest the harvest definition to simulate job generation for.
+     * @param harvesters the number of harvesters running the jobs.
+     */
+    JobGenerationSimulator(HarvestDefinition harvest, int harvesters) {
+        this.harvest = harvest;
+        this.harvesters = harvesters;
+        Iterator<DomainConfiguration> it = harvest.getDomainConfigurations();
+        while (it.hasNext()) {
+            DomainConfiguration cfg = it.next();
+            configurations.put(cfg.getDomainName(), cfg);
+            configurationList.add(cfg);
+        }
+    }
+
+    /**
+     * Make the jobs a generator would make, in the order it would store them, but without storing them.
+     *
+     * @param generator a job generator which partitions configurations.
+     * @return the jobs.
+     */
+    List<Job> makeJobs(PartitioningJobGenerator generator) {
+        long subsetSize = Settings.getLong(HarvesterSettings.JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE);
+        List<Job> jobs = new ArrayList<Job>();
+        for (long start = 0; start < configurationList.size(); start += subsetSize) {
+            List<DomainConfiguration> subset = configurationList.subList((int) start,
+                    (int) Math.min(configurationList.size(), start + subsetSize));
+            for (List<DomainConfiguration> partition : PartitioningJobGenerator.partition(subset,
+                    generator.getPartitionComparator(harvest))) {
+                Collections.sort(partition, generator.getDomainConfigurationSubsetComparator(harvest));
+                jobs.addAll(generator.packDomainConfigurations(harvest, partition.iterator()));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @param job a job.
+     * @return the run time of the job, as the number of objects it is expected to harvest.
+     */
+    long getRunTime(Job job) {
+        long objects = 0;
+        for (String domainName : job.getDomainConfigurationMap().keySet()) {
+            DomainConfiguration cfg = configurations.get(domainName);
+            HarvestInfo previous = cfg.getDomainhistory().getSpecifiedHarvestInfo(harvest.getOid(), cfg.getName());
+            if (previous != null) {
+                objects += previous.getCountObjectRetrieved();
+            } else {
+                objects += cfg.getExpectedNumberOfObjects(job.getForceMaxObjectsPerDomain(),
+                        job.getForceMaxBytesPerDomain());
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Dispatch jobs in order to the first idle harvester.
+     *
+     * @param runTimes the run times of the jobs.
+     * @param harvesters the number of harvesters.
+     * @return the time when the last job is done.
+     */
+    static long getMakespan(List<Long> runTimes, int harvesters) {
+        PriorityQueue<Long> idleAt = new PriorityQueue<Long>();
+        for (int i = 0; i < harvesters; i++) {
+            idleAt.add(0L);
+        }
+        long makespan = 0;
+        for (long runTime : runTimes) {
+            long done = idleAt.poll() + runTime;
+            idleAt.add(done);
+            makespan = Math.max(makespan, done);
+        }
+        return makespan;
+    }
+
+    /**
+     * Simulate a generator and report the result.
+     *
+     * @param generator a job generator which partitions configurations.
+     * @param objectsPerSecond the number of objects a harvester harvests per second, or 0 to report time in objects.
+     */
+    void report(PartitioningJobGenerator generator, double objectsPerSecond) {
+        List<Long> runTimes = new ArrayList<Long>();
+        long total = 0;
+        for (Job job : makeJobs(generator)) {
+            long runTime = getRunTime(job);
+            runTimes.add(runTime);
+            total += runTime;
+        }
+        long makespan = getMakespan(runTimes, harvesters);
+        List<Long> sorted = new ArrayList<Long>(runTimes);
+        Collections.sort(sorted);
+        System.out.println(generator.getClass().getSimpleName() + ":");
+        System.out.println("  jobs: " + runTimes.size());
+        if (!sorted.isEmpty()) {
+            System.out.println("  job run time (min/median/max): " + formatTime(sorted.get(0), objectsPerSecond)
+                    + " / " + formatTime(sorted.get(sorted.size() / 2), objectsPerSecond) + " / "
+                    + formatTime(sorted.get(sorted.size() - 1), objectsPerSecond));
+        }
+        System.out.println("  makespan on " + harvesters + " harvesters: " + formatTime(makespan, objectsPerSecond));
+        if (makespan > 0) {
+            System.out.println(String.format("  harvester utilization: %.1f%%", 100.0 * total
+                    / ((double) makespan * harvesters)));
+        }
+    }
+
+    /**
+     * @param objects a time given as a number of objects harvested.
+     * @param objectsPerSecond the number of objects a harvester harvests per second, or 0 to keep the objects.
+     * @return the time in hours or objects.
+     */
+    private static String formatTime(long objects, double objectsPerSecond) {
+        if (objectsPerSecond > 0) {
+            return String.format("%.1f hours", objects / objectsPerSecond / 3600);
+        }
+        return objects + " objects";
+    }
+
+    /**
+     * Run the simulation.
+     *
+     * @param args the name of a harvest definition, the number of harvesters and, optionally, the number of objects
+     * harvested per second by a harvester.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: JobGenerationSimulator harvestDefinitionName numberOfHarvesters "
+                    + "[objectsPerSecond]");
+            System.exit(1);
+        }
+        HarvestDefinition harvest = HarvestDefinitionDAO.getInstance().getHarvestDefinition(args[0]);
+        if (harvest == null) {
+            System.err.println("Unknown harvest definition '" + args[0] + "'");
+            System.exit(1);
+        }
+        int harvesters = Integer.parseInt(args[1]);
+        double objectsPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        JobGenerationSimulator simulator = new JobGenerationSimulator(harvest, harvesters);
+        System.out.println("Harvest definition '" + harvest.getName() + "' with "
+                + simulator.configurationList.size() + " configurations");
+        simulator.report(DefaultJobGenerator.getInstance(), objectsPerSecond);
+        simulator.report(BinPackingJobGenerator.getInstance(), objectsPerSecond);
+    }
+}
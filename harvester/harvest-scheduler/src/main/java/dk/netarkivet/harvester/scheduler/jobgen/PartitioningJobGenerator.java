@@ -0,0 +1,233 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.HarvestDefinition;
+import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
+
+/**
+ * A base class for job generators which split each subset of domain configurations into partitions that can never
+ * share a job (see {@link #getPartitionComparator(HarvestDefinition)}). The partitions are turned into jobs in
+ * parallel by {@link #packDomainConfigurations(HarvestDefinition, Iterator)}, on a pool of
+ * {@link HarvesterSettings#JOBGEN_THREADS} threads.
+ */
+abstract class PartitioningJobGenerator extends AbstractJobGenerator {
+
+    /** Logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(PartitioningJobGenerator.class);
+
+    /** How many jobs made from partitions of domain configurations to store in one batch. */
+    private static final int JOB_BATCH_SIZE = 100;
+
+    /** The pool making jobs from partitions of domain configurations. Created when first used. */
+    private static ExecutorService partitionPool;
+
+    /**
+     * Returns a comparator splitting the subset of configurations scanned at each iteration into partitions which are
+     * processed in parallel by {@link #packDomainConfigurations(HarvestDefinition, Iterator)}. Configurations in
+     * different partitions, i.e. which are not equal according to this comparator, must never be able to share a job,
+     * and the comparator returned by {@link #getDomainConfigurationSubsetComparator(HarvestDefinition)} must order
+     * configurations by this comparator first.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @return a comparator
+     */
+    protected abstract Comparator<DomainConfiguration> getPartitionComparator(HarvestDefinition harvest);
+
+    /**
+     * Make jobs from a sorted partition of configurations without storing them. Must be safe to call from several
+     * threads at once.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfPartition the configurations to use to create the jobs
+     * @return the jobs made, in the order they were completed.
+     */
+    protected abstract List<Job> packDomainConfigurations(HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfPartition);
+
+    /**
+     * Makes jobs from the configurations as one partition, and stores them.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfSubset the configurations to use to create the jobs
+     * @return The number of jobs created
+     */
+    @Override
+    protected int processDomainConfigurationSubset(HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfSubset) {
+        List<Job> jobs = packDomainConfigurations(harvest, domainConfSubset);
+        JobDAO.getInstance().create(jobs);
+        return jobs.size();
+    }
+
+    /**
+     * Splits a subset of domain configurations into partitions which can never share a job, and makes the jobs of each
+     * partition in parallel. The jobs are stored in the order of the partitions and, within a partition, in the order
+     * they were made, so the result is the same as sorting the whole subset and processing it in one go, no matter how
+     * many threads are used.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param subset the configurations to make jobs from.
+     * @return the number of jobs created.
+     */
+    @Override
+    protected int processSubset(final HarvestDefinition harvest, List<DomainConfiguration> subset) {
+        Comparator<DomainConfiguration> partitionComparator = getPartitionComparator(harvest);
+        Collection<List<DomainConfiguration>> partitions = partition(subset, partitionComparator);
+        log.debug("Making jobs for HD #{} from {} partitions of {} domain configurations", harvest.getOid(),
+                partitions.size(), subset.size());
+
+        final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(harvest);
+        ExecutorService pool = getPartitionPool();
+        List<Future<List<Job>>> results = new ArrayList<Future<List<Job>>>(partitions.size());
+        for (final List<DomainConfiguration> partition : partitions) {
+            results.add(pool.submit(new Callable<List<Job>>() {
+                @Override
+                public List<Job> call() {
+                    Collections.sort(partition, domainConfigurationSubsetComparator);
+                    return packDomainConfigurations(harvest, partition.iterator());
+                }
+            }));
+        }
+
+        int jobsMade = 0;
+        List<Job> batch = new ArrayList<Job>(JOB_BATCH_SIZE);
+        try {
+            for (Future<List<Job>> result : results) {
+                for (Job job : result.get()) {
+                    batch.add(job);
+                    if (batch.size() == JOB_BATCH_SIZE) {
+                        jobsMade += storeJobs(batch);
+                    }
+                }
+            }
+            jobsMade += storeJobs(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalState("Interrupted while generating jobs for HD #" + harvest.getOid(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalState("Failed generating jobs for HD #" + harvest.getOid(), e.getCause());
+        } finally {
+            for (Future<List<Job>> result : results) {
+                result.cancel(true);
+            }
+        }
+        return jobsMade;
+    }
+
+    /**
+     * Split configurations into partitions.
+     *
+     * @param subset the configurations.
+     * @param partitionComparator the comparator defining the partitions.
+     * @return the partitions, in the order of the comparator. Each keeps the configurations in the order of the subset.
+     */
+    static Collection<List<DomainConfiguration>> partition(List<DomainConfiguration> subset,
+            Comparator<DomainConfiguration> partitionComparator) {
+        // Keyed by the first configuration of each partition, in partition order
+        Map<DomainConfiguration, List<DomainConfiguration>> partitions = new TreeMap<DomainConfiguration, List<DomainConfiguration>>(
+                partitionComparator);
+        for (DomainConfiguration cfg : subset) {
+            List<DomainConfiguration> partition = partitions.get(cfg);
+            if (partition == null) {
+                partition = new ArrayList<DomainConfiguration>();
+                partitions.put(cfg, partition);
+            }
+            partition.add(cfg);
+        }
+        return partitions.values();
+    }
+
+    /**
+     * Store jobs in one batch and clear the list.
+     *
+     * @param jobs the jobs to store.
+     * @return the number of jobs stored.
+     */
+    private int storeJobs(List<Job> jobs) {
+        int stored = jobs.size();
+        if (stored > 0) {
+            JobDAO.getInstance().create(jobs);
+            jobs.clear();
+        }
+        return stored;
+    }
+
+    /**
+     * @return the pool making jobs from partitions, shared by all job generators.
+     */
+    private static synchronized ExecutorService getPartitionPool() {
+        if (partitionPool == null) {
+            int threads = Settings.getInt(HarvesterSettings.JOBGEN_THREADS);
+            if (threads <= 0) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            log.info("Making jobs from partitions of domain configurations with {} threads", threads);
+            partitionPool = Executors.newFixedThreadPool(threads, new JobGeneratorThreads());
+        }
+        return partitionPool;
+    }
+
+    /**
+     * Names the job generation threads, to make them recognizable in thread dumps.
+     */
+    private static class JobGeneratorThreads implements ThreadFactory {
+
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "JobGenerator-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
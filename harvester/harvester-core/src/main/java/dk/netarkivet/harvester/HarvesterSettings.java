@@ -160,6 +160,44 @@ public class HarvesterSettings {
      */
     public static String JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE = "settings.harvester.scheduler.jobGen.domainConfigSubsetSize";
 
+    /**
+     * <b>settings.harvester.scheduler.jobGen.threads</b>: <br>
+     * The number of threads used to make jobs from the partitions of a subset of domain configurations, if the job
+     * generator partitions them. The jobs made are the same regardless of the number of threads. 0 means one thread per
+     * available processor.
+     */
+    public static String JOBGEN_THREADS = "settings.harvester.scheduler.jobGen.threads";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.binPacking.maxExpectedObjects</b>: <br>
+     * If the job generator is {@link BinPackingJobGenerator}, then this parameter is the largest total number of
+     * objects a job is expected to harvest. A configuration which alone is expected to exceed it gets a job of its own.
+     */
+    public static String JOBGEN_BIN_PACKING_MAX_EXPECTED_OBJECTS = "settings.harvester.scheduler.jobGen.binPacking.maxExpectedObjects";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.binPacking.maxExpectedBytes</b>: <br>
+     * If the job generator is {@link BinPackingJobGenerator}, then this parameter is the largest total number of bytes
+     * a job is expected to harvest.
+     */
+    public static String JOBGEN_BIN_PACKING_MAX_EXPECTED_BYTES = "settings.harvester.scheduler.jobGen.binPacking.maxExpectedBytes";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.binPacking.harvesters</b>: <br>
+     * If the job generator is {@link BinPackingJobGenerator}, then this parameter is the number of harvesters expected
+     * to share the jobs of a harvest. Harvests too small to fill this many jobs are split into this many jobs of equal
+     * expected size, so no harvester is left idle.
+     */
+    public static String JOBGEN_BIN_PACKING_HARVESTERS = "settings.harvester.scheduler.jobGen.binPacking.harvesters";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.cacheExpectations</b>: <br>
+     * Whether the expected size of harvests of domain configurations is computed from a table of the best previous
+     * harvest of each configuration, loaded once when jobs are first generated and kept up to date as harvests are
+     * reported. If false, the history of the domain is searched every time an expectation is computed.
+     */
+    public static String JOBGEN_CACHE_EXPECTATIONS = "settings.harvester.scheduler.jobGen.cacheExpectations";
+
     /**
      * <b>settings.harvester.scheduler.jobGen.config.fixedDomainCountFocused</b>: <br>
      * If the job generator is {@link FixedDomainConfigurationCountJobGenerator}, then this parameter represents the
@@ -192,8 +230,8 @@ public class HarvesterSettings {
     /**
      * <b>settings.harvester.scheduler.jobGen.class</b>: <br>
      * The fully qualified class name of the chosen job generator implementation, currently either
-     * {@link DefaultJobGenerator} or {@link FixedDomainConfigurationCountJobGenerator}. The default is
-     * {@link DefaultJobGenerator}.
+     * {@link DefaultJobGenerator}, {@link BinPackingJobGenerator} or {@link FixedDomainConfigurationCountJobGenerator}.
+     * The default is {@link DefaultJobGenerator}.
      */
     public static String JOBGEN_CLASS = "settings.harvester.scheduler.jobGen.class";
 
@@ -282,6 +320,13 @@ public class HarvesterSettings {
      */
     public static String ALLOW_UPLOAD_FAILURES = "settings.harvester.harvesting.allowUploadFailures";
 
+    /**
+     * <b>settings.harvester.harvesting.uploadConcurrency</b>:<br>
+     * The maximum number of archive files uploaded concurrently by the harvester after a harvest. Each upload is retried
+     * by the arcrepository client as given by settings.common.arcrepositoryClient.storeRetries. Default is 4.
+     */
+    public static String UPLOAD_CONCURRENCY = "settings.harvester.harvesting.uploadConcurrency";
+
     /**
      * <b>settings.harvester.monitor.refreshInterval</b>:<br>
      * Time interval in seconds after which the harvest monitor pages will be automatically refreshed.
@@ -313,6 +358,28 @@ public class HarvesterSettings {
      */
     public static String HARVEST_MONITOR_DISPLAYED_FRONTIER_QUEUE_SIZE = "settings.harvester.monitor.displayedFrontierQueuesSize";
 
+    /**
+     * <b>settings.harvester.monitor.frontierReportStorage</b>:<br>
+     * How frontier reports are stored in the harvest database. With 'rows' (the default) every report line is a row in
+     * the frontierReportMonitor table. With 'snapshot' the latest report per job and filter is stored as one compressed
+     * columnar blob in the frontierReportSnapshot table, and only rewritten when the report has changed.
+     */
+    public static String HARVEST_MONITOR_FRONTIER_REPORT_STORAGE = "settings.harvester.monitor.frontierReportStorage";
+
+    /**
+     * <b>settings.harvester.monitor.frontierReportDeltas</b>:<br>
+     * With 'snapshot' frontier report storage, store changed reports as a delta against the stored snapshot as long as
+     * the delta stays small. Default is true.
+     */
+    public static String HARVEST_MONITOR_FRONTIER_REPORT_DELTAS = "settings.harvester.monitor.frontierReportDeltas";
+
+    /**
+     * <b>settings.harvester.monitor.writeQueueSize</b>:<br>
+     * Maximum number of progress records and frontier reports waiting to be written to the harvest database. When the
+     * queue is full, the harvest monitor waits for the database before handling more messages. Default is 1000.
+     */
+    public static String HARVEST_MONITOR_WRITE_QUEUE_SIZE = "settings.harvester.monitor.writeQueueSize";
+
     /**
      * <b>settings.harvester.harvesting.heritrix.crawlLoopWaitTime</b>:<br>
      * Time interval in seconds to wait during a crawl loop in the harvest controller. Default value is 20 seconds.
@@ -374,6 +441,13 @@ public class HarvesterSettings {
      */
     public static String FRONTIER_REPORT_FILTER_ARGS = "settings.harvester.harvesting.frontier.filter.args";
 
+    /**
+     * <b>settings.harvester.harvesting.frontier.offHeapLimit</b>:<br>
+     * Number of bytes of direct (off-heap) memory a full frontier report may use before the rest of it is spilled to a
+     * memory-mapped file in the cache directory. Default value is 268435456 bytes (256 MB).
+     */
+    public static String FRONTIER_REPORT_OFF_HEAP_LIMIT = "settings.harvester.harvesting.frontier.offHeapLimit";
+
     /**
      * <b>settings.harvester.harvesting.heritrix.abortIfConnectionLost</b>:<br>
      * Boolean flag. If set to true, the harvest controller will abort the current crawl when the JMX connection is
@@ -572,6 +646,13 @@ public class HarvesterSettings {
      * default: false 
      */
     public static String METADATA_COMPRESSION = "settings.harvester.harvesting.metadata.compression";
+
+    /**
+     * <b>settings.harvester.harvesting.metadata.compressionThreads</b> The number of records that are compressed at a
+     * time when a compressed WARC metadata file is written. The records are still written in order, each as a gzip
+     * member of its own. A value of 1 compresses the records one by one. default: 4
+     */
+    public static String METADATA_COMPRESSION_THREADS = "settings.harvester.harvesting.metadata.compressionThreads";
     
     /**
      * <b>settings.harvester.harvesting.heritrix.archiveNaming.collectionName</b>
@@ -767,6 +848,13 @@ public class HarvesterSettings {
      */
     public static String MAX_CRAWLLOG_IN_BROWSER = "settings.harvester.webinterface.maxCrawlLogInBrowser";
 
+    /**
+     * <b>settings.harvester.webinterface.crawlLogIndexMaxSize</b>: The maximum total size (in bytes) of the crawl log
+     * indices used by the QA pages. When exceeded, the least recently used indices are removed.
+     * default value: 10000000000
+     */
+    public static String CRAWLLOG_INDEX_MAX_SIZE = "settings.harvester.webinterface.crawlLogIndexMaxSize";
+
     /**
      * <b>settings.harvester.webinterface.runningjobsFilteringMethod</b>: The filtering method using on the running jobs page.
      * There are two available methods. Searching in the cached crawllogs (cachedLogs) or in the harvest database (database)  
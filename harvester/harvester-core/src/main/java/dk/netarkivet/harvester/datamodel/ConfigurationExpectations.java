@@ -0,0 +1,355 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * A table of what to expect from a harvest of each domain configuration. For every configuration that has been
+ * harvested, the table holds the best harvest info as chosen by
+ * {@link DomainHistory#getBestHarvestInfoExpectation(String, DomainHistory)}, i.e. the biggest harvest since the newest
+ * complete one, and the expected size of an object based on it.
+ * <p>
+ * The table is loaded from the historyinfo table in one query when jobs are first generated, and is kept up to date by
+ * the {@link DomainDAO} as harvest info is inserted. This lets {@link DomainConfiguration#getExpectedNumberOfObjects}
+ * compute its expectation with a lookup instead of a search through the domain history. Until the table is loaded, and
+ * for configurations whose harvest info was not inserted newest first, no expectation is given, and the domain history
+ * is searched as before.
+ */
+public class ConfigurationExpectations {
+
+    /** The class logger. */
+    private static final Logger log = LoggerFactory.getLogger(ConfigurationExpectations.class);
+
+    /** The number of rows fetched from the database at a time when loading the table. */
+    private static final int FETCH_SIZE = 10000;
+
+    /** The singleton instance. */
+    private static ConfigurationExpectations instance;
+
+    /**
+     * The expectations by configuration ID. Configurations that have never been harvested have no entry, configurations
+     * whose history is no longer known map to {@link Expectation#UNKNOWN}.
+     */
+    private final Map<Long, Expectation> expectations = new ConcurrentHashMap<Long, Expectation>();
+
+    /** The expectation for a configuration that has never been harvested. */
+    private volatile Expectation none;
+
+    /** The settings the expectations are computed with, read when the table is loaded. */
+    private volatile Factors factors;
+
+    /** Whether the table has been loaded. */
+    private volatile boolean loaded;
+
+    /**
+     * Constructor used when creating singleton. Do not call directly.
+     */
+    protected ConfigurationExpectations() {
+    }
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @return the table of expectations
+     */
+    public static synchronized ConfigurationExpectations getInstance() {
+        if (instance == null) {
+            instance = new ConfigurationExpectations();
+        }
+        return instance;
+    }
+
+    /**
+     * Forget the table. Only for use from within tests.
+     */
+    public static synchronized void reset() {
+        instance = null;
+    }
+
+    /**
+     * Load the table from the database, unless it is already loaded or disabled by the setting
+     * {@link HarvesterSettings#JOBGEN_CACHE_EXPECTATIONS}. The whole historyinfo table is read once, newest harvests
+     * first for each configuration.
+     *
+     * @throws IOFailure on trouble reading from the database
+     */
+    public synchronized void load() throws IOFailure {
+        if (loaded || !Settings.getBoolean(HarvesterSettings.JOBGEN_CACHE_EXPECTATIONS)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Factors newFactors = new Factors();
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement s = null;
+        try {
+            s = DBUtils.prepareStatement(c, FETCH_SIZE, "SELECT config_id, stopreason, objectcount, bytecount, "
+                    + "harvest_time, harvest_id FROM historyinfo ORDER BY config_id, harvest_time DESC, harvest_id DESC");
+            ResultSet res = s.executeQuery();
+            Long configId = null;
+            long newestTime = 0;
+            long newestHarvestId = 0;
+            StopReason bestStopReason = null;
+            long bestObjectCount = 0;
+            long bestByteCount = 0;
+            boolean complete = false;
+            while (res.next()) {
+                long rowConfigId = res.getLong(1);
+                if (configId == null || rowConfigId != configId) {
+                    if (configId != null) {
+                        expectations.put(configId, new Expectation(bestStopReason, bestObjectCount, bestByteCount,
+                                newestTime, newestHarvestId, newFactors));
+                    }
+                    // The first row of a configuration is its newest harvest
+                    configId = rowConfigId;
+                    newestTime = res.getTimestamp(5).getTime();
+                    newestHarvestId = res.getLong(6);
+                    bestStopReason = null;
+                    complete = false;
+                }
+                if (complete) {
+                    continue;
+                }
+                // Choose as DomainHistory.getBestHarvestInfoExpectation does
+                StopReason stopReason = StopReason.getStopReason(res.getInt(2));
+                long objectCount = res.getLong(3);
+                if (bestStopReason == null || bestObjectCount <= objectCount) {
+                    bestStopReason = stopReason;
+                    bestObjectCount = objectCount;
+                    bestByteCount = res.getLong(4);
+                }
+                complete = stopReason == StopReason.DOWNLOAD_COMPLETE;
+            }
+            if (configId != null) {
+                expectations.put(configId, new Expectation(bestStopReason, bestObjectCount, bestByteCount,
+                        newestTime, newestHarvestId, newFactors));
+            }
+        } catch (SQLException e) {
+            expectations.clear();
+            throw new IOFailure("SQL error while loading expectations from harvest history", e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            HarvestDBConnection.release(c);
+        }
+        factors = newFactors;
+        none = new Expectation(null, 0, 0, 0, 0, newFactors);
+        loaded = true;
+        log.info("Loaded expectations for {} domain configurations in {} ms", expectations.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return true if the table has been loaded, so expectations can be looked up.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Look up the expectation for a configuration.
+     *
+     * @param configId The ID of a configuration, or null if it has not been stored.
+     * @return The expectation, or null if the table cannot tell, in which case the domain history must be searched.
+     */
+    public Expectation get(Long configId) {
+        if (!loaded || configId == null) {
+            return null;
+        }
+        Expectation expectation = expectations.get(configId);
+        if (expectation == null) {
+            return none;
+        }
+        return expectation == Expectation.UNKNOWN ? null : expectation;
+    }
+
+    /**
+     * Update the table with a harvest info just inserted in the database. If it is newer than any other harvest info of
+     * the configuration, the best harvest info is updated in the same way as it is chosen from the domain history.
+     * Otherwise the expectation of the configuration becomes unknown.
+     *
+     * @param configId The ID of the configuration harvested.
+     * @param harvestInfo The harvest info inserted.
+     * @throws ArgumentNotValid if harvestInfo is null
+     */
+    public void add(long configId, HarvestInfo harvestInfo) {
+        ArgumentNotValid.checkNotNull(harvestInfo, "HarvestInfo harvestInfo");
+        if (!loaded) {
+            return;
+        }
+        final Factors currentFactors = factors;
+        Expectation updated = expectations.compute(configId, (id, current) -> current == null
+                ? new Expectation(harvestInfo, currentFactors) : current.add(harvestInfo, currentFactors));
+        if (updated == Expectation.UNKNOWN) {
+            log.debug("Harvest info {} is not the newest of configuration #{}, its expectation is no longer cached",
+                    harvestInfo, configId);
+        }
+    }
+
+    /**
+     * The settings used when computing expectations, read once.
+     */
+    static final class Factors {
+        /** The setting {@link HarvesterSettings#ERRORFACTOR_PERMITTED_PREVRESULT}. */
+        final long permittedPreviousResultFactor;
+        /** The setting {@link HarvesterSettings#MAX_DOMAIN_SIZE}. */
+        final long maxDomainSize;
+        /** The setting {@link HarvesterSettings#EXPECTED_AVERAGE_BYTES_PER_OBJECT}. */
+        final long averageBytesPerObject;
+
+        /**
+         * Read the current settings.
+         */
+        Factors() {
+            permittedPreviousResultFactor = Settings.getLong(HarvesterSettings.ERRORFACTOR_PERMITTED_PREVRESULT);
+            maxDomainSize = Settings.getLong(HarvesterSettings.MAX_DOMAIN_SIZE);
+            averageBytesPerObject = Settings.getLong(HarvesterSettings.EXPECTED_AVERAGE_BYTES_PER_OBJECT);
+        }
+    }
+
+    /**
+     * What to expect from a harvest of a configuration: the best harvest info of the configuration, the expected size
+     * of an object, and the settings to compute the expected size of a harvest with. Instances are immutable.
+     */
+    public static final class Expectation {
+
+        /** Marks a configuration whose expectation is not known by the table. */
+        static final Expectation UNKNOWN = new Expectation(null, 0, 0, 0, 0, null);
+
+        /** The stop reason of the best harvest info, or null if the configuration has never been harvested. */
+        private final StopReason stopReason;
+        /** The number of objects in the best harvest info. */
+        private final long objectCount;
+        /** The number of bytes in the best harvest info. */
+        private final long byteCount;
+        /** The time of the newest harvest of the configuration. */
+        private final long newestTime;
+        /** The harvest ID of the newest harvest of the configuration. */
+        private final long newestHarvestId;
+        /** The expected number of bytes per object. */
+        private final long bytesPerObject;
+        /** The settings to compute the expectation with. */
+        private final Factors factors;
+
+        /**
+         * Make the expectation from the best harvest info of a domain history.
+         *
+         * @param best The best harvest info, or null if the configuration has never been harvested.
+         * @param factors The settings to compute with.
+         */
+        Expectation(HarvestInfo best, Factors factors) {
+            this(best == null ? null : best.getStopReason(), best == null ? 0 : best.getCountObjectRetrieved(),
+                    best == null ? 0 : best.getSizeDataRetrieved(), best == null ? 0 : best.getDate().getTime(),
+                    best == null ? 0 : best.getHarvestID(), factors);
+        }
+
+        private Expectation(StopReason stopReason, long objectCount, long byteCount, long newestTime,
+                long newestHarvestId, Factors factors) {
+            this.stopReason = stopReason;
+            this.objectCount = objectCount;
+            this.byteCount = byteCount;
+            this.newestTime = newestTime;
+            this.newestHarvestId = newestHarvestId;
+            this.factors = factors;
+            this.bytesPerObject = factors == null ? 0 : DomainConfiguration.getExpectedBytesPerObject(
+                    stopReason != null, objectCount, byteCount, factors.averageBytesPerObject);
+        }
+
+        /**
+         * Compute the expectation after a new harvest, choosing in the same way as
+         * {@link DomainHistory#getBestHarvestInfoExpectation(String, DomainHistory)}: a complete harvest is always best,
+         * otherwise the new harvest is best if it retrieved more objects than the best so far.
+         *
+         * @param harvestInfo The new harvest info.
+         * @param newFactors The settings to compute with.
+         * @return The new expectation, or {@link #UNKNOWN} if the harvest info is not newer than all harvests before it.
+         */
+        private Expectation add(HarvestInfo harvestInfo, Factors newFactors) {
+            long time = harvestInfo.getDate().getTime();
+            if (this == UNKNOWN || time < newestTime
+                    || (time == newestTime && harvestInfo.getHarvestID() <= newestHarvestId)) {
+                return UNKNOWN;
+            }
+            if (harvestInfo.getStopReason() == StopReason.DOWNLOAD_COMPLETE
+                    || harvestInfo.getCountObjectRetrieved() > objectCount) {
+                return new Expectation(harvestInfo, newFactors);
+            }
+            return new Expectation(stopReason, objectCount, byteCount, time, harvestInfo.getHarvestID(), newFactors);
+        }
+
+        /**
+         * @return true if the configuration has been harvested before.
+         */
+        public boolean hasHarvestInfo() {
+            return stopReason != null;
+        }
+
+        /**
+         * @return The stop reason of the best harvest, or null if never harvested.
+         */
+        public StopReason getStopReason() {
+            return stopReason;
+        }
+
+        /**
+         * @return The number of objects retrieved by the best harvest.
+         */
+        public long getCountObjectRetrieved() {
+            return objectCount;
+        }
+
+        /**
+         * @return The number of bytes retrieved by the best harvest.
+         */
+        public long getSizeDataRetrieved() {
+            return byteCount;
+        }
+
+        /**
+         * @return The expected number of bytes per object.
+         */
+        public long getExpectedBytesPerObject() {
+            return bytesPerObject;
+        }
+
+        /**
+         * @return The settings to compute the expected size of a harvest with.
+         */
+        Factors getFactors() {
+            return factors;
+        }
+    }
+}
@@ -141,6 +141,8 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
             upgradeRunningjobsmonitor(currentVersion, toVersion);
         } else if (tableName.equals(HarvesterDatabaseTables.FRONTIERREPORTMONITOR.getTablename())) {
             upgradeFrontierreportmonitorTable(currentVersion, toVersion);
+        } else if (tableName.equals(HarvesterDatabaseTables.FRONTIERREPORTSNAPSHOT.getTablename())) {
+            upgradeFrontierreportsnapshotTable(currentVersion, toVersion);
         } else if (tableName.equals(HarvesterDatabaseTables.EXTENDEDFIELD.getTablename())) {
             upgradeExtendedFieldTable(currentVersion, toVersion);
         } else if (tableName.equals(HarvesterDatabaseTables.EXTENDEDFIELDVALUE.getTablename())) {
@@ -269,6 +271,25 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
         }
     }
 
+    /**
+     * Migrate the frontierreportsnapshot table.
+     *
+     * @param currentVersion the current version of the frontierreportsnapshot table
+     * @param toVersion the required version of the frontierreportsnapshot table
+     */
+    private void upgradeFrontierreportsnapshotTable(int currentVersion, int toVersion) {
+        if (currentVersion == 0 && toVersion >= 1) {
+            createFrontierReportSnapshotTable();
+            currentVersion = 1;
+        }
+        // insert new migrations here
+        if (currentVersion > HarvesterDatabaseTables.FRONTIERREPORTSNAPSHOT.getRequiredVersion()) {
+            throw new NotImplementedException("No method exists for migrating table '"
+                    + HarvesterDatabaseTables.FRONTIERREPORTSNAPSHOT.getTablename() + "' from version "
+                    + currentVersion + " to version " + toVersion);
+        }
+    }
+
     /**
      * Migrate the runningjobsmonitor table.
      *
@@ -621,6 +642,11 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      */
     public abstract void createFrontierReportMonitorTable();
 
+    /**
+     * Create the frontierReportSnapshot table in the database.
+     */
+    public abstract void createFrontierReportSnapshotTable();
+
     /**
      * Create the frontierReportMonitor table in the database.
      */
@@ -172,6 +172,12 @@ public abstract class DerbySpecifics extends DBSpecifics {
         HarvestDBConnection.updateTable("frontierreportmonitor", 1, createStatement);
     }
 
+    @Override
+    public void createFrontierReportSnapshotTable() {
+        String tableName = HarvesterDatabaseTables.FRONTIERREPORTSNAPSHOT.getTablename();
+        HarvestDBConnection.executeSql("derby", tableName, 1);
+    }
+
     @Override
     public void createRunningJobsHistoryTable() {
         String createStatement = "CREATE TABLE runningJobsHistory (" + "jobId bigint NOT NULL, "
@@ -37,6 +37,7 @@ import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.Named;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.ConfigurationExpectations.Expectation;
 import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
 
 /**
@@ -348,35 +349,44 @@ public class DomainConfiguration implements Named {
      * @return The expected number of objects.
      */
     public long getExpectedNumberOfObjects(long objectLimit, long byteLimit) {
-        long prevresultfactor = Settings.getLong(HarvesterSettings.ERRORFACTOR_PERMITTED_PREVRESULT);
-        HarvestInfo best = DomainHistory.getBestHarvestInfoExpectation(configName, this.domainhistory);
+        return getExpectedNumberOfObjects(objectLimit, byteLimit, getExpectation());
+    }
 
-        log.trace("Getting expectation, using domain info '{}' for configuration '{}'", best, cfgToString(this));
+    /**
+     * Compute the expected number of objects from an expectation.
+     *
+     * @param objectLimit The maximum limit, or Constants.HERITRIX_MAXOBJECTS_INFINITY for no limit.
+     * @param byteLimit The maximum number of bytes that will be used as limit in the harvest.
+     * @param best The expectation based on the best harvest info for this configuration.
+     * @return The expected number of objects.
+     * @see #getExpectedNumberOfObjects(long, long)
+     */
+    private long getExpectedNumberOfObjects(long objectLimit, long byteLimit, Expectation best) {
+        long prevresultfactor = best.getFactors().permittedPreviousResultFactor;
+        long maxDomainSize = best.getFactors().maxDomainSize;
 
-        long expectedObjectSize = getExpectedBytesPerObject(best);
+        long expectedObjectSize = best.getExpectedBytesPerObject();
         // The maximum number of objects that the maxBytes or MAX_DOMAIN_SIZE
         // setting gives.
         long maximum;
         if (objectLimit != Constants.HERITRIX_MAXOBJECTS_INFINITY || byteLimit != Constants.HERITRIX_MAXBYTES_INFINITY) {
-            maximum = minObjectsBytesLimit(objectLimit, byteLimit, expectedObjectSize);
+            maximum = minObjectsBytesLimit(objectLimit, byteLimit, expectedObjectSize, maxDomainSize);
         } else if (maxObjects != Constants.HERITRIX_MAXOBJECTS_INFINITY
                 || maxBytes != Constants.HERITRIX_MAXBYTES_INFINITY) {
-            maximum = minObjectsBytesLimit(maxObjects, maxBytes, expectedObjectSize);
+            maximum = minObjectsBytesLimit(maxObjects, maxBytes, expectedObjectSize, maxDomainSize);
         } else {
-            maximum = Settings.getLong(HarvesterSettings.MAX_DOMAIN_SIZE);
+            maximum = maxDomainSize;
         }
-        log.trace("Initial maximum: {}", maximum);
         // get last number of objects harvested
         long minimum;
-        if (best != null) {
+        if (best.hasHarvestInfo()) {
             minimum = best.getCountObjectRetrieved();
         } else {
             minimum = NumberUtils.minInf(Constants.HERITRIX_MAXOBJECTS_INFINITY, maxObjects);
         }
-        log.trace("Initial minimum: {}", minimum);
         // Calculate the expected number of objects we will harvest.
         long expectation;
-        if (best != null) {
+        if (best.hasHarvestInfo()) {
             if (best.getStopReason() == StopReason.DOWNLOAD_COMPLETE && maximum != -1) {
                 // We set the expectation, so our harvest will exceed the
                 // expectation at most <factor> times if the domain is a lot
@@ -390,25 +400,63 @@ public class DomainConfiguration implements Named {
         } else {
             // Best guess: minimum of default max domain size and domain object
             // limit
-            expectation = NumberUtils.minInf(Settings.getLong(HarvesterSettings.MAX_DOMAIN_SIZE), maxObjects);
+            expectation = NumberUtils.minInf(maxDomainSize, maxObjects);
         }
-        log.trace("Initial expectation: {}", expectation);
         // Always limit to domain specifics if set to do so. We always expect
         // to actually hit this limit
         if ((maxObjects > Constants.HERITRIX_MAXOBJECTS_INFINITY && maximum > maxObjects)
                 || (maxBytes > Constants.HERITRIX_MAXBYTES_INFINITY && maximum > maxBytes / expectedObjectSize)) {
-            log.trace("Using domain limits for {}", cfgToString(this));
-            maximum = minObjectsBytesLimit(maxObjects, maxBytes, expectedObjectSize);
-            log.trace("New maximum: {}", maximum);
+            maximum = minObjectsBytesLimit(maxObjects, maxBytes, expectedObjectSize, maxDomainSize);
         }
         // Never return more than allowed maximum
         expectation = Math.min(expectation, maximum);
 
-        log.trace("Expected number of objects for configuration '{}' is {}", cfgToString(this), expectation);
+        if (log.isTraceEnabled()) {
+            log.trace("Expected number of objects for configuration '{}' is {} (minimum {}, maximum {})",
+                    cfgToString(this), expectation, minimum, maximum);
+        }
+        return expectation;
+    }
 
+    /**
+     * Gets the best expectation for how many bytes a harvest using this configuration will retrieve, given a job with
+     * a maximum limit pr. domain. This is the expected number of objects times the expected size of an object, never
+     * more than the byte limit.
+     *
+     * @param objectLimit The maximum limit, or Constants.HERITRIX_MAXOBJECTS_INFINITY for no limit.
+     * @param byteLimit The maximum number of bytes that will be used as limit in the harvest.
+     * @return The expected number of bytes.
+     * @see #getExpectedNumberOfObjects(long, long)
+     */
+    public long getExpectedNumberOfBytes(long objectLimit, long byteLimit) {
+        Expectation best = getExpectation();
+        long expectation = getExpectedNumberOfObjects(objectLimit, byteLimit, best) * best.getExpectedBytesPerObject();
+        if (byteLimit != Constants.HERITRIX_MAXBYTES_INFINITY) {
+            expectation = Math.min(expectation, byteLimit);
+        }
+        if (maxBytes != Constants.HERITRIX_MAXBYTES_INFINITY) {
+            expectation = Math.min(expectation, maxBytes);
+        }
         return expectation;
     }
 
+    /**
+     * Get the expectation for this configuration from the {@link ConfigurationExpectations} table if it is loaded, or
+     * else from the best harvest info in the domain history.
+     *
+     * @return The expectation for this configuration.
+     */
+    private Expectation getExpectation() {
+        Expectation best = ConfigurationExpectations.getInstance().get(id);
+        if (best == null) {
+            HarvestInfo bestInfo = DomainHistory.getBestHarvestInfoExpectation(configName, this.domainhistory);
+            log.trace("Getting expectation, using domain info '{}' for configuration '{}'", bestInfo,
+                    cfgToString(this));
+            best = new Expectation(bestInfo, new ConfigurationExpectations.Factors());
+        }
+        return best;
+    }
+
     /**
      * Return the lowest limit for the two values, or MAX_DOMAIN_SIZE if both are infinite, which is the max size we
      * harvest from this domain.
@@ -419,6 +467,21 @@ public class DomainConfiguration implements Named {
      * @return The lowest of the two boundaries, or MAX_DOMAIN_SIZE if both are unlimited.
      */
     public long minObjectsBytesLimit(long objectLimit, long byteLimit, long expectedObjectSize) {
+        return minObjectsBytesLimit(objectLimit, byteLimit, expectedObjectSize,
+                Settings.getLong(HarvesterSettings.MAX_DOMAIN_SIZE));
+    }
+
+    /**
+     * Return the lowest limit for the two values, or the given maximal domain size if both are infinite.
+     *
+     * @param objectLimit A long value defining an object limit, or 0 for infinite
+     * @param byteLimit A long value defining a byte limit, or HarvesterSettings.MAX_DOMAIN_SIZE for infinite.
+     * @param expectedObjectSize The expected number of bytes per object
+     * @param maxDomainSize The value of the setting HarvesterSettings.MAX_DOMAIN_SIZE
+     * @return The lowest of the two boundaries, or maxDomainSize if both are unlimited.
+     */
+    private static long minObjectsBytesLimit(long objectLimit, long byteLimit, long expectedObjectSize,
+            long maxDomainSize) {
         long maxObjectsByBytes = byteLimit / expectedObjectSize;
         if (objectLimit != Constants.HERITRIX_MAXOBJECTS_INFINITY) {
             if (byteLimit != Constants.HERITRIX_MAXBYTES_INFINITY) {
@@ -430,7 +493,7 @@ public class DomainConfiguration implements Named {
             if (byteLimit != Constants.HERITRIX_MAXBYTES_INFINITY) {
                 return maxObjectsByBytes;
             } else {
-                return Settings.getLong(HarvesterSettings.MAX_DOMAIN_SIZE);
+                return maxDomainSize;
             }
         }
     }
@@ -441,18 +504,19 @@ public class DomainConfiguration implements Named {
      * from previous harvests to calculate the harvest, but we only accept a low estimate if the number of harvested
      * objects is greater than the setting MIN_OBJECTS_TO_TRUST_SMALL_EXPECTATION.
      *
-     * @param bestInfo The best (newest complete or biggest, as per getBestHarvestInfoExpectation()) harvest info we
-     * have for the domain.
+     * @param harvested Whether there is a best (newest complete or biggest, as per getBestHarvestInfoExpectation())
+     * harvest info for the domain.
+     * @param objectCount The number of objects in the best harvest info.
+     * @param byteCount The number of bytes in the best harvest info.
+     * @param defaultExpectation The setting EXPECTED_AVERAGE_BYTES_PER_OBJECT.
      * @return How large we expect the average object to be. This number will be >= MIN_EXPECTATION (unless nothing is
      * harvested and is EXPECTED_AVERAGE_BYTES_PER_OBJECT <= 0).
      */
-    private long getExpectedBytesPerObject(HarvestInfo bestInfo) {
-        long defaultExpectation = Settings.getLong(HarvesterSettings.EXPECTED_AVERAGE_BYTES_PER_OBJECT);
-        if (bestInfo != null && bestInfo.getCountObjectRetrieved() > 0) {
-            long expectation = Math.max(MIN_EXPECTATION,
-                    bestInfo.getSizeDataRetrieved() / bestInfo.getCountObjectRetrieved());
-            if (expectation < defaultExpectation
-                    && bestInfo.getCountObjectRetrieved() < MIN_OBJECTS_TO_TRUST_SMALL_EXPECTATION) {
+    static long getExpectedBytesPerObject(boolean harvested, long objectCount, long byteCount,
+            long defaultExpectation) {
+        if (harvested && objectCount > 0) {
+            long expectation = Math.max(MIN_EXPECTATION, byteCount / objectCount);
+            if (expectation < defaultExpectation && objectCount < MIN_OBJECTS_TO_TRUST_SMALL_EXPECTATION) {
                 return defaultExpectation;
             }
             return expectation;
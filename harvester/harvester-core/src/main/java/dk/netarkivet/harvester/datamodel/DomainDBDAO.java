@@ -62,6 +62,9 @@ import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValueDBDAO;
 /**
  * A database-based implementation of the DomainDAO.
  * <p>
+ * Reads are not synchronized: every call takes its own pooled connection. Concurrent updates are detected through the
+ * edition column, and a stale edition results in a PermissionDenied.
+ * <p>
  * The statements to create the tables are located in:
  * <ul>
  * <li><em>Derby:</em> scripts/sql/createfullhddb.sql</li>
@@ -181,8 +184,11 @@ public class DomainDBDAO extends DomainDAO {
             s.setLong(3, d.getID());
             s.executeUpdate();
             s.close();
+            List<HarvestInfo> insertedHarvestInfo = new ArrayList<HarvestInfo>();
             for (Iterator<HarvestInfo> hi = d.getHistory().getHarvestInfo(); hi.hasNext();) {
-                insertHarvestInfo(connection, d, hi.next());
+                HarvestInfo harvestInfo = hi.next();
+                insertHarvestInfo(connection, d, harvestInfo);
+                insertedHarvestInfo.add(harvestInfo);
             }
 
             for (DomainOwnerInfo doi : d.getAllDomainOwnerInfo()) {
@@ -193,6 +199,7 @@ public class DomainDBDAO extends DomainDAO {
 
             connection.commit();
             d.setEdition(initialEdition);
+            updateExpectations(d, insertedHarvestInfo);
         } catch (SQLException e) {
             String message = "SQL error creating domain " + d + " in database" + "\n";
             log.warn(message, e);
@@ -203,7 +210,7 @@ public class DomainDBDAO extends DomainDAO {
     }
 
     @Override
-    public synchronized void update(Domain d) {
+    public void update(Domain d) {
         ArgumentNotValid.checkNotNull(d, "domain");
 
         if (!exists(d.getName())) {
@@ -260,7 +267,7 @@ public class DomainDBDAO extends DomainDAO {
 
             updateOwnerInfo(connection, d);
 
-            updateHarvestInfo(connection, d);
+            List<HarvestInfo> insertedHarvestInfo = updateHarvestInfo(connection, d);
 
             saveExtendedFieldValues(connection, d);
 
@@ -273,6 +280,7 @@ public class DomainDBDAO extends DomainDAO {
             s.executeUpdate();
             connection.commit();
             d.setEdition(newEdition);
+            updateExpectations(d, insertedHarvestInfo);
         } catch (SQLException e) {
             String message = "SQL error updating domain " + d + " in database" + "\n";
             log.warn(message, e);
@@ -477,9 +485,11 @@ public class DomainDBDAO extends DomainDAO {
      *
      * @param c A connection to the database
      * @param d A domain to update.
+     * @return The harvest info inserted, i.e. the harvest info without an ID in the database.
      * @throws SQLException If any database problems occur during the update process.
      */
-    private void updateHarvestInfo(Connection c, Domain d) throws SQLException {
+    private List<HarvestInfo> updateHarvestInfo(Connection c, Domain d) throws SQLException {
+        List<HarvestInfo> inserted = new ArrayList<HarvestInfo>();
         List<Long> oldIDs = DBUtils.selectLongList(c, "SELECT historyinfo.historyinfo_id "
                 + "FROM historyinfo, configurations WHERE historyinfo.config_id = configurations.config_id"
                 + "  AND configurations.domain_id = ?", d.getID());
@@ -508,6 +518,7 @@ public class DomainDBDAO extends DomainDAO {
                 s.clearParameters();
             } else {
                 insertHarvestInfo(c, d, hi);
+                inserted.add(hi);
             }
         }
         if (oldIDs.size() != 0) {
@@ -515,6 +526,23 @@ public class DomainDBDAO extends DomainDAO {
             log.debug(message);
             throw new IOFailure(message);
         }
+        return inserted;
+    }
+
+    /**
+     * Update the table of expected harvest sizes with harvest info inserted for a domain. Must only be called once the
+     * harvest info is committed.
+     *
+     * @param d The domain the harvest info was inserted for.
+     * @param insertedHarvestInfo The harvest info inserted.
+     */
+    private void updateExpectations(Domain d, List<HarvestInfo> insertedHarvestInfo) {
+        ConfigurationExpectations expectations = ConfigurationExpectations.getInstance();
+        // Oldest first, so each harvest info is the newest of its configuration when added
+        for (int i = insertedHarvestInfo.size() - 1; i >= 0; i--) {
+            HarvestInfo hi = insertedHarvestInfo.get(i);
+            expectations.add(d.getConfiguration(hi.getDomainConfigurationName()).getID(), hi);
+        }
     }
 
     /**
@@ -736,7 +764,7 @@ public class DomainDBDAO extends DomainDAO {
     }
 
     @Override
-    protected synchronized Domain read(Connection c, String domainName) {
+    protected Domain read(Connection c, String domainName) {
         ArgumentNotValid.checkNotNullOrEmpty(domainName, "domainName");
         ArgumentNotValid.checkTrue(DomainUtils.isValidDomainName(domainName), "Invalid domain name " + domainName);
         if (!exists(c, domainName)) {
@@ -746,7 +774,7 @@ public class DomainDBDAO extends DomainDAO {
     }
 
     @Override
-    protected synchronized Domain readKnown(Connection c, String domainName) {
+    protected Domain readKnown(Connection c, String domainName) {
         ArgumentNotValid.checkNotNullOrEmpty(domainName, "domainName");
         ArgumentNotValid.checkTrue(DomainUtils.isValidDomainName(domainName), "Invalid domain name " + domainName);
         Domain result;
@@ -1033,7 +1061,7 @@ public class DomainDBDAO extends DomainDAO {
     }
 
     @Override
-    public synchronized boolean exists(String domainName) {
+    public boolean exists(String domainName) {
         ArgumentNotValid.checkNotNullOrEmpty(domainName, "domainName");
         if (!DomainUtils.isValidDomainName(domainName)) {
             return false;
@@ -1053,7 +1081,7 @@ public class DomainDBDAO extends DomainDAO {
      * @param domainName a name of a domain
      * @return true if a domain with the given name exists, otherwise false.
      */
-    private synchronized boolean exists(Connection c, String domainName) {
+    private boolean exists(Connection c, String domainName) {
         if (!DomainUtils.isValidDomainName(domainName)) {
             return false;
         }
@@ -1061,7 +1089,7 @@ public class DomainDBDAO extends DomainDAO {
     }
 
     @Override
-    public synchronized int getCountDomains() {
+    public int getCountDomains() {
         Connection c = HarvestDBConnection.get();
         try {
             return DBUtils.selectIntValue(c, "SELECT COUNT(*) FROM domains");
@@ -1071,7 +1099,7 @@ public class DomainDBDAO extends DomainDAO {
     }
 
     @Override
-    public synchronized Iterator<Domain> getAllDomains() {
+    public Iterator<Domain> getAllDomains() {
         Connection c = HarvestDBConnection.get();
         try {
             List<String> domainNames = DBUtils.selectStringList(c, "SELECT name FROM domains ORDER BY name");
@@ -1204,7 +1232,7 @@ public class DomainDBDAO extends DomainDAO {
     }
 
     @Override
-    public synchronized SparseDomain readSparse(String domainName) {
+    public SparseDomain readSparse(String domainName) {
         ArgumentNotValid.checkNotNullOrEmpty(domainName, "domainName");
         ArgumentNotValid.checkTrue(DomainUtils.isValidDomainName(domainName), "Cannot read invalid domain name " + domainName);
         Connection c = HarvestDBConnection.get();
@@ -85,6 +85,7 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
     public final static String METADATA_ITEMS_PLACEHOLDER = "%{METADATA_ITEMS_PLACEHOLDER}";
     public static final String MAX_TIME_SECONDS_PLACEHOLDER = "%{MAX_TIME_SECONDS_PLACEHOLDER}";
     public static final String CRAWLERTRAPS_PLACEHOLDER = "%{CRAWLERTRAPS_PLACEHOLDER}";
+    public static final String DOMAIN_CRAWLERTRAPS_PLACEHOLDER = "%{DOMAIN_CRAWLERTRAPS_PLACEHOLDER}";
 
     public static final Pattern DEDUPLICATION_BEAN_REFERENCE_PATTERN = Pattern.compile(".*ref.*bean.*DeDuplicator.*", Pattern.DOTALL);
 
@@ -638,6 +639,36 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
     		this.template = templateNew;
     	}
  	}
+
+	/**
+	 * If the template has the DOMAIN_CRAWLERTRAPS_PLACEHOLDER, the crawlertraps are inserted there as an entry of
+	 * the map of per-domain traps of a dk.netarkivet.harvester.harvesting.CrawlerTrapsDecideRule bean, which only
+	 * applies them to the URIs of the domain. Otherwise they are inserted as any other crawlertraps.
+	 *
+	 * @param domainName The name of the domain
+	 * @param crawlertraps A list of crawlertraps to be inserted
+	 */
+	@Override
+	public void insertDomainCrawlerTraps(String domainName, List<String> crawlertraps) {
+//      <property name="domainRegexLists">
+//            <map>
+//            DOMAIN_CRAWLERTRAPS_PLACEHOLDER
+//            </map>
+//      </property>
+		if (crawlertraps.isEmpty() || !template.contains(DOMAIN_CRAWLERTRAPS_PLACEHOLDER)) {
+			insertCrawlerTraps(domainName, crawlertraps);
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("<entry key=\"" + domainName + "\">\n<list>\n");
+		for (String trap: crawlertraps) {
+			sb.append("<value>" + trap + "</value>\n");
+		}
+		sb.append("</list>\n</entry>\n");
+		// Adding the placeholder again to be able to insert crawlertraps for multiple domains.
+		sb.append(DOMAIN_CRAWLERTRAPS_PLACEHOLDER + "\n");
+		template = template.replace(DOMAIN_CRAWLERTRAPS_PLACEHOLDER, sb.toString());
+	}
 	
 	public String getMetadataInfo(MetadataInfo info) {
 		String infoStr = null;
@@ -932,6 +963,7 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
 		String[] optionalPlaceholders = new String[] {
 				METADATA_ITEMS_PLACEHOLDER,
 				CRAWLERTRAPS_PLACEHOLDER,
+				DOMAIN_CRAWLERTRAPS_PLACEHOLDER,
 				UMBRA_PUBLISH_BEAN_PLACEHOLDER,
 				UMBRA_SIMPLEOVERRIDES_PLACEHOLDER,
 				UMBRA_BEAN_REF_PLACEHOLDER,
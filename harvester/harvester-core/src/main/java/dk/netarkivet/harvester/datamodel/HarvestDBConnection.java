@@ -65,8 +65,14 @@ public final class HarvestDBConnection {
 
     private static final Logger log = LoggerFactory.getLogger(HarvestDBConnection.class);
 
-    /** The c3p0 pooled datasource backing this implementation. */
-    private static ComboPooledDataSource dataSource = null;
+    /**
+     * The c3p0 pooled datasource backing this implementation. Volatile so that {@link #get()} only needs to lock while
+     * the pool is being initialized.
+     */
+    private static volatile ComboPooledDataSource dataSource = null;
+
+    /** The datasource being initialized, visible only to the initializing thread while it updates the tables. */
+    private static ComboPooledDataSource initializing = null;
 
     /**
      * Makes sure that the class can't be instantiated, as it is designed to be used statically.
@@ -84,32 +90,71 @@ public final class HarvestDBConnection {
      * <li>@see {@link CommonSettings#DB_POOL_ACQ_INC}</li>
      * </ul>
      * Note that the connection obtained must be returned to the pool by calling {@link #release(Connection)}.
+     * <p>
+     * Only the initialization of the pool is synchronized, so once the pool is up, concurrent callers each check out
+     * their own pooled connection without contending on a class-wide lock.
      *
      * @return a connection to the harvest definition database
      * @throws IOFailure if we cannot connect to the database (or find the driver).
      */
-    public static synchronized Connection get() {
-        DBSpecifics dbSpec = DBSpecifics.getInstance();
-        String jdbcUrl = getDBUrl();
-
+    public static Connection get() {
+        ComboPooledDataSource ds = dataSource;
+        if (ds == null) {
+            ds = initialize();
+        }
         try {
-            if (dataSource == null) {
-                initDataSource(dbSpec, jdbcUrl);
-                // this is only done for embedded database!
-                // For external databases, use the HarvestdatabaseUpdateApplication tool
-                if (dbSpec instanceof DerbyEmbeddedSpecifics) {
-                    dbSpec.updateTables();
-                }
-            }
+            return ds.getConnection();
+        } catch (SQLException e) {
+            throw connectionFailure(e);
+        }
+    }
 
-            return dataSource.getConnection();
+    /**
+     * Initializes the pool if no other thread has done so already.
+     *
+     * @return the initialized data source
+     * @throws IOFailure if we cannot connect to the database (or find the driver).
+     */
+    private static synchronized ComboPooledDataSource initialize() {
+        if (dataSource != null) {
+            return dataSource;
+        }
+        if (initializing != null) {
+            // Reentrant call from updateTables() below
+            return initializing;
+        }
+        DBSpecifics dbSpec = DBSpecifics.getInstance();
+        try {
+            initializing = initDataSource(dbSpec, getDBUrl());
         } catch (SQLException e) {
-            final String message = "Can't connect to database with DBurl: '" + jdbcUrl + "' using driver '"
-                    + dbSpec.getDriverClassName() + "'" + "\n" + ExceptionUtils.getSQLExceptionCause(e);
-            log.warn(message, e);
-            throw new IOFailure(message, e);
+            throw connectionFailure(e);
+        }
+        ComboPooledDataSource ds = initializing;
+        try {
+            // this is only done for embedded database!
+            // For external databases, use the HarvestdatabaseUpdateApplication tool
+            if (dbSpec instanceof DerbyEmbeddedSpecifics) {
+                dbSpec.updateTables();
+            }
+        } finally {
+            // Only publish the pool once the tables are up to date, so other threads never see a half-updated schema
+            dataSource = ds;
+            initializing = null;
         }
+        return ds;
+    }
 
+    /**
+     * Logs and wraps a failure to obtain a connection.
+     *
+     * @param e the cause
+     * @return the IOFailure to throw
+     */
+    private static IOFailure connectionFailure(SQLException e) {
+        final String message = "Can't connect to database with DBurl: '" + getDBUrl() + "' using driver '"
+                + DBSpecifics.getInstance().getDriverClassName() + "'" + "\n" + ExceptionUtils.getSQLExceptionCause(e);
+        log.warn(message, e);
+        return new IOFailure(message, e);
     }
 
     /**
@@ -233,7 +278,7 @@ public final class HarvestDBConnection {
      *
      * @param connection a connection
      */
-    public static synchronized void release(Connection connection) {
+    public static void release(Connection connection) {
         ArgumentNotValid.checkNotNull(connection, "connection");
         try {
             connection.close();
@@ -247,10 +292,11 @@ public final class HarvestDBConnection {
      *
      * @param dbSpec the object representing the chosen DB target system.
      * @param jdbcUrl the JDBC URL to connect to.
+     * @return the configured data source
      * @throws SQLException
      */
-    private static void initDataSource(DBSpecifics dbSpec, String jdbcUrl) throws SQLException {
-        dataSource = new ComboPooledDataSource();
+    private static ComboPooledDataSource initDataSource(DBSpecifics dbSpec, String jdbcUrl) throws SQLException {
+        ComboPooledDataSource dataSource = new ComboPooledDataSource();
         try {
             dataSource.setDriverClass(dbSpec.getDriverClassName());
         } catch (PropertyVetoException e) {
@@ -304,6 +350,7 @@ public final class HarvestDBConnection {
                     dataSource.getMaxStatementsPerConnection(), dataSource.getIdleConnectionTestPeriod(),
                     dataSource.getPreferredTestQuery(), dataSource.isTestConnectionOnCheckin());
         }
+        return dataSource;
     }
 
     /**
@@ -71,6 +71,9 @@ import dk.netarkivet.harvester.webinterface.HarvestStatusQuery;
 /**
  * A database-oriented implementation of the HarvestDefinitionDAO.
  * <p>
+ * Reads are not synchronized: every call takes its own pooled connection. Concurrent updates are detected through the
+ * edition column, and a stale edition results in a PermissionDenied.
+ * <p>
  * The statements to create the tables are located in:
  * <ul>
  * <li><em>Derby:</em> scripts/sql/createfullhddb.sql</li>
@@ -83,6 +86,9 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
     /** The logger. */
     private static final Logger log = LoggerFactory.getLogger(HarvestDefinitionDBDAO.class);
 
+    /** The last id handed out by {@link #generateNextID(Connection)}. Guarded by this. */
+    private long lastGeneratedID = 0L;
+
     /**
      * Comparator used for sorting the UI list of {@link SparseDomainConfiguration}s. Sorts first by domain name
      * alphabetical order, next by configuration name.
@@ -124,7 +130,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @see HarvestDefinitionDAO#create(HarvestDefinition)
      */
     @Override
-    public synchronized Long create(HarvestDefinition harvestDefinition) {
+    public Long create(HarvestDefinition harvestDefinition) {
         Long id = harvestDefinition.getOid();
         try (Connection connection = HarvestDBConnection.get();) {
             Date submissiondate = new Date();
@@ -242,7 +248,8 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
 
     /**
      * Generates the next id of a harvest definition. this implementation retrieves the maximum value of harvest_id in
-     * the DB, and returns this value + 1.
+     * the DB, and returns this value + 1. Ids handed out by this DAO but not yet committed are also taken into account,
+     * so concurrent calls to create never get the same id. This is the only part of create that needs to be locked.
      *
      * @param c An open connection to the harvestDatabase
      * @return The next available ID
@@ -252,7 +259,8 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
         if (maxVal == null) {
             maxVal = 0L;
         }
-        return maxVal + 1L;
+        lastGeneratedID = Math.max(maxVal, lastGeneratedID) + 1L;
+        return lastGeneratedID;
     }
 
     /**
@@ -265,7 +273,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @see HarvestDefinitionDAO#read(Long)
      */
     @Override
-    public synchronized HarvestDefinition read(Long harvestDefinitionID) throws UnknownID, IOFailure {
+    public HarvestDefinition read(Long harvestDefinitionID) throws UnknownID, IOFailure {
         Connection c = HarvestDBConnection.get();
         try {
             return read(c, harvestDefinitionID);
@@ -438,7 +446,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @param hd An updated harvest definition
      * @see HarvestDefinitionDAO#update(HarvestDefinition)
      */
-    public synchronized void update(HarvestDefinition hd) {
+    public void update(HarvestDefinition hd) {
         ArgumentNotValid.checkNotNull(hd, "HarvestDefinition hd");
         if (hd.getOid() == null || !exists(hd.getOid())) {
             final String message = "Cannot update non-existing " + "harvestdefinition '" + hd.getName() + "'";
@@ -541,7 +549,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @param harvestDefinition the harvest definition object.
      */
     @Override
-    public synchronized void flipActive(SparsePartialHarvest harvestDefinition) {
+    public void flipActive(SparsePartialHarvest harvestDefinition) {
         ArgumentNotValid.checkNotNull(harvestDefinition, "HarvestDefinition harvestDefinition");
 
         Connection c = HarvestDBConnection.get();
@@ -599,7 +607,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
     }
 
     @Override
-    public synchronized boolean exists(String name) {
+    public boolean exists(String name) {
         ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
         Connection c = HarvestDBConnection.get();
         try {
@@ -611,7 +619,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
     }
 
     @Override
-    public synchronized boolean exists(Long oid) {
+    public boolean exists(Long oid) {
         ArgumentNotValid.checkNotNull(oid, "Long oid");
         Connection c = HarvestDBConnection.get();
         try {
@@ -640,7 +648,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @return An iterator that give the existing harvest definitions in turn
      */
     @Override
-    public synchronized Iterator<HarvestDefinition> getAllHarvestDefinitions() {
+    public Iterator<HarvestDefinition> getAllHarvestDefinitions() {
         Connection c = HarvestDBConnection.get();
         try {
             List<Long> hds = DBUtils.selectLongList(c, "SELECT harvest_id FROM harvestdefinitions ORDER BY name");
@@ -665,7 +673,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @return Iterator containing the default DomainConfiguration for all domains that are not aliases
      */
     @Override
-    public synchronized Iterator<DomainConfiguration> getSnapShotConfigurations() {
+    public Iterator<DomainConfiguration> getSnapShotConfigurations() {
         return new FilterIterator<Domain, DomainConfiguration>(
                 DomainDAO.getInstance().getAllDomainsInSnapshotHarvestOrder()) {
             public DomainConfiguration filter(Domain domain) {
@@ -720,7 +728,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @return The HarvestDefinition object with that name, or null if none has that name.
      */
     @Override
-    public synchronized HarvestDefinition getHarvestDefinition(String name) {
+    public HarvestDefinition getHarvestDefinition(String name) {
         ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
         log.debug("Reading harvestdefinition w/ name '{}'", name);
         Connection c = HarvestDBConnection.get();
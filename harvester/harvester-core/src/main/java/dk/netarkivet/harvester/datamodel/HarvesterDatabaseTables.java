@@ -354,6 +354,21 @@ public enum HarvesterDatabaseTables {
             return NAME;
         }
     },
+    /** The table containing compressed frontier report snapshots. */
+    FRONTIERREPORTSNAPSHOT {
+        static final String NAME = "frontierreportsnapshot";
+        static final int REQUIRED_VERSION = 1;
+
+        @Override
+        public int getRequiredVersion() {
+            return REQUIRED_VERSION;
+        }
+
+        @Override
+        public String getTablename() {
+            return NAME;
+        }
+    },
     /** The table containing information about extended fields. */
     EXTENDEDFIELD {
         static final String NAME = "extendedfield";
@@ -132,6 +132,18 @@ public abstract class HeritrixTemplate implements Serializable {
 	 */
 	public abstract void insertCrawlerTraps(String elementName, List<String> crawlertraps);
 
+	/**
+	 * Method to add the crawler traps of a single domain. Templates able to scope crawler traps to the URIs of their
+	 * domain do so; this implementation adds them with {@link #insertCrawlerTraps(String, List)}, applying them to all
+	 * URIs.
+	 *
+	 * @param domainName The name of the domain.
+	 * @param crawlertraps A list of crawler trap regular expressions for the domain.
+	 */
+	public void insertDomainCrawlerTraps(String domainName, List<String> crawlertraps) {
+		insertCrawlerTraps(domainName, crawlertraps);
+	}
+
 	/**
 	 * Make sure that Heritrix will archive its data in the chosen archiveFormat.
 	 *
@@ -178,7 +190,7 @@ public abstract class HeritrixTemplate implements Serializable {
 		}
 		if (trapCount > 0) {
 			log.info("Inserting {} crawlertraps for domain '{}' into the template", crawlerTraps.size(), elementName);
-			insertCrawlerTraps(elementName, crawlerTraps);
+			insertDomainCrawlerTraps(elementName, crawlerTraps);
 		}
 	}
 
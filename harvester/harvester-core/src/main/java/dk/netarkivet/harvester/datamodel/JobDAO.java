@@ -69,6 +69,21 @@ public abstract class JobDAO implements DAO, Iterable<Job> {
      */
     public abstract void create(Job job);
 
+    /**
+     * Creates instances in persistent storage of the given jobs, in the order of the list. Jobs without an ID are given
+     * increasing IDs in that order. This implementation creates the jobs one at a time; implementations may write them
+     * in one batch.
+     *
+     * @param jobs the jobs to create in persistent storage.
+     * @throws PermissionDenied If a job already exists in persistent storage with id of one of the given jobs
+     * @throws IOFailure If some IOException occurs while writing the jobs
+     */
+    public void create(List<Job> jobs) {
+        for (Job job : jobs) {
+            create(job);
+        }
+    }
+
     /**
      * Check whether a particular job exists.
      *
@@ -32,10 +32,12 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,12 +59,18 @@ import dk.netarkivet.harvester.webinterface.HarvestStatusQuery.SORT_ORDER;
 /**
  * A database-based implementation of the JobDAO class. The statements to create the tables are now in
  * scripts/sql/createfullhddb.sql
+ * <p>
+ * Reads are not synchronized: every call takes its own pooled connection. Concurrent updates are detected through the
+ * edition column, and only the allocation of new job ids is locked.
  */
 public class JobDBDAO extends JobDAO {
 
     /** The logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(JobDBDAO.class);
 
+    /** The last id handed out by {@link #generateNextIDs(Connection, int)}. Guarded by this. */
+    private long lastGeneratedID = 0L;
+
     /**
      * Create a new JobDAO implemented using database. This constructor also tries to upgrade the jobs and jobs_configs
      * tables in the current database. throws and IllegalState exception, if it is impossible to make the necessary
@@ -78,6 +86,22 @@ public class JobDBDAO extends JobDAO {
         }
     }
 
+    /** The statement inserting a new job. */
+    private static final String INSERT_JOB_SQL = "INSERT INTO jobs "
+            + "(job_id, harvest_id, status, channel, forcemaxcount, "
+            + "forcemaxbytes, forcemaxrunningtime, orderxml, " + "orderxmldoc, seedlist, "
+            + "harvest_num, startdate, enddate, submitteddate, creationdate, "
+            + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
+            + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?," + "?, ?, ?, ?, ?, ?)";
+
+    /** The statement inserting the job_configs entry of a new job for one domain configuration. */
+    private static final String INSERT_JOB_CONFIG_SQL = "INSERT INTO job_configs ( job_id, config_id ) "
+            + "SELECT ?, configurations.config_id FROM domains, configurations" + " WHERE domains.name = ?"
+            + "   AND domains.domain_id = configurations.domain_id" + "   AND configurations.name = ?";
+
+    /** The edition of a newly created job. */
+    private static final long INITIAL_EDITION = 1;
+
     /**
      * Creates an instance in persistent storage of the given job. 
      * If the job doesn't have an ID (which it shouldn't at this point, one is generated for it.
@@ -88,73 +112,23 @@ public class JobDBDAO extends JobDAO {
      * @throws PermissionDenied If a job already exists in persistent storage with the same id as the given job
      * @throws IOFailure If some IOException occurs while writing the job to persistent storage
      */
-    public synchronized void create(Job job) {
+    public void create(Job job) {
         ArgumentNotValid.checkNotNull(job, "Job job");
-        // Check that job.getOrigHarvestDefinitionID() refers to existing harvestdefinition.
-        Long harvestId = job.getOrigHarvestDefinitionID();
-        if (!HarvestDefinitionDAO.getInstance().exists(harvestId)) {
-            throw new UnknownID("No harvestdefinition with ID=" + harvestId);
-        }
+        checkHarvestDefinitionExists(job.getOrigHarvestDefinitionID());
 
         Connection connection = HarvestDBConnection.get();
-        if (job.getJobID() != null) {
-            log.warn("The jobId for the job is already set. This should probably never happen.");
-        } else {
-            job.setJobID(generateNextID(connection));
-        }
-        // Set the harvestNamePrefix. Every current implementation depends on the JobID being set before
-        // being initialized.
-        job.setDefaultHarvestNamePrefix();
-        
-        
-        if (job.getCreationDate() != null) {
-            log.warn("The creation time for the job is already set. This should probably never happen.");
-        } else {
-            job.setCreationDate(new Date());
-        }
-
+        prepareForCreation(job, job.getJobID() == null ? generateNextIDs(connection, 1) : null);
         log.debug("Creating " + job.toString());
 
         PreparedStatement statement = null;
         try {
             connection.setAutoCommit(false);
-            statement = connection.prepareStatement("INSERT INTO jobs "
-                    + "(job_id, harvest_id, status, channel, forcemaxcount, "
-                    + "forcemaxbytes, forcemaxrunningtime, orderxml, " + "orderxmldoc, seedlist, "
-                    + "harvest_num, startdate, enddate, submitteddate, creationdate, "
-                    + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
-                    + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?," + "?, ?, ?, ?, ?, ?)");
-
-            statement.setLong(1, job.getJobID());
-            statement.setLong(2, job.getOrigHarvestDefinitionID());
-            statement.setInt(3, job.getStatus().ordinal());
-            statement.setString(4, job.getChannel());
-            statement.setLong(5, job.getForceMaxObjectsPerDomain());
-            statement.setLong(6, job.getMaxBytesPerDomain());
-            statement.setLong(7, job.getMaxJobRunningTime());
-            DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(), Constants.MAX_NAME_SIZE, job,
-                    "order.xml name");
-            final String orderString = job.getOrderXMLdoc().getXML();
-            DBUtils.setClobMaxLength(statement, 9, orderString, Constants.MAX_ORDERXML_SIZE, job, "order.xml");
-            DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(), Constants.MAX_COMBINED_SEED_LIST_SIZE,
-                    job, "seedlist");
-            statement.setInt(11, job.getHarvestNum());
-            DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
-            DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
-            DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
-            DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
-
-            // The size of the configuration map == number of configurations
-            statement.setInt(16, job.getDomainConfigurationMap().size());
-            long initialEdition = 1;
-            statement.setLong(17, initialEdition);
-            DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
-            statement.setString(19, job.getHarvestFilenamePrefix());
-            statement.setBoolean(20, job.isSnapshot());
+            statement = connection.prepareStatement(INSERT_JOB_SQL);
+            setInsertJobParameters(statement, job);
             statement.executeUpdate();
             createJobConfigsEntries(connection, job);
             connection.commit();
-            job.setEdition(initialEdition);
+            job.setEdition(INITIAL_EDITION);
         } catch (SQLException e) {
             String message = "SQL error creating job " + job + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
@@ -166,6 +140,159 @@ public class JobDBDAO extends JobDAO {
         }
     }
 
+    /**
+     * Creates the given jobs in one transaction. The ids of the jobs are allocated in one go, in the order of the list,
+     * and the rows of the jobs and job_configs tables are written as JDBC batches.
+     *
+     * @param jobs the jobs to add to persistent storage
+     * @throws ArgumentNotValid If the list is null
+     * @throws UnknownID If a job refers to a harvest definition which does not exist
+     * @throws IOFailure If some IOException occurs while writing the jobs to persistent storage
+     */
+    @Override
+    public void create(List<Job> jobs) {
+        ArgumentNotValid.checkNotNull(jobs, "List<Job> jobs");
+        if (jobs.isEmpty()) {
+            return;
+        }
+        Set<Long> harvestIds = new HashSet<Long>();
+        int newIds = 0;
+        for (Job job : jobs) {
+            ArgumentNotValid.checkNotNull(job, "Job job");
+            if (harvestIds.add(job.getOrigHarvestDefinitionID())) {
+                checkHarvestDefinitionExists(job.getOrigHarvestDefinitionID());
+            }
+            if (job.getJobID() == null) {
+                newIds++;
+            }
+        }
+
+        Connection connection = HarvestDBConnection.get();
+        Long nextId = newIds > 0 ? generateNextIDs(connection, newIds) : null;
+        for (Job job : jobs) {
+            boolean hasId = job.getJobID() != null;
+            prepareForCreation(job, nextId);
+            if (!hasId) {
+                nextId++;
+            }
+        }
+        log.debug("Creating {} jobs, {} - {}", jobs.size(), jobs.get(0), jobs.get(jobs.size() - 1));
+
+        PreparedStatement jobStatement = null;
+        PreparedStatement configStatement = null;
+        try {
+            connection.setAutoCommit(false);
+            jobStatement = connection.prepareStatement(INSERT_JOB_SQL);
+            configStatement = connection.prepareStatement(INSERT_JOB_CONFIG_SQL);
+            for (Job job : jobs) {
+                setInsertJobParameters(jobStatement, job);
+                jobStatement.addBatch();
+                for (Map.Entry<String, String> entry : job.getDomainConfigurationMap().entrySet()) {
+                    configStatement.setLong(1, job.getJobID());
+                    configStatement.setString(2, entry.getKey());
+                    configStatement.setString(3, entry.getValue());
+                    configStatement.addBatch();
+                }
+            }
+            jobStatement.executeBatch();
+            int[] rows = configStatement.executeBatch();
+            int missing = 0;
+            for (int count : rows) {
+                if (count == 0) {
+                    missing++;
+                }
+            }
+            if (missing > 0) {
+                log.debug("{} domain configurations of the {} jobs created were missing in the database", missing,
+                        jobs.size());
+            }
+            connection.commit();
+            for (Job job : jobs) {
+                job.configsChanged = false;
+                job.setEdition(INITIAL_EDITION);
+            }
+        } catch (SQLException e) {
+            String message = "SQL error creating " + jobs.size() + " jobs in database" + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(jobStatement);
+            DBUtils.closeStatementIfOpen(configStatement);
+            DBUtils.rollbackIfNeeded(connection, "create jobs", jobs);
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * @param harvestId The id of the harvest definition a new job belongs to.
+     * @throws UnknownID If there is no such harvest definition.
+     */
+    private void checkHarvestDefinitionExists(Long harvestId) {
+        // Check that job.getOrigHarvestDefinitionID() refers to existing harvestdefinition.
+        if (!HarvestDefinitionDAO.getInstance().exists(harvestId)) {
+            throw new UnknownID("No harvestdefinition with ID=" + harvestId);
+        }
+    }
+
+    /**
+     * Set the id, the harvestnamePrefix and the creation date of a job about to be created.
+     *
+     * @param job The job.
+     * @param newId The id to give the job, if it has none.
+     */
+    private void prepareForCreation(Job job, Long newId) {
+        if (job.getJobID() != null) {
+            log.warn("The jobId for the job is already set. This should probably never happen.");
+        } else {
+            job.setJobID(newId);
+        }
+        // Set the harvestNamePrefix. Every current implementation depends on the JobID being set before
+        // being initialized.
+        job.setDefaultHarvestNamePrefix();
+
+        if (job.getCreationDate() != null) {
+            log.warn("The creation time for the job is already set. This should probably never happen.");
+        } else {
+            job.setCreationDate(new Date());
+        }
+    }
+
+    /**
+     * Set the parameters of the {@link #INSERT_JOB_SQL} statement for a job.
+     *
+     * @param statement The statement.
+     * @param job The job to insert.
+     * @throws SQLException If a parameter cannot be set.
+     */
+    private void setInsertJobParameters(PreparedStatement statement, Job job) throws SQLException {
+        statement.setLong(1, job.getJobID());
+        statement.setLong(2, job.getOrigHarvestDefinitionID());
+        statement.setInt(3, job.getStatus().ordinal());
+        statement.setString(4, job.getChannel());
+        statement.setLong(5, job.getForceMaxObjectsPerDomain());
+        statement.setLong(6, job.getMaxBytesPerDomain());
+        statement.setLong(7, job.getMaxJobRunningTime());
+        DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(), Constants.MAX_NAME_SIZE, job,
+                "order.xml name");
+        final String orderString = job.getOrderXMLdoc().getXML();
+        DBUtils.setClobMaxLength(statement, 9, orderString, Constants.MAX_ORDERXML_SIZE, job, "order.xml");
+        DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(), Constants.MAX_COMBINED_SEED_LIST_SIZE,
+                job, "seedlist");
+        statement.setInt(11, job.getHarvestNum());
+        DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
+        DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
+        DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
+        DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
+
+        // The size of the configuration map == number of configurations
+        statement.setInt(16, job.getDomainConfigurationMap().size());
+        statement.setLong(17, INITIAL_EDITION);
+        DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
+        statement.setString(19, job.getHarvestFilenamePrefix());
+        statement.setBoolean(20, job.isSnapshot());
+    }
+
     /**
      * Create the entries in the job_configs table for this job. Since some jobs have up to 10000 configs, this must be
      * optimized. The entries are only created, if job.configsChanged is true.
@@ -248,12 +375,14 @@ public class JobDBDAO extends JobDAO {
     }
 
     /**
-     * Generates the next id of job.
+     * Generates the next ids of jobs. Ids handed out by this DAO but not yet committed are also taken into account, so
+     * concurrent calls to create never get the same id. This is the only part of create that needs to be locked.
      *
      * @param c an open connection to the harvestDatabase
-     * @return id
+     * @param count the number of consecutive ids to allocate
+     * @return the first of the allocated ids
      */
-    private Long generateNextID(Connection c) {
+    private synchronized Long generateNextIDs(Connection c, int count) {
         // Set to zero original, can be set after admin machine breakdown,
         // and the use this as the point of reference.
         Long restoreId = Settings.getLong(Constants.NEXT_JOB_ID);
@@ -265,7 +394,12 @@ public class JobDBDAO extends JobDAO {
         // return the largest number of the two numbers: the NEXT_JOB_ID
         // declared in settings and max value of job_id used
         // in the jobs table.
-        return ((restoreId > maxVal) ? restoreId : maxVal + 1L);
+        long nextId = (restoreId > maxVal) ? restoreId : maxVal + 1L;
+        if (nextId <= lastGeneratedID) {
+            nextId = lastGeneratedID + 1L;
+        }
+        lastGeneratedID = nextId + count - 1;
+        return nextId;
     }
 
     /**
@@ -278,7 +412,7 @@ public class JobDBDAO extends JobDAO {
      * @throws PermissionDenied If the job has been updated behind our backs
      */
     @Override
-    public synchronized void update(Job job) {
+    public void update(Job job) {
         ArgumentNotValid.checkNotNull(job, "job");
 
         Connection connection = HarvestDBConnection.get();
@@ -406,7 +540,7 @@ public class JobDBDAO extends JobDAO {
      * @throws UnknownID if the job id does not exist.
      * @throws IOFailure if there was some problem talking to the database.
      */
-    private synchronized Job read(Connection connection, Long jobID) {
+    private Job read(Connection connection, Long jobID) {
         if (!exists(connection, jobID)) {
             throw new UnknownID("Job id " + jobID + " is not known in persistent storage");
         }
@@ -536,7 +670,7 @@ public class JobDBDAO extends JobDAO {
      * @return A list of all job with given status
      */
     @Override
-    public synchronized Iterator<Job> getAll(JobStatus status) {
+    public Iterator<Job> getAll(JobStatus status) {
         ArgumentNotValid.checkNotNull(status, "JobStatus status");
 
         Connection c = HarvestDBConnection.get();
@@ -595,7 +729,7 @@ public class JobDBDAO extends JobDAO {
      * @return A list of all jobs
      */
     @Override
-    public synchronized Iterator<Job> getAll() {
+    public Iterator<Job> getAll() {
         Connection c = HarvestDBConnection.get();
         try {
             List<Long> idList = DBUtils.selectLongList(c, "SELECT job_id FROM jobs ORDER BY job_id");
@@ -840,7 +974,7 @@ public class JobDBDAO extends JobDAO {
     @Override
     public synchronized long rescheduleJob(long oldJobID) {
         Connection connection = HarvestDBConnection.get();
-        long newJobID = generateNextID(connection);
+        long newJobID = generateNextIDs(connection, 1);
         PreparedStatement statement = null;
         try {
             statement = connection.prepareStatement("SELECT status FROM jobs WHERE job_id = ?");
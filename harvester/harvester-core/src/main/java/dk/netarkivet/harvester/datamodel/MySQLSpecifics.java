@@ -187,6 +187,12 @@ public class MySQLSpecifics extends DBSpecifics {
 
     }
 
+    @Override
+    public void createFrontierReportSnapshotTable() {
+        String tableName = HarvesterDatabaseTables.FRONTIERREPORTSNAPSHOT.getTablename();
+        HarvestDBConnection.executeSql("mysql", tableName, 1);
+    }
+
     @Override
     public void createRunningJobsHistoryTable() {
         String createStatement = "CREATE TABLE runningJobsHistory (" + "jobId bigint NOT NULL, "
@@ -164,6 +164,12 @@ public class PostgreSQLSpecifics extends DBSpecifics {
         HarvestDBConnection.updateTable("frontierreportmonitor", 1);
     }
 
+    @Override
+    public void createFrontierReportSnapshotTable() {
+        String tableName = HarvesterDatabaseTables.FRONTIERREPORTSNAPSHOT.getTablename();
+        HarvestDBConnection.executeSql("postgresql", tableName, 1);
+    }
+
     @Override
     public void createRunningJobsHistoryTable() {
         log.warn("Please use the provided SQL scripts to update the DB schema");
@@ -62,7 +62,7 @@ public abstract class RunningJobsInfoDAO implements DAO {
     /**
      * Stores a {@link StartedJobInfo} record to the persistent storage. The record is stored in the monitor table, and
      * if the elapsed time since the last history sample is equal or superior to the history sample rate, also to the
-     * history table.
+     * history table. Implementations may write the record asynchronously.
      *
      * @param startedJobInfo the record to store.
      */
@@ -83,6 +83,16 @@ public abstract class RunningJobsInfoDAO implements DAO {
      */
     public abstract StartedJobInfo[] getFullJobHistory(long jobId);
 
+    /**
+     * Returns an array of the progress records chronologically sorted for the given job ID, with a crawl time after the
+     * given one.
+     *
+     * @param jobId the job id.
+     * @param afterElapsedSeconds the crawl time (in seconds) of the last record already known.
+     * @return an array of the progress records after the given crawl time, chronologically sorted.
+     */
+    public abstract StartedJobInfo[] getJobHistory(long jobId, long afterElapsedSeconds);
+
     /**
      * Returns an array of progress records chronologically sorted for the given job ID, starting at a given crawl time,
      * and limited to a given number of records.
@@ -117,7 +127,7 @@ public abstract class RunningJobsInfoDAO implements DAO {
      * @param report the report to store
      * @param filterId the id of the filter that produced the report
      * @param jobId The ID of the harvestjob responsible for this report
-     * @return the update count
+     * @return the number of report lines stored, or queued for storage
      */
     public abstract int storeFrontierReport(String filterId, InMemoryFrontierReport report, Long jobId);
 
@@ -29,6 +29,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -38,6 +39,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,11 +47,13 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlStatus;
+import dk.netarkivet.harvester.harvesting.frontier.ColumnarFrontierReportCodec;
 import dk.netarkivet.harvester.harvesting.frontier.FrontierReportFilter;
 import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
 import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
@@ -95,17 +99,43 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         }
     }
 
-    /**
-     * Date of last history record per job.
-     */
-    private static Map<Long, Long> lastSampleDateByJobId = new HashMap<Long, Long>();
-
     /**
      * Rate in milliseconds at which history records should be sampled for a running job.
      */
     private static final long HISTORY_SAMPLE_RATE = 1000 * Settings
             .getLong(HarvesterSettings.HARVEST_MONITOR_HISTORY_SAMPLE_RATE);
 
+    /** Value of {@link HarvesterSettings#HARVEST_MONITOR_FRONTIER_REPORT_STORAGE} selecting snapshot storage. */
+    private static final String SNAPSHOT_STORAGE = "snapshot";
+
+    /**
+     * If true, frontier reports are stored as compressed snapshots in the frontierReportSnapshot table instead of row
+     * by row in the frontierReportMonitor table.
+     */
+    private final boolean useSnapshotStorage = SNAPSHOT_STORAGE.equalsIgnoreCase(Settings
+            .get(HarvesterSettings.HARVEST_MONITOR_FRONTIER_REPORT_STORAGE));
+
+    /** If true, changed snapshots may be stored as a delta against the previous snapshot. */
+    private final boolean useSnapshotDeltas = Settings
+            .getBoolean(HarvesterSettings.HARVEST_MONITOR_FRONTIER_REPORT_DELTAS);
+
+    /** The number of sampled records kept in memory per running job. */
+    private final int recentSamplesSize = Math.max(1,
+            Settings.getInt(HarvesterSettings.HARVEST_MONITOR_DISPLAYED_HISTORY_SIZE));
+
+    /** The latest and the most recently sampled progress records of the jobs stored by this DAO. */
+    private final Map<Long, RecentSamples> recentSamplesByJobId = new ConcurrentHashMap<Long, RecentSamples>();
+
+    /**
+     * The report lines last written to the frontierReportMonitor table, by job id, filter id and domain name. Only
+     * used by the writer thread, and by removals after waiting for it.
+     */
+    private final Map<Long, Map<String, Map<String, FrontierReportLine>>> storedReportsByJobId =
+            new ConcurrentHashMap<Long, Map<String, Map<String, FrontierReportLine>>>();
+
+    /** The writer of queued records. */
+    private final RunningJobsInfoWriter writer;
+
     /**
      * The constructor of RunningJobsInfoDBDAO. Attempts to update/install the necessary database tables, if they need
      * to be updated.
@@ -120,163 +150,153 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.RUNNINGJOBSHISTORY);
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.RUNNINGJOBSMONITOR);
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.FRONTIERREPORTMONITOR);
+            if (useSnapshotStorage) {
+                HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.FRONTIERREPORTSNAPSHOT);
+            }
         } finally {
             HarvestDBConnection.release(connection);
         }
+        writer = new RunningJobsInfoWriter(this, Settings.getInt(HarvesterSettings.HARVEST_MONITOR_WRITE_QUEUE_SIZE));
     }
 
     /**
      * Stores a {@link StartedJobInfo} record to the persistent storage. The record is stored in the monitor table, and
      * if the elapsed time since the last history sample is equal or superior to the history sample rate, also to the
      * history table.
+     * <p>
+     * The record is queued and written by a separate thread, together with the other records queued meanwhile. It is
+     * available at once from {@link #getMostRecentByJobId(long)}.
      *
      * @param startedJobInfo the record to store.
      */
     @Override
-    public synchronized void store(StartedJobInfo startedJobInfo) {
+    public void store(StartedJobInfo startedJobInfo) {
         ArgumentNotValid.checkNotNull(startedJobInfo, "StartedJobInfo startedJobInfo");
 
-        Connection c = HarvestDBConnection.get();
+        long jobId = startedJobInfo.getJobId();
+        RecentSamples recent = recentSamplesByJobId.get(jobId);
+        if (recent == null) {
+            recent = new RecentSamples(recentSamplesSize, getHistory(jobId, 0, recentSamplesSize));
+            RecentSamples existing = recentSamplesByJobId.putIfAbsent(jobId, recent);
+            if (existing != null) {
+                recent = existing;
+            }
+        }
+        boolean sample = recent.add(startedJobInfo, System.currentTimeMillis());
+        if (sample) {
+            log.debug("Adding history Record for job {} to runningJobsHistory table", jobId);
+        }
+        writer.store(startedJobInfo, sample);
+    }
 
+    /**
+     * Writes progress records in one transaction. The monitor table rows of the jobs are updated, or inserted if
+     * missing, and the sampled records are inserted in the history table.
+     *
+     * @param latest the latest progress record of each job.
+     * @param samples the records to add to the history table.
+     * @throws IOFailure if the records could not be written.
+     */
+    void writeProgress(Collection<StartedJobInfo> latest, List<StartedJobInfo> samples) {
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement stm = null;
         try {
-            PreparedStatement stm = null;
-
-            // First is there a record in the monitor table?
-            boolean update = false;
-            try {
-                stm = c.prepareStatement("SELECT jobId FROM runningJobsMonitor WHERE jobId=? AND harvestName=?");
-                stm.setLong(1, startedJobInfo.getJobId());
-                stm.setString(2, startedJobInfo.getHarvestName());
-
-                // One row expected, as per PK definition
-                update = stm.executeQuery().next();
+            c.setAutoCommit(false);
 
-            } catch (SQLException e) {
-                String message = "SQL error checking running jobs monitor table" + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                throw new IOFailure(message, e);
+            StringBuffer columns = new StringBuffer();
+            for (HM_COLUMN setCol : HM_COLUMN.values()) {
+                columns.append(setCol.name() + "=?, ");
             }
+            stm = c.prepareStatement("UPDATE runningJobsMonitor SET "
+                    + columns.substring(0, columns.lastIndexOf(",")) + " WHERE jobId=? AND harvestName=?");
+            for (StartedJobInfo startedJobInfo : latest) {
+                setColumns(stm, startedJobInfo);
+                stm.setLong(HM_COLUMN.values().length + 1, startedJobInfo.getJobId());
+                stm.setString(HM_COLUMN.values().length + 2, startedJobInfo.getHarvestName());
+                stm.addBatch();
+            }
+            int[] updCounts = stm.executeBatch();
+            stm.close();
 
-            try {
-                // Update or insert latest progress information for this job
-                c.setAutoCommit(false);
-
-                StringBuffer sql = new StringBuffer();
-
-                if (update) {
-                    sql.append("UPDATE runningJobsMonitor SET ");
-
-                    StringBuffer columns = new StringBuffer();
-                    // FIXME Seriously, construct an identical SQL string every time and use an enum...?!
-                    for (HM_COLUMN setCol : HM_COLUMN.values()) {
-                        columns.append(setCol.name() + "=?, ");
-                    }
-                    sql.append(columns.substring(0, columns.lastIndexOf(",")));
-                    sql.append(" WHERE jobId=? AND harvestName=?");
-                } else {
-                    sql.append("INSERT INTO runningJobsMonitor (");
-                    sql.append(HM_COLUMN.getColumnsInOrder());
-                    sql.append(") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
-                }
-
-                stm = c.prepareStatement(sql.toString());
-                stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
-                stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
-                stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
-                stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
-                stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
-                stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
-                stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
-                stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
-                stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
-                stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
-                stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
-                stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
-                stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
-                stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
-                stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(),
-                        startedJobInfo.getCurrentProcessedDocsPerSec());
-                stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
-                stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
-                stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
-                stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
-	            stm.setLong(HM_COLUMN.totalBytesWritten.rank(), startedJobInfo.getTotalBytesWritten());
-                if (update) {
-                    stm.setLong(HM_COLUMN.values().length + 1, startedJobInfo.getJobId());
-                    stm.setString(HM_COLUMN.values().length + 2, startedJobInfo.getHarvestName());
+            // Insert the jobs for which there was no row to update
+            List<StartedJobInfo> missing = new ArrayList<StartedJobInfo>();
+            int i = 0;
+            for (StartedJobInfo startedJobInfo : latest) {
+                if (updCounts[i++] == 0) {
+                    missing.add(startedJobInfo);
                 }
-
-                stm.executeUpdate();
-
-                c.commit();
-            } catch (SQLException e) {
-                String message = "SQL error storing started job info " + startedJobInfo + " in monitor table" + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                throw new IOFailure(message, e);
-            } finally {
-                DBUtils.closeStatementIfOpen(stm);
-                DBUtils.rollbackIfNeeded(c, "store started job info", startedJobInfo);
-            }
-
-            // Should we store an history record?
-            Long lastHistoryStore = lastSampleDateByJobId.get(startedJobInfo.getJobId());
-
-            long time = System.currentTimeMillis();
-            boolean shouldSample = lastHistoryStore == null || time >= lastHistoryStore + HISTORY_SAMPLE_RATE;
-
-            if (!shouldSample) {
-                return; // we're done
-            }
-            log.debug("Adding history Record for job {} to runningJobsHistory table", startedJobInfo.getJobId());
-            try {
-                c.setAutoCommit(false);
-
-                stm = c.prepareStatement("INSERT INTO runningJobsHistory (" + HM_COLUMN.getColumnsInOrder()
-                        + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
-                stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
-                stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
-                stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
-                stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
-                stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
-                stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
-                stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
-                stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
-                stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
-                stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
-                stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
-                stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
-                stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
-                stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
-                stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(),
-                        startedJobInfo.getCurrentProcessedDocsPerSec());
-                stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
-                stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
-                stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
-                stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
-                stm.setLong(HM_COLUMN.totalBytesWritten.rank(), startedJobInfo.getTotalBytesWritten());
-                
-                stm.executeUpdate();
-
-                c.commit();
-            } catch (SQLException e) {
-                String message = "SQL error storing started job info " + startedJobInfo + " in history table" + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                throw new IOFailure(message, e);
-            } finally {
-                DBUtils.closeStatementIfOpen(stm);
-                DBUtils.rollbackIfNeeded(c, "store started job info", startedJobInfo);
             }
+            insert(c, "runningJobsMonitor", missing);
+            insert(c, "runningJobsHistory", samples);
 
-            // Remember last sampling date
-            lastSampleDateByJobId.put(startedJobInfo.getJobId(), time);
+            c.commit();
+        } catch (SQLException e) {
+            String message = "SQL error storing " + latest.size() + " started job infos" + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
         } finally {
+            DBUtils.closeStatementIfOpen(stm);
+            DBUtils.rollbackIfNeeded(c, "store started job infos", latest.size());
             HarvestDBConnection.release(c);
         }
     }
 
+    /**
+     * Batch inserts progress records in the monitor or history table.
+     *
+     * @param c a connection to the harvest database.
+     * @param table the name of the table.
+     * @param infos the records to insert.
+     * @throws SQLException if the records could not be inserted.
+     */
+    private void insert(Connection c, String table, List<StartedJobInfo> infos) throws SQLException {
+        if (infos.isEmpty()) {
+            return;
+        }
+        PreparedStatement stm = c.prepareStatement("INSERT INTO " + table + " (" + HM_COLUMN.getColumnsInOrder()
+                + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+        try {
+            for (StartedJobInfo startedJobInfo : infos) {
+                setColumns(stm, startedJobInfo);
+                stm.addBatch();
+            }
+            stm.executeBatch();
+        } finally {
+            stm.close();
+        }
+    }
+
+    /**
+     * Sets the columns of a monitor or history table row, in the order of {@link HM_COLUMN}.
+     *
+     * @param stm the statement to set the parameters of.
+     * @param startedJobInfo the record.
+     * @throws SQLException if a parameter could not be set.
+     */
+    private void setColumns(PreparedStatement stm, StartedJobInfo startedJobInfo) throws SQLException {
+        stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
+        stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
+        stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
+        stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
+        stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
+        stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
+        stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
+        stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
+        stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
+        stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
+        stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
+        stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
+        stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
+        stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
+        stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(), startedJobInfo.getCurrentProcessedDocsPerSec());
+        stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
+        stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
+        stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
+        stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
+        stm.setLong(HM_COLUMN.totalBytesWritten.rank(), startedJobInfo.getTotalBytesWritten());
+    }
+
     /**
      * Returns an array of all progress records chronologically sorted for the given job ID.
      *
@@ -285,12 +305,27 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
      */
     @Override
     public StartedJobInfo[] getFullJobHistory(long jobId) {
+        return getJobHistory(jobId, Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns an array of the progress records chronologically sorted for the given job ID, with a crawl time after the
+     * given one.
+     *
+     * @param jobId the job id.
+     * @param afterElapsedSeconds the crawl time (in seconds) of the last record already known.
+     * @return an array of the progress records after the given crawl time, chronologically sorted.
+     */
+    @Override
+    public StartedJobInfo[] getJobHistory(long jobId, long afterElapsedSeconds) {
+        flushIfStored(jobId);
         Connection c = HarvestDBConnection.get();
         PreparedStatement stm = null;
         try {
             stm = c.prepareStatement("SELECT " + HM_COLUMN.getColumnsInOrder() + " FROM runningJobsHistory"
-                    + " WHERE jobId=?" + " ORDER BY elapsedSeconds ASC");
+                    + " WHERE jobId=? AND elapsedSeconds > ?" + " ORDER BY elapsedSeconds ASC");
             stm.setLong(1, jobId);
+            stm.setLong(2, afterElapsedSeconds);
 
             ResultSet rs = stm.executeQuery();
             List<StartedJobInfo> infosForJob = listFromResultSet(rs);
@@ -353,6 +388,12 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
                 sji.setStatus(CrawlStatus.values()[rs.getInt(HM_COLUMN.status.rank())]);
                 sji.setTimestamp(new Date(rs.getTimestamp(HM_COLUMN.tstamp.rank()).getTime()));
                 sji.setTotalBytesWritten(rs.getLong(HM_COLUMN.totalBytesWritten.rank()));
+
+                // The row may not be up to date with the queued records
+                RecentSamples recent = recentSamplesByJobId.get(jobId);
+                if (recent != null) {
+                    sji = recent.getLatest();
+                }
                 infosForHarvest.add(sji);
             }
 
@@ -376,6 +417,9 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
      */
     @Override
     public Set<Long> getHistoryRecordIds() {
+        if (!recentSamplesByJobId.isEmpty()) {
+            writer.flush();
+        }
         Connection c = HarvestDBConnection.get();
         Set<Long> jobIds = new TreeSet<Long>();
         Statement stm = null;
@@ -403,6 +447,17 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
                 jobIds.add(rs.getLong(HM_COLUMN.jobId.name()));
             }
 
+            if (useSnapshotStorage) {
+                stm.close();
+
+                stm = c.createStatement();
+                rs = stm.executeQuery("SELECT DISTINCT " + HM_COLUMN.jobId + " FROM frontierReportSnapshot");
+
+                while (rs.next()) {
+                    jobIds.add(rs.getLong(HM_COLUMN.jobId.name()));
+                }
+            }
+
             return Collections.unmodifiableSet(jobIds);
         } catch (SQLException e) {
             String message = "SQL error querying running jobs history" + "\n" + ExceptionUtils.getSQLExceptionCause(e);
@@ -431,6 +486,26 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         ArgumentNotValid.checkNotNull(startTime, "startTime");
         ArgumentNotValid.checkNotNull(limit, "limit");
 
+        RecentSamples recent = recentSamplesByJobId.get(jobId);
+        if (recent != null) {
+            StartedJobInfo[] infos = recent.getMostRecent(startTime, limit);
+            if (infos != null) {
+                return infos;
+            }
+            writer.flush();
+        }
+        return getHistory(jobId, startTime, limit);
+    }
+
+    /**
+     * Reads progress records from the history table, most recent first.
+     *
+     * @param jobId the job id.
+     * @param startTime the crawl time (in seconds) to begin.
+     * @param limit the maximum number of records to fetch.
+     * @return the records for the given job ID from the given crawl time, limited to the given number of records.
+     */
+    private StartedJobInfo[] getHistory(long jobId, long startTime, int limit) {
         Connection c = HarvestDBConnection.get();
         PreparedStatement stm = null;
         try {
@@ -464,6 +539,11 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
      */
     @Override
     public StartedJobInfo getMostRecentByJobId(long jobId) {
+        RecentSamples recent = recentSamplesByJobId.get(jobId);
+        if (recent != null) {
+            return recent.getLatest();
+        }
+
         Connection c = HarvestDBConnection.get();
         Statement stm = null;
         try {
@@ -519,6 +599,9 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
     public int removeInfoForJob(long jobId) {
         ArgumentNotValid.checkNotNull(jobId, "jobId");
 
+        flushIfStored(jobId);
+        recentSamplesByJobId.remove(jobId);
+
         Connection c = HarvestDBConnection.get();
         PreparedStatement stm = null;
 
@@ -590,98 +673,369 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
     ;
 
     /**
-     * Store frontier report data to the persistent storage.
+     * Store frontier report data to the persistent storage. The report is queued and written by a separate thread. If
+     * newer reports from the same job and filter are queued meanwhile, only the newest is written.
      *
      * @param report the report to store
      * @param filterId the id of the filter that produced the report
      * @param jobId The ID of the job responsible for this report
-     * @return the update count
+     * @return the number of report lines queued
      */
     public int storeFrontierReport(String filterId, InMemoryFrontierReport report, Long jobId) {
         ArgumentNotValid.checkNotNull(report, "report");
         ArgumentNotValid.checkNotNull(jobId, "jobId");
 
+        storedReportsByJobId.putIfAbsent(jobId, new HashMap<String, Map<String, FrontierReportLine>>());
+        writer.storeFrontierReport(filterId, report, jobId);
+        return report.getSize();
+    }
+
+    /**
+     * Writes a frontier report to the frontierReportSnapshot or the frontierReportMonitor table.
+     *
+     * @param filterId the id of the filter that produced the report
+     * @param report the report to store
+     * @param jobId The ID of the job responsible for this report
+     * @return the number of lines in the stored report, or 0 if it could not be stored
+     */
+    int writeFrontierReport(String filterId, InMemoryFrontierReport report, Long jobId) {
+        if (useSnapshotStorage) {
+            return storeFrontierReportSnapshot(filterId, report, jobId);
+        }
+        return storeFrontierReportRows(filterId, report, jobId);
+    }
+
+    /**
+     * Stores a frontier report row by row in one transaction. If the report last stored for the job and filter is
+     * known, only the lines that were removed, changed or added are written, and the timestamp of the other lines is
+     * updated. Otherwise the stored lines are replaced.
+     *
+     * @param filterId the id of the filter that produced the report
+     * @param report the report to store
+     * @param jobId The ID of the job responsible for this report
+     * @return the number of lines in the stored report, or 0 if it could not be stored
+     */
+    private int storeFrontierReportRows(String filterId, InMemoryFrontierReport report, Long jobId) {
+        FrontierReportLine[] lines = report.getLines();
+        Map<String, FrontierReportLine> linesByDomain = new HashMap<String, FrontierReportLine>();
+        for (FrontierReportLine frl : lines) {
+            if (frl.getDomainName() != null) {
+                linesByDomain.put(frl.getDomainName(), frl);
+            }
+        }
+        // Lines can only be told apart by their domain name
+        boolean canDiff = linesByDomain.size() == lines.length;
+
+        Map<String, Map<String, FrontierReportLine>> storedByFilter = storedReportsByJobId.get(jobId);
+        if (storedByFilter == null) {
+            storedByFilter = new HashMap<String, Map<String, FrontierReportLine>>();
+            storedReportsByJobId.put(jobId, storedByFilter);
+        }
+        // Forgotten until this report has been stored
+        Map<String, FrontierReportLine> stored = storedByFilter.remove(filterId);
+        Timestamp tstamp = new Timestamp(report.getTimestamp());
+
         Connection c = HarvestDBConnection.get();
         PreparedStatement stm = null;
         try {
+            c.setAutoCommit(false);
+
+            List<FrontierReportLine> inserted = new ArrayList<FrontierReportLine>();
+            if (canDiff && stored != null) {
+                List<FrontierReportLine> changed = new ArrayList<FrontierReportLine>();
+                for (FrontierReportLine frl : lines) {
+                    FrontierReportLine storedLine = stored.get(frl.getDomainName());
+                    if (storedLine == null) {
+                        inserted.add(frl);
+                    } else if (!isSameLine(storedLine, frl)) {
+                        changed.add(frl);
+                    }
+                }
+
+                stm = c.prepareStatement("DELETE FROM frontierReportMonitor"
+                        + " WHERE jobId=? AND filterId=? AND domainName=?");
+                int removedCount = 0;
+                for (String domainName : stored.keySet()) {
+                    if (!linesByDomain.containsKey(domainName)) {
+                        stm.setLong(1, jobId);
+                        stm.setString(2, filterId);
+                        stm.setString(3, domainName);
+                        stm.addBatch();
+                        removedCount++;
+                    }
+                }
+                if (removedCount > 0) {
+                    stm.executeBatch();
+                }
+                stm.close();
 
-            // First drop existing rows
-            try {
-                c.setAutoCommit(false);
+                if (!changed.isEmpty()) {
+                    String columns = "";
+                    for (FR_COLUMN col : FR_COLUMN.values()) {
+                        columns += col.name() + "=?, ";
+                    }
+                    stm = c.prepareStatement("UPDATE frontierReportMonitor SET "
+                            + columns.substring(0, columns.lastIndexOf(","))
+                            + " WHERE jobId=? AND filterId=? AND domainName=?");
+                    for (FrontierReportLine frl : changed) {
+                        setColumns(stm, filterId, tstamp, frl, jobId);
+                        stm.setLong(FR_COLUMN.values().length + 1, jobId);
+                        stm.setString(FR_COLUMN.values().length + 2, filterId);
+                        stm.setString(FR_COLUMN.values().length + 3, frl.getDomainName());
+                        stm.addBatch();
+                    }
+                    stm.executeBatch();
+                    stm.close();
+                }
 
+                // The report timestamp is read from any of its lines
+                stm = c.prepareStatement("UPDATE frontierReportMonitor SET tstamp=? WHERE jobId=? AND filterId=?");
+                stm.setTimestamp(1, tstamp);
+                stm.setLong(2, jobId);
+                stm.setString(3, filterId);
+                stm.executeUpdate();
+                stm.close();
+                log.debug("Frontier report {} for job {}: {} lines removed, {} changed and {} added", filterId, jobId,
+                        removedCount, changed.size(), inserted.size());
+            } else {
                 stm = c.prepareStatement("DELETE FROM frontierReportMonitor WHERE jobId=? AND filterId=?");
                 stm.setLong(1, jobId);
                 stm.setString(2, filterId);
-
                 stm.executeUpdate();
-
-                c.commit();
-            } catch (SQLException e) {
-                String message = "SQL error dropping records for job ID " + jobId + " and filterId " + filterId + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                return 0;
-            } finally {
-                DBUtils.closeStatementIfOpen(stm);
-                DBUtils.rollbackIfNeeded(c, "storeFrontierReport delete", jobId);
+                stm.close();
+                Collections.addAll(inserted, lines);
             }
 
-            // Now batch insert report lines
-            try {
-                c.setAutoCommit(false);
-
+            if (!inserted.isEmpty()) {
                 stm = c.prepareStatement("INSERT INTO frontierReportMonitor(" + FR_COLUMN.getColumnsInOrder()
                         + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
-
-                for (FrontierReportLine frl : report.getLines()) {
-                    stm.setLong(FR_COLUMN.jobId.rank(), jobId);
-                    stm.setString(FR_COLUMN.filterId.rank(), filterId);
-                    stm.setTimestamp(FR_COLUMN.tstamp.rank(), new Timestamp(report.getTimestamp()));
-                    stm.setString(FR_COLUMN.domainName.rank(), frl.getDomainName());
-                    stm.setLong(FR_COLUMN.currentSize.rank(), frl.getCurrentSize());
-                    stm.setLong(FR_COLUMN.totalEnqueues.rank(), frl.getTotalEnqueues());
-                    stm.setLong(FR_COLUMN.sessionBalance.rank(), frl.getSessionBalance());
-                    stm.setDouble(FR_COLUMN.lastCost.rank(), frl.getLastCost());
-                    stm.setDouble(FR_COLUMN.averageCost.rank(),
-                            correctNumericIfIllegalAverageCost(frl.getAverageCost()));
-                    stm.setString(FR_COLUMN.lastDequeueTime.rank(), frl.getLastDequeueTime());
-                    stm.setString(FR_COLUMN.wakeTime.rank(), frl.getWakeTime());
-                    stm.setLong(FR_COLUMN.totalSpend.rank(), frl.getTotalSpend());
-                    stm.setLong(FR_COLUMN.totalBudget.rank(), frl.getTotalBudget());
-                    stm.setLong(FR_COLUMN.errorCount.rank(), frl.getErrorCount());
-
-                    // URIs are to be truncated to 1000 characters
-                    // (see SQL scripts)
-                    DBUtils.setStringMaxLength(stm, FR_COLUMN.lastPeekUri.rank(), frl.getLastPeekUri(), MAX_URL_LENGTH,
-                            frl, "lastPeekUri");
-                    DBUtils.setStringMaxLength(stm, FR_COLUMN.lastQueuedUri.rank(), frl.getLastQueuedUri(),
-                            MAX_URL_LENGTH, frl, "lastQueuedUri");
-
+                for (FrontierReportLine frl : inserted) {
+                    setColumns(stm, filterId, tstamp, frl, jobId);
                     stm.addBatch();
                 }
+                stm.executeBatch();
+            }
 
-                int[] updCounts = stm.executeBatch();
-                int updCountTotal = 0;
-                for (int count : updCounts) {
-                    updCountTotal += count;
+            c.commit();
+
+            if (canDiff) {
+                storedByFilter.put(filterId, linesByDomain);
+            }
+            return lines.length;
+        } catch (SQLException e) {
+            String message = "SQL error writing records for job ID " + jobId + " and filterId " + filterId + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            return 0;
+        } finally {
+            DBUtils.closeStatementIfOpen(stm);
+            DBUtils.rollbackIfNeeded(c, "storeFrontierReport", jobId);
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    /**
+     * Sets the columns of a frontierReportMonitor row, in the order of {@link FR_COLUMN}.
+     *
+     * @param stm the statement to set the parameters of
+     * @param filterId the id of the filter that produced the report
+     * @param tstamp the timestamp of the report
+     * @param frl the report line
+     * @param jobId The ID of the job responsible for the report
+     * @throws SQLException if a parameter could not be set
+     */
+    private void setColumns(PreparedStatement stm, String filterId, Timestamp tstamp, FrontierReportLine frl,
+            Long jobId) throws SQLException {
+        stm.setLong(FR_COLUMN.jobId.rank(), jobId);
+        stm.setString(FR_COLUMN.filterId.rank(), filterId);
+        stm.setTimestamp(FR_COLUMN.tstamp.rank(), tstamp);
+        stm.setString(FR_COLUMN.domainName.rank(), frl.getDomainName());
+        stm.setLong(FR_COLUMN.currentSize.rank(), frl.getCurrentSize());
+        stm.setLong(FR_COLUMN.totalEnqueues.rank(), frl.getTotalEnqueues());
+        stm.setLong(FR_COLUMN.sessionBalance.rank(), frl.getSessionBalance());
+        stm.setDouble(FR_COLUMN.lastCost.rank(), frl.getLastCost());
+        stm.setDouble(FR_COLUMN.averageCost.rank(), correctNumericIfIllegalAverageCost(frl.getAverageCost()));
+        stm.setString(FR_COLUMN.lastDequeueTime.rank(), frl.getLastDequeueTime());
+        stm.setString(FR_COLUMN.wakeTime.rank(), frl.getWakeTime());
+        stm.setLong(FR_COLUMN.totalSpend.rank(), frl.getTotalSpend());
+        stm.setLong(FR_COLUMN.totalBudget.rank(), frl.getTotalBudget());
+        stm.setLong(FR_COLUMN.errorCount.rank(), frl.getErrorCount());
+
+        // URIs are to be truncated to 1000 characters
+        // (see SQL scripts)
+        DBUtils.setStringMaxLength(stm, FR_COLUMN.lastPeekUri.rank(), frl.getLastPeekUri(), MAX_URL_LENGTH, frl,
+                "lastPeekUri");
+        DBUtils.setStringMaxLength(stm, FR_COLUMN.lastQueuedUri.rank(), frl.getLastQueuedUri(), MAX_URL_LENGTH, frl,
+                "lastQueuedUri");
+    }
+
+    /**
+     * Compares all stored fields of two report lines for the same domain. {@link FrontierReportLine#equals(Object)}
+     * only compares domain names.
+     *
+     * @param a a report line
+     * @param b another report line
+     * @return true if the lines would be stored as the same row
+     */
+    private static boolean isSameLine(FrontierReportLine a, FrontierReportLine b) {
+        return a.getCurrentSize() == b.getCurrentSize() && a.getTotalEnqueues() == b.getTotalEnqueues()
+                && a.getSessionBalance() == b.getSessionBalance()
+                && Double.compare(a.getLastCost(), b.getLastCost()) == 0
+                && Double.compare(a.getAverageCost(), b.getAverageCost()) == 0
+                && isSame(a.getLastDequeueTime(), b.getLastDequeueTime()) && isSame(a.getWakeTime(), b.getWakeTime())
+                && a.getTotalSpend() == b.getTotalSpend() && a.getTotalBudget() == b.getTotalBudget()
+                && a.getErrorCount() == b.getErrorCount() && isSame(a.getLastPeekUri(), b.getLastPeekUri())
+                && isSame(a.getLastQueuedUri(), b.getLastQueuedUri());
+    }
+
+    /**
+     * @param a a string or null
+     * @param b another string or null
+     * @return true if both are null or they are equal
+     */
+    private static boolean isSame(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Stores a frontier report as a compressed columnar snapshot. If the report is identical to the stored one, only
+     * the timestamp is updated. Otherwise, if deltas are enabled and the delta against the stored snapshot is less
+     * than half the size of a full snapshot, only the delta is stored.
+     *
+     * @param filterId the id of the filter that produced the report
+     * @param report the report to store
+     * @param jobId The ID of the job responsible for this report
+     * @return the number of lines in the stored report, or 0 if it could not be stored
+     */
+    private int storeFrontierReportSnapshot(String filterId, InMemoryFrontierReport report, Long jobId) {
+        FrontierReportLine[] lines = report.getLines();
+        String digest = ChecksumCalculator.calculateMd5(ColumnarFrontierReportCodec.encodeUncompressed(lines));
+        Timestamp tstamp = new Timestamp(report.getTimestamp());
+
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement stm = null;
+        try {
+            c.setAutoCommit(false);
+
+            String storedDigest = null;
+            byte[] storedSnapshot = null;
+            stm = c.prepareStatement("SELECT digest, snapshotData FROM frontierReportSnapshot"
+                    + " WHERE jobId=? AND filterId=?");
+            stm.setLong(1, jobId);
+            stm.setString(2, filterId);
+            ResultSet rs = stm.executeQuery();
+            if (rs.next()) {
+                storedDigest = rs.getString(1);
+                storedSnapshot = rs.getBytes(2);
+            }
+            stm.close();
+
+            if (digest.equals(storedDigest)) {
+                stm = c.prepareStatement("UPDATE frontierReportSnapshot SET tstamp=? WHERE jobId=? AND filterId=?");
+                stm.setTimestamp(1, tstamp);
+                stm.setLong(2, jobId);
+                stm.setString(3, filterId);
+            } else {
+                byte[] snapshot = ColumnarFrontierReportCodec.encode(lines);
+                if (storedSnapshot == null) {
+                    stm = c.prepareStatement("INSERT INTO frontierReportSnapshot"
+                            + " (tstamp, lineCount, digest, snapshotData, jobId, filterId) VALUES (?,?,?,?,?,?)");
+                    stm.setBytes(4, snapshot);
+                } else {
+                    byte[] delta = null;
+                    if (useSnapshotDeltas) {
+                        delta = ColumnarFrontierReportCodec.encodeDelta(
+                                ColumnarFrontierReportCodec.decode(storedSnapshot), lines);
+                    }
+                    if (delta != null && delta.length < snapshot.length / 2) {
+                        // Keep the stored base snapshot and only replace the delta
+                        stm = c.prepareStatement("UPDATE frontierReportSnapshot SET tstamp=?, lineCount=?,"
+                                + " digest=?, deltaData=? WHERE jobId=? AND filterId=?");
+                        stm.setBytes(4, delta);
+                    } else {
+                        stm = c.prepareStatement("UPDATE frontierReportSnapshot SET tstamp=?, lineCount=?,"
+                                + " digest=?, snapshotData=?, deltaData=NULL WHERE jobId=? AND filterId=?");
+                        stm.setBytes(4, snapshot);
+                    }
                 }
+                stm.setTimestamp(1, tstamp);
+                stm.setInt(2, lines.length);
+                stm.setString(3, digest);
+                stm.setLong(5, jobId);
+                stm.setString(6, filterId);
+            }
+            stm.executeUpdate();
+
+            c.commit();
+
+            return lines.length;
+        } catch (SQLException e) {
+            String message = "SQL error writing snapshot for job ID " + jobId + " and filterId " + filterId + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            return 0;
+        } finally {
+            DBUtils.closeStatementIfOpen(stm);
+            DBUtils.rollbackIfNeeded(c, "storeFrontierReportSnapshot", jobId);
+            HarvestDBConnection.release(c);
+        }
+    }
 
-                c.commit();
+    /**
+     * Reads frontier report snapshots and decodes them straight into an in-memory report.
+     *
+     * @param jobId the job id
+     * @param filterId the id of the filter that produced the report, or null to merge the reports of all filters
+     * @param limit if positive, the maximum number of lines to return, taken in the order of
+     * {@link FrontierReportLine#compareTo(FrontierReportLine)}, that is by totalenqueues DESC
+     * @return a frontier report
+     */
+    private InMemoryFrontierReport getFrontierReportSnapshot(long jobId, String filterId, int limit) {
+        InMemoryFrontierReport report = new InMemoryFrontierReport(Long.toString(jobId));
 
-                return updCountTotal;
-            } catch (SQLException e) {
-                String message = "SQL error writing records for job ID " + jobId + " and filterId " + filterId + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                return 0;
-            } finally {
-                DBUtils.closeStatementIfOpen(stm);
-                DBUtils.rollbackIfNeeded(c, "storeFrontierReport insert", jobId);
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement stm = null;
+        try {
+            String sqlString = "SELECT tstamp, snapshotData, deltaData FROM frontierReportSnapshot WHERE jobId=?";
+            if (filterId != null) {
+                sqlString = sqlString + " AND filterId=?";
+            }
+            stm = c.prepareStatement(sqlString);
+            stm.setLong(1, jobId);
+            if (filterId != null) {
+                stm.setString(2, filterId);
             }
 
+            ResultSet rs = stm.executeQuery();
+            long latest = Long.MIN_VALUE;
+            while (rs.next()) {
+                InMemoryFrontierReport stored = ColumnarFrontierReportCodec.toReport(report.getJobName(), rs
+                        .getTimestamp(1).getTime(), rs.getBytes(2), rs.getBytes(3));
+                latest = Math.max(latest, stored.getTimestamp());
+                report.setTimestamp(latest);
+                for (FrontierReportLine line : stored.getLines()) {
+                    report.addLine(line);
+                }
+            }
+        } catch (SQLException e) {
+            String message = "SQL error fetching report snapshot for job ID " + jobId + " and filterId " + filterId
+                    + "\n" + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
         } finally {
+            DBUtils.closeStatementIfOpen(stm);
             HarvestDBConnection.release(c);
         }
+
+        if (limit <= 0 || report.getSize() <= limit) {
+            return report;
+        }
+        InMemoryFrontierReport limited = new InMemoryFrontierReport(report.getJobName());
+        limited.setTimestamp(report.getTimestamp());
+        FrontierReportLine[] lines = report.getLines();
+        for (int i = 0; i < limit; i++) {
+            limited.addLine(lines[i]);
+        }
+        return limited;
     }
 
     /**
@@ -711,7 +1065,11 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         Connection c = HarvestDBConnection.get();
         PreparedStatement stm = null;
         try {
-            stm = c.prepareStatement("SELECT DISTINCT filterId FROM frontierReportMonitor");
+            if (useSnapshotStorage) {
+                stm = c.prepareStatement("SELECT DISTINCT filterId FROM frontierReportSnapshot");
+            } else {
+                stm = c.prepareStatement("SELECT DISTINCT filterId FROM frontierReportMonitor");
+            }
 
             ResultSet rs = stm.executeQuery();
             while (rs.next()) {
@@ -741,6 +1099,10 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         ArgumentNotValid.checkNotNull(jobId, "jobId");
         ArgumentNotValid.checkNotNull(filterId, "filterId");
 
+        if (useSnapshotStorage) {
+            return getFrontierReportSnapshot(jobId, filterId, 0);
+        }
+
         InMemoryFrontierReport report = new InMemoryFrontierReport(Long.toString(jobId));
 
         Connection c = HarvestDBConnection.get();
@@ -791,6 +1153,10 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         ArgumentNotValid.checkNotNull(sort, "sort");
         ArgumentNotValid.checkNotNull(filterId, "filterId");
 
+        if (useSnapshotStorage) {
+            return getFrontierReportSnapshot(jobId, filterId, limit);
+        }
+
         InMemoryFrontierReport report = new InMemoryFrontierReport(Long.toString(jobId));
 
         Connection c = HarvestDBConnection.get();
@@ -848,6 +1214,10 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         ArgumentNotValid.checkNotNull(limit, "limit");
         ArgumentNotValid.checkNotNull(sort, "sort");
 
+        if (useSnapshotStorage) {
+            return getFrontierReportSnapshot(jobId, null, limit);
+        }
+
         InMemoryFrontierReport report = new InMemoryFrontierReport(Long.toString(jobId));
 
         Connection c = HarvestDBConnection.get();
@@ -898,6 +1268,9 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
     public int deleteFrontierReports(long jobId) {
         ArgumentNotValid.checkNotNull(jobId, "jobId");
 
+        flushIfStored(jobId);
+        storedReportsByJobId.remove(jobId);
+
         Connection c = HarvestDBConnection.get();
         PreparedStatement stm = null;
         try {
@@ -908,6 +1281,13 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
 
             int delCount = stm.executeUpdate();
 
+            if (useSnapshotStorage) {
+                stm.close();
+                stm = c.prepareStatement("DELETE FROM frontierReportSnapshot WHERE jobId=?");
+                stm.setLong(1, jobId);
+                delCount += stm.executeUpdate();
+            }
+
             c.commit();
 
             return delCount;
@@ -923,6 +1303,24 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         }
     }
 
+    /**
+     * Waits until the records queued so far have been written.
+     */
+    void flush() {
+        writer.flush();
+    }
+
+    /**
+     * Waits for the queued records to be written, if records for the given job have been stored through this DAO.
+     *
+     * @param jobId the job id
+     */
+    private void flushIfStored(long jobId) {
+        if (recentSamplesByJobId.containsKey(jobId) || storedReportsByJobId.containsKey(jobId)) {
+            writer.flush();
+        }
+    }
+
     /**
      * Get a frontierReportLine from the resultSet.
      *
@@ -984,4 +1382,101 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         return list;
     }
 
+    /**
+     * The latest progress record and the most recently sampled records of a running job, so that the harvest monitor
+     * pages can be served without waiting for the database. Also decides which records are sampled to the history
+     * table.
+     */
+    private static class RecentSamples {
+        /** The sampled records in a ring, the most recent at index next - 1. */
+        private final StartedJobInfo[] samples;
+        /** The number of records in the ring. */
+        private int count;
+        /** The index of the next record in the ring. */
+        private int next;
+        /** Whether the ring holds all sampled records of the job. */
+        private boolean complete;
+        /** The latest progress record. */
+        private StartedJobInfo latest;
+        /** The time in milliseconds of the last sample taken, or null if none has been taken. */
+        private Long lastSampleTime;
+
+        /**
+         * @param size the maximum number of sampled records held.
+         * @param stored the most recent records in the history table, most recent first.
+         */
+        RecentSamples(int size, StartedJobInfo[] stored) {
+            samples = new StartedJobInfo[size];
+            complete = stored.length < size;
+            for (int i = stored.length - 1; i >= 0; i--) {
+                addSample(stored[i]);
+            }
+        }
+
+        /**
+         * Adds a progress record, and samples it if the history sample rate has passed since the last sample.
+         *
+         * @param info the progress record.
+         * @param now the current time in milliseconds.
+         * @return true if the record was sampled.
+         */
+        synchronized boolean add(StartedJobInfo info, long now) {
+            latest = info;
+            if (lastSampleTime != null && now < lastSampleTime + HISTORY_SAMPLE_RATE) {
+                return false;
+            }
+            lastSampleTime = now;
+            addSample(info);
+            return true;
+        }
+
+        /**
+         * @param info a sampled record.
+         */
+        private void addSample(StartedJobInfo info) {
+            if (count < samples.length) {
+                count++;
+            } else {
+                complete = false;
+            }
+            samples[next] = info;
+            next = (next + 1) % samples.length;
+        }
+
+        /**
+         * @return the latest progress record.
+         */
+        synchronized StartedJobInfo getLatest() {
+            return latest;
+        }
+
+        /**
+         * Returns the most recent sampled records from a given crawl time, if they are all in the ring.
+         *
+         * @param startTime the crawl time (in seconds) to begin.
+         * @param limit the maximum number of records to return.
+         * @return the records, most recent first, or null if the history table may hold more of them.
+         */
+        synchronized StartedJobInfo[] getMostRecent(long startTime, int limit) {
+            List<StartedJobInfo> infos = new ArrayList<StartedJobInfo>();
+            boolean before = false;
+            for (int i = 1; i <= count; i++) {
+                StartedJobInfo sample = samples[(next - i + samples.length) % samples.length];
+                if (sample.getElapsedSeconds() < startTime) {
+                    // Samples are taken in the order of crawl time, so older samples are before startTime too
+                    before = true;
+                    break;
+                }
+                if (infos.size() == limit) {
+                    break;
+                }
+                infos.add(sample);
+            }
+            if (infos.size() < limit && !before && !complete) {
+                return null;
+            }
+            return infos.toArray(new StartedJobInfo[infos.size()]);
+        }
+    }
+
 }
@@ -0,0 +1,240 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
+import dk.netarkivet.harvester.harvesting.monitor.StartedJobInfo;
+
+/**
+ * Writes running job infos and frontier reports to the harvest database from a single thread, so that the harvest
+ * monitor does not wait for the database while handling messages.
+ * <p>
+ * Records are put in a bounded queue, and the caller only waits when the queue is full. The writer thread takes all
+ * queued records at once and writes only the latest progress record per job to the monitor table, all sampled records
+ * to the history table, and the latest report per job and filter.
+ */
+class RunningJobsInfoWriter {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(RunningJobsInfoWriter.class);
+
+    /** The DAO doing the actual writing. */
+    private final RunningJobsInfoDBDAO dao;
+
+    /** The records waiting to be written. */
+    private final BlockingQueue<Object> queue;
+
+    /** The maximum number of records written in one go. */
+    private final int batchSize;
+
+    /**
+     * Create a writer and start its thread.
+     *
+     * @param dao The DAO writing the records.
+     * @param queueSize The maximum number of records waiting to be written.
+     */
+    RunningJobsInfoWriter(RunningJobsInfoDBDAO dao, int queueSize) {
+        ArgumentNotValid.checkNotNull(dao, "RunningJobsInfoDBDAO dao");
+        ArgumentNotValid.checkPositive(queueSize, "int queueSize");
+        this.dao = dao;
+        this.queue = new ArrayBlockingQueue<Object>(queueSize);
+        this.batchSize = queueSize;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "RunningJobsInfoWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a progress record for writing.
+     *
+     * @param info The progress record.
+     * @param sample If true, the record is also written to the history table.
+     */
+    void store(StartedJobInfo info, boolean sample) {
+        put(new ProgressRecord(info, sample));
+    }
+
+    /**
+     * Queue a frontier report for writing.
+     *
+     * @param filterId The id of the filter that produced the report.
+     * @param report The report.
+     * @param jobId The id of the job the report belongs to.
+     */
+    void storeFrontierReport(String filterId, InMemoryFrontierReport report, Long jobId) {
+        put(new ReportRecord(filterId, report, jobId));
+    }
+
+    /**
+     * Wait until everything queued before this call has been written, or has failed to be written.
+     */
+    void flush() {
+        CountDownLatch written = new CountDownLatch(1);
+        put(written);
+        try {
+            written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting for running job infos to be written", e);
+        }
+    }
+
+    /**
+     * Put a record in the queue, waiting for room if the queue is full.
+     *
+     * @param record The record.
+     */
+    private void put(Object record) {
+        try {
+            if (!queue.offer(record)) {
+                log.debug("Queue of running job infos is full, waiting for the database");
+                queue.put(record);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while queueing running job infos", e);
+        }
+    }
+
+    /**
+     * Take and write queued records until the thread is interrupted.
+     */
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<Object>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                log.info("Stopped writing running job infos");
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write a batch of records, keeping only the latest progress record per job for the monitor table and the latest
+     * report per job and filter. Waiting flushes are released when the batch has been written.
+     *
+     * @param batch Records in the order they were queued.
+     */
+    private void write(List<Object> batch) {
+        Map<Long, StartedJobInfo> latest = new LinkedHashMap<Long, StartedJobInfo>();
+        List<StartedJobInfo> samples = new ArrayList<StartedJobInfo>();
+        Map<String, ReportRecord> reports = new LinkedHashMap<String, ReportRecord>();
+        List<CountDownLatch> flushes = new ArrayList<CountDownLatch>();
+        for (Object record : batch) {
+            if (record instanceof ProgressRecord) {
+                ProgressRecord progress = (ProgressRecord) record;
+                latest.put(progress.info.getJobId(), progress.info);
+                if (progress.sample) {
+                    samples.add(progress.info);
+                }
+            } else if (record instanceof ReportRecord) {
+                ReportRecord report = (ReportRecord) record;
+                reports.put(report.jobId + "/" + report.filterId, report);
+            } else {
+                flushes.add((CountDownLatch) record);
+            }
+        }
+        try {
+            if (!latest.isEmpty()) {
+                try {
+                    dao.writeProgress(latest.values(), samples);
+                } catch (RuntimeException e) {
+                    log.warn("Could not write {} progress records for jobs {}", samples.size() + latest.size(),
+                            latest.keySet(), e);
+                }
+            }
+            for (ReportRecord report : reports.values()) {
+                try {
+                    dao.writeFrontierReport(report.filterId, report.report, report.jobId);
+                } catch (RuntimeException e) {
+                    log.warn("Could not write frontier report {} for job {}", report.filterId, report.jobId, e);
+                }
+            }
+        } finally {
+            for (CountDownLatch flush : flushes) {
+                flush.countDown();
+            }
+        }
+    }
+
+    /** A queued progress record. */
+    private static class ProgressRecord {
+        /** The progress record. */
+        private final StartedJobInfo info;
+        /** Whether the record goes to the history table. */
+        private final boolean sample;
+
+        /**
+         * @param info The progress record.
+         * @param sample Whether the record goes to the history table.
+         */
+        ProgressRecord(StartedJobInfo info, boolean sample) {
+            this.info = info;
+            this.sample = sample;
+        }
+    }
+
+    /** A queued frontier report. */
+    private static class ReportRecord {
+        /** The id of the filter that produced the report. */
+        private final String filterId;
+        /** The report. */
+        private final InMemoryFrontierReport report;
+        /** The id of the job the report belongs to. */
+        private final Long jobId;
+
+        /**
+         * @param filterId The id of the filter that produced the report.
+         * @param report The report.
+         * @param jobId The id of the job the report belongs to.
+         */
+        ReportRecord(String filterId, InMemoryFrontierReport report, Long jobId) {
+            this.filterId = filterId;
+            this.report = report;
+            this.jobId = jobId;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.harvester.harvesting.distribute.UploadStatistics;
+
+/**
+ * Uploads the files of a harvest job to the archive with a bounded number of concurrent store operations. Each file is
+ * stored once; retrying a failed store is left to the client, which does so according to
+ * settings.common.arcrepositoryClient.storeRetries. The throughput and per-file latency of all uploads done by an
+ * instance are collected in an {@link UploadStatistics}.
+ * <p>
+ * {@link #upload(List)} returns when all of the given files have been either stored or given up on, so callers can use
+ * it as a barrier between files that must be stored in order, e.g. data files before metadata files.
+ */
+public class ArchiveFileUploader {
+
+    /** The logger to use. */
+    private static final Logger log = LoggerFactory.getLogger(ArchiveFileUploader.class);
+
+    /** The client used to store files. */
+    private final HarvesterArcRepositoryClient arcRepController;
+
+    /** Maximum number of concurrent store operations. */
+    private final int concurrency;
+
+    /** Statistics on all uploads done by this uploader. */
+    private final UploadStatistics statistics = new UploadStatistics();
+
+    /**
+     * Creates an uploader.
+     *
+     * @param arcRepController the client used to store files
+     * @param concurrency the maximum number of concurrent store operations
+     */
+    public ArchiveFileUploader(HarvesterArcRepositoryClient arcRepController, int concurrency) {
+        ArgumentNotValid.checkNotNull(arcRepController, "HarvesterArcRepositoryClient arcRepController");
+        ArgumentNotValid.checkPositive(concurrency, "int concurrency");
+        this.arcRepController = arcRepController;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Uploads the given files, and waits until every one of them has been stored or given up on.
+     *
+     * @param files the files to upload
+     * @return the files that could not be stored, mapped to the exception thrown while storing them, in the order of
+     * the given list
+     */
+    public Map<File, Exception> upload(List<File> files) {
+        ArgumentNotValid.checkNotNull(files, "List<File> files");
+        Map<File, Exception> failures = new LinkedHashMap<File, Exception>();
+        if (files.isEmpty()) {
+            return failures;
+        }
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, files.size()), new UploadThreads());
+        try {
+            List<Future<Exception>> results = new ArrayList<Future<Exception>>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                final int number = i + 1;
+                results.add(pool.submit(new Callable<Exception>() {
+                    @Override
+                    public Exception call() {
+                        return store(file, number);
+                    }
+                }));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                Exception failure;
+                try {
+                    failure = results.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new IOFailure("Interrupted while waiting for upload of " + files.get(i), e);
+                } catch (ExecutionException e) {
+                    failure = new IOFailure("Upload of " + files.get(i) + " failed", e.getCause());
+                }
+                if (failure != null) {
+                    statistics.addFailure();
+                    failures.put(files.get(i), failure);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            statistics.addElapsed(System.currentTimeMillis() - start);
+        }
+        return failures;
+    }
+
+    /**
+     * @return statistics on all uploads done by this uploader.
+     */
+    public UploadStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Stores one file.
+     *
+     * @param file the file to store
+     * @param number the number of the file in its upload batch, for logging
+     * @return null if the file was stored, otherwise the exception thrown while storing it
+     */
+    private Exception store(File file, int number) {
+        // The file is deleted once stored, so get its size first
+        long size = file.length();
+        long start = System.currentTimeMillis();
+        try {
+            log.info("Uploading file #{} - '{}' to arcrepository.", number, file.getName());
+            arcRepController.store(file);
+            long latency = System.currentTimeMillis() - start;
+            log.info("File '{}' uploaded successfully to the arcrepository in {} ms.", file.getName(), latency);
+            statistics.addUpload(size, latency);
+            return null;
+        } catch (Exception e) {
+            log.warn("Upload of file '{}' failed", file.getName(), e);
+            return e;
+        }
+    }
+
+    /**
+     * Names the upload threads, to make them recognizable in thread dumps.
+     */
+    private static class UploadThreads implements ThreadFactory {
+
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ArchiveFileUploader-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
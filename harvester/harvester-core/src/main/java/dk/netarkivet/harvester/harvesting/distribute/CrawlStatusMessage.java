@@ -57,6 +57,9 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
     /** upload errors encountered with details. */
     private String uploadErrorDetails;
 
+    /** Throughput and latency of the upload of the job's files, or null if no files were uploaded. */
+    private UploadStatistics uploadStatistics;
+
     /**
      * Creates an instance of this class corresponding to a job.
      *
@@ -219,4 +222,24 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
         this.uploadErrorDetails = uploadErrorDetails;
     }
 
+    /**
+     * Get-method for private field uploadStatistics.
+     *
+     * @return uploadStatistics, or null if no files were uploaded
+     */
+    public UploadStatistics getUploadStatistics() {
+        return uploadStatistics;
+    }
+
+    /**
+     * Set-method for private field uploadStatistics.
+     *
+     * @param uploadStatistics Throughput and latency of the upload of the job's files.
+     * @throws ArgumentNotValid if null argument
+     */
+    public void setUploadStatistics(UploadStatistics uploadStatistics) {
+        ArgumentNotValid.checkNotNull(uploadStatistics, "UploadStatistics uploadStatistics");
+        this.uploadStatistics = uploadStatistics;
+    }
+
 }
@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.distribute;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Throughput and per-file latency of the upload of the files of a harvest job to the archive. Sent to the scheduler
+ * as part of the {@link CrawlStatusMessage}.
+ */
+@SuppressWarnings({"serial"})
+public class UploadStatistics implements Serializable {
+
+    /** Number of files uploaded successfully. */
+    private int uploadedFiles;
+
+    /** Number of files that could not be uploaded. */
+    private int failedFiles;
+
+    /** Number of bytes uploaded successfully. */
+    private long uploadedBytes;
+
+    /** Wall clock time spent uploading, in milliseconds. */
+    private long elapsedMillis;
+
+    /** The time spent on each successful store, in milliseconds. */
+    private final List<Long> latencies = new ArrayList<Long>();
+
+    /**
+     * Records a successful upload.
+     *
+     * @param bytes the size of the uploaded file
+     * @param latencyMillis the time spent uploading the file
+     */
+    public synchronized void addUpload(long bytes, long latencyMillis) {
+        uploadedFiles++;
+        uploadedBytes += bytes;
+        latencies.add(latencyMillis);
+    }
+
+    /**
+     * Records a file that could not be uploaded.
+     */
+    public synchronized void addFailure() {
+        failedFiles++;
+    }
+
+    /**
+     * Adds wall clock time spent uploading.
+     *
+     * @param millis the time spent
+     */
+    public synchronized void addElapsed(long millis) {
+        elapsedMillis += millis;
+    }
+
+    /**
+     * @return the number of files uploaded successfully.
+     */
+    public synchronized int getUploadedFiles() {
+        return uploadedFiles;
+    }
+
+    /**
+     * @return the number of files that could not be uploaded.
+     */
+    public synchronized int getFailedFiles() {
+        return failedFiles;
+    }
+
+    /**
+     * @return the number of bytes uploaded successfully.
+     */
+    public synchronized long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return the wall clock time spent uploading, in milliseconds.
+     */
+    public synchronized long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the upload throughput in bytes per second, or 0 if nothing was uploaded.
+     */
+    public synchronized long getBytesPerSecond() {
+        if (elapsedMillis <= 0) {
+            return 0L;
+        }
+        return uploadedBytes * 1000L / elapsedMillis;
+    }
+
+    /**
+     * Returns a percentile of the per-file upload latency.
+     *
+     * @param percentile a number between 0 and 100
+     * @return the latency in milliseconds, or 0 if no files were uploaded
+     */
+    public synchronized long getLatencyPercentile(int percentile) {
+        if (latencies.isEmpty()) {
+            return 0L;
+        }
+        List<Long> sorted = new ArrayList<Long>(latencies);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.min(Math.max(rank, 0), sorted.size() - 1));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Uploaded " + uploadedFiles + " files (" + uploadedBytes + " bytes) in " + elapsedMillis + " ms, "
+                + getBytesPerSecond() + " bytes/s. Per file latency: median " + getLatencyPercentile(50)
+                + " ms, 95th percentile " + getLatencyPercentile(95) + " ms, max " + getLatencyPercentile(100)
+                + " ms. " + failedFiles + " files failed.";
+    }
+
+}
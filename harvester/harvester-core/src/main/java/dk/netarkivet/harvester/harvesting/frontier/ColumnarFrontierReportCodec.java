@@ -0,0 +1,395 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Encodes frontier report lines as a compressed, column oriented blob, and computes deltas between two such reports.
+ * <p>
+ * All values of one field are written next to each other (domain names, then current sizes, and so on), numbers as
+ * zig-zag variable length integers, and the whole is deflated. Neighbouring values of a column are very similar, so this
+ * compresses far better than row-wise storage.
+ * <p>
+ * A delta holds the domain names of the lines that have disappeared, followed by the lines that were added or changed,
+ * encoded with the same column layout.
+ */
+public final class ColumnarFrontierReportCodec {
+
+    /** Format marker of a full snapshot. */
+    private static final byte SNAPSHOT_FORMAT = 1;
+
+    /** Format marker of a delta. */
+    private static final byte DELTA_FORMAT = 2;
+
+    /** Utility class, not to be instantiated. */
+    private ColumnarFrontierReportCodec() {
+    }
+
+    /**
+     * Encodes the given lines as a compressed columnar snapshot.
+     *
+     * @param lines the report lines
+     * @return the compressed snapshot
+     */
+    public static byte[] encode(FrontierReportLine[] lines) {
+        ArgumentNotValid.checkNotNull(lines, "FrontierReportLine[] lines");
+        return deflate(encodeUncompressed(lines));
+    }
+
+    /**
+     * Encodes the given lines as an uncompressed columnar snapshot. Two reports with the same lines give identical
+     * bytes, so this can be digested to detect whether a report has changed.
+     *
+     * @param lines the report lines
+     * @return the uncompressed snapshot
+     */
+    public static byte[] encodeUncompressed(FrontierReportLine[] lines) {
+        ArgumentNotValid.checkNotNull(lines, "FrontierReportLine[] lines");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(SNAPSHOT_FORMAT);
+            writeColumns(out, lines);
+            out.flush();
+        } catch (IOException e) {
+            throw new IOFailure("Unable to encode frontier report", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a compressed snapshot made by {@link #encode(FrontierReportLine[])}.
+     *
+     * @param snapshot the compressed snapshot
+     * @return the report lines
+     */
+    public static FrontierReportLine[] decode(byte[] snapshot) {
+        ArgumentNotValid.checkNotNull(snapshot, "byte[] snapshot");
+        try {
+            DataInputStream in = inflate(snapshot);
+            checkFormat(in, SNAPSHOT_FORMAT);
+            return readColumns(in);
+        } catch (IOException e) {
+            throw new IOFailure("Unable to decode frontier report snapshot", e);
+        }
+    }
+
+    /**
+     * Computes the compressed delta that turns the base lines into the current lines.
+     *
+     * @param base the lines of the base snapshot
+     * @param current the lines of the current report
+     * @return the compressed delta
+     */
+    public static byte[] encodeDelta(FrontierReportLine[] base, FrontierReportLine[] current) {
+        ArgumentNotValid.checkNotNull(base, "FrontierReportLine[] base");
+        ArgumentNotValid.checkNotNull(current, "FrontierReportLine[] current");
+        Map<String, FrontierReportLine> baseByDomain = new HashMap<String, FrontierReportLine>();
+        for (FrontierReportLine line : base) {
+            baseByDomain.put(line.getDomainName(), line);
+        }
+        List<FrontierReportLine> changed = new ArrayList<FrontierReportLine>();
+        Set<String> currentDomains = new HashSet<String>();
+        for (FrontierReportLine line : current) {
+            currentDomains.add(line.getDomainName());
+            FrontierReportLine previous = baseByDomain.get(line.getDomainName());
+            if (previous == null || !sameValues(previous, line)) {
+                changed.add(line);
+            }
+        }
+        List<String> removed = new ArrayList<String>();
+        for (FrontierReportLine line : base) {
+            if (!currentDomains.contains(line.getDomainName())) {
+                removed.add(line.getDomainName());
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(DELTA_FORMAT);
+            writeVarLong(out, removed.size());
+            for (String domain : removed) {
+                writeString(out, domain);
+            }
+            writeColumns(out, changed.toArray(new FrontierReportLine[changed.size()]));
+            out.flush();
+        } catch (IOException e) {
+            throw new IOFailure("Unable to encode frontier report delta", e);
+        }
+        return deflate(bytes.toByteArray());
+    }
+
+    /**
+     * Applies a delta made by {@link #encodeDelta(FrontierReportLine[], FrontierReportLine[])} to the base lines.
+     *
+     * @param base the lines of the base snapshot
+     * @param delta the compressed delta
+     * @return the lines of the report the delta was computed for
+     */
+    public static FrontierReportLine[] applyDelta(FrontierReportLine[] base, byte[] delta) {
+        ArgumentNotValid.checkNotNull(base, "FrontierReportLine[] base");
+        ArgumentNotValid.checkNotNull(delta, "byte[] delta");
+        Map<String, FrontierReportLine> lines = new LinkedHashMap<String, FrontierReportLine>();
+        for (FrontierReportLine line : base) {
+            lines.put(line.getDomainName(), line);
+        }
+        try {
+            DataInputStream in = inflate(delta);
+            checkFormat(in, DELTA_FORMAT);
+            int removedCount = (int) readVarLong(in);
+            for (int i = 0; i < removedCount; i++) {
+                lines.remove(readString(in));
+            }
+            for (FrontierReportLine line : readColumns(in)) {
+                lines.put(line.getDomainName(), line);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to decode frontier report delta", e);
+        }
+        return lines.values().toArray(new FrontierReportLine[lines.size()]);
+    }
+
+    /**
+     * Decodes a snapshot and, if present, applies a delta to it, and collects the result in an in-memory report.
+     *
+     * @param jobName the job name of the report
+     * @param timestamp the report timestamp
+     * @param snapshot the compressed snapshot
+     * @param delta the compressed delta, or null
+     * @return the report
+     */
+    public static InMemoryFrontierReport toReport(String jobName, long timestamp, byte[] snapshot, byte[] delta) {
+        FrontierReportLine[] lines = decode(snapshot);
+        if (delta != null) {
+            lines = applyDelta(lines, delta);
+        }
+        InMemoryFrontierReport report = new InMemoryFrontierReport(jobName);
+        report.setTimestamp(timestamp);
+        for (FrontierReportLine line : lines) {
+            report.addLine(line);
+        }
+        return report;
+    }
+
+    /**
+     * @return true if the two lines hold the same values in every field.
+     */
+    private static boolean sameValues(FrontierReportLine a, FrontierReportLine b) {
+        return a.getCurrentSize() == b.getCurrentSize() && a.getPrecedence() == b.getPrecedence()
+                && a.getTotalEnqueues() == b.getTotalEnqueues() && a.getSessionBalance() == b.getSessionBalance()
+                && Double.compare(a.getLastCost(), b.getLastCost()) == 0
+                && Double.compare(a.getAverageCost(), b.getAverageCost()) == 0
+                && a.getTotalSpend() == b.getTotalSpend() && a.getTotalBudget() == b.getTotalBudget()
+                && a.getErrorCount() == b.getErrorCount() && equal(a.getLastDequeueTime(), b.getLastDequeueTime())
+                && equal(a.getWakeTime(), b.getWakeTime()) && equal(a.getLastPeekUri(), b.getLastPeekUri())
+                && equal(a.getLastQueuedUri(), b.getLastQueuedUri());
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void writeColumns(DataOutputStream out, FrontierReportLine[] lines) throws IOException {
+        writeVarLong(out, lines.length);
+        for (FrontierReportLine l : lines) {
+            writeString(out, l.getDomainName());
+        }
+        for (FrontierReportLine l : lines) {
+            writeVarLong(out, l.getCurrentSize());
+        }
+        for (FrontierReportLine l : lines) {
+            writeVarLong(out, l.getPrecedence());
+        }
+        for (FrontierReportLine l : lines) {
+            writeVarLong(out, l.getTotalEnqueues());
+        }
+        for (FrontierReportLine l : lines) {
+            writeVarLong(out, l.getSessionBalance());
+        }
+        for (FrontierReportLine l : lines) {
+            out.writeDouble(l.getLastCost());
+        }
+        for (FrontierReportLine l : lines) {
+            out.writeDouble(l.getAverageCost());
+        }
+        for (FrontierReportLine l : lines) {
+            writeString(out, l.getLastDequeueTime());
+        }
+        for (FrontierReportLine l : lines) {
+            writeString(out, l.getWakeTime());
+        }
+        for (FrontierReportLine l : lines) {
+            writeVarLong(out, l.getTotalSpend());
+        }
+        for (FrontierReportLine l : lines) {
+            writeVarLong(out, l.getTotalBudget());
+        }
+        for (FrontierReportLine l : lines) {
+            writeVarLong(out, l.getErrorCount());
+        }
+        for (FrontierReportLine l : lines) {
+            writeString(out, l.getLastPeekUri());
+        }
+        for (FrontierReportLine l : lines) {
+            writeString(out, l.getLastQueuedUri());
+        }
+    }
+
+    private static FrontierReportLine[] readColumns(DataInputStream in) throws IOException {
+        FrontierReportLine[] lines = new FrontierReportLine[(int) readVarLong(in)];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = new FrontierReportLine();
+            lines[i].setDomainName(readString(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setCurrentSize(readVarLong(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setPrecedence(readVarLong(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setTotalEnqueues(readVarLong(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setSessionBalance(readVarLong(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setLastCost(in.readDouble());
+        }
+        for (FrontierReportLine l : lines) {
+            l.setAverageCost(in.readDouble());
+        }
+        for (FrontierReportLine l : lines) {
+            l.setLastDequeueTime(readString(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setWakeTime(readString(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setTotalSpend(readVarLong(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setTotalBudget(readVarLong(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setErrorCount(readVarLong(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setLastPeekUri(readString(in));
+        }
+        for (FrontierReportLine l : lines) {
+            l.setLastQueuedUri(readString(in));
+        }
+        return lines;
+    }
+
+    private static void checkFormat(DataInputStream in, byte expected) throws IOException {
+        byte format = in.readByte();
+        if (format != expected) {
+            throw new IOFailure("Unexpected frontier report format " + format + ", expected " + expected);
+        }
+    }
+
+    /** Writes a string as its UTF-8 length plus one (zero meaning null) followed by the UTF-8 bytes. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, utf8.length + 1);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = (int) readVarLong(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length - 1];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /** Writes a long as a zig-zag encoded variable length integer, so small negative values stay short too. */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 16);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+            out.write(data);
+            out.close();
+        } catch (IOException e) {
+            throw new IOFailure("Unable to compress frontier report", e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream inflate(byte[] data) {
+        return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+    }
+
+}
@@ -22,7 +22,8 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
-import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.ReportIterator;
+import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.LineCondition;
+import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.Ordering;
 
 /**
  * Filters a frontier report to include only lines that represent exhausted queues. An Heritrix queue is exhausted when
@@ -35,15 +36,16 @@ public class ExhaustedQueuesFilter extends MaxSizeFrontierReportExtract {
         InMemoryFrontierReport result = new InMemoryFrontierReport(initialFrontier.getJobName());
 
         FullFrontierReport full = (FullFrontierReport) initialFrontier;
-        ReportIterator iter = full.iterateOnDuplicateCurrentSize(0L);
-
-        int maxSize = getMaxSize();
-        int addedLines = 0;
-        while (addedLines <= maxSize && iter.hasNext()) {
-            result.addLine(new FrontierReportLine(iter.next()));
-            addedLines++;
+        LineCondition exhausted = new LineCondition() {
+            @Override
+            public boolean accept(FullFrontierReport report, int index) {
+                return report.getCurrentSize(index) == 0L;
+            }
+        };
+        // Up to maxSize + 1 lines, as this filter has always returned
+        for (FrontierReportLine line : full.selectTop(getMaxSize() + 1, Ordering.TOTAL_ENQUEUES, exhausted)) {
+            result.addLine(line);
         }
-
         return result;
     }
 
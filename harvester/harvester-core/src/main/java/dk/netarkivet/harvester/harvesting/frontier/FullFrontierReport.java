@@ -23,14 +23,15 @@
 package dk.netarkivet.harvester.harvesting.frontier;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -42,129 +43,118 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import com.sleepycat.je.DatabaseException;
-import com.sleepycat.je.Environment;
-import com.sleepycat.je.EnvironmentConfig;
-import com.sleepycat.persist.EntityCursor;
-import com.sleepycat.persist.EntityStore;
-import com.sleepycat.persist.PrimaryIndex;
-import com.sleepycat.persist.SecondaryIndex;
-import com.sleepycat.persist.StoreConfig;
-import com.sleepycat.persist.model.Entity;
-import com.sleepycat.persist.model.KeyField;
-import com.sleepycat.persist.model.Persistent;
-import com.sleepycat.persist.model.PrimaryKey;
-import com.sleepycat.persist.model.Relationship;
-import com.sleepycat.persist.model.SecondaryKey;
-
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 
 /**
- * Wraps an Heritrix 1 full frontier report. As these reports can be big in size, this implementation relies on Berkeley
- * DB direct persistence layer to store the report lines, allowing to store the lines partially in memory, and on disk.
+ * Wraps an Heritrix full frontier report. As these reports can be big in size, the report lines are parsed once into
+ * compact off-heap columns (see {@link OffHeapLineStore}), which are spilled to a memory-mapped file when the report
+ * grows beyond {@link HarvesterSettings#FRONTIER_REPORT_OFF_HEAP_LIMIT} bytes. Filters extract their lines with a
+ * partial top-K selection, and lines are looked up by domain through a hash index.
  */
 @SuppressWarnings({"serial"})
 public class FullFrontierReport extends AbstractFrontierReport {
 
-    @Persistent
-    static class PersistentLineKey implements Comparable<PersistentLineKey>, FrontierReportLineOrderKey {
-
-        @KeyField(1)
-        long totalEnqueues;
-
-        @KeyField(2)
-        String domainName;
-
-        // Default empty constructor for BDB.
-        PersistentLineKey() {
-
-        }
-
-        public PersistentLineKey(FrontierReportLine l) {
-            this.domainName = l.getDomainName();
-            this.totalEnqueues = l.getTotalEnqueues();
-        }
-
-        public String getQueueId() {
-            return domainName;
-        }
-
-        public long getQueueSize() {
-            return totalEnqueues;
-        }
+    /**
+     * The orders in which lines can be extracted from the report.
+     */
+    enum Ordering {
+        /** By decreasing totalEnqueues, then by domain name natural order. */
+        TOTAL_ENQUEUES {
+            @Override
+            int compare(OffHeapLineStore store, int i1, int i2) {
+                int comp = Long.compare(store.getTotalEnqueues(i2), store.getTotalEnqueues(i1));
+                if (comp == 0) {
+                    return store.getDomainName(i1).compareTo(store.getDomainName(i2));
+                }
+                return comp;
+            }
+        },
+        /** By domain name natural order. */
+        DOMAIN_NAME {
+            @Override
+            int compare(OffHeapLineStore store, int i1, int i2) {
+                return store.getDomainName(i1).compareTo(store.getDomainName(i2));
+            }
+        },
+        /** By increasing currentSize, then in {@link #TOTAL_ENQUEUES} order. */
+        CURRENT_SIZE {
+            @Override
+            int compare(OffHeapLineStore store, int i1, int i2) {
+                int comp = Long.compare(store.getCurrentSize(i1), store.getCurrentSize(i2));
+                if (comp == 0) {
+                    return TOTAL_ENQUEUES.compare(store, i1, i2);
+                }
+                return comp;
+            }
+        },
+        /** By increasing totalSpend, then in {@link #TOTAL_ENQUEUES} order. */
+        SPENT_BUDGET {
+            @Override
+            int compare(OffHeapLineStore store, int i1, int i2) {
+                int comp = Long.compare(store.getTotalSpend(i1), store.getTotalSpend(i2));
+                if (comp == 0) {
+                    return TOTAL_ENQUEUES.compare(store, i1, i2);
+                }
+                return comp;
+            }
+        };
 
         /**
-         * Compares first by decreasing queue size, then by domain name.
+         * Compares two stored lines.
+         *
+         * @param store the line store
+         * @param i1 the index of the first line
+         * @param i2 the index of the second line
+         * @return a negative integer, zero, or a positive integer as the first line comes before, at the same place
+         * or after the second line.
          */
-        @Override
-        public int compareTo(PersistentLineKey k) {
-            return FrontierReportLineNaturalOrder.getInstance().compare(this, k);
-        }
-
-        @Override
-        public String toString() {
-            return totalEnqueues + " " + domainName;
-        }
-
+        abstract int compare(OffHeapLineStore store, int i1, int i2);
     }
 
-    @Entity
-    static class PersistentLine extends FrontierReportLine {
-
-        @PrimaryKey
-        private PersistentLineKey primaryKey;
-
-        @SecondaryKey(relate = Relationship.ONE_TO_ONE)
-        private String domainNameKey;
-
-        @SecondaryKey(relate = Relationship.MANY_TO_ONE)
-        private Long totalSpendKey;
-
-        @SecondaryKey(relate = Relationship.MANY_TO_ONE)
-        private Long currentSizeKey;
-
-        // Default empty constructor for BDB.
-        PersistentLine() {
-
-        }
-
-        PersistentLine(FrontierReportLine reportLine) {
-            super(reportLine);
-            this.primaryKey = new PersistentLineKey(reportLine);
-            this.domainNameKey = reportLine.getDomainName();
-            this.currentSizeKey = reportLine.getCurrentSize();
-            this.totalSpendKey = reportLine.getTotalSpend();
-        }
+    /**
+     * A condition on the lines to extract, evaluated on the stored columns without building line objects.
+     */
+    interface LineCondition {
 
+        /**
+         * @param report the report
+         * @param index the index of the line in the report
+         * @return true if the line should be extracted
+         */
+        boolean accept(FullFrontierReport report, int index);
     }
 
     public class ReportIterator implements Iterator<FrontierReportLine> {
 
-        private final EntityCursor<PersistentLine> cursor;
-        private final Iterator<PersistentLine> iter;
+        private final int[] indices;
+
+        private int next = 0;
 
         /**
-         * Returns an iterator on the given sort key.
+         * Returns an iterator on the given line indices.
          *
-         * @param cursor The cursor (sort key) to iterate on.
+         * @param indices The indices of the lines to iterate on, in iteration order.
          */
-        ReportIterator(EntityCursor<PersistentLine> cursor) {
-            this.cursor = cursor;
-            iter = cursor.iterator();
+        ReportIterator(int[] indices) {
+            this.indices = indices;
         }
 
         @Override
         public boolean hasNext() {
-            return iter.hasNext();
+            return next < indices.length;
         }
 
         @Override
         public FrontierReportLine next() {
-            return iter.next();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return store.getLine(indices[next++]);
         }
 
         @Override
@@ -173,14 +163,9 @@ public class FullFrontierReport extends AbstractFrontierReport {
         }
 
         /**
-         * Close method should be called explicitly to free underlying resources!
+         * Kept for compatibility, iterators no longer hold any resources.
          */
         public void close() {
-            try {
-                cursor.close();
-            } catch (DatabaseException e) {
-                LOG.error("Error closing entity cursor:\n" + e.getLocalizedMessage());
-            }
         }
 
     }
@@ -191,37 +176,12 @@ public class FullFrontierReport extends AbstractFrontierReport {
     private static final Logger LOG = LoggerFactory.getLogger(FullFrontierReport.class);
 
     /**
-     * The Berkeley DB JE environment.
-     */
-    private final Environment dbEnvironment;
-
-    /**
-     * The BDB entity store.
-     */
-    private final EntityStore store;
-
-    /**
-     * Primary index.
-     */
-    private final PrimaryIndex<PersistentLineKey, PersistentLine> linesIndex;
-
-    /**
-     * Secondary index, per domain name.
-     */
-    private final SecondaryIndex<String, PersistentLineKey, PersistentLine> linesByDomain;
-
-    /**
-     * Secondary index, per current size.
-     */
-    private final SecondaryIndex<Long, PersistentLineKey, PersistentLine> linesByCurrentSize;
-
-    /**
-     * Secondary index, per spent budget.
+     * The report lines.
      */
-    private final SecondaryIndex<Long, PersistentLineKey, PersistentLine> linesBySpentBudget;
+    private final OffHeapLineStore store;
 
     /**
-     * The directory where the BDB is stored.
+     * The directory where the store spills to disk.
      */
     private final File storageDir;
 
@@ -236,68 +196,40 @@ public class FullFrontierReport extends AbstractFrontierReport {
         File workingDir = new File(Settings.getFile(CommonSettings.CACHE_DIR), WORKING_DIR);
 
         this.storageDir = new File(workingDir, jobName);
-        if (!storageDir.mkdirs()) {
+        if (!storageDir.isDirectory() && !storageDir.mkdirs()) {
             throw new IOFailure("Failed to create directory " + storageDir.getAbsolutePath());
         }
 
-        try {
-            EnvironmentConfig envConfig = new EnvironmentConfig();
-            envConfig.setAllowCreate(true);
-            dbEnvironment = new Environment(storageDir, envConfig);
-
-            StoreConfig storeConfig = new StoreConfig();
-            storeConfig.setAllowCreate(true);
-
-            store = new EntityStore(dbEnvironment, FrontierReportLine.class.getSimpleName() + "-" + jobName,
-                    storeConfig);
-
-            linesIndex = store.getPrimaryIndex(PersistentLineKey.class, PersistentLine.class);
-
-            linesByDomain = store.getSecondaryIndex(linesIndex, String.class, "domainNameKey");
-
-            linesByCurrentSize = store.getSecondaryIndex(linesIndex, Long.class, "currentSizeKey");
-
-            linesBySpentBudget = store.getSecondaryIndex(linesIndex, Long.class, "totalSpendKey");
-
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to init frontier BDB for job " + jobName, e);
-        }
-
+        store = new OffHeapLineStore(storageDir, Settings.getLong(HarvesterSettings.FRONTIER_REPORT_OFF_HEAP_LIMIT));
     }
 
     /**
      * Releases all resources once this report is to be discarded. NB this method MUST be explicitly called!
      */
     public void dispose() {
-
-        try {
-            store.close();
-            dbEnvironment.cleanLog();
-            dbEnvironment.close();
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to close frontier BDB for job " + getJobName(), e);
-        }
-
+        store.close();
         FileUtils.removeRecursively(storageDir);
     }
 
     @Override
     public void addLine(FrontierReportLine line) {
-        try {
-            linesIndex.put(new PersistentLine(line));
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to store frontier report line for job " + getJobName(), e);
-        }
+        store.put(line);
     }
 
     @Override
     public FrontierReportLine getLineForDomain(String domainName) {
-        try {
-            return linesByDomain.get(domainName);
-        } catch (DatabaseException e) {
-            LOG.warn("Failed to get queue for domain " + domainName, e);
+        int index = store.indexOf(domainName);
+        if (index < 0) {
             return null;
         }
+        return store.getLine(index);
+    }
+
+    /**
+     * @return the number of lines in the report.
+     */
+    public int getSize() {
+        return store.size();
     }
 
     /**
@@ -307,11 +239,7 @@ public class FullFrontierReport extends AbstractFrontierReport {
      * @return an iterator on the report lines.
      */
     public ReportIterator iterateOnTotalEnqueues() {
-        try {
-            return new ReportIterator(linesIndex.entities());
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to read frontier BDB for job " + getJobName(), e);
-        }
+        return new ReportIterator(sortedIndices(Ordering.TOTAL_ENQUEUES, null));
     }
 
     /**
@@ -320,11 +248,7 @@ public class FullFrontierReport extends AbstractFrontierReport {
      * @return an iterator on the report lines.
      */
     public ReportIterator iterateOnDomainName() {
-        try {
-            return new ReportIterator(linesByDomain.entities());
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to read frontier BDB for job " + getJobName(), e);
-        }
+        return new ReportIterator(sortedIndices(Ordering.DOMAIN_NAME, null));
     }
 
     /**
@@ -333,11 +257,7 @@ public class FullFrontierReport extends AbstractFrontierReport {
      * @return an iterator on the report lines.
      */
     public ReportIterator iterateOnCurrentSize() {
-        try {
-            return new ReportIterator(linesByCurrentSize.entities());
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to read frontier BDB for job " + getJobName(), e);
-        }
+        return new ReportIterator(sortedIndices(Ordering.CURRENT_SIZE, null));
     }
 
     /**
@@ -346,12 +266,13 @@ public class FullFrontierReport extends AbstractFrontierReport {
      * @param dupValue
      * @return an iterator on the report lines.
      */
-    public ReportIterator iterateOnDuplicateCurrentSize(long dupValue) {
-        try {
-            return new ReportIterator(linesByCurrentSize.subIndex(dupValue).entities());
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to read frontier BDB for job " + getJobName(), e);
-        }
+    public ReportIterator iterateOnDuplicateCurrentSize(final long dupValue) {
+        return new ReportIterator(sortedIndices(Ordering.TOTAL_ENQUEUES, new LineCondition() {
+            @Override
+            public boolean accept(FullFrontierReport report, int index) {
+                return report.getCurrentSize(index) == dupValue;
+            }
+        }));
     }
 
     /**
@@ -360,11 +281,7 @@ public class FullFrontierReport extends AbstractFrontierReport {
      * @return an iterator on the report lines.
      */
     public ReportIterator iterateOnSpentBudget() {
-        try {
-            return new ReportIterator(linesBySpentBudget.entities());
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to read frontier BDB for job " + getJobName(), e);
-        }
+        return new ReportIterator(sortedIndices(Ordering.SPENT_BUDGET, null));
     }
 
     /**
@@ -373,14 +290,165 @@ public class FullFrontierReport extends AbstractFrontierReport {
      * @param dupValue
      * @return an iterator on the report lines.
      */
-    public ReportIterator iterateOnDuplicateSpentBudget(long dupValue) {
-        try {
-            return new ReportIterator(linesBySpentBudget.subIndex(dupValue).entities());
-        } catch (DatabaseException e) {
-            throw new IOFailure("Failed to read frontier BDB for job " + getJobName(), e);
+    public ReportIterator iterateOnDuplicateSpentBudget(final long dupValue) {
+        return new ReportIterator(sortedIndices(Ordering.TOTAL_ENQUEUES, new LineCondition() {
+            @Override
+            public boolean accept(FullFrontierReport report, int index) {
+                return report.getTotalSpend(index) == dupValue;
+            }
+        }));
+    }
+
+    /**
+     * Returns the first lines in the given order among those satisfying a condition. Only the selected lines are
+     * sorted and materialized, the others are discarded through a bounded heap, so this is much cheaper than
+     * iterating over a fully sorted report.
+     *
+     * @param howMany the maximum number of lines to return
+     * @param ordering the order of the lines
+     * @param condition the condition to satisfy, or null to consider all lines
+     * @return at most howMany lines, in the given order
+     */
+    List<FrontierReportLine> selectTop(int howMany, Ordering ordering, LineCondition condition) {
+        ArgumentNotValid.checkNotNull(ordering, "Ordering ordering");
+        int capacity = Math.max(0, Math.min(howMany, store.size()));
+        // Max-heap on the ordering: the root is the worst of the lines selected so far
+        int[] heap = new int[capacity];
+        int heapSize = 0;
+        if (capacity > 0) {
+            for (int i = 0; i < store.size(); i++) {
+                if (condition != null && !condition.accept(this, i)) {
+                    continue;
+                }
+                if (heapSize < capacity) {
+                    heap[heapSize] = i;
+                    siftUp(heap, heapSize, ordering);
+                    heapSize++;
+                } else if (ordering.compare(store, i, heap[0]) < 0) {
+                    heap[0] = i;
+                    siftDown(heap, heapSize, ordering);
+                }
+            }
+        }
+        int[] selected = Arrays.copyOf(heap, heapSize);
+        sort(selected, ordering);
+        List<FrontierReportLine> lines = new ArrayList<FrontierReportLine>(selected.length);
+        for (int index : selected) {
+            lines.add(store.getLine(index));
+        }
+        return lines;
+    }
+
+    long getCurrentSize(int index) {
+        return store.getCurrentSize(index);
+    }
+
+    long getSessionBalance(int index) {
+        return store.getSessionBalance(index);
+    }
+
+    long getTotalSpend(int index) {
+        return store.getTotalSpend(index);
+    }
+
+    long getTotalBudget(int index) {
+        return store.getTotalBudget(index);
+    }
+
+    /**
+     * @return the number of bytes held off-heap in memory and in the spill file.
+     */
+    long getFootprint() {
+        return store.getDirectBytes() + store.getSpilledBytes();
+    }
+
+    /**
+     * @return the number of bytes spilled to disk.
+     */
+    long getSpilledBytes() {
+        return store.getSpilledBytes();
+    }
+
+    private int[] sortedIndices(Ordering ordering, LineCondition condition) {
+        int[] indices = new int[store.size()];
+        int count = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (condition == null || condition.accept(this, i)) {
+                indices[count++] = i;
+            }
+        }
+        indices = Arrays.copyOf(indices, count);
+        sort(indices, ordering);
+        return indices;
+    }
+
+    /**
+     * Stable bottom-up merge sort of line indices.
+     */
+    private void sort(int[] indices, Ordering ordering) {
+        int[] from = indices;
+        int[] to = new int[indices.length];
+        for (int width = 1; width < indices.length; width *= 2) {
+            for (int lo = 0; lo < indices.length; lo += 2 * width) {
+                int mid = Math.min(lo + width, indices.length);
+                int hi = Math.min(lo + 2 * width, indices.length);
+                int left = lo;
+                int right = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (left < mid && (right >= hi || ordering.compare(store, from[left], from[right]) <= 0)) {
+                        to[k] = from[left++];
+                    } else {
+                        to[k] = from[right++];
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != indices) {
+            System.arraycopy(from, 0, indices, 0, indices.length);
+        }
+    }
+
+    private void siftUp(int[] heap, int position, Ordering ordering) {
+        int child = position;
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (ordering.compare(store, heap[child], heap[parent]) <= 0) {
+                return;
+            }
+            swap(heap, child, parent);
+            child = parent;
         }
     }
-    
+
+    private void siftDown(int[] heap, int heapSize, Ordering ordering) {
+        int parent = 0;
+        while (true) {
+            int worst = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < heapSize && ordering.compare(store, heap[left], heap[worst]) > 0) {
+                worst = left;
+            }
+            if (right < heapSize && ordering.compare(store, heap[right], heap[worst]) > 0) {
+                worst = right;
+            }
+            if (worst == parent) {
+                return;
+            }
+            swap(heap, parent, worst);
+            parent = worst;
+        }
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
     /**
      * Generates an Heritrix frontier report wrapper object by parsing the frontier report returned by the REST API
      * controller as XML
@@ -421,27 +489,7 @@ public class FullFrontierReport extends AbstractFrontierReport {
 
         FullFrontierReport report = new FullFrontierReport(jobName);
 
-        // First dump this possibly huge string to a file
-        File tmpDir = Settings.getFile(CommonSettings.CACHE_DIR);
-        File tmpFile = new File(tmpDir, jobName + "-" + System.currentTimeMillis() + ".txt");
-        try {
-            tmpFile.createNewFile();
-            BufferedWriter out = new BufferedWriter(new FileWriter(tmpFile));
-            out.write(contentsAsString);
-            out.close();
-        } catch (IOException e) {
-            LOG.error("Failed to create temporary file", e);
-            return report;
-        }
-
-        BufferedReader br;
-        try {
-            br = new BufferedReader(new FileReader(tmpFile));
-        } catch (FileNotFoundException e) {
-            LOG.error("Failed to read temporary file", e);
-            return report;
-        }
-
+        BufferedReader br = new BufferedReader(new StringReader(contentsAsString));
         try {
             String lineToken = br.readLine(); // Discard header line
             while ((lineToken = br.readLine()) != null) {
@@ -454,15 +502,13 @@ public class FullFrontierReport extends AbstractFrontierReport {
         } catch (Throwable t) {
             LOG.error("",t);
             t.printStackTrace(System.err);
-        } finally {
-            FileUtils.remove(tmpFile);
         }
 
         return report;
     }
 
     /**
-     * Return the directory where the BDB is stored.
+     * Return the directory where the report spills to disk.
      *
      * @return the storage directory.
      */
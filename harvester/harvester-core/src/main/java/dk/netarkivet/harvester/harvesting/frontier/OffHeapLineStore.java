@@ -0,0 +1,448 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Column oriented, off-heap storage of frontier report lines.
+ * <p>
+ * Every numeric field of the lines is kept in its own column of 8 byte values, and the string fields are kept as
+ * offsets into an append-only arena of UTF-8 bytes. Columns live in direct buffers until a given number of bytes has
+ * been allocated, after which new segments are memory-mapped from a spill file, so reports with millions of queues do
+ * not need to fit in memory. Lines are found by domain name through an open addressing hash index.
+ * <p>
+ * This class is not thread safe.
+ */
+final class OffHeapLineStore {
+
+    /** Size in bytes of the first segment of an area. */
+    private static final int MIN_SEGMENT_SIZE = 4096;
+
+    /** Number of times segments double in size before reaching the maximum size. */
+    private static final int SEGMENT_DOUBLINGS = 12;
+
+    /** Size in bytes of the largest segments of an area. */
+    private static final int MAX_SEGMENT_SIZE = MIN_SEGMENT_SIZE << SEGMENT_DOUBLINGS;
+
+    /** Offset stored for null strings. */
+    private static final long NULL_STRING = -1L;
+
+    /** Name of the spill file in the storage directory. */
+    private static final String SPILL_FILE_NAME = "columns.spill";
+
+    /** The numeric columns. */
+    private enum LongColumn {
+        currentSize, precedence, totalEnqueues, sessionBalance, lastCost, averageCost, totalSpend, totalBudget, errorCount
+    }
+
+    /** The string columns, holding offsets into the arena. */
+    private enum StringColumn {
+        domainName, lastDequeueTime, wakeTime, lastPeekUri, lastQueuedUri
+    }
+
+    /** Directory holding the spill file. */
+    private final File storageDir;
+
+    /** Number of bytes that may be allocated in direct buffers before spilling to the mapped file. */
+    private final long directLimit;
+
+    private final Area[] longColumns = new Area[LongColumn.values().length];
+
+    private final Area[] stringColumns = new Area[StringColumn.values().length];
+
+    /** Hash code of the domain name of each line, used when growing the hash index. */
+    private final Area domainHashes;
+
+    /** The UTF-8 bytes of all string fields. */
+    private final Area arena;
+
+    /** Open addressing hash index on the domain name: line index + 1, or 0 for an empty slot. */
+    private IntBuffer domainIndex;
+
+    /** Number of lines stored. */
+    private int size = 0;
+
+    /** Bytes allocated in direct buffers, not counting the domain index. */
+    private long directBytes = 0L;
+
+    /** Bytes mapped from the spill file. */
+    private long spilledBytes = 0L;
+
+    /** The spill file, opened on first use. */
+    private RandomAccessFile spillFile;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param storageDir directory where the spill file is created if needed
+     * @param directLimit number of bytes that may be held in direct buffers before spilling to a mapped file
+     */
+    OffHeapLineStore(File storageDir, long directLimit) {
+        ArgumentNotValid.checkNotNull(storageDir, "File storageDir");
+        ArgumentNotValid.checkNotNegative(directLimit, "long directLimit");
+        this.storageDir = storageDir;
+        this.directLimit = directLimit;
+        for (int i = 0; i < longColumns.length; i++) {
+            longColumns[i] = new Area();
+        }
+        for (int i = 0; i < stringColumns.length; i++) {
+            stringColumns[i] = new Area();
+        }
+        domainHashes = new Area();
+        arena = new Area();
+        domainIndex = ByteBuffer.allocateDirect(16 * 4).asIntBuffer();
+    }
+
+    /**
+     * @return the number of lines stored.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Stores a line. If a line already exists for the same domain it is replaced.
+     *
+     * @param line the line to store
+     * @return the index of the stored line
+     */
+    int put(FrontierReportLine line) {
+        ArgumentNotValid.checkNotNull(line, "FrontierReportLine line");
+        ArgumentNotValid.checkNotNull(line.getDomainName(), "line.getDomainName()");
+        int index = indexOf(line.getDomainName());
+        if (index < 0) {
+            index = size++;
+            int hash = line.getDomainName().hashCode();
+            domainHashes.putInt(index, hash);
+            if (size * 4L > domainIndex.capacity() * 3L) {
+                growDomainIndex();
+            } else {
+                insertInDomainIndex(index, hash);
+            }
+        }
+        setLong(LongColumn.currentSize, index, line.getCurrentSize());
+        setLong(LongColumn.precedence, index, line.getPrecedence());
+        setLong(LongColumn.totalEnqueues, index, line.getTotalEnqueues());
+        setLong(LongColumn.sessionBalance, index, line.getSessionBalance());
+        setLong(LongColumn.lastCost, index, Double.doubleToRawLongBits(line.getLastCost()));
+        setLong(LongColumn.averageCost, index, Double.doubleToRawLongBits(line.getAverageCost()));
+        setLong(LongColumn.totalSpend, index, line.getTotalSpend());
+        setLong(LongColumn.totalBudget, index, line.getTotalBudget());
+        setLong(LongColumn.errorCount, index, line.getErrorCount());
+        setString(StringColumn.domainName, index, line.getDomainName());
+        setString(StringColumn.lastDequeueTime, index, line.getLastDequeueTime());
+        setString(StringColumn.wakeTime, index, line.getWakeTime());
+        setString(StringColumn.lastPeekUri, index, line.getLastPeekUri());
+        setString(StringColumn.lastQueuedUri, index, line.getLastQueuedUri());
+        return index;
+    }
+
+    /**
+     * Looks up a line by domain name.
+     *
+     * @param domainName the domain name
+     * @return the index of the line, or -1 if there is no line for this domain
+     */
+    int indexOf(String domainName) {
+        int hash = domainName.hashCode();
+        int mask = domainIndex.capacity() - 1;
+        for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+            int entry = domainIndex.get(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            int index = entry - 1;
+            if (domainHashes.getInt(index) == hash && domainName.equals(getDomainName(index))) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Materializes a line on the heap.
+     *
+     * @param index the line index
+     * @return a copy of the stored line
+     */
+    FrontierReportLine getLine(int index) {
+        FrontierReportLine line = new FrontierReportLine();
+        line.setDomainName(getDomainName(index));
+        line.setCurrentSize(getCurrentSize(index));
+        line.setPrecedence(getLong(LongColumn.precedence, index));
+        line.setTotalEnqueues(getTotalEnqueues(index));
+        line.setSessionBalance(getSessionBalance(index));
+        line.setLastCost(Double.longBitsToDouble(getLong(LongColumn.lastCost, index)));
+        line.setAverageCost(Double.longBitsToDouble(getLong(LongColumn.averageCost, index)));
+        line.setLastDequeueTime(getString(StringColumn.lastDequeueTime, index));
+        line.setWakeTime(getString(StringColumn.wakeTime, index));
+        line.setTotalSpend(getTotalSpend(index));
+        line.setTotalBudget(getTotalBudget(index));
+        line.setErrorCount(getLong(LongColumn.errorCount, index));
+        line.setLastPeekUri(getString(StringColumn.lastPeekUri, index));
+        line.setLastQueuedUri(getString(StringColumn.lastQueuedUri, index));
+        return line;
+    }
+
+    String getDomainName(int index) {
+        return getString(StringColumn.domainName, index);
+    }
+
+    long getCurrentSize(int index) {
+        return getLong(LongColumn.currentSize, index);
+    }
+
+    long getTotalEnqueues(int index) {
+        return getLong(LongColumn.totalEnqueues, index);
+    }
+
+    long getSessionBalance(int index) {
+        return getLong(LongColumn.sessionBalance, index);
+    }
+
+    long getTotalSpend(int index) {
+        return getLong(LongColumn.totalSpend, index);
+    }
+
+    long getTotalBudget(int index) {
+        return getLong(LongColumn.totalBudget, index);
+    }
+
+    /**
+     * @return the number of bytes held in direct buffers, including the domain index.
+     */
+    long getDirectBytes() {
+        return directBytes + domainIndex.capacity() * 4L;
+    }
+
+    /**
+     * @return the number of bytes mapped from the spill file.
+     */
+    long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Releases the spill file. The direct buffers are released when this store is garbage collected.
+     */
+    void close() {
+        IOUtils.closeQuietly(spillFile);
+        spillFile = null;
+    }
+
+    private long getLong(LongColumn column, int index) {
+        return longColumns[column.ordinal()].getLong(index);
+    }
+
+    private void setLong(LongColumn column, int index, long value) {
+        longColumns[column.ordinal()].putLong(index, value);
+    }
+
+    private String getString(StringColumn column, int index) {
+        long offset = stringColumns[column.ordinal()].getLong(index);
+        if (offset == NULL_STRING) {
+            return null;
+        }
+        return new String(arena.getBytes(offset), StandardCharsets.UTF_8);
+    }
+
+    private void setString(StringColumn column, int index, String value) {
+        long offset = NULL_STRING;
+        if (value != null) {
+            offset = arena.appendBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+        stringColumns[column.ordinal()].putLong(index, offset);
+    }
+
+    private void insertInDomainIndex(int index, int hash) {
+        int mask = domainIndex.capacity() - 1;
+        int slot = mix(hash) & mask;
+        while (domainIndex.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        domainIndex.put(slot, index + 1);
+    }
+
+    private void growDomainIndex() {
+        domainIndex = ByteBuffer.allocateDirect(domainIndex.capacity() * 2 * 4).asIntBuffer();
+        for (int i = 0; i < size; i++) {
+            insertInDomainIndex(i, domainHashes.getInt(i));
+        }
+    }
+
+    /**
+     * Spreads the bits of a string hash code, so that similar domain names do not cluster in the index.
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Allocates a new segment, in a direct buffer while under the direct limit, otherwise mapped from the spill file.
+     *
+     * @param segmentSize the size of the segment
+     * @return the segment
+     */
+    private ByteBuffer allocateSegment(int segmentSize) {
+        if (directBytes + segmentSize <= directLimit) {
+            directBytes += segmentSize;
+            return ByteBuffer.allocateDirect(segmentSize);
+        }
+        try {
+            if (spillFile == null) {
+                spillFile = new RandomAccessFile(new File(storageDir, SPILL_FILE_NAME), "rw");
+            }
+            ByteBuffer segment = spillFile.getChannel().map(FileChannel.MapMode.READ_WRITE, spilledBytes,
+                    segmentSize);
+            spilledBytes += segmentSize;
+            return segment;
+        } catch (IOException e) {
+            throw new IOFailure("Failed to map frontier report spill file in " + storageDir.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * An addressable area made of segments. The first segment is small, and segment sizes double until they reach
+     * {@link #MAX_SEGMENT_SIZE}, so small reports stay small while large reports need few segments. Values never
+     * straddle two segments.
+     */
+    private final class Area {
+
+        private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+        /** Next free offset, for appended byte strings. */
+        private long appendOffset = 0L;
+
+        void putLong(int index, long value) {
+            long offset = index * 8L;
+            segmentFor(offset, true).putLong(offsetInSegment(offset), value);
+        }
+
+        long getLong(int index) {
+            long offset = index * 8L;
+            return segmentFor(offset, false).getLong(offsetInSegment(offset));
+        }
+
+        void putInt(int index, int value) {
+            long offset = index * 4L;
+            segmentFor(offset, true).putInt(offsetInSegment(offset), value);
+        }
+
+        int getInt(int index) {
+            long offset = index * 4L;
+            return segmentFor(offset, false).getInt(offsetInSegment(offset));
+        }
+
+        /**
+         * Appends a length prefixed byte string.
+         *
+         * @param bytes the bytes to append
+         * @return the offset of the byte string
+         */
+        long appendBytes(byte[] bytes) {
+            int needed = 4 + bytes.length;
+            if (needed > MAX_SEGMENT_SIZE) {
+                throw new ArgumentNotValid("Frontier report value of " + bytes.length + " bytes is too long");
+            }
+            long offset = appendOffset;
+            int segmentNumber = segmentNumber(offset);
+            if (offsetInSegment(offset) + needed > segmentSize(segmentNumber)) {
+                // Skip the rest of this segment rather than splitting the value
+                offset = segmentStart(segmentNumber + 1);
+            }
+            ByteBuffer segment = segmentFor(offset, true);
+            int position = offsetInSegment(offset);
+            segment.putInt(position, bytes.length);
+            ByteBuffer target = segment.duplicate();
+            target.position(position + 4);
+            target.put(bytes);
+            appendOffset = offset + needed;
+            return offset;
+        }
+
+        byte[] getBytes(long offset) {
+            ByteBuffer segment = segmentFor(offset, false);
+            int position = offsetInSegment(offset);
+            byte[] bytes = new byte[segment.getInt(position)];
+            ByteBuffer source = segment.duplicate();
+            source.position(position + 4);
+            source.get(bytes);
+            return bytes;
+        }
+
+        private ByteBuffer segmentFor(long offset, boolean allocate) {
+            int segmentNumber = segmentNumber(offset);
+            if (segmentNumber >= segments.size()) {
+                if (!allocate) {
+                    throw new ArgumentNotValid("Offset " + offset + " is outside the stored frontier report");
+                }
+                while (segments.size() <= segmentNumber) {
+                    segments.add(allocateSegment(segmentSize(segments.size())));
+                }
+            }
+            return segments.get(segmentNumber);
+        }
+    }
+
+    /** @return the size of the given segment. */
+    private static int segmentSize(int segmentNumber) {
+        return MIN_SEGMENT_SIZE << Math.min(segmentNumber, SEGMENT_DOUBLINGS);
+    }
+
+    /** @return the offset of the first byte of the given segment. */
+    private static long segmentStart(int segmentNumber) {
+        if (segmentNumber <= SEGMENT_DOUBLINGS + 1) {
+            return (long) MIN_SEGMENT_SIZE * ((1L << segmentNumber) - 1);
+        }
+        return segmentStart(SEGMENT_DOUBLINGS + 1) + (long) (segmentNumber - SEGMENT_DOUBLINGS - 1) * MAX_SEGMENT_SIZE;
+    }
+
+    /** @return the number of the segment holding the given offset. */
+    private static int segmentNumber(long offset) {
+        long doublingEnd = segmentStart(SEGMENT_DOUBLINGS + 1);
+        if (offset < doublingEnd) {
+            return 63 - Long.numberOfLeadingZeros(offset / MIN_SEGMENT_SIZE + 1);
+        }
+        return SEGMENT_DOUBLINGS + 1 + (int) ((offset - doublingEnd) / MAX_SEGMENT_SIZE);
+    }
+
+    /** @return the position of the given offset within its segment. */
+    private static int offsetInSegment(long offset) {
+        return (int) (offset - segmentStart(segmentNumber(offset)));
+    }
+
+}
@@ -22,7 +22,8 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
-import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.ReportIterator;
+import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.LineCondition;
+import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.Ordering;
 
 public class RetiredQueuesFilter extends MaxSizeFrontierReportExtract {
 
@@ -31,36 +32,29 @@ public class RetiredQueuesFilter extends MaxSizeFrontierReportExtract {
         InMemoryFrontierReport result = new InMemoryFrontierReport(initialFrontier.getJobName());
 
         FullFrontierReport full = (FullFrontierReport) initialFrontier;
-        ReportIterator iter = full.iterateOnSpentBudget();
-        try {
-            int addedLines = 0;
-            int maxSize = getMaxSize();
-            while (addedLines <= maxSize && iter.hasNext()) {
-                FrontierReportLine l = iter.next();
-                if (isOverBudget(l)) {
-                    result.addLine(new FrontierReportLine(l));
-                    addedLines++;
-                }
-            }
-        } finally {
-            if (iter != null) {
-                iter.close();
+        LineCondition overBudget = new LineCondition() {
+            @Override
+            public boolean accept(FullFrontierReport report, int index) {
+                return isOverBudget(report.getTotalSpend(index), report.getTotalBudget(index));
             }
+        };
+        // Up to maxSize + 1 lines, as this filter has always returned
+        for (FrontierReportLine line : full.selectTop(getMaxSize() + 1, Ordering.SPENT_BUDGET, overBudget)) {
+            result.addLine(line);
         }
-
         return result;
     }
 
     /**
      * Determines whether a given frontier queue is retired, e.g. over budget.
      *
-     * @param l a {@link FrontierReportLine} representing a frontier queue
+     * @param totalSpend the totalSpend of a frontier queue
+     * @param totalBudget the totalBudget of a frontier queue
      * @return true if the queue is retired, false otherwise.
      * @see WorkQueue#isOverBudget()
      */
-    private boolean isOverBudget(FrontierReportLine l) {
-        long totalBudget = l.getTotalBudget();
-        return totalBudget >= 0 && l.getTotalSpend() >= totalBudget;
+    private static boolean isOverBudget(long totalSpend, long totalBudget) {
+        return totalBudget >= 0 && totalSpend >= totalBudget;
     }
 
 }
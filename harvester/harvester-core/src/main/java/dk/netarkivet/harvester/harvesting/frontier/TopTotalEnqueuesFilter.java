@@ -23,7 +23,8 @@
 package dk.netarkivet.harvester.harvesting.frontier;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
-import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.ReportIterator;
+import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.LineCondition;
+import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.Ordering;
 
 /**
  * Filters the N active queues (i.e. not exhausted or retired) with the biggest totalEnqueues values. The size of the
@@ -43,31 +44,19 @@ public class TopTotalEnqueuesFilter extends MaxSizeFrontierReportExtract {
 
         InMemoryFrontierReport topRep = new InMemoryFrontierReport(initialFrontier.getJobName());
 
-        ReportIterator iter = full.iterateOnTotalEnqueues();
-        try {
-            int addedLines = 0;
-            int howMany = getMaxSize();
-            while (addedLines < howMany) {
-                if (!iter.hasNext()) {
-                    break; // No more values, break loop
-                }
-
-                FrontierReportLine fetch = iter.next();
-                long totalBudget = fetch.getTotalBudget();
-
-                // Add only lines that are neither retired or exhausted
-                if (fetch.getCurrentSize() > 0
-                        && fetch.getSessionBalance() > 0
-                        && (totalBudget == Constants.HERITRIX_MAXOBJECTS_INFINITY || fetch.getTotalSpend() < totalBudget)) {
-                    topRep.addLine(new FrontierReportLine(fetch));
-                    addedLines++;
-                }
-            }
-
-        } finally {
-            if (iter != null) {
-                iter.close();
+        // Add only lines that are neither retired or exhausted
+        LineCondition active = new LineCondition() {
+            @Override
+            public boolean accept(FullFrontierReport report, int index) {
+                long totalBudget = report.getTotalBudget(index);
+                return report.getCurrentSize(index) > 0
+                        && report.getSessionBalance(index) > 0
+                        && (totalBudget == Constants.HERITRIX_MAXOBJECTS_INFINITY
+                                || report.getTotalSpend(index) < totalBudget);
             }
+        };
+        for (FrontierReportLine line : full.selectTop(getMaxSize(), Ordering.TOTAL_ENQUEUES, active)) {
+            topRep.addLine(line);
         }
 
         return topRep;
@@ -165,13 +165,23 @@ public abstract class MetadataFileWriter {
      */
     public abstract void close();
 
+    /**
+     * Wait until all records given to this writer have been written to the metadata file. Implementations that write
+     * records in the background must override this method; the default does nothing.
+     *
+     * @throws IOFailure If writing a record failed.
+     */
+    public void flush() {
+    }
+
     /**
      * @return the finished metadataFile
      */
     public abstract File getFile();
 
     /**
-     * Write the given file to the metadata file.
+     * Write the given file to the metadata file. The record may be written in the background, so the file must be left
+     * unchanged until {@link #flush()} or {@link #close()} has been called.
      *
      * @param file A given file with metadata to write to the metadata archive file.
      * @param uri The uri associated with the piece of metadata
@@ -180,7 +190,9 @@ public abstract class MetadataFileWriter {
     public abstract void writeFileTo(File file, String uri, String mime);
 
     /**
-     * Writes a File to an ARCWriter, if available, otherwise logs the failure to the class-logger.
+     * Writes a File to an ARCWriter, if available, otherwise logs the failure to the class-logger. As with
+     * {@link #writeFileTo(File, String, String)}, the file must be left unchanged until the writer is flushed or
+     * closed.
      *
      * @param fileToArchive the File to archive
      * @param URL the URL with which it is stored in the arcfile
@@ -190,7 +202,8 @@ public abstract class MetadataFileWriter {
     public abstract boolean writeTo(File fileToArchive, String URL, String mimetype);
 
     /**
-     * Write a record to the archive file.
+     * Write a record to the archive file. The record may be written in the background, so the payload must be left
+     * unchanged until {@link #flush()} or {@link #close()} has been called.
      *
      * @param uri record URI
      * @param contentType content-type of record
@@ -221,7 +234,10 @@ public abstract class MetadataFileWriter {
             // ...write its content to the MetadataFileWriter
             log.debug("Inserting the file '{}'", metadataSourceFile.getAbsolutePath());
             writeFileTo(metadataSourceFile, getURIforFileName(metadataSourceFile, harvestId, jobId).toASCIIString(), mimetype);
-            // ...and delete it afterwards
+        }
+        flush();
+        for (File metadataSourceFile : metadataSourceFiles) {
+            // ...and delete them once they are written
             try {
                 FileUtils.remove(metadataSourceFile);
             } catch (IOFailure e) {
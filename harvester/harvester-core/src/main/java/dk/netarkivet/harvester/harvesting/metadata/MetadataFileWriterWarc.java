@@ -22,46 +22,71 @@
  */
 package dk.netarkivet.harvester.harvesting.metadata;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.util.Date;
 import java.util.UUID;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.archive.util.Base32;
 import org.jwat.common.ANVLRecord;
 import org.jwat.common.ContentType;
 import org.jwat.common.Uri;
 import org.jwat.warc.WarcConstants;
 import org.jwat.warc.WarcDigest;
-import org.jwat.warc.WarcFileNaming;
-import org.jwat.warc.WarcFileNamingSingleFile;
 import org.jwat.warc.WarcFileWriter;
-import org.jwat.warc.WarcFileWriterConfig;
 import org.jwat.warc.WarcHeader;
 import org.jwat.warc.WarcRecord;
+import org.jwat.warc.WarcWriter;
+import org.jwat.warc.WarcWriterFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.OrderedParallelWriter;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SystemUtils;
+import dk.netarkivet.harvester.HarvesterSettings;
 
 /**
  * MetadataFileWriter that writes to WARC files.
+ * <p>
+ * When records are compressed, each record is an independent gzip member. The records are then compressed in parallel
+ * by a number of threads given by {@link HarvesterSettings#METADATA_COMPRESSION_THREADS}, and written to the file in
+ * the order they were given. Each record is compressed exactly as it would be if the records were compressed one by
+ * one, so the file is the same either way.
  */
 public class MetadataFileWriterWarc extends MetadataFileWriter {
 
     private static final Logger log = LoggerFactory.getLogger(MetadataFileWriterWarc.class);
 
-    /** Writer to this jobs metadatafile. This is closed when the metadata is marked as ready. */
-    private WarcFileWriter writer = null;
+    /** The largest compressed record kept in memory while waiting to be written to the file. */
+    private static final int SPOOL_MEMORY_THRESHOLD = 1024 * 1024;
+
+    /** The metadata file while it is written. It is renamed to the completed file when the writer is closed. */
+    private File activeFile;
+
+    /** The completed metadata file. */
+    private File completedFile;
+
+    /** Stream to this jobs metadatafile. This is closed when the metadata is marked as ready. */
+    private OutputStream out = null;
+
+    /** Whether the records are compressed. */
+    private boolean compress;
+
+    /** Writer of records compressed in parallel, or null if records are written one by one. */
+    private OrderedParallelWriter parallelWriter = null;
 
     /** The ID of the Warcinfo record. Set when calling the insertInfoRecord method. */
     private Uri warcInfoUID = null;
@@ -74,36 +99,63 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
      */
     public static MetadataFileWriter createWriter(File metadataWarcFile) {
         MetadataFileWriterWarc mtfw = new MetadataFileWriterWarc();
-    	WarcFileNaming naming = new WarcFileNamingSingleFile(metadataWarcFile);
-    	WarcFileWriterConfig config = new WarcFileWriterConfig(metadataWarcFile.getParentFile(), compressRecords(), Long.MAX_VALUE, true);
-        mtfw.writer = WarcFileWriter.getWarcWriterInstance(naming, config);
+        mtfw.completedFile = metadataWarcFile.getAbsoluteFile();
+        mtfw.activeFile = new File(mtfw.completedFile.getParentFile(), metadataWarcFile.getName()
+                + WarcFileWriter.ACTIVE_SUFFIX);
+        mtfw.compress = compressRecords();
         mtfw.open();
         return mtfw;
     }
 
     protected void open() {
         try {
-            writer.open();
+            out = new BufferedOutputStream(new FileOutputStream(activeFile));
         } catch (IOException e) {
             throw new IOFailure("Error opening MetadataFileWriterWarc", e);
         }
+        int threads = Settings.getInt(HarvesterSettings.METADATA_COMPRESSION_THREADS);
+        if (compress && threads > 1) {
+            parallelWriter = new OrderedParallelWriter(out, threads, SPOOL_MEMORY_THRESHOLD,
+                    activeFile.getParentFile());
+        }
     }
 
     @Override
     public void close() {
-        if (writer != null) {
+        if (out != null) {
             try {
-                writer.close();
-            } catch (IOException e) {
-                throw new IOFailure("Error closing MetadataFileWriterWarc", e);
+                if (parallelWriter != null) {
+                    parallelWriter.close();
+                }
+            } finally {
+                parallelWriter = null;
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    throw new IOFailure("Error closing MetadataFileWriterWarc", e);
+                } finally {
+                    out = null;
+                }
+            }
+            if (completedFile.exists() && !completedFile.delete()) {
+                throw new IOFailure("Unable to replace existing file " + completedFile.getPath());
             }
+            if (!activeFile.renameTo(completedFile)) {
+                throw new IOFailure("Unable to rename " + activeFile.getPath() + " to " + completedFile.getPath());
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (parallelWriter != null) {
+            parallelWriter.flush();
         }
-        writer = null;
     }
 
     @Override
     public File getFile() {
-        return writer.getFile();
+        return out != null ? activeFile : completedFile;
     }
 
     /**
@@ -116,34 +168,30 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
         if (warcInfoUID != null) {
             throw new IllegalState("An WarcInfo record has already been inserted");
         }
-        String filename = writer.getFile().getName();
-        if (filename.endsWith(WarcFileWriter.ACTIVE_SUFFIX)) {
-        	filename = filename.substring(0, filename.length() - WarcFileWriter.ACTIVE_SUFFIX.length());
-        }
-        Uri recordId;
-        try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
-        } catch (URISyntaxException e) {
-            throw new IllegalState("Epic fail creating URI from UUID!", e);
-        }
+        final String filename = completedFile.getName();
+        final Uri recordId = createRecordId();
         warcInfoUID = recordId;
+        final Date date = new Date();
+        final byte[] payloadAsBytes = payloadToInfoRecord.getUTF8Bytes();
         try {
-            byte[] payloadAsBytes = payloadToInfoRecord.getUTF8Bytes();
-            byte[] blockDigestBytes = ChecksumCalculator.digestInputStream(new ByteArrayInputStream(payloadAsBytes), "SHA1");
-            WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
-            WarcRecord record = WarcRecord.createRecord(writer.writer);
-            WarcHeader header = record.header;
-            header.warcTypeIdx = WarcConstants.RT_IDX_WARCINFO;
-            header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
-            header.addHeader(WarcConstants.FN_WARC_DATE, new Date(), null);
-            header.addHeader(WarcConstants.FN_WARC_FILENAME, filename);
-            header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(WarcConstants.CT_APP_WARC_FIELDS), null);
-            header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payloadAsBytes.length), null);
-            header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
-            writer.writer.writeHeader(record);
-            ByteArrayInputStream bin = new ByteArrayInputStream(payloadAsBytes);
-            writer.writer.streamPayload(bin);
-            writer.writer.closeRecord();
+            writeRecord(new RecordPart(compress) {
+                @Override
+                protected InputStream openPayload() {
+                    return new ByteArrayInputStream(payloadAsBytes);
+                }
+
+                @Override
+                protected void addHeaders(WarcHeader header, WarcDigest blockDigest) {
+                    header.warcTypeIdx = WarcConstants.RT_IDX_WARCINFO;
+                    header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
+                    header.addHeader(WarcConstants.FN_WARC_DATE, date, null);
+                    header.addHeader(WarcConstants.FN_WARC_FILENAME, filename);
+                    header.addHeader(WarcConstants.FN_CONTENT_TYPE,
+                            ContentType.parseContentType(WarcConstants.CT_APP_WARC_FIELDS), null);
+                    header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payloadAsBytes.length), null);
+                    header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
+                }
+            });
         } catch (IOException e) {
             throw new IllegalState("Error inserting warcinfo record", e);
         }
@@ -155,7 +203,7 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
     }
 
     @Override
-    public boolean writeTo(File fileToArchive, String URL, String mimetype) {
+    public boolean writeTo(final File fileToArchive, final String URL, final String mimetype) {
         if (!fileToArchive.isFile()) {
             throw new IOFailure("Not a file: " + fileToArchive.getPath());
         }
@@ -163,68 +211,146 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
             throw new IllegalState("An WarcInfo record has not been inserted yet");
         }
         log.info("{} {}", fileToArchive, fileToArchive.length());
-        byte[] blockDigestBytes = ChecksumCalculator.digestFile(fileToArchive, "SHA1");
-        WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
-        Uri recordId;
+        final Uri recordId = createRecordId();
+        final Date date = new Date();
+        final Uri warcInfoId = warcInfoUID;
         try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
-        } catch (URISyntaxException e) {
-            throw new IllegalState("Epic fail creating URI from UUID!", e);
-        }
-        InputStream in = null;
-        try {
-            WarcRecord record = WarcRecord.createRecord(writer.writer);
-            WarcHeader header = record.header;
-            header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
-            header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
-            header.addHeader(WarcConstants.FN_WARC_DATE, new Date(), null);
-            header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoUID, null);
-            header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, SystemUtils.getLocalIP());
-            header.addHeader(WarcConstants.FN_WARC_TARGET_URI, URL);
-            header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
-            header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(mimetype), null);
-            header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(fileToArchive.length()), null);
-            writer.writer.writeHeader(record);
-            in = new FileInputStream(fileToArchive);
-            writer.writer.streamPayload(in);
-            writer.writer.closeRecord();
+            writeRecord(new RecordPart(compress) {
+                @Override
+                protected InputStream openPayload() throws IOException {
+                    return new FileInputStream(fileToArchive);
+                }
+
+                @Override
+                protected void addHeaders(WarcHeader header, WarcDigest blockDigest) {
+                    header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
+                    header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
+                    header.addHeader(WarcConstants.FN_WARC_DATE, date, null);
+                    header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoId, null);
+                    header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, SystemUtils.getLocalIP());
+                    header.addHeader(WarcConstants.FN_WARC_TARGET_URI, URL);
+                    header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
+                    header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(mimetype), null);
+                    header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(fileToArchive.length()), null);
+                }
+            });
         } catch (FileNotFoundException e) {
             throw new IOFailure("Unable to open file: " + fileToArchive.getPath(), e);
         } catch (IOException e) {
             throw new IOFailure("Epic IO fail while writing to WARC file: " + fileToArchive.getPath(), e);
-        } finally {
-            IOUtils.closeQuietly(in);
         }
         return true;
     }
 
     @Override
-    public void write(String uri, String contentType, String hostIP, long fetchBeginTimeStamp, byte[] payload)
-            throws java.io.IOException {    	
-        ByteArrayInputStream in = new ByteArrayInputStream(payload);
-        byte[] blockDigestBytes = ChecksumCalculator.digestInputStream(in, "SHA1");
-        WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
-        Uri recordId;
+    public void write(final String uri, final String contentType, final String hostIP, long fetchBeginTimeStamp,
+            final byte[] payload) throws java.io.IOException {
+        final Uri recordId = createRecordId();
+        final Date date = new Date(fetchBeginTimeStamp);
+        final Uri warcInfoId = warcInfoUID;
+        writeRecord(new RecordPart(compress) {
+            @Override
+            protected InputStream openPayload() {
+                return new ByteArrayInputStream(payload);
+            }
+
+            @Override
+            protected void addHeaders(WarcHeader header, WarcDigest blockDigest) {
+                header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
+                header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
+                header.addHeader(WarcConstants.FN_WARC_DATE, date, null);
+                header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoId, null);
+                header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, hostIP);
+                header.addHeader(WarcConstants.FN_WARC_TARGET_URI, uri);
+                header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
+                header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(contentType), null);
+                header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payload.length), null);
+            }
+        });
+    }
+
+    /**
+     * Write a record to the file. If records are compressed in parallel, the record is only queued, and is written
+     * after the records queued before it.
+     *
+     * @param record The record to write.
+     * @throws IOException If records are written one by one, and the record cannot be written.
+     */
+    private void writeRecord(RecordPart record) throws IOException {
+        if (parallelWriter != null) {
+            parallelWriter.submit(record);
+        } else {
+            record.writeTo(out);
+        }
+    }
+
+    /**
+     * @return A new unique record ID.
+     */
+    private static Uri createRecordId() {
         try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
+            return new Uri("urn:uuid:" + UUID.randomUUID().toString());
         } catch (URISyntaxException e) {
             throw new IllegalState("Epic fail creating URI from UUID!", e);
         }
-        WarcRecord record = WarcRecord.createRecord(writer.writer);
-        WarcHeader header = record.header;
-        header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
-        header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
-        header.addHeader(WarcConstants.FN_WARC_DATE, new Date(fetchBeginTimeStamp), null);
-        header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoUID, null);
-        header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, hostIP);
-        header.addHeader(WarcConstants.FN_WARC_TARGET_URI, uri);
-        header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
-        header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(contentType), null);
-        header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payload.length), null);
-        writer.writer.writeHeader(record);
-        in = new ByteArrayInputStream(payload); // A re-read is necessary here!
-        writer.writer.streamPayload(in);
-        writer.writer.closeRecord();
+    }
+
+    /**
+     * A record of the metadata file. Its block digest is calculated, and the record compressed, when it is written, so
+     * that this can be done for several records at a time. The payload is read twice, once for the digest and once for
+     * the record, and is never held in memory as a whole.
+     */
+    private abstract static class RecordPart implements OrderedParallelWriter.Part {
+
+        /** Whether the record is compressed. */
+        private final boolean compress;
+
+        /**
+         * @param compress Whether the record is compressed.
+         */
+        RecordPart(boolean compress) {
+            this.compress = compress;
+        }
+
+        /**
+         * @return A new stream of the payload of the record.
+         * @throws IOException If the payload cannot be read.
+         */
+        protected abstract InputStream openPayload() throws IOException;
+
+        /**
+         * Add the headers of the record.
+         *
+         * @param header The header of the record.
+         * @param blockDigest The SHA1 digest of the payload.
+         */
+        protected abstract void addHeaders(WarcHeader header, WarcDigest blockDigest);
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            byte[] blockDigestBytes;
+            InputStream in = openPayload();
+            try {
+                blockDigestBytes = ChecksumCalculator.digestInputStream(in, "SHA1");
+            } finally {
+                in.close();
+            }
+            WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32",
+                    Base32.encode(blockDigestBytes));
+            // A writer of its own makes the record a complete gzip member, which can be written next to the others
+            WarcWriter writer = WarcWriterFactory.getWriter(new CloseShieldOutputStream(out), compress);
+            WarcRecord record = WarcRecord.createRecord(writer);
+            addHeaders(record.header, blockDigest);
+            writer.writeHeader(record);
+            in = openPayload();
+            try {
+                writer.streamPayload(in);
+            } finally {
+                in.close();
+            }
+            writer.closeRecord();
+            writer.close();
+        }
     }
 
 }
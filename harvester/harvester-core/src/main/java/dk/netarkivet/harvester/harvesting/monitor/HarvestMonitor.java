@@ -204,11 +204,11 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
     public void visit(FrontierReportMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
 
-        int insertCount = RunningJobsInfoDAO.getInstance().storeFrontierReport(msg.getFilterId(), msg.getReport(),
+        int queuedCount = RunningJobsInfoDAO.getInstance().storeFrontierReport(msg.getFilterId(), msg.getReport(),
                 msg.getJobID());
-        if (LOG.isInfoEnabled() && insertCount > 0) {
-            LOG.debug("Stored frontier report {}-{}' ({} lines): inserted {} lines in the DB", msg.getReport()
-                    .getJobName(), msg.getFilterId(), msg.getReport().getSize(), insertCount);
+        if (LOG.isDebugEnabled() && queuedCount > 0) {
+            LOG.debug("Queued frontier report {}-{} ({} lines) for storage in the DB", msg.getReport().getJobName(),
+                    msg.getFilterId(), queuedCount);
         }
     }
 
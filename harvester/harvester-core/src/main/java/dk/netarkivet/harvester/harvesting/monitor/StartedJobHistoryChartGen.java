@@ -26,7 +26,7 @@ import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.Locale;
 
 import org.jfree.chart.ChartUtilities;
@@ -55,7 +55,6 @@ import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
 import dk.netarkivet.harvester.HarvesterSettings;
-import dk.netarkivet.harvester.datamodel.NumberUtils;
 import dk.netarkivet.harvester.datamodel.RunningJobsInfoDAO;
 
 /**
@@ -138,12 +137,19 @@ class StartedJobHistoryChartGen {
     }
 
     /**
-     * A chart generation task. Generates a PNG image for a job progress history.
+     * A chart generation task. Generates a PNG image for a job progress history. Only the history records added since
+     * the last run are read, and the image is only regenerated if the points to draw have changed.
      */
     private static class ChartGen implements Runnable {
         /** The process that generates the Charts. */
         private final StartedJobHistoryChartGen gen;
 
+        /** The history of the job read so far. */
+        private final StartedJobHistorySeries series = new StartedJobHistorySeries(MAX_CHART_POINTS);
+
+        /** The points drawn in the current image. */
+        private double[][] drawnPoints;
+
         /**
          * Constructor of a ChartGen objector.
          *
@@ -156,23 +162,13 @@ class StartedJobHistoryChartGen {
 
         @Override
         public void run() {
-
-            synchronized (gen) {
-                gen.chartFile = null;
-            }
-
             long jobId = gen.jobId;
 
-            StartedJobInfo[] fullHistory = RunningJobsInfoDAO.getInstance().getFullJobHistory(jobId);
-
-            LinkedList<Double> timeValues = new LinkedList<Double>();
-            LinkedList<Double> progressValues = new LinkedList<Double>();
-            LinkedList<Double> urlValues = new LinkedList<Double>();
-
-            for (StartedJobInfo sji : fullHistory) {
-                timeValues.add((double) sji.getElapsedSeconds());
-                progressValues.add(sji.getProgress());
-                urlValues.add((double) sji.getQueuedFilesCount());
+            series.add(RunningJobsInfoDAO.getInstance().getJobHistory(jobId, series.getLastElapsedSeconds()));
+            double[][] points = series.getVisible();
+            if (drawnPoints != null && Arrays.deepEquals(points, drawnPoints) && gen.getChartFile() != null) {
+                LOG.debug("History chart for job {} is unchanged.", jobId);
+                return;
             }
 
             // Refresh the history png image for the job.
@@ -195,16 +191,16 @@ class StartedJobHistoryChartGen {
                     I18N.getString(gen.locale, "running.job.details.chart.legend.crawlTime"),
                     new String[] {I18N.getString(gen.locale, "running.job.details.chart.legend.progress"),
                             I18N.getString(gen.locale, "running.job.details.chart.legend.queuedUris")},
-                    NumberUtils.toPrimitiveArray(timeValues),
+                    points[0],
                     new double[][] {new double[] {0, 100}, null},
-                    new double[][] {NumberUtils.toPrimitiveArray(progressValues),
-                            NumberUtils.toPrimitiveArray(urlValues)}, new Color[] {Color.blue, Color.green.darker()},
+                    new double[][] {points[1], points[2]}, new Color[] {Color.blue, Color.green.darker()},
                     new String[] {"%", ""}, false, Color.lightGray.brighter().brighter());
 
             long genTime = System.currentTimeMillis() - startTime;
             LOG.info(
-                    "Generated history chart for job {} in {}.",
+                    "Generated history chart for job {} with {} points in {}.",
                     jobId,
+                    points[0].length,
                     (genTime < TimeUtils.SECOND_IN_MILLIS ? genTime + " ms" : StringUtils.formatDuration(genTime
                             / TimeUtils.SECOND_IN_MILLIS)));
 
@@ -218,7 +214,7 @@ class StartedJobHistoryChartGen {
                 }
                 gen.chartFile = pngFile;
             }
-
+            drawnPoints = points;
         }
 
     }
@@ -236,6 +232,8 @@ class StartedJobHistoryChartGen {
      * The chart image resolution.
      */
     private static final int[] CHART_RESOLUTION = new int[] {600, 450};
+    /** The maximum number of points drawn per value series, about one per horizontal pixel of the plot. */
+    private static final int MAX_CHART_POINTS = 500;
     /** The dimension of the chart axis. */
     private static final double CHART_AXIS_DIMENSION = 10.0;
     /** The relative path of the output. */
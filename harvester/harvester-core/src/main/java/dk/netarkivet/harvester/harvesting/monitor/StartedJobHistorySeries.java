@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.monitor;
+
+import java.util.Arrays;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The progress percentage and queued URI count of a running job over the crawl time, kept between chart generations so
+ * that only new history records need to be read. The number of points is kept down with the largest-triangle-three-
+ * buckets algorithm, which keeps the points that matter most to the shape of a line chart.
+ */
+class StartedJobHistorySeries {
+
+    /** The number of points held before the series is decimated, as a multiple of the number of visible points. */
+    private static final int COMPACT_FACTOR = 4;
+
+    /** The maximum number of visible points per value series. */
+    private final int maxPoints;
+
+    /** The crawl times in seconds. */
+    private double[] times = new double[16];
+    /** The progress percentages. */
+    private double[] progress = new double[16];
+    /** The queued URI counts. */
+    private double[] queuedUris = new double[16];
+    /** The number of points held. */
+    private int count;
+
+    /** The crawl time of the last record added. */
+    private long lastElapsedSeconds = Long.MIN_VALUE;
+
+    /**
+     * @param maxPoints the maximum number of visible points per value series, at least 3.
+     */
+    StartedJobHistorySeries(int maxPoints) {
+        ArgumentNotValid.checkTrue(maxPoints >= 3, "maxPoints must be at least 3");
+        this.maxPoints = maxPoints;
+    }
+
+    /**
+     * @return the crawl time in seconds of the last record added, or {@link Long#MIN_VALUE} if none has been added.
+     */
+    long getLastElapsedSeconds() {
+        return lastElapsedSeconds;
+    }
+
+    /**
+     * Adds history records. Records with a crawl time not after the last record added are ignored.
+     *
+     * @param infos history records in chronological order.
+     * @return true if any record was added.
+     */
+    boolean add(StartedJobInfo[] infos) {
+        boolean added = false;
+        for (StartedJobInfo sji : infos) {
+            if (sji.getElapsedSeconds() <= lastElapsedSeconds) {
+                continue;
+            }
+            if (count == times.length) {
+                times = Arrays.copyOf(times, 2 * count);
+                progress = Arrays.copyOf(progress, 2 * count);
+                queuedUris = Arrays.copyOf(queuedUris, 2 * count);
+            }
+            times[count] = sji.getElapsedSeconds();
+            progress[count] = sji.getProgress();
+            queuedUris[count] = sji.getQueuedFilesCount();
+            count++;
+            lastElapsedSeconds = sji.getElapsedSeconds();
+            added = true;
+        }
+        if (count > COMPACT_FACTOR * maxPoints) {
+            double[][] kept = getVisible();
+            times = kept[0];
+            progress = kept[1];
+            queuedUris = kept[2];
+            count = times.length;
+        }
+        return added;
+    }
+
+    /**
+     * Returns the points to draw. These are the points selected for the progress series and the points selected for
+     * the queued URI series, so that both can be drawn against the same crawl times.
+     *
+     * @return the crawl times, progress percentages and queued URI counts of the visible points.
+     */
+    double[][] getVisible() {
+        boolean[] selected = new boolean[count];
+        int selectedCount = 0;
+        for (double[] values : new double[][] {progress, queuedUris}) {
+            for (int i : selectPoints(times, values, count, maxPoints)) {
+                if (!selected[i]) {
+                    selected[i] = true;
+                    selectedCount++;
+                }
+            }
+        }
+        double[][] visible = new double[3][selectedCount];
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            if (selected[i]) {
+                visible[0][j] = times[i];
+                visible[1][j] = progress[i];
+                visible[2][j] = queuedUris[i];
+                j++;
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Selects points of a line with the largest-triangle-three-buckets algorithm. The first and last points are always
+     * selected. The points between are split into buckets, and from each bucket the point forming the largest triangle
+     * with the point selected from the previous bucket and the average of the next bucket is selected.
+     *
+     * @param x the x values, in increasing order.
+     * @param y the y values.
+     * @param count the number of points.
+     * @param threshold the maximum number of points to select, at least 3.
+     * @return the indices of the selected points, in increasing order.
+     */
+    static int[] selectPoints(double[] x, double[] y, int count, int threshold) {
+        if (count <= threshold) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] selected = new int[threshold];
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int previous = 0;
+        selected[0] = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket, which for the last bucket is the last point
+            int nextStart = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, count);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            avgX /= nextEnd - nextStart;
+            avgY /= nextEnd - nextStart;
+
+            int start = (int) Math.floor(bucket * bucketSize) + 1;
+            int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            double maxArea = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((x[previous] - avgX) * (y[i] - y[previous]) - (x[previous] - x[i])
+                        * (avgY - y[previous]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            selected[bucket + 1] = chosen;
+            previous = chosen;
+        }
+        selected[threshold - 1] = count - 1;
+        return selected;
+    }
+
+}
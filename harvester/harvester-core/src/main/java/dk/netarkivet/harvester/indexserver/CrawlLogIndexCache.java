@@ -51,6 +51,7 @@ import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.TimeUtils;
 import dk.netarkivet.common.utils.ZipUtils;
+import dk.netarkivet.common.utils.hadoop.MetadataSortOrder;
 import dk.netarkivet.harvester.HarvesterSettings;
 import is.hi.bok.deduplicator.CrawlDataIterator;
 import is.hi.bok.deduplicator.DigestIndexer;
@@ -327,10 +328,21 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         File tmpCrawlLog = null;
         BufferedReader cdxBuffer = null;
         try {
-            sortedCdxFile = getSortedCDX(cdxfile);
-            cdxBuffer = new BufferedReader(new FileReader(sortedCdxFile));
-            tmpCrawlLog = getSortedCrawlLog(crawllogfile);
-            crawlLogIterator = new CDXOriginCrawlLogIterator(tmpCrawlLog, cdxBuffer);
+            // Data cached via Hadoop is already sorted, so only sort what is not
+            if (MetadataSortOrder.CDX.isSorted(cdxfile)) {
+                log.debug("The CDX file '{}' is already sorted", cdxfile.getAbsolutePath());
+                cdxBuffer = new BufferedReader(new FileReader(cdxfile));
+            } else {
+                sortedCdxFile = getSortedCDX(cdxfile);
+                cdxBuffer = new BufferedReader(new FileReader(sortedCdxFile));
+            }
+            if (MetadataSortOrder.CRAWL_LOG.isSorted(crawllogfile)) {
+                log.debug("The crawl.log file '{}' is already sorted", crawllogfile.getAbsolutePath());
+                crawlLogIterator = new CDXOriginCrawlLogIterator(crawllogfile, cdxBuffer);
+            } else {
+                tmpCrawlLog = getSortedCrawlLog(crawllogfile);
+                crawlLogIterator = new CDXOriginCrawlLogIterator(tmpCrawlLog, cdxBuffer);
+            }
             indexer.writeToIndex(crawlLogIterator, mimefilter, blacklist, "ERROR", verbose);
         } catch (IOException e) {
             throw new IOFailure("Fatal error indexing " + id, e);
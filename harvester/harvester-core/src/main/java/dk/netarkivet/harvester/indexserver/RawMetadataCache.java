@@ -26,8 +26,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -57,6 +55,7 @@ import dk.netarkivet.common.utils.hadoop.HadoopJob;
 import dk.netarkivet.common.utils.hadoop.HadoopJobStrategy;
 import dk.netarkivet.common.utils.hadoop.HadoopJobUtils;
 import dk.netarkivet.common.utils.hadoop.MetadataExtractionStrategy;
+import dk.netarkivet.common.utils.hadoop.MetadataSortOrder;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.harvesting.metadata.MetadataFile;
 
@@ -151,7 +150,8 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
     }
 
     /**
-     * Cache data for the given ID using Hadoop.
+     * Cache data for the given ID using Hadoop. Crawl log and CDX data are sorted by the Hadoop job, in the order used
+     * by {@link CrawlLogIndexCache}, so the cached file can be indexed without sorting it again.
      *
      * @param id A job ID to cache data for.
      * @return A File containing the data. This file will be the same as getCacheFile(ID);
@@ -165,7 +165,7 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         conf.setPattern(GetMetadataMapper.MIME_PATTERN, mimePattern);
 
         try (FileSystem fileSystem = FileSystem.newInstance(conf)) {
-            HadoopJobStrategy jobStrategy = new MetadataExtractionStrategy(id, fileSystem);
+            MetadataExtractionStrategy jobStrategy = new MetadataExtractionStrategy(id, fileSystem, getSortOrder());
             HadoopJob job = new HadoopJob(id, jobStrategy);
             job.processOnlyFilesMatching(specifiedPattern);
             job.prepareJobInputOutput(fileSystem);
@@ -174,14 +174,11 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
             File cacheFileName = getCacheFile(id);
             if (tryToMigrateDuplicationRecords) {
                 log.warn("Attempting to migrate duplication records via hadoop. This operation is not well tested.");
-                List<String> metadataLines = HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir());
-                migrateDuplicatesHadoop(id, fileSystem, specifiedPattern, metadataLines, cacheFileName);
+                File originalJobResults = createTempOutputFile();
+                collectResults(fileSystem, job, jobStrategy.getSortOrder(), originalJobResults);
+                migrateDuplicatesHadoop(id, fileSystem, specifiedPattern, originalJobResults, cacheFileName);
             } else {
-                log.info("Collecting hadoop output to {}", cacheFileName.getAbsolutePath());
-                try (OutputStream os = new FileOutputStream(cacheFileName)) {
-                    HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir(), os);
-                }
-                log.info("Collected {} bytes hadoop output to {}", cacheFileName.length(), cacheFileName.getAbsolutePath());
+                collectResults(fileSystem, job, jobStrategy.getSortOrder(), cacheFileName);
             }
             log.debug("Cached data for job '{}' for '{}'", id, prefix);
             return id;
@@ -191,18 +188,54 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         }
     }
 
+    /**
+     * @return The order in which the Hadoop job should deliver the data of this cache, or null if the data need not
+     * be sorted.
+     */
+    private MetadataSortOrder getSortOrder() {
+        if (urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN)) {
+            return MetadataSortOrder.CRAWL_LOG;
+        } else if (urlPattern.pattern().equals(MetadataFile.CDX_PATTERN)) {
+            return MetadataSortOrder.CDX;
+        }
+        return null;
+    }
+
+    /**
+     * Helper method for Hadoop methods.
+     * Streams the output of a finished job to a file, merging the sorted parts if the job sorted its output.
+     * @param fileSystem The filesystem holding the output of the job.
+     * @param job The finished job.
+     * @param sortOrder The order of the output parts, or null if the output is unsorted.
+     * @param file The file to write the output to.
+     * @throws IOException If the output cannot be read or written.
+     */
+    private void collectResults(FileSystem fileSystem, HadoopJob job, MetadataSortOrder sortOrder, File file)
+            throws IOException {
+        log.info("Collecting hadoop output to {}", file.getAbsolutePath());
+        try (OutputStream os = new FileOutputStream(file)) {
+            if (sortOrder != null) {
+                HadoopJobUtils.collectSortedOutputLines(fileSystem, job.getJobOutputDir(), sortOrder, os);
+            } else {
+                HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir(), os);
+            }
+        }
+        log.info("Collected {} bytes hadoop output to {}", file.length(), file.getAbsolutePath());
+    }
+
     /**
      * If this cache represents a crawllog cache then this method will attempt to migrate any duplicate annotations in
      * the crawl log using data in the duplicationmigration metadata record. This migrates filename/offset
-     * pairs from uncompressed to compressed (w)arc files. This method has the side effect of copying the index
+     * pairs from uncompressed to compressed (w)arc files. This method has the side effect of moving the index
      * cache (whether migrated or not) into the cache file whose name is generated from the id.
      * @param id the id of the cache
      * @param fileSystem the filesystem on which the operations are carried out
      * @param specifiedPattern the pattern specifying the files to be found
-     * @param originalJobResults the original hadoop job results which is a list containing the unmigrated data.
-     * @param cacheFileName the cache file for the job which the index cache is copied to.
+     * @param originalJobResults a temp file containing the unmigrated results of the original hadoop job.
+     * @param cacheFileName the cache file for the job which the index cache is moved to.
      */
-    private void migrateDuplicatesHadoop(Long id, FileSystem fileSystem, String specifiedPattern, List<String> originalJobResults, File cacheFileName) {
+    private void migrateDuplicatesHadoop(Long id, FileSystem fileSystem, String specifiedPattern,
+            File originalJobResults, File cacheFileName) {
         log.debug("Looking for a duplicationmigration record for id {}", id);
         if (urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN)) {
             Configuration conf = fileSystem.getConf();
@@ -214,14 +247,17 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
             job.prepareJobInputOutput(fileSystem);
             job.run();
 
+            File migration = createTempOutputFile();
             try {
-                List<String> metadataLines = HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir());
-                handleMigrationHadoop(id, metadataLines, originalJobResults, cacheFileName);
+                collectResults(fileSystem, job, null, migration);
             } catch (IOException e) {
                 log.error("Failed getting duplicationmigration lines output from Hadoop job with ID: {}", id);
+                // Cache the unmigrated data rather than migrating from partial output
+                migration.delete();
             }
+            handleMigrationHadoop(id, migration, originalJobResults, cacheFileName);
         } else {
-            copyResults(id, originalJobResults, cacheFileName);
+            FileUtils.moveFile(originalJobResults, cacheFileName);
         }
     }
 
@@ -229,31 +265,19 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
      * Helper method for {@link #migrateDuplicatesHadoop}.
      * Does the actual handling of migration after the job has finished successfully.
      * @param id The id of the cache.
-     * @param metadataLines The resulting lines from the duplication-migration job.
-     * @param originalJobResults The original hadoop job results which is a list containing the unmigrated data.
-     * @param cacheFileName The cache file for the job which the index cache is copied to.
+     * @param migration A temp file containing the resulting lines from the duplication-migration job.
+     * @param originalJobResults A temp file containing the unmigrated results of the original hadoop job.
+     * @param cacheFileName The cache file for the job which the index cache is moved to.
      */
-    private void handleMigrationHadoop(Long id, List<String> metadataLines, List<String> originalJobResults,
-            File cacheFileName) {
-        File migration = null;
-        try {
-            migration = File.createTempFile("migration", "txt");
-        } catch (IOException e) {
-            throw new IOFailure("Could not create temporary output file.");
-        }
-        if (metadataLines.size() > 0) {
-            copyResults(id, metadataLines, migration);
-        }
+    private void handleMigrationHadoop(Long id, File migration, File originalJobResults, File cacheFileName) {
         boolean doMigration = migration.exists() && migration.length() > 0;
         if (doMigration) {
             log.info("Found a nonempty duplicationmigration record. Now we do the migration for job {}", id);
             Hashtable<Pair<String, Long>, Long> lookup = createLookupTableFromMigrationLines(id, migration);
-
-            File crawllog = createTempOutputFile();
-            copyResults(id, originalJobResults, crawllog);
-            migrateFilenameOffsetPairs(id, cacheFileName, crawllog, lookup);
+            migrateFilenameOffsetPairs(id, cacheFileName, originalJobResults, lookup);
         } else {
-            copyResults(id, originalJobResults, cacheFileName);
+            migration.delete();
+            FileUtils.moveFile(originalJobResults, cacheFileName);
         }
     }
 
@@ -271,21 +295,6 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         return crawllog;
     }
 
-    /**
-     * Helper method for Hadoop methods.
-     * Copies the results of a job to a file.
-     * @param id The ID of the current job.
-     * @param jobResults The resulting lines output from a job.
-     * @param file The file to copy the results to.
-     */
-    private void copyResults(Long id, List<String> jobResults, File file) {
-        try {
-            Files.write(Paths.get(file.getAbsolutePath()), jobResults);
-        } catch (IOException e) {
-            throw new IOFailure("Failed writing results of job with ID '" + id + "' to file " + file.getAbsolutePath());
-        }
-    }
-
     /**
      * Actually cache data for the given ID.
      *
@@ -0,0 +1,1075 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DomainUtils;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * A disk cached index of the crawl log of a single job, used to answer the crawl log queries of the QA pages without
+ * running a batch or Hadoop job for every query. The index directory of a job holds
+ * <ul>
+ * <li>the crawl log of the job, sorted on timestamp,</li>
+ * <li>the offset and length of every line, grouped by the domains the line refers to, with a table giving the range
+ * of the entries of each domain, and</li>
+ * <li>for every block of {@value #BLOCK_LINES} lines of the crawl log, a Bloom filter of the trigrams of the lines,
+ * used to skip the blocks that cannot match a regular expression.</li>
+ * </ul>
+ * The index of a job is built the first time the job is queried. The total size of the indices is bounded by
+ * {@link HarvesterSettings#CRAWLLOG_INDEX_MAX_SIZE}, and the least recently used indices are removed first.
+ * <p>
+ * All results are returned as new temporary files with the matching lines in timestamp order, like the files produced
+ * by the batch jobs.
+ */
+public class CrawlLogIndex {
+
+    /** Supplier of the crawl logs to build indices from. */
+    interface CrawlLogSource {
+        /**
+         * @param jobId A job.
+         * @return A new file with all crawl log lines of the job, sorted on timestamp. It is moved into the index.
+         */
+        File getSortedCrawlLog(long jobId);
+    }
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(CrawlLogIndex.class);
+
+    /** The name of the directory under the metadata cache directory holding the indices. */
+    private static final String INDEX_DIR = "crawllog_index";
+    /** The crawl log, sorted on timestamp. */
+    private static final String CRAWL_LOG_FILE = "crawl.log";
+    /** The (offset, length) entries of the lines, grouped by domain. */
+    private static final String ENTRIES_FILE = "domain-entries";
+    /** The domain table: domain, first entry and number of entries. */
+    private static final String DOMAINS_FILE = "domains";
+    /** The trigram filters of the blocks of the crawl log. */
+    private static final String NGRAMS_FILE = "ngrams";
+    /** The size of an entry in the entries file. */
+    private static final int ENTRY_SIZE = 8 + 4;
+    /** The number of lines covered by each trigram filter. */
+    static final int BLOCK_LINES = 64;
+    /** The number of filter bits per distinct trigram in a block. */
+    private static final int BITS_PER_TRIGRAM = 4;
+    /** The maximal number of indices with their domain table kept in memory. */
+    private static final int MAX_OPEN_INDICES = 16;
+
+    /** The indices in memory, in least recently used order. */
+    private static final Map<Long, CrawlLogIndex> openIndices = new LinkedHashMap<Long, CrawlLogIndex>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CrawlLogIndex> eldest) {
+            return size() > MAX_OPEN_INDICES;
+        }
+    };
+    /** The number of queries reading each index, by job. Guarded by openIndices. Indices being read are not removed. */
+    private static final Map<Long, Integer> readers = new HashMap<Long, Integer>();
+    /**
+     * Locks preventing the same index from being built twice at the same time, by job. Guarded by itself. A lock is
+     * removed when no thread holds or waits for it, so there is only an entry for jobs being looked up.
+     */
+    private static final Map<Long, BuildLock> buildLocks = new HashMap<Long, BuildLock>();
+
+    /** The job of this index. */
+    private final long jobId;
+    /** The directory of the index, or null if the job has no crawl log. */
+    private final File dir;
+    /** The supplier of the crawl log, used if the index must be built again. */
+    private final CrawlLogSource source;
+    /** The domains of the domain table, in sorted order. */
+    private final String[] domains;
+    /** The first entry of each domain. */
+    private final long[] firstEntries;
+    /** The number of entries of each domain. */
+    private final int[] entryCounts;
+
+    /**
+     * Load an index from its directory.
+     *
+     * @param jobId The job of the index.
+     * @param dir The directory of the index, or null for an empty index.
+     * @param source The supplier of the crawl log.
+     * @throws IOException If the domain table cannot be read.
+     */
+    private CrawlLogIndex(long jobId, File dir, CrawlLogSource source) throws IOException {
+        this.jobId = jobId;
+        this.dir = dir;
+        this.source = source;
+        List<String> domainList = new ArrayList<String>();
+        List<Long> firstList = new ArrayList<Long>();
+        List<Integer> countList = new ArrayList<Integer>();
+        if (dir != null) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(new File(dir, DOMAINS_FILE)))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    domainList.add(parts[0]);
+                    firstList.add(Long.parseLong(parts[1]));
+                    countList.add(Integer.parseInt(parts[2]));
+                }
+            }
+        }
+        domains = domainList.toArray(new String[domainList.size()]);
+        firstEntries = new long[domains.length];
+        entryCounts = new int[domains.length];
+        for (int i = 0; i < domains.length; i++) {
+            firstEntries[i] = firstList.get(i);
+            entryCounts[i] = countList.get(i);
+        }
+    }
+
+    /**
+     * Get the index of the crawl log of a job, building it if it is not cached. A job without crawl log lines gets an
+     * empty index, which is not cached, as the metadata of the job may not have been uploaded yet.
+     *
+     * @param jobId The job.
+     * @param source The supplier of the crawl log if the index must be built.
+     * @return The index.
+     * @throws IOFailure If the index cannot be read or built.
+     */
+    static CrawlLogIndex getIndex(long jobId, CrawlLogSource source) throws IOFailure {
+        ArgumentNotValid.checkPositive(jobId, "long jobId");
+        ArgumentNotValid.checkNotNull(source, "CrawlLogSource source");
+        BuildLock lock;
+        synchronized (buildLocks) {
+            lock = buildLocks.computeIfAbsent(jobId, id -> new BuildLock());
+            lock.users++;
+        }
+        try {
+            return getIndexLocked(jobId, source, lock);
+        } finally {
+            synchronized (buildLocks) {
+                if (--lock.users == 0) {
+                    buildLocks.remove(jobId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the index of the crawl log of a job while holding the build lock of the job.
+     *
+     * @param jobId The job.
+     * @param source The supplier of the crawl log if the index must be built.
+     * @param lock The build lock of the job.
+     * @return The index.
+     * @throws IOFailure If the index cannot be read or built.
+     */
+    private static CrawlLogIndex getIndexLocked(long jobId, CrawlLogSource source, BuildLock lock) throws IOFailure {
+        synchronized (lock) {
+            CrawlLogIndex index;
+            synchronized (openIndices) {
+                index = openIndices.get(jobId);
+            }
+            File dir = getIndexDir(jobId);
+            if (index == null || !dir.isDirectory()) {
+                try {
+                    if (!dir.isDirectory()) {
+                        build(jobId, source, dir);
+                    }
+                    index = new CrawlLogIndex(jobId, dir.isDirectory() ? dir : null, source);
+                } catch (IOException e) {
+                    throw new IOFailure("Could not read the crawl log index of job " + jobId, e);
+                }
+                if (index.dir == null) {
+                    return index;
+                }
+                synchronized (openIndices) {
+                    openIndices.put(jobId, index);
+                }
+            }
+            dir.setLastModified(System.currentTimeMillis());
+            removeLeastRecentlyUsed(dir);
+            return index;
+        }
+    }
+
+    /**
+     * @param jobId A job.
+     * @return The directory of the index of the job.
+     */
+    private static File getIndexDir(long jobId) {
+        return new File(getIndexRoot(), Long.toString(jobId));
+    }
+
+    /**
+     * @return The directory holding all indices.
+     */
+    private static File getIndexRoot() {
+        File root = new File(Settings.get(CommonSettings.METADATA_CACHE), INDEX_DIR);
+        root.mkdirs();
+        return root;
+    }
+
+    /**
+     * Build the index of a job. The index is built in a separate directory, which is renamed when the index is
+     * complete.
+     *
+     * @param jobId The job.
+     * @param source The supplier of the crawl log.
+     * @param dir The directory of the index.
+     * @throws IOException If the index cannot be built.
+     */
+    private static void build(long jobId, CrawlLogSource source, File dir) throws IOException {
+        File crawlLog = source.getSortedCrawlLog(jobId);
+        if (crawlLog.length() == 0) {
+            log.info("No crawl log lines found for job {}. The empty result is not cached.", jobId);
+            FileUtils.remove(crawlLog);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        File buildDir = new File(dir.getParentFile(), dir.getName() + ".building");
+        FileUtils.removeRecursively(buildDir);
+        FileUtils.createDir(buildDir);
+        try {
+            File indexedLog = new File(buildDir, CRAWL_LOG_FILE);
+            FileUtils.moveFile(crawlLog, indexedLog);
+            File keys = new File(buildDir, "domain-keys");
+            long lines = scanCrawlLog(indexedLog, keys, new File(buildDir, NGRAMS_FILE));
+            FileUtils.makeSortedFile(keys, keys);
+            writeDomainTable(keys, new File(buildDir, ENTRIES_FILE), new File(buildDir, DOMAINS_FILE));
+            FileUtils.remove(keys);
+            if (!buildDir.renameTo(dir)) {
+                throw new IOException("Could not rename " + buildDir + " to " + dir);
+            }
+            log.info("Built crawl log index of {} lines for job {} in {} ms", lines, jobId,
+                    System.currentTimeMillis() - start);
+        } finally {
+            FileUtils.removeRecursively(buildDir);
+        }
+    }
+
+    /**
+     * Read the crawl log once, writing the trigram filters of its blocks, and a key line "domain offset length" for
+     * every domain each line refers to. The offsets are zero padded, so sorting the key lines groups them by domain
+     * with the lines of each domain in crawl log order.
+     *
+     * @param crawlLog The crawl log.
+     * @param keys The file to write the key lines to.
+     * @param ngrams The file to write the trigram filters to.
+     * @return The number of lines in the crawl log.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static long scanCrawlLog(File crawlLog, File keys, File ngrams) throws IOException {
+        long lines = 0;
+        try (LineInput in = new LineInput(new FileInputStream(crawlLog));
+                BufferedWriter keyWriter = new BufferedWriter(new FileWriter(keys));
+                DataOutputStream ngramOut = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(ngrams)))) {
+            List<String> block = new ArrayList<String>(BLOCK_LINES);
+            long blockOffset = 0;
+            Set<String> lineDomains = new LinkedHashSet<String>();
+            long offset = in.getPosition();
+            String line;
+            while ((line = in.readLine()) != null) {
+                int length = (int) (in.getPosition() - offset);
+                lineDomains.clear();
+                for (String domain : getDomains(line)) {
+                    if (!domain.isEmpty() && lineDomains.add(domain)) {
+                        keyWriter.write(domain + "\t" + String.format("%016d", offset) + "\t" + length + "\n");
+                    }
+                }
+                block.add(line);
+                if (block.size() == BLOCK_LINES) {
+                    writeBlockFilter(ngramOut, blockOffset, block);
+                    block.clear();
+                    blockOffset = in.getPosition();
+                }
+                offset = in.getPosition();
+                lines++;
+            }
+            if (!block.isEmpty()) {
+                writeBlockFilter(ngramOut, blockOffset, block);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Find the domains a crawl log line refers to: the domains of its URL and discovery URL, as used by
+     * {@link HarvestedUrlsForDomainBatchJob}, and the domain of its seed, as used by
+     * {@link Reporting#getCrawlLogLinesMatchingDomain(long, String)}.
+     *
+     * @param line A crawl log line.
+     * @return The domains of the line. Unknown domains are given as the empty string.
+     */
+    private static List<String> getDomains(String line) {
+        List<String> result = new ArrayList<String>(3);
+        String[] parts = line.split("\\s+");
+        if (parts.length > HarvestedUrlsForDomainBatchJob.URL_PART_INDEX) {
+            result.add(HarvestedUrlsForDomainBatchJob.getDomainFromUrlPart(
+                    parts[HarvestedUrlsForDomainBatchJob.URL_PART_INDEX]));
+        }
+        if (parts.length > HarvestedUrlsForDomainBatchJob.DISCOVERY_URL_PART_INDEX
+                && !parts[HarvestedUrlsForDomainBatchJob.DISCOVERY_URL_PART_INDEX].equals("-")) {
+            result.add(HarvestedUrlsForDomainBatchJob.getDomainFromUrlPart(
+                    parts[HarvestedUrlsForDomainBatchJob.DISCOVERY_URL_PART_INDEX]));
+        }
+        String seedHost = Reporting.getSeedHost(line);
+        if (seedHost != null) {
+            String seedDomain = DomainUtils.domainNameFromHostname(seedHost);
+            if (seedDomain != null) {
+                result.add(seedDomain);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Turn the sorted key lines into the entries file and the domain table.
+     *
+     * @param keys The sorted key lines.
+     * @param entries The file to write the (offset, length) entries to.
+     * @param domainTable The file to write the domain table to.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static void writeDomainTable(File keys, File entries, File domainTable) throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(keys));
+                DataOutputStream entryOut = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(entries)));
+                BufferedWriter tableOut = new BufferedWriter(new FileWriter(domainTable))) {
+            String currentDomain = null;
+            long first = 0;
+            long entry = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (!parts[0].equals(currentDomain)) {
+                    if (currentDomain != null) {
+                        tableOut.write(currentDomain + "\t" + first + "\t" + (entry - first) + "\n");
+                    }
+                    currentDomain = parts[0];
+                    first = entry;
+                }
+                entryOut.writeLong(Long.parseLong(parts[1]));
+                entryOut.writeInt(Integer.parseInt(parts[2]));
+                entry++;
+            }
+            if (currentDomain != null) {
+                tableOut.write(currentDomain + "\t" + first + "\t" + (entry - first) + "\n");
+            }
+        }
+    }
+
+    /**
+     * Write the offset and trigram filter of a block of crawl log lines. The filter has a power of two number of
+     * bits, with {@value #BITS_PER_TRIGRAM} bits per distinct trigram.
+     *
+     * @param out The trigram filter file.
+     * @param offset The offset of the first line of the block.
+     * @param lines The lines of the block.
+     * @throws IOException If the filter cannot be written.
+     */
+    private static void writeBlockFilter(DataOutputStream out, long offset, List<String> lines) throws IOException {
+        int occurrences = 0;
+        for (String line : lines) {
+            occurrences += Math.max(0, line.length() - 2);
+        }
+        int[] hashes = new int[occurrences];
+        int n = 0;
+        for (String line : lines) {
+            for (int i = 0; i + 2 < line.length(); i++) {
+                hashes[n++] = trigramHash(line, i);
+            }
+        }
+        Arrays.sort(hashes);
+        int distinct = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (i == 0 || hashes[i] != hashes[i - 1]) {
+                distinct++;
+            }
+        }
+        int bits = Integer.highestOneBit(Math.max(64, distinct * BITS_PER_TRIGRAM) - 1) << 1;
+        long[] words = new long[bits / 64];
+        for (int hash : hashes) {
+            int bit = hash & (bits - 1);
+            words[bit >>> 6] |= 1L << bit;
+        }
+        out.writeLong(offset);
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * @param s A string.
+     * @param i The start of a trigram in the string.
+     * @return A well mixed hash of the trigram.
+     */
+    private static int trigramHash(CharSequence s, int i) {
+        int h = (s.charAt(i) * 31 + s.charAt(i + 1)) * 31 + s.charAt(i + 2);
+        h *= 0x9E3779B1;
+        return h ^ (h >>> 15);
+    }
+
+    /**
+     * Remove the least recently used indices until the total size of the indices is within the limit. Indices being
+     * read are skipped. An index is renamed before it is deleted, so a query starting meanwhile builds it again.
+     *
+     * @param keep An index directory which is not to be removed.
+     */
+    private static void removeLeastRecentlyUsed(File keep) {
+        long maxSize = Settings.getLong(HarvesterSettings.CRAWLLOG_INDEX_MAX_SIZE);
+        File[] dirs = getIndexRoot().listFiles();
+        if (dirs == null) {
+            return;
+        }
+        long totalSize = 0;
+        final Map<File, Long> lastUsed = new LinkedHashMap<File, Long>();
+        List<File> indexDirs = new ArrayList<File>();
+        for (File indexDir : dirs) {
+            if (indexDir.isDirectory() && indexDir.getName().matches("[0-9]+")) {
+                indexDirs.add(indexDir);
+                lastUsed.put(indexDir, indexDir.lastModified());
+                totalSize += getSize(indexDir);
+            }
+        }
+        Collections.sort(indexDirs, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(lastUsed.get(f1), lastUsed.get(f2));
+            }
+        });
+        Iterator<File> iterator = indexDirs.iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            File indexDir = iterator.next();
+            if (indexDir.equals(keep)) {
+                continue;
+            }
+            long size = getSize(indexDir);
+            Long id = Long.parseLong(indexDir.getName());
+            File removedDir = new File(indexDir.getParentFile(), indexDir.getName() + ".removing");
+            FileUtils.removeRecursively(removedDir);
+            synchronized (openIndices) {
+                if (readers.containsKey(id)) {
+                    log.debug("Not removing the crawl log index in {}, as it is being read", indexDir);
+                    continue;
+                }
+                openIndices.remove(id);
+                if (!indexDir.renameTo(removedDir)) {
+                    continue;
+                }
+            }
+            FileUtils.removeRecursively(removedDir);
+            totalSize -= size;
+            log.info("Removed the crawl log index in {} to keep the indices within {} bytes", indexDir, maxSize);
+        }
+    }
+
+    /**
+     * @param indexDir An index directory.
+     * @return The total size of the files in the directory.
+     */
+    private static long getSize(File indexDir) {
+        long size = 0;
+        File[] files = indexDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Mark the directory of this index as being read, so it is not removed. If it has been removed since this index was
+     * loaded, the index is built again.
+     *
+     * @return An index whose directory is marked as being read; this one, unless its directory had been removed.
+     * @throws IOFailure If the index must be built again and that fails.
+     */
+    private CrawlLogIndex pin() throws IOFailure {
+        if (dir == null) {
+            return this;
+        }
+        synchronized (openIndices) {
+            if (dir.isDirectory()) {
+                Integer count = readers.get(jobId);
+                readers.put(jobId, count == null ? 1 : count + 1);
+                return this;
+            }
+        }
+        log.info("The crawl log index of job {} was removed before it was read. Building it again.", jobId);
+        return getIndex(jobId, source).pin();
+    }
+
+    /**
+     * Mark the end of a read of the directory of this index.
+     */
+    private void unpin() {
+        if (dir == null) {
+            return;
+        }
+        synchronized (openIndices) {
+            int count = readers.get(jobId) - 1;
+            if (count == 0) {
+                readers.remove(jobId);
+            } else {
+                readers.put(jobId, count);
+            }
+        }
+    }
+
+    /**
+     * Get the crawl log lines referring to a domain, either by their URL or discovery URL or by their seed.
+     *
+     * @param domain A domain name.
+     * @param filter Only lines accepted by this filter are returned.
+     * @return A new temporary file with the lines, in timestamp order.
+     * @throws IOFailure If the index cannot be read or the result cannot be written.
+     */
+    File getLinesForDomain(String domain, Predicate<String> filter) throws IOFailure {
+        CrawlLogIndex index = pin();
+        try {
+            return index.readLinesForDomain(domain, filter);
+        } finally {
+            index.unpin();
+        }
+    }
+
+    /**
+     * Read the crawl log lines referring to a domain from the pinned directory of this index.
+     *
+     * @param domain A domain name.
+     * @param filter Only lines accepted by this filter are returned.
+     * @return A new temporary file with the lines, in timestamp order.
+     * @throws IOFailure If the index cannot be read or the result cannot be written.
+     */
+    private File readLinesForDomain(String domain, Predicate<String> filter) throws IOFailure {
+        File result = createResultFile();
+        int i = Arrays.binarySearch(domains, domain);
+        if (i < 0) {
+            return result;
+        }
+        try (RandomAccessFile entries = new RandomAccessFile(new File(dir, ENTRIES_FILE), "r");
+                RandomAccessFile crawlLog = new RandomAccessFile(new File(dir, CRAWL_LOG_FILE), "r");
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(result))) {
+            byte[] entryBuffer = new byte[entryCounts[i] * ENTRY_SIZE];
+            entries.seek(firstEntries[i] * ENTRY_SIZE);
+            entries.readFully(entryBuffer);
+            DataInputStream entryIn = new DataInputStream(new ByteArrayInputStream(entryBuffer));
+            byte[] lineBuffer = new byte[256];
+            for (int entry = 0; entry < entryCounts[i]; entry++) {
+                long offset = entryIn.readLong();
+                int length = entryIn.readInt();
+                if (lineBuffer.length < length) {
+                    lineBuffer = new byte[Math.max(length, 2 * lineBuffer.length)];
+                }
+                crawlLog.seek(offset);
+                crawlLog.readFully(lineBuffer, 0, length);
+                if (filter.test(decodeLine(lineBuffer, length))) {
+                    out.write(lineBuffer, 0, length);
+                }
+            }
+        } catch (IOException e) {
+            FileUtils.remove(result);
+            throw new IOFailure("Could not read the crawl log index of job " + jobId, e);
+        }
+        return result;
+    }
+
+    /**
+     * Get all crawl log lines matching a predicate.
+     *
+     * @param filter The predicate.
+     * @return A new temporary file with the matching lines, in timestamp order.
+     * @throws IOFailure If the index cannot be read or the result cannot be written.
+     */
+    File getLinesMatching(Predicate<String> filter) throws IOFailure {
+        return filterBlocks(filter, new int[0]);
+    }
+
+    /**
+     * Get the crawl log lines matching a regular expression. Only blocks of the crawl log whose trigram filter contains
+     * all trigrams of the literal strings required by the regular expression are read.
+     *
+     * @param regexp A regular expression, matched against whole lines.
+     * @return A new temporary file with the matching lines, in timestamp order.
+     * @throws IOFailure If the index cannot be read or the result cannot be written.
+     */
+    File getLinesMatching(String regexp) throws IOFailure {
+        final Pattern pattern = Pattern.compile(regexp);
+        Set<Integer> trigrams = new LinkedHashSet<Integer>();
+        for (String literal : getRequiredLiterals(regexp)) {
+            for (int i = 0; i + 2 < literal.length(); i++) {
+                trigrams.add(trigramHash(literal, i));
+            }
+        }
+        int[] required = new int[trigrams.size()];
+        int n = 0;
+        for (Integer trigram : trigrams) {
+            required[n++] = trigram;
+        }
+        return filterBlocks(s -> pattern.matcher(s).matches(), required);
+    }
+
+    /**
+     * Write the crawl log lines matching a predicate to a result file, skipping the blocks whose trigram filter does
+     * not contain all required trigrams.
+     *
+     * @param filter The predicate.
+     * @param requiredTrigrams The hashes of trigrams that a matching line must contain.
+     * @return A new temporary file with the matching lines, in timestamp order.
+     * @throws IOFailure If the index cannot be read or the result cannot be written.
+     */
+    private File filterBlocks(Predicate<String> filter, int[] requiredTrigrams) throws IOFailure {
+        CrawlLogIndex index = pin();
+        try {
+            return index.readBlocks(filter, requiredTrigrams);
+        } finally {
+            index.unpin();
+        }
+    }
+
+    /**
+     * Write the crawl log lines matching a predicate to a result file, reading the pinned directory of this index.
+     *
+     * @param filter The predicate.
+     * @param requiredTrigrams The hashes of trigrams that a matching line must contain.
+     * @return A new temporary file with the matching lines, in timestamp order.
+     * @throws IOFailure If the index cannot be read or the result cannot be written.
+     */
+    private File readBlocks(Predicate<String> filter, int[] requiredTrigrams) throws IOFailure {
+        File result = createResultFile();
+        if (dir == null) {
+            return result;
+        }
+        File crawlLog = new File(dir, CRAWL_LOG_FILE);
+        long blocks = 0;
+        long blocksRead = 0;
+        try (DataInputStream ngrams = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(dir,
+                NGRAMS_FILE))));
+                RandomAccessFile crawlLogIn = new RandomAccessFile(crawlLog, "r");
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(result))) {
+            long readUpTo = -1;
+            LineInput lines = null;
+            while (true) {
+                long offset;
+                try {
+                    offset = ngrams.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long[] words = new long[ngrams.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = ngrams.readLong();
+                }
+                blocks++;
+                if (!containsAll(words, requiredTrigrams)) {
+                    continue;
+                }
+                blocksRead++;
+                if (offset != readUpTo) {
+                    crawlLogIn.seek(offset);
+                    lines = new LineInput(new RandomAccessFileInputStream(crawlLogIn), offset);
+                }
+                for (int i = 0; i < BLOCK_LINES; i++) {
+                    long lineStart = lines.getPosition();
+                    String line = lines.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    if (filter.test(line)) {
+                        out.write(lines.getLastLine(), 0, (int) (lines.getPosition() - lineStart));
+                    }
+                }
+                readUpTo = lines.getPosition();
+            }
+        } catch (IOException e) {
+            FileUtils.remove(result);
+            throw new IOFailure("Could not read the crawl log index of job " + jobId, e);
+        }
+        log.debug("Read {} of {} blocks of the crawl log of job {}", blocksRead, blocks, jobId);
+        return result;
+    }
+
+    /**
+     * @param words A trigram filter.
+     * @param trigrams Trigram hashes.
+     * @return true if the filter may contain all the trigrams.
+     */
+    private static boolean containsAll(long[] words, int[] trigrams) {
+        int mask = words.length * 64 - 1;
+        for (int hash : trigrams) {
+            int bit = hash & mask;
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A new temporary file for a query result.
+     * @throws IOFailure If the file cannot be created.
+     */
+    private File createResultFile() throws IOFailure {
+        try {
+            File result = File.createTempFile("crawllog-" + jobId + "-", ".txt", FileUtils.getTempDir());
+            result.deleteOnExit();
+            return result;
+        } catch (IOException e) {
+            throw new IOFailure("Unable to create temporary file", e);
+        }
+    }
+
+    /**
+     * Find literal strings of at least three characters which are part of every string matching a regular
+     * expression. The analysis is conservative: alternatives, groups, character classes and anything not understood
+     * just end the current literal, and expressions with embedded flags give no literals at all.
+     *
+     * @param regexp A valid regular expression.
+     * @return The literals.
+     */
+    static List<String> getRequiredLiterals(String regexp) {
+        List<String> literals = new ArrayList<String>();
+        for (int i = regexp.indexOf("(?"); i >= 0; i = regexp.indexOf("(?", i + 1)) {
+            if (i + 2 >= regexp.length() || ":=!<>".indexOf(regexp.charAt(i + 2)) < 0) {
+                // Embedded flags, e.g. case insensitive matching
+                return literals;
+            }
+        }
+        if (regexp.contains("\\Q")) {
+            return literals;
+        }
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regexp.length()) {
+            char c = regexp.charAt(i);
+            int literal = -1;
+            if (c == '\\') {
+                if (i + 1 >= regexp.length()) {
+                    return new ArrayList<String>();
+                }
+                char escaped = regexp.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    if ("dDsSwWbBAzZGhHvV".indexOf(escaped) < 0) {
+                        // Escapes with arguments, back references and control characters
+                        return new ArrayList<String>();
+                    }
+                } else {
+                    literal = escaped;
+                }
+                i += 2;
+            } else if (c == '|') {
+                return new ArrayList<String>();
+            } else if (c == '[') {
+                i = skipClass(regexp, i);
+            } else if (c == '(') {
+                i = skipGroup(regexp, i);
+            } else if (c == '.' || c == '^' || c == '$') {
+                i++;
+            } else if (c == '?' || c == '*' || c == '+' || c == '{') {
+                // A quantifier of a group or class that was skipped
+                i = skipQuantifier(regexp, i);
+                continue;
+            } else {
+                literal = c;
+                i++;
+            }
+            if (i < 0) {
+                return new ArrayList<String>();
+            }
+            boolean optional = false;
+            boolean repeated = false;
+            if (i < regexp.length()) {
+                char q = regexp.charAt(i);
+                if (q == '?' || q == '*') {
+                    optional = true;
+                } else if (q == '{') {
+                    // Only {n}, {n,} and {n,m} with n > 0 require the atom
+                    optional = i + 1 >= regexp.length() || regexp.charAt(i + 1) < '1'
+                            || regexp.charAt(i + 1) > '9';
+                    repeated = true;
+                } else if (q == '+') {
+                    repeated = true;
+                }
+                if (optional || repeated) {
+                    i = skipQuantifier(regexp, i);
+                    if (i < 0) {
+                        return new ArrayList<String>();
+                    }
+                }
+            }
+            if (literal >= 0 && !optional) {
+                run.append((char) literal);
+            }
+            if (literal < 0 || optional || repeated) {
+                addLiteral(literals, run);
+            }
+        }
+        addLiteral(literals, run);
+        return literals;
+    }
+
+    /**
+     * Move a literal to the list if it is long enough to have trigrams.
+     *
+     * @param literals The literals.
+     * @param run The current literal, which is cleared.
+     */
+    private static void addLiteral(List<String> literals, StringBuilder run) {
+        if (run.length() >= 3) {
+            literals.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /**
+     * @param regexp A regular expression.
+     * @param start The position of a quantifier.
+     * @return The position after the quantifier and any lazy or possessive modifier, or -1 if it is unterminated.
+     */
+    private static int skipQuantifier(String regexp, int start) {
+        int i = start;
+        if (regexp.charAt(i) == '{') {
+            i = regexp.indexOf('}', i);
+            if (i < 0) {
+                return -1;
+            }
+        }
+        i++;
+        if (i < regexp.length() && (regexp.charAt(i) == '?' || regexp.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param regexp A regular expression.
+     * @param start The position of the '[' starting a character class.
+     * @return The position after the class, or -1 if it is unterminated.
+     */
+    private static int skipClass(String regexp, int start) {
+        int i = start + 1;
+        if (i < regexp.length() && regexp.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regexp.length() && regexp.charAt(i) == ']') {
+            i++;
+        }
+        int depth = 1;
+        while (i < regexp.length()) {
+            char c = regexp.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @param regexp A regular expression.
+     * @param start The position of the '(' starting a group.
+     * @return The position after the group, or -1 if it is unterminated.
+     */
+    private static int skipGroup(String regexp, int start) {
+        int i = start + 1;
+        int depth = 1;
+        while (i < regexp.length()) {
+            char c = regexp.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regexp, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @param bytes The bytes of a line, possibly ending with a newline.
+     * @param length The number of bytes.
+     * @return The line without its newline.
+     */
+    private static String decodeLine(byte[] bytes, int length) {
+        int end = length;
+        if (end > 0 && bytes[end - 1] == '\n') {
+            end--;
+        }
+        if (end > 0 && bytes[end - 1] == '\r') {
+            end--;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The lock held while the index of a job is looked up or built.
+     */
+    private static final class BuildLock {
+        /** The number of threads holding or waiting for the lock. Guarded by buildLocks. */
+        private int users;
+    }
+
+    /**
+     * Reader of UTF-8 lines keeping track of the byte position in the input, so lines can be found again by offset.
+     */
+    private static final class LineInput implements AutoCloseable {
+        /** The input. */
+        private final InputStream in;
+        /** The bytes of the line last read, including its newline. */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        /** The position in the input. */
+        private long position;
+
+        /**
+         * @param in An input stream at the start of a file.
+         */
+        LineInput(InputStream in) {
+            this(in, 0);
+        }
+
+        /**
+         * @param in An input stream.
+         * @param position The position of the stream in the file.
+         */
+        LineInput(InputStream in, long position) {
+            this.in = new BufferedInputStream(in, 65536);
+            this.position = position;
+        }
+
+        /**
+         * @return The next line, or null at the end of the input.
+         * @throws IOException If the input cannot be read.
+         */
+        String readLine() throws IOException {
+            line.reset();
+            int b;
+            while ((b = in.read()) >= 0) {
+                line.write(b);
+                if (b == '\n') {
+                    break;
+                }
+            }
+            if (line.size() == 0) {
+                return null;
+            }
+            position += line.size();
+            return decodeLine(getLastLine(), line.size());
+        }
+
+        /**
+         * @return A buffer starting with the bytes of the line last read, including its newline.
+         */
+        byte[] getLastLine() {
+            return line.toByteArray();
+        }
+
+        /**
+         * @return The position after the line last read.
+         */
+        long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * An input stream reading a random access file from its current position. Closing the stream does not close the
+     * file.
+     */
+    private static final class RandomAccessFileInputStream extends InputStream {
+        /** The file. */
+        private final RandomAccessFile file;
+
+        /**
+         * @param file The file.
+         */
+        RandomAccessFileInputStream(RandomAccessFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return file.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return file.read(b, off, len);
+        }
+    }
+}
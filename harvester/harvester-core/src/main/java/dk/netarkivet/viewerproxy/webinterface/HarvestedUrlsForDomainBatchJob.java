@@ -56,6 +56,10 @@ public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob {
     /** Metadata URL for crawl logs. */
     private static final String SETUP_URL_FORMAT = String.format("metadata://%s/crawl/logs/crawl.log",
             Settings.get(CommonSettings.ORGANIZATION));
+    /** The index of the URL component of a crawl.log line. */
+    static final int URL_PART_INDEX = 3;
+    /** The index of the discovery URL component of a crawl.log line. */
+    static final int DISCOVERY_URL_PART_INDEX = 5;
     /** The domain to extract crawl.log lines for. */
     final String domain;
 
@@ -120,32 +124,10 @@ public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob {
         try {
             for (line = arcreader.readLine(); line != null; line = arcreader.readLine()) {
 
-                // Parse a single crawl-log line into parts
-                // The parts are here separated by white space.
-                // part 4 of the crawl-line is the url component
-                // part 6 of the crawl-line is the discovery url component
-                // Cf. "http://crawler.archive.org/articles/user_manual
-                // /analysis.html#logs"
-
-                String[] parts = line.split("\\s+");
-                final int URL_PART_INDEX = 3;
-                final int DISCOVERY_URL_PART_INDEX = 5;
-                // The current crawl.log line is written to the outstream
-                // in two cases:
-                // A. If it has a URL component (4th component) and
-                // this URL belongs to the domain in question
-                // B. If it has a Discovery URL (6th component) and
-                // this URL belongs to the domain in question
-                if (parts.length > 3 && getDomainFromUrlPart(parts[URL_PART_INDEX]).equals(domain)) {
-                    os.write(line.getBytes("UTF-8"));
-                    os.write('\n');
-
-                } else if (parts.length > 5 && !parts[5].equals("-")
-                        && getDomainFromUrlPart(parts[DISCOVERY_URL_PART_INDEX]).equals(domain)) {
+                if (lineMatchesDomain(line, domain)) {
                     os.write(line.getBytes("UTF-8"));
                     os.write('\n');
                 }
-
             }
         } catch (IOException e) {
             throw new IOFailure("Unable to process (w)arc record", e);
@@ -162,12 +144,31 @@ public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob {
     }
 
     /**
-     * Return domain from urlpart, if feasibly. Return empty string otherwise.
+     * Check whether a crawl.log line refers to a domain. This is the case if the URL (4th component) or the
+     * discovery URL (6th component) of the line belongs to the domain.
+     * Cf. "http://crawler.archive.org/articles/user_manual/analysis.html#logs"
+     *
+     * @param line A crawl.log line.
+     * @param domain A domain name.
+     * @return true if the line refers to the domain.
+     */
+    static boolean lineMatchesDomain(String line, String domain) {
+        // The parts are here separated by white space.
+        String[] parts = line.split("\\s+");
+        if (parts.length > URL_PART_INDEX && getDomainFromUrlPart(parts[URL_PART_INDEX]).equals(domain)) {
+            return true;
+        }
+        return parts.length > DISCOVERY_URL_PART_INDEX && !parts[DISCOVERY_URL_PART_INDEX].equals("-")
+                && getDomainFromUrlPart(parts[DISCOVERY_URL_PART_INDEX]).equals(domain);
+    }
+
+    /**
+     * Find the domain of a URL component of a crawl.log line.
      *
-     * @param urlpart One of the URL part of the crawllog-line.
-     * @return domain from urlpart, if feasibly. Return empty string otherwise
+     * @param urlpart A URL.
+     * @return The domain of the URL, or the empty string if no domain can be extracted.
      */
-    private String getDomainFromUrlPart(String urlpart) {
+    static String getDomainFromUrlPart(String urlpart) {
         String domain = null;
         try {
             domain = DomainUtils.domainNameFromHostname(new FixedUURI(urlpart, true).getReferencedHost());
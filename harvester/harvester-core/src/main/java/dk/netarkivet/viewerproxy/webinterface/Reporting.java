@@ -23,7 +23,6 @@
 package dk.netarkivet.viewerproxy.webinterface;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
@@ -31,13 +30,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.Predicate;
@@ -57,6 +54,7 @@ import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DomainUtils;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SettingsFactory;
@@ -239,13 +237,19 @@ public class Reporting {
     }
 
     /**
-     * Submit a job to generate cdx for all metadata files for a job, and report result in a list.
+     * Submit a job to generate cdx for all metadata files for a job, and report result in a list. A nonempty result
+     * is cached like the result of the Hadoop job, so the batch job is only run once per job.
      *
      * @param jobid The job to get cdx for.
      * @return A list of cdx records.
      * @throws IOFailure On trouble generating the cdx
      */
     private static List<CDXRecord> getRecordsUsingBatch(long jobid) {
+        List<CDXRecord> cdxRecords = getCachedCDXRecords(jobid);
+        if (cdxRecords != null) {
+            log.info("Found {} cached records for jobid {}.", cdxRecords.size(), jobid);
+            return cdxRecords;
+        }
         FileBatchJob cdxJob = new ArchiveExtractCDXJob(false) {
             @Override
             public ArchiveBatchFilter getFilter() {
@@ -264,13 +268,15 @@ public class Reporting {
         BatchStatus status = ArcRepositoryClientFactory.getViewerInstance().batch(cdxJob,
                 Settings.get(CommonSettings.USE_REPLICA_ID));
         status.getResultFile().copyTo(f);
+        if (f.length() > 0) {
+            FileUtils.copyFile(f, getCDXCacheFile(jobid));
+        }
         List<CDXRecord> records;
         BufferedReader reader = null;
         try {
             reader = new BufferedReader(new FileReader(f));
             records = new ArrayList<CDXRecord>();
             for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                System.out.println(line);
                 String[] parts = line.split("\\s+");
                 CDXRecord record = new CDXRecord(parts);
                 records.add(record);
@@ -285,7 +291,8 @@ public class Reporting {
     }
 
     /**
-     * Submit a batch job to extract the part of a crawl log that is associated with the given domain and job.
+     * Extract the part of a crawl log that is associated with the given domain and job, i.e. the lines selected by
+     * {@link HarvestedUrlsForDomainBatchJob}. The lines are found in the {@link CrawlLogIndex} of the job.
      *
      * @param domain The domain to get crawl.log-lines for.
      * @param jobid The jobid to get the crawl.log-lines for.
@@ -295,9 +302,8 @@ public class Reporting {
     public static File getCrawlLogForDomainInJob(String domain, long jobid) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
         ArgumentNotValid.checkNotNullOrEmpty(domain, "String domain");
-        FileBatchJob urlsForDomainBatchJob = new HarvestedUrlsForDomainBatchJob(domain);
-        urlsForDomainBatchJob.processOnlyFilesMatching(getMetadataFilePatternForJobId(jobid));
-        return createSortedResultFile(urlsForDomainBatchJob);
+        CrawlLogIndex index = CrawlLogIndex.getIndex(jobid, Reporting::getSortedCrawlLog);
+        return index.getLinesForDomain(domain, line -> HarvestedUrlsForDomainBatchJob.lineMatchesDomain(line, domain));
     }
 
     /**
@@ -331,10 +337,29 @@ public class Reporting {
     public static File getCrawlLoglinesMatchingRegexp(long jobid, String regexp) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
         ArgumentNotValid.checkNotNullOrEmpty(regexp, "String regexp");
+        log.info("Filtering the crawl log of job {} with regexp {}", jobid, regexp);
+        return CrawlLogIndex.getIndex(jobid, Reporting::getSortedCrawlLog).getLinesMatching(regexp);
+    }
+
+    /**
+     * Fetch the whole crawl log of a job, for building its {@link CrawlLogIndex}. With the Hadoop backend, a crawl
+     * log cached by earlier versions is used if present.
+     *
+     * @param jobid The job.
+     * @return A new temporary file with the crawl log, sorted on timestamp.
+     */
+    private static File getSortedCrawlLog(long jobid) {
         if (Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND)) {
-            return getCrawlLogLinesUsingHadoop(jobid, regexp);
+            File cacheFile = getCrawlLogCache(jobid);
+            if (cacheFile.length() > 0) {
+                log.info("Using the cached crawl log {} for job {}", cacheFile.getAbsolutePath(), jobid);
+                File sortedFile = createTempResultFile(UUID.randomUUID().toString());
+                FileUtils.moveFile(cacheFile, sortedFile);
+                return sortedFile;
+            }
+            return getCrawlLogUsingHadoop(jobid);
         } else {
-            FileBatchJob crawlLogBatchJob = new CrawlLogLinesMatchingRegexp(regexp);
+            FileBatchJob crawlLogBatchJob = new CrawlLogLinesMatchingRegexp(".*");
             crawlLogBatchJob.processOnlyFilesMatching(getMetadataFilePatternForJobId(jobid));
             return createSortedResultFile(crawlLogBatchJob);
         }
@@ -352,54 +377,25 @@ public class Reporting {
 
 
     /**
-     * Using Hadoop, gets crawllog lines for a given jobID matching a given regular expression.
+     * Get the crawl log lines of a job whose seed belongs to the given domain or one of its subdomains. The lines are
+     * found in the {@link CrawlLogIndex} of the job.
      *
-     * @param jobID The ID for the job.
-     * @param regex The regular expression specifying files to process.
-     * @return a File with the matching lines.
+     * @param jobID The job.
+     * @param domain The domain.
+     * @return A file containing the crawl.log lines. This file is temporary, and should be deleted after use.
      */
-    private static File getCrawlLogLinesUsingHadoop(long jobID, String regex) {
-        File cacheFile = getCrawlLogFromCacheOrHdfs(jobID);
-        Pattern regexp = Pattern.compile(regex);
-        log.info("Filtering cache file {} with regexp {}", cacheFile.getAbsolutePath(), regex);
-        Predicate<String> stringPredicate = s -> regexp.matcher(s).matches();
-        return getFilteredFile(cacheFile, stringPredicate);
-    }
-
     //Called from .jsp
     public static File getCrawlLogLinesMatchingDomain(long jobID, String domain) {
         log.info("Finding matching crawl log lines for {} in job {}", domain, jobID);
-        File cacheFile = getCrawlLogFromCacheOrHdfs(jobID);
-        log.info("Finding matching crawl log lines for {} in job {} in file {}", domain, jobID, cacheFile.getAbsoluteFile());
+        CrawlLogIndex index = CrawlLogIndex.getIndex(jobID, Reporting::getSortedCrawlLog);
         Predicate<String> domainFilteringPredicate = s -> lineMatchesDomain(s, domain);
-        return getFilteredFile(cacheFile, domainFilteringPredicate);
-    }
-
-    private static File getFilteredFile(File cacheFile, Predicate<String> stringPredicate) {
-        final String uuid = UUID.randomUUID().toString();
-        File tempFile = createTempResultFile(uuid);
-        log.info("Unsorted results in {}." + tempFile.getAbsolutePath());
-        File sortedTempFile = createTempResultFile(uuid + "-sorted");
-        log.info("Sorted results in {}.", sortedTempFile.getAbsolutePath());
-        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath())) {
-            try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath())) {
-                String line;
-                while ((line = reader.readLine()) != null ) {
-                    Optional<String> result = Stream.of(line).filter(stringPredicate).findAny();
-                    if (result.isPresent()) {
-                        writer.write(result.get());
-                        writer.newLine();
-                    }
-                }
-            } catch (IOException e) {
-                throw new RuntimeException("Error reading file " + cacheFile.getAbsolutePath(), e);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Error writing to file " + tempFile.getAbsolutePath());
+        // Lines whose seed host is the domain or a subdomain share the domain name of the seed host
+        String seedDomain = DomainUtils.domainNameFromHostname(domain);
+        if (seedDomain != null) {
+            return index.getLinesForDomain(seedDomain, domainFilteringPredicate);
+        } else {
+            return index.getLinesMatching(domainFilteringPredicate);
         }
-        FileUtils.sortCrawlLogOnTimestamp(tempFile, sortedTempFile);
-        FileUtils.remove(tempFile);
-        return sortedTempFile;
     }
 
     private static List<String> getMatchingStringsFromFile(File cacheFile,
@@ -464,54 +460,44 @@ public class Reporting {
     }
 
     private static boolean lineMatchesDomain(String crawlLine, String domain) {
+        String host = getSeedHost(crawlLine);
+        if (host != null && (host.equals(domain) || host.endsWith("."+domain))) {
+            log.debug("Domain {} found in crawlline {}", domain, crawlLine);
+            return true;
+        } else {
+            log.debug("Domain {} not found in crawlline {}", domain, crawlLine);
+            return false;
+        }
+    }
+
+    /**
+     * Find the host of the seed of a crawl log line.
+     *
+     * @param crawlLine A crawl log line.
+     * @return The host of the seed, or null if the line has no valid seed.
+     */
+    static String getSeedHost(String crawlLine) {
         int urlElement = 10;
-        String urlS = crawlLine.split("\\s+")[urlElement];
+        String urlS = null;
         String[] schemes = {"http","https"};
         UrlValidator urlValidator = new UrlValidator(schemes);
         try {
+            urlS = crawlLine.split("\\s+")[urlElement];
             URL url = null;
             if (urlValidator.isValid(urlS)) {
                 url = new URL(urlS);
             } else if (urlValidator.isValid("http://" + urlS)) {
                 url = new URL("http://" + urlS);
             }
-            if (url.getHost().equals(domain) || url.getHost().endsWith("."+domain)) {
-                log.debug("Domain {} found in crawlline {}", domain, crawlLine);
-                return true;
-            } else {
-                log.debug("Domain {} not found in crawlline {}", domain, crawlLine);
-                return false;
-            }
+            return url.getHost();
         } catch (Exception e) {
             log.warn("Exception finding seed domain. No domain to match found in element {} of '{}' which is '{}'", urlElement, crawlLine, urlS, e);
-            return false;
+            return null;
         }
     }
 
 
 
-    private static File getCrawlLogFromCacheOrHdfs(long jobID) {
-        File cacheFile = getCrawlLogCache(jobID);
-        if (cacheFile.exists() && cacheFile.length() == 0) {
-            log.info("Overwriting empty cache file {}.", cacheFile.getAbsolutePath());
-        }
-        if (cacheFile.length()==0 || !cacheFile.exists()) { //The || part of this is strictly unnecessary
-            File outputFile = getCrawlLogUsingHadoop(jobID);
-            try {
-                log.info("Copying {} to {}", outputFile.getAbsolutePath(), cacheFile.getAbsolutePath());
-                org.apache.commons.io.FileUtils.copyFile(outputFile, cacheFile);
-                if (outputFile.delete()) {
-                    log.info("Deleted {}", outputFile.getAbsolutePath());
-                } else {
-                    log.warn("Could not delete {}", outputFile.getAbsolutePath());
-                }
-            } catch (IOException e) {
-                throw new RuntimeException((e));
-            }
-        }
-        return cacheFile;
-    }
-
     private static File getCrawlLogUsingHadoop(long jobID) {
         String metadataFileSearchPattern = getMetadataFilePatternForJobId(jobID);
         Configuration hadoopConf = HadoopJobUtils.getConf();
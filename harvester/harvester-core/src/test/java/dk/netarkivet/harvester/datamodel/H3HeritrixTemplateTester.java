@@ -2,9 +2,11 @@ package dk.netarkivet.harvester.datamodel;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -18,6 +20,7 @@ public class H3HeritrixTemplateTester {
 	String correctTemplateName = "crawler-beans_with_placeholders.cxml";
 	String incorrectTemplateName = "crawler-beans_no_placeholders.cxml";
 	String incorrectSignature = "crawler-beans_without_h3_signature.cxml";
+	String domainCrawlertrapsTemplateName = "crawler-beans_with_domain_crawlertraps.cxml";
 
 	@Test
 	public void testIsDeduplicationEnabled() throws IOException {
@@ -82,4 +85,51 @@ public class H3HeritrixTemplateTester {
 		}
 	}
 
+	@Test
+	public void testInsertDomainCrawlerTraps() throws IOException {
+		URL url = this.getClass().getClassLoader().getResource("heritrix3");
+	    File basedir = new File(url.getFile());
+		H3HeritrixTemplate template = new H3HeritrixTemplate(100L,
+				FileUtils.readFile(new File(basedir, domainCrawlertrapsTemplateName)));
+		template.insertDomainCrawlerTraps("netarkivet.dk", Arrays.asList(".*calendar.*", ".*/print/.*"));
+		template.insertDomainCrawlerTraps("kb.dk", Arrays.asList(".*\\?sort=.*"));
+
+		String beans = asString(template);
+		assertTrue("The traps of the first domain should be inserted as an entry of the domain map", beans.contains(
+				"<entry key=\"netarkivet.dk\">\n<list>\n<value>.*calendar.*</value>\n<value>.*/print/.*</value>\n"
+				+ "</list>\n</entry>\n"));
+		assertTrue("The traps of the second domain should be inserted as an entry of the domain map", beans.contains(
+				"<entry key=\"kb.dk\">\n<list>\n<value>.*\\?sort=.*</value>\n</list>\n</entry>\n"));
+		assertTrue("The placeholder should be kept for more domains",
+				beans.contains(H3HeritrixTemplate.DOMAIN_CRAWLERTRAPS_PLACEHOLDER));
+		assertFalse("Domain traps should not be inserted in the global list", beans.contains("crawlertraps from"));
+
+		template.removePlaceholders();
+		beans = asString(template);
+		assertFalse("The placeholder should be removed",
+				beans.contains(H3HeritrixTemplate.DOMAIN_CRAWLERTRAPS_PLACEHOLDER));
+		assertTrue("The inserted traps should be kept", beans.contains("<entry key=\"kb.dk\">"));
+	}
+
+	@Test
+	public void testInsertDomainCrawlerTrapsWithoutDomainPlaceholder() throws IOException {
+		URL url = this.getClass().getClassLoader().getResource("heritrix3");
+	    File basedir = new File(url.getFile());
+		H3HeritrixTemplate template = new H3HeritrixTemplate(100L,
+				FileUtils.readFile(new File(basedir, correctTemplateName)));
+		template.insertDomainCrawlerTraps("netarkivet.dk", Arrays.asList(".*calendar.*"));
+
+		String beans = asString(template);
+		assertTrue("The traps should be inserted in the global list", beans.contains(
+				"<!-- crawlertraps from netarkivet.dk -->\n<value>.*calendar.*</value>\n"
+				+ H3HeritrixTemplate.CRAWLERTRAPS_PLACEHOLDER));
+		assertFalse("There is no domain map to insert the traps into", beans.contains("<entry key="));
+	}
+
+	private static String asString(H3HeritrixTemplate template) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		template.writeTemplate(out);
+		return out.toString("UTF-8");
+	}
+
 }
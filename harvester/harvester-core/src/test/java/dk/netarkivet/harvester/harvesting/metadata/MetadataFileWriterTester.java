@@ -23,6 +23,7 @@
 package dk.netarkivet.harvester.harvesting.metadata;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
@@ -30,6 +31,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Assert;
 import org.junit.Before;
@@ -38,10 +40,16 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.TestName;
 import org.jwat.common.ANVLRecord;
+import org.jwat.warc.WarcReader;
+import org.jwat.warc.WarcReaderFactory;
+import org.jwat.warc.WarcRecord;
 
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.testutils.TestResourceUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 
 @SuppressWarnings({"unchecked", "rawtypes"})
 public class MetadataFileWriterTester {
@@ -112,6 +120,43 @@ public class MetadataFileWriterTester {
         }
     }
 
+    @Test
+    public void testMetadataFileWriterWarcCompressedInParallel() throws IOException {
+        ReloadSettings rs = new ReloadSettings();
+        rs.setUp();
+        try {
+            Settings.set(HarvesterSettings.METADATA_COMPRESSION, "true");
+            Settings.set(HarvesterSettings.METADATA_COMPRESSION_THREADS, "4");
+            File metafile = getOutputArcFile("42-metadata-1.warc.gz");
+            MetadataFileWriterWarc mdfw = (MetadataFileWriterWarc) MetadataFileWriterWarc.createWriter(metafile);
+            mdfw.insertInfoRecord(new ANVLRecord());
+            File[] logs = logsDir.listFiles();
+            for (File f : logs) {
+                mdfw.writeFileTo(f, "metadata://netarkivet.dk/crawl/logs/" + f.getName(), "text/plain");
+            }
+            mdfw.close();
+
+            // The records must be gzip members in the order they were written
+            WarcReader reader = WarcReaderFactory.getReaderCompressed(new FileInputStream(metafile));
+            try {
+                WarcRecord record = reader.getNextRecord();
+                Assert.assertEquals("warcinfo", record.header.warcTypeStr);
+                for (File f : logs) {
+                    record = reader.getNextRecord();
+                    Assert.assertEquals("metadata://netarkivet.dk/crawl/logs/" + f.getName(),
+                            record.header.warcTargetUriStr);
+                    Assert.assertArrayEquals(FileUtils.readBinaryFile(f),
+                            IOUtils.toByteArray(record.getPayloadContent()));
+                }
+                Assert.assertNull(reader.getNextRecord());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            rs.tearDown();
+        }
+    }
+
     /**
      * This is not run automatically, as this takes a long time to complete (15 seconds).
      */
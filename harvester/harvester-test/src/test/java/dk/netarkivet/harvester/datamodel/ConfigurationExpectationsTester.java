@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.harvester.datamodel.ConfigurationExpectations.Expectation;
+
+/**
+ * Unit tests for the ConfigurationExpectations class.
+ */
+public class ConfigurationExpectationsTester extends DataModelTestCase {
+
+    /** The configuration harvested in the tests. */
+    private static final String CONFIG_NAME = "fuld_dybde";
+
+    /**
+     * Test that the loaded table gives the same expectations as the domain history.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testLoad() {
+        DomainDAO dao = DomainDAO.getInstance();
+        Domain domain = dao.read("dr.dk");
+        DomainHistory history = domain.getHistory();
+        history.addHarvestInfo(makeHarvestInfo(1, 100000L, 1000, 10, StopReason.DOWNLOAD_COMPLETE));
+        history.addHarvestInfo(makeHarvestInfo(2, 200000L, 5000, 50, StopReason.OBJECT_LIMIT));
+        history.addHarvestInfo(makeHarvestInfo(3, 300000L, 3000, 30, StopReason.OBJECT_LIMIT));
+        dao.update(domain);
+
+        DomainConfiguration cfg = dao.read("dr.dk").getConfiguration(CONFIG_NAME);
+        long fromHistory = cfg.getExpectedNumberOfObjects(Constants.HERITRIX_MAXOBJECTS_INFINITY,
+                Constants.HERITRIX_MAXBYTES_INFINITY);
+
+        ConfigurationExpectations expectations = ConfigurationExpectations.getInstance();
+        assertNull("No expectation before the table is loaded", expectations.get(cfg.getID()));
+        expectations.load();
+        Expectation expectation = expectations.get(cfg.getID());
+        assertNotNull("Harvested configuration should have an expectation", expectation);
+        assertEquals("Should choose the biggest harvest since the last complete one", 50,
+                expectation.getCountObjectRetrieved());
+        assertEquals("Should have the stop reason of the biggest harvest", StopReason.OBJECT_LIMIT,
+                expectation.getStopReason());
+        assertEquals("Should give the same expectation as the domain history", fromHistory,
+                cfg.getExpectedNumberOfObjects(Constants.HERITRIX_MAXOBJECTS_INFINITY,
+                        Constants.HERITRIX_MAXBYTES_INFINITY));
+
+        dao.create(Domain.getDefaultDomain("expectations.dk"));
+        DomainConfiguration unharvested = dao.read("expectations.dk").getDefaultConfiguration();
+        assertFalse("Unharvested configuration should have no harvest info",
+                expectations.get(unharvested.getID()).hasHarvestInfo());
+    }
+
+    /**
+     * Test that the table is kept up to date as harvest info is inserted.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testAdd() {
+        ConfigurationExpectations expectations = ConfigurationExpectations.getInstance();
+        expectations.load();
+        DomainDAO dao = DomainDAO.getInstance();
+
+        HarvestInfo[] his = new HarvestInfo[] {makeHarvestInfo(1, 100000L, 3000, 30, StopReason.OBJECT_LIMIT),
+                makeHarvestInfo(2, 200000L, 2000, 20, StopReason.OBJECT_LIMIT),
+                makeHarvestInfo(3, 300000L, 1000, 10, StopReason.DOWNLOAD_COMPLETE),
+                makeHarvestInfo(4, 400000L, 4000, 40, StopReason.SIZE_LIMIT)};
+        for (HarvestInfo hi : his) {
+            Domain domain = dao.read("dr.dk");
+            domain.getHistory().addHarvestInfo(hi);
+            dao.update(domain);
+            HarvestInfo best = domain.getBestHarvestInfoExpectation(CONFIG_NAME);
+            Expectation expectation = expectations.get(domain.getConfiguration(CONFIG_NAME).getID());
+            assertEquals("Should keep the same best harvest info as the domain history after " + hi,
+                    best.getCountObjectRetrieved(), expectation.getCountObjectRetrieved());
+            assertEquals("Should keep the same stop reason as the domain history after " + hi, best.getStopReason(),
+                    expectation.getStopReason());
+        }
+
+        Domain domain = dao.read("dr.dk");
+        domain.getHistory().addHarvestInfo(makeHarvestInfo(5, 50000L, 9000, 90, StopReason.DOWNLOAD_COMPLETE));
+        dao.update(domain);
+        assertNull("Harvest info older than the newest should make the expectation unknown",
+                expectations.get(domain.getConfiguration(CONFIG_NAME).getID()));
+        assertTrue("Expected number of objects should still be found from the domain history",
+                domain.getConfiguration(CONFIG_NAME).getExpectedNumberOfObjects(
+                        Constants.HERITRIX_MAXOBJECTS_INFINITY, Constants.HERITRIX_MAXBYTES_INFINITY) >= 40);
+    }
+
+    private static HarvestInfo makeHarvestInfo(long harvestId, long time, long bytes, long objects,
+            StopReason stopReason) {
+        return new HarvestInfo(harvestId, "dr.dk", CONFIG_NAME, new Date(time), bytes, objects, stopReason);
+    }
+}
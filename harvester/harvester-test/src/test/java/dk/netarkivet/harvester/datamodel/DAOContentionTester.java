@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Contention benchmark for the DB DAOs. A number of threads act as GUI and scheduler readers against the same DAO
+ * singletons, and the read throughput is logged for 1 to {@link #MAX_THREADS} concurrent readers.
+ */
+@Category(SlowTest.class)
+public class DAOContentionTester extends DataModelTestCase {
+
+    private static final Logger log = LoggerFactory.getLogger(DAOContentionTester.class);
+
+    /** The highest number of concurrent readers measured. */
+    private static final int MAX_THREADS = 8;
+
+    /** Number of DAO calls done by each reader. */
+    private static final int CALLS_PER_THREAD = 50;
+
+    @Test
+    public void testConcurrentReadThroughput() throws Exception {
+        createTestJobs(1L, 14L);
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            long start = System.nanoTime();
+            runReaders(threads);
+            long elapsed = System.nanoTime() - start;
+            double callsPerSecond = (threads * CALLS_PER_THREAD) / (elapsed / 1e9);
+            log.info("{} concurrent readers: {} DAO calls/second", threads, String.format("%.1f", callsPerSecond));
+        }
+    }
+
+    /**
+     * Concurrent job creation must hand out distinct ids, even though creation is no longer synchronized.
+     */
+    @Test
+    public void testConcurrentJobCreateGivesDistinctIds() throws Exception {
+        createTestJobs(1L, 14L);
+        final Job template = JobDAO.getInstance().read(1L);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Long>> ids = new ArrayList<Future<Long>>();
+            for (int i = 0; i < 8; i++) {
+                ids.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        Job job = new Job(template.getOrigHarvestDefinitionID(),
+                                template.getDomainConfigurationMap(), "test", false,
+                                Constants.DEFAULT_MAX_OBJECTS, Constants.DEFAULT_MAX_BYTES,
+                                Constants.DEFAULT_MAX_JOB_RUNNING_TIME, JobStatus.NEW, "default_orderxml",
+                                template.getOrderXMLdoc(), "netarkivet.dk", 0, null);
+                        JobDAO.getInstance().create(job);
+                        return job.getJobID();
+                    }
+                }));
+            }
+            Set<Long> distinct = new HashSet<Long>();
+            for (Future<Long> id : ids) {
+                distinct.add(id.get());
+            }
+            assertEquals("Every created job should get its own id", ids.size(), distinct.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Without synchronized update methods, an update based on a stale edition must still be refused.
+     */
+    @Test
+    public void testConcurrentUpdatesAreDetectedByEdition() throws Exception {
+        DomainDAO dao = DomainDAO.getInstance();
+        final Domain first = dao.read("netarkivet.dk");
+        final Domain second = dao.read("netarkivet.dk");
+        first.setComments("first");
+        second.setComments("second");
+        dao.update(first);
+        try {
+            dao.update(second);
+            throw new AssertionError("Updating a stale edition should fail");
+        } catch (PermissionDenied e) {
+            // expected
+        }
+        assertEquals("The first update should have won", "first", dao.read("netarkivet.dk").getComments());
+    }
+
+    /**
+     * Run the given number of reader threads against the DAOs, half of them simulating the GUI and half of them
+     * simulating the scheduler, and wait for them all to finish.
+     *
+     * @param threads the number of concurrent readers
+     */
+    private void runReaders(int threads) throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++) {
+                final boolean guiReader = (i % 2 == 0);
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            startSignal.await();
+                            for (int call = 0; call < CALLS_PER_THREAD; call++) {
+                                if (guiReader) {
+                                    readLikeGui();
+                                } else {
+                                    readLikeScheduler();
+                                }
+                            }
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    }
+                }));
+            }
+            startSignal.countDown();
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertNull("No reader should fail", failure.get());
+    }
+
+    private void readLikeGui() {
+        DomainDAO domainDAO = DomainDAO.getInstance();
+        assertTrue(domainDAO.exists("netarkivet.dk"));
+        assertEquals("netarkivet.dk", domainDAO.read("netarkivet.dk").getName());
+        Iterator<HarvestDefinition> hds = HarvestDefinitionDAO.getInstance().getAllHarvestDefinitions();
+        assertTrue(hds.hasNext());
+    }
+
+    private void readLikeScheduler() {
+        Iterator<Job> jobs = JobDAO.getInstance().getAll(JobStatus.NEW);
+        while (jobs.hasNext()) {
+            Map<String, String> configs = jobs.next().getDomainConfigurationMap();
+            assertTrue(configs.size() > 0);
+        }
+        assertTrue(HarvestDefinitionDAO.getInstance().exists(1L));
+    }
+}
@@ -22,6 +22,11 @@
  */
 package dk.netarkivet.harvester.datamodel;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.After;
@@ -30,6 +35,8 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
 import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
+import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
 import dk.netarkivet.harvester.harvesting.monitor.StartedJobInfo;
 
 @SuppressWarnings({"unused"})
@@ -60,4 +67,76 @@ public class RunningJobsInfoDAOTester extends DataModelTestCase {
         dao.removeInfoForJob(42L);
         // jobDAO.storeFrontierReport(filterId, report);
     }
+
+    @Category(SlowTest.class)
+    @Test
+    public void testStoreKeepsLatestAndSamples() {
+        RunningJobsInfoDAO dao = RunningJobsInfoDAO.getInstance();
+        for (int i = 1; i <= 5; i++) {
+            StartedJobInfo sji = new StartedJobInfo("harvest", 43L);
+            sji.setElapsedSeconds(i * 60);
+            sji.setDownloadedFilesCount(i * 100);
+            dao.store(sji);
+        }
+        // Available before being written
+        assertEquals(500, dao.getMostRecentByJobId(43L).getDownloadedFilesCount());
+
+        // Only the first record is sampled within the history sample rate
+        StartedJobInfo[] history = dao.getFullJobHistory(43L);
+        assertEquals(1, history.length);
+        assertEquals(60L, (long) history[0].getElapsedSeconds());
+        StartedJobInfo[] recent = dao.getMostRecentByJobId(43L, 0, 10);
+        assertEquals(1, recent.length);
+        assertEquals(100, recent[0].getDownloadedFilesCount());
+
+        Map<String, List<StartedJobInfo>> byHarvest = dao.getMostRecentByHarvestName();
+        assertNotNull(byHarvest.get("harvest"));
+        assertEquals(500, byHarvest.get("harvest").get(0).getDownloadedFilesCount());
+
+        assertEquals(2, dao.removeInfoForJob(43L));
+    }
+
+    @Category(SlowTest.class)
+    @Test
+    public void testStoreFrontierReportChanges() {
+        RunningJobsInfoDBDAO dao = (RunningJobsInfoDBDAO) RunningJobsInfoDAO.getInstance();
+        dao.storeFrontierReport("filter", makeReport(1000L, "a.dk", 1, "b.dk", 2, "c.dk", 3), 44L);
+        dao.storeFrontierReport("filter", makeReport(2000L, "a.dk", 1, "b.dk", 5, "d.dk", 4), 44L);
+        dao.flush();
+
+        InMemoryFrontierReport report = dao.getFrontierReport(44L, "filter");
+        assertEquals(2000L, report.getTimestamp());
+        assertEquals(3, report.getSize());
+        assertEquals(1, report.getLineForDomain("a.dk").getTotalEnqueues());
+        assertEquals(5, report.getLineForDomain("b.dk").getTotalEnqueues());
+        assertEquals(null, report.getLineForDomain("c.dk"));
+        assertEquals(4, report.getLineForDomain("d.dk").getTotalEnqueues());
+
+        // Written in place of the previous report
+        dao.storeFrontierReport("filter", makeReport(3000L, "d.dk", 6), 44L);
+        dao.flush();
+        report = dao.getFrontierReport(44L, "filter");
+        assertEquals(3000L, report.getTimestamp());
+        assertEquals(1, report.getSize());
+        assertEquals(6, report.getLineForDomain("d.dk").getTotalEnqueues());
+
+        assertEquals(1, dao.deleteFrontierReports(44L));
+    }
+
+    /**
+     * @param timestamp the report timestamp
+     * @param domainsAndEnqueues pairs of domain name and total enqueues
+     * @return a report with a line per domain
+     */
+    private static InMemoryFrontierReport makeReport(long timestamp, Object... domainsAndEnqueues) {
+        InMemoryFrontierReport report = new InMemoryFrontierReport("44");
+        report.setTimestamp(timestamp);
+        for (int i = 0; i < domainsAndEnqueues.length; i += 2) {
+            FrontierReportLine line = new FrontierReportLine();
+            line.setDomainName((String) domainsAndEnqueues[i]);
+            line.setTotalEnqueues((Integer) domainsAndEnqueues[i + 1]);
+            report.addLine(line);
+        }
+        return report;
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.harvester.harvesting.distribute.UploadStatistics;
+
+/**
+ * Tests of the concurrent upload of archive files.
+ */
+public class ArchiveFileUploaderTester {
+
+    private static final File WORKING_DIR = new File("./tests/dk/netarkivet/harvester/harvesting/uploader");
+
+    private List<File> files;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.removeRecursively(WORKING_DIR);
+        FileUtils.createDir(WORKING_DIR);
+        files = new ArrayList<File>();
+        for (int i = 0; i < 8; i++) {
+            File f = new File(WORKING_DIR, "file" + i + ".warc");
+            FileUtils.writeBinaryFile(f, new byte[100]);
+            files.add(f);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(WORKING_DIR);
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() {
+        SlowClient client = new SlowClient(0);
+        ArchiveFileUploader uploader = new ArchiveFileUploader(client, 3);
+        Map<File, Exception> failures = uploader.upload(files);
+        assertTrue("No upload should fail, but got " + failures, failures.isEmpty());
+        assertEquals("Every file should be stored", files.size(), client.stored.get());
+        assertTrue("No more than 3 uploads should run at once, but saw " + client.maxActive.get(),
+                client.maxActive.get() <= 3);
+        assertTrue("Uploads should run concurrently", client.maxActive.get() > 1);
+
+        UploadStatistics statistics = uploader.getStatistics();
+        assertEquals(files.size(), statistics.getUploadedFiles());
+        assertEquals(0, statistics.getFailedFiles());
+        assertEquals(files.size() * 100L, statistics.getUploadedBytes());
+    }
+
+    @Test
+    public void testFailedUploadsAreNotRepeated() {
+        SlowClient client = new SlowClient(1);
+        ArchiveFileUploader uploader = new ArchiveFileUploader(client, 2);
+        uploader.upload(files);
+        for (File file : files) {
+            assertEquals("The client does its own retries, so each file should be stored once", Integer.valueOf(1),
+                    client.attempts.get(file));
+        }
+    }
+
+    @Test
+    public void testFailuresAreReportedInOrder() {
+        SlowClient client = new SlowClient(1);
+        ArchiveFileUploader uploader = new ArchiveFileUploader(client, 4);
+        Map<File, Exception> failures = uploader.upload(files);
+        assertEquals("Every upload should fail", files, new ArrayList<File>(failures.keySet()));
+        for (Exception e : failures.values()) {
+            assertTrue("The last failure should be reported", e instanceof IOFailure);
+        }
+        assertEquals(files.size(), uploader.getStatistics().getFailedFiles());
+        assertEquals(0, uploader.getStatistics().getUploadedFiles());
+    }
+
+    /**
+     * A client that takes a while to store a file, fails the first attempts at storing each file and tracks how many
+     * stores run at once. Like the real client, stored files are deleted.
+     */
+    private static class SlowClient implements HarvesterArcRepositoryClient {
+
+        private final int failuresPerFile;
+        private final Map<File, Integer> attempts = new HashMap<File, Integer>();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final AtomicInteger stored = new AtomicInteger();
+
+        SlowClient(int failuresPerFile) {
+            this.failuresPerFile = failuresPerFile;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void store(File file) {
+            int now = active.incrementAndGet();
+            try {
+                int seen;
+                do {
+                    seen = maxActive.get();
+                } while (now > seen && !maxActive.compareAndSet(seen, now));
+                Thread.sleep(50);
+                synchronized (attempts) {
+                    Integer previous = attempts.get(file);
+                    int attempt = (previous == null ? 0 : previous) + 1;
+                    attempts.put(file, attempt);
+                    if (attempt <= failuresPerFile) {
+                        throw new IOFailure("Attempt " + attempt + " at storing " + file + " failed");
+                    }
+                }
+                FileUtils.remove(file);
+                stored.incrementAndGet();
+            } catch (InterruptedException e) {
+                throw new IOFailure("Interrupted", e);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+}
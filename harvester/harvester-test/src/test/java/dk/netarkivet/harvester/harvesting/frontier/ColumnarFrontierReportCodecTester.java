@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link ColumnarFrontierReportCodec} class.
+ */
+public class ColumnarFrontierReportCodecTester {
+
+    @Test
+    public void testSnapshotRoundTrip() {
+        FrontierReportLine[] lines = makeLines(100);
+        lines[3].setLastPeekUri(null);
+        FrontierReportLine[] decoded = ColumnarFrontierReportCodec.decode(ColumnarFrontierReportCodec.encode(lines));
+        assertEquals(lines.length, decoded.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertSameLine(lines[i], decoded[i]);
+        }
+        assertNull(decoded[3].getLastPeekUri());
+    }
+
+    @Test
+    public void testDeltaIsSmallAndAppliesToBase() {
+        FrontierReportLine[] base = makeLines(1000);
+        FrontierReportLine[] current = makeLines(1001);
+        current[10].setTotalEnqueues(123456L);
+        current[20].setLastQueuedUri("http://changed.example.org/");
+        List<FrontierReportLine> withoutFirst = new ArrayList<FrontierReportLine>();
+        for (int i = 1; i < current.length; i++) {
+            withoutFirst.add(current[i]);
+        }
+        current = withoutFirst.toArray(new FrontierReportLine[withoutFirst.size()]);
+
+        byte[] delta = ColumnarFrontierReportCodec.encodeDelta(base, current);
+        assertTrue("The delta should be much smaller than a full snapshot",
+                delta.length < ColumnarFrontierReportCodec.encode(current).length / 10);
+
+        InMemoryFrontierReport expected = toReport(current);
+        InMemoryFrontierReport report = ColumnarFrontierReportCodec.toReport("42", 1000L,
+                ColumnarFrontierReportCodec.encode(base), delta);
+        assertEquals(1000L, report.getTimestamp());
+        assertEquals(expected.getSize(), report.getSize());
+        for (FrontierReportLine line : expected.getLines()) {
+            assertSameLine(line, report.getLineForDomain(line.getDomainName()));
+        }
+        assertNull(report.getLineForDomain("domain0.dk"));
+    }
+
+    @Test
+    public void testIdenticalReportsEncodeIdentically() {
+        assertArrayEquals(ColumnarFrontierReportCodec.encodeUncompressed(makeLines(50)),
+                ColumnarFrontierReportCodec.encodeUncompressed(makeLines(50)));
+    }
+
+    private static InMemoryFrontierReport toReport(FrontierReportLine[] lines) {
+        InMemoryFrontierReport report = new InMemoryFrontierReport("42");
+        for (FrontierReportLine line : lines) {
+            report.addLine(line);
+        }
+        return report;
+    }
+
+    private static FrontierReportLine[] makeLines(int count) {
+        FrontierReportLine[] lines = new FrontierReportLine[count];
+        for (int i = 0; i < count; i++) {
+            FrontierReportLine line = new FrontierReportLine();
+            line.setDomainName("domain" + i + ".dk");
+            line.setCurrentSize(i * 3);
+            line.setPrecedence(1);
+            line.setTotalEnqueues(10000 - i);
+            line.setSessionBalance(-i);
+            line.setLastCost(1.0);
+            line.setAverageCost(1.5);
+            line.setLastDequeueTime("20181010101010");
+            line.setWakeTime("");
+            line.setTotalSpend(i);
+            line.setTotalBudget(-1);
+            line.setErrorCount(0);
+            line.setLastPeekUri("http://domain" + i + ".dk/page");
+            line.setLastQueuedUri("http://domain" + i + ".dk/next");
+            lines[i] = line;
+        }
+        return lines;
+    }
+
+    private static void assertSameLine(FrontierReportLine expected, FrontierReportLine actual) {
+        assertEquals(expected.getDomainName(), actual.getDomainName());
+        assertEquals(expected.getCurrentSize(), actual.getCurrentSize());
+        assertEquals(expected.getPrecedence(), actual.getPrecedence());
+        assertEquals(expected.getTotalEnqueues(), actual.getTotalEnqueues());
+        assertEquals(expected.getSessionBalance(), actual.getSessionBalance());
+        assertEquals(expected.getLastCost(), actual.getLastCost(), 0.0);
+        assertEquals(expected.getAverageCost(), actual.getAverageCost(), 0.0);
+        assertEquals(expected.getLastDequeueTime(), actual.getLastDequeueTime());
+        assertEquals(expected.getWakeTime(), actual.getWakeTime());
+        assertEquals(expected.getTotalSpend(), actual.getTotalSpend());
+        assertEquals(expected.getTotalBudget(), actual.getTotalBudget());
+        assertEquals(expected.getErrorCount(), actual.getErrorCount());
+        assertEquals(expected.getLastPeekUri(), actual.getLastPeekUri());
+        assertEquals(expected.getLastQueuedUri(), actual.getLastQueuedUri());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit tests for the {@link FullFrontierReport} class and the filters working on it.
+ */
+public class FullFrontierReportTester {
+
+    private static final Logger log = LoggerFactory.getLogger(FullFrontierReportTester.class);
+
+    private static final File WORKING_DIR = new File("./tests/dk/netarkivet/harvester/harvesting/frontier/working");
+
+    ReloadSettings rs = new ReloadSettings();
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        FileUtils.createDir(WORKING_DIR);
+        Settings.set(CommonSettings.CACHE_DIR, WORKING_DIR.getPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.removeRecursively(WORKING_DIR);
+        rs.tearDown();
+    }
+
+    @Test
+    public void testParseAndLookup() {
+        FullFrontierReport report = FullFrontierReport.parseContentsAsString("job1", makeReport(500));
+        try {
+            assertEquals(500, report.getSize());
+            FrontierReportLine line = report.getLineForDomain("domain42.dk");
+            assertEquals("domain42.dk", line.getDomainName());
+            assertEquals(42L % 5, line.getCurrentSize());
+            assertEquals(1000L - 42L, line.getTotalEnqueues());
+            assertEquals("http://domain42.dk/peek", line.getLastPeekUri());
+            assertNull(report.getLineForDomain("unknown.dk"));
+        } finally {
+            report.dispose();
+        }
+    }
+
+    @Test
+    public void testFiltersMatchFullSort() {
+        FullFrontierReport report = FullFrontierReport.parseContentsAsString("job2", makeReport(2000));
+        try {
+            TopTotalEnqueuesFilter top = new TopTotalEnqueuesFilter();
+            top.init(new String[] {"25"});
+            List<FrontierReportLine> expected = new ArrayList<FrontierReportLine>();
+            FullFrontierReport.ReportIterator iter = report.iterateOnTotalEnqueues();
+            while (iter.hasNext() && expected.size() < 25) {
+                FrontierReportLine l = iter.next();
+                if (l.getCurrentSize() > 0 && l.getSessionBalance() > 0
+                        && (l.getTotalBudget() == Constants.HERITRIX_MAXOBJECTS_INFINITY
+                                || l.getTotalSpend() < l.getTotalBudget())) {
+                    expected.add(l);
+                }
+            }
+            assertDomains(expected, top.process(report).getLines());
+
+            ExhaustedQueuesFilter exhausted = new ExhaustedQueuesFilter();
+            exhausted.init(new String[] {"10"});
+            for (FrontierReportLine l : exhausted.process(report).getLines()) {
+                assertEquals(0L, l.getCurrentSize());
+            }
+
+            RetiredQueuesFilter retired = new RetiredQueuesFilter();
+            retired.init(new String[] {"10"});
+            FrontierReportLine[] retiredLines = retired.process(report).getLines();
+            assertTrue(retiredLines.length > 0);
+            for (FrontierReportLine l : retiredLines) {
+                assertTrue(l.getTotalBudget() >= 0 && l.getTotalSpend() >= l.getTotalBudget());
+            }
+        } finally {
+            report.dispose();
+        }
+    }
+
+    @Test
+    public void testSpillToMappedFile() {
+        Settings.set(HarvesterSettings.FRONTIER_REPORT_OFF_HEAP_LIMIT, "0");
+        FullFrontierReport report = FullFrontierReport.parseContentsAsString("job3", makeReport(5000));
+        try {
+            assertTrue("The report should be spilled to disk", report.getSpilledBytes() > 0);
+            assertEquals("domain4999.dk", report.getLineForDomain("domain4999.dk").getDomainName());
+            FullFrontierReport.ReportIterator iter = report.iterateOnDomainName();
+            String previous = "";
+            while (iter.hasNext()) {
+                String domain = iter.next().getDomainName();
+                assertTrue(previous.compareTo(domain) < 0);
+                previous = domain;
+            }
+        } finally {
+            report.dispose();
+        }
+        assertTrue(!report.getStorageDir().exists());
+    }
+
+    /**
+     * Logs parse time and footprint of a report with many queues.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testLargeReportFootprint() {
+        String contents = makeReport(500000);
+        long start = System.currentTimeMillis();
+        FullFrontierReport report = FullFrontierReport.parseContentsAsString("job4", contents);
+        try {
+            long parsed = System.currentTimeMillis();
+            TopTotalEnqueuesFilter top = new TopTotalEnqueuesFilter();
+            top.init(new String[] {"200"});
+            assertEquals(200, top.process(report).getSize());
+            log.info("Parsed {} queues in {} ms, top 200 in {} ms, footprint {} bytes ({} spilled)",
+                    report.getSize(), parsed - start, System.currentTimeMillis() - parsed, report.getFootprint(),
+                    report.getSpilledBytes());
+        } finally {
+            report.dispose();
+        }
+    }
+
+    private static void assertDomains(List<FrontierReportLine> expected, FrontierReportLine[] actual) {
+        List<String> expectedDomains = new ArrayList<String>();
+        for (FrontierReportLine l : expected) {
+            expectedDomains.add(l.getDomainName());
+        }
+        List<String> actualDomains = new ArrayList<String>();
+        for (FrontierReportLine l : actual) {
+            actualDomains.add(l.getDomainName());
+        }
+        assertEquals(expectedDomains, actualDomains);
+    }
+
+    /**
+     * Builds an Heritrix 3 frontier report with the given number of queues, in random order.
+     */
+    private static String makeReport(int queues) {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < queues; i++) {
+            long budget = (i % 3 == 0) ? -1 : 100;
+            long spend = i % 150;
+            lines.add("domain" + i + ".dk 1 " + (i % 5) + " " + (1000 - (i % 1000)) + " " + (i % 4) + " 1(1.0) "
+                    + "- - " + spend + "/" + budget + " 0 http://domain" + i + ".dk/peek http://domain" + i
+                    + ".dk/queued");
+        }
+        Collections.shuffle(lines, new java.util.Random(42L));
+        StringBuilder sb = new StringBuilder("queue precedence currentSize totalEnqueues sessionBalance lastCost"
+                + "(averageCost) lastDequeueTime wakeTime totalSpend/totalBudget errorCount lastPeekUri"
+                + " lastQueuedUri\n");
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
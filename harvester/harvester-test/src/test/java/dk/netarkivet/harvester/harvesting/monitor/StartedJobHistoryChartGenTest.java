@@ -23,6 +23,8 @@
 package dk.netarkivet.harvester.harvesting.monitor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.Color;
 import java.io.BufferedReader;
@@ -30,6 +32,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -138,4 +141,57 @@ public class StartedJobHistoryChartGenTest {
         }
     }
 
+    /**
+     * Tests {@link StartedJobHistorySeries#selectPoints(double[], double[], int, int)}
+     */
+    @Test
+    public final void testSelectPoints() {
+        double[] x = new double[10000];
+        double[] y = new double[10000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = i;
+            y[i] = Math.sin(i / 300.0);
+        }
+        y[5000] = 50;
+
+        int[] selected = StartedJobHistorySeries.selectPoints(x, y, x.length, 100);
+        assertEquals(100, selected.length);
+        assertEquals(0, selected[0]);
+        assertEquals(x.length - 1, selected[99]);
+        assertTrue("The peak should be kept", Arrays.binarySearch(selected, 5000) >= 0);
+        for (int i = 1; i < selected.length; i++) {
+            assertTrue(selected[i] > selected[i - 1]);
+        }
+
+        assertEquals(3, StartedJobHistorySeries.selectPoints(x, y, 3, 100).length);
+    }
+
+    /**
+     * Tests that {@link StartedJobHistorySeries} only adds new records, and keeps the number of points down.
+     */
+    @Test
+    public final void testHistorySeries() {
+        StartedJobHistorySeries series = new StartedJobHistorySeries(50);
+        long elapsedSeconds = 0;
+        for (int i = 0; i < 100; i++) {
+            StartedJobInfo[] infos = new StartedJobInfo[37];
+            for (int j = 0; j < infos.length; j++) {
+                elapsedSeconds += 10;
+                infos[j] = new StartedJobInfo("harvest", 1);
+                infos[j].setElapsedSeconds(elapsedSeconds);
+                infos[j].setProgress(elapsedSeconds / 370.0);
+                infos[j].setQueuedFilesCount(elapsedSeconds * 7 % 1000);
+            }
+            assertTrue(series.add(infos));
+            assertFalse("Records already added should be ignored", series.add(infos));
+        }
+        assertEquals(elapsedSeconds, series.getLastElapsedSeconds());
+
+        double[][] points = series.getVisible();
+        assertTrue(points[0].length <= 100);
+        assertEquals(10.0, points[0][0], 0);
+        assertEquals(elapsedSeconds, points[0][points[0].length - 1], 0);
+        assertTrue(Arrays.deepEquals(points, series.getVisible()));
+    }
+
 }
@@ -0,0 +1,188 @@
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.DataModelTestCase;
+import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.HarvestDefinition;
+import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
+import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobTest;
+import dk.netarkivet.harvester.datamodel.TestInfo;
+
+public class BinPackingJobGeneratorTest extends DataModelTestCase {
+
+    /**
+     * Test that jobs are filled evenly up to the budget, and split over at least as many jobs as there are harvesters.
+     */
+    @Test
+    public void testGetObjectBudget() {
+        Settings.set(HarvesterSettings.JOBGEN_BIN_PACKING_MAX_EXPECTED_OBJECTS, "1000");
+        Settings.set(HarvesterSettings.JOBGEN_BIN_PACKING_HARVESTERS, "4");
+        BinPackingJobGenerator jobGen = new BinPackingJobGenerator();
+        assertEquals("Should fill ten jobs", 1000, jobGen.getObjectBudget(10000, 500));
+        assertEquals("Should split evenly over eleven jobs", 910, jobGen.getObjectBudget(10001, 500));
+        assertEquals("Should split evenly over the harvesters", 250, jobGen.getObjectBudget(1000, 100));
+        assertEquals("Should make room for the largest configuration", 600, jobGen.getObjectBudget(1000, 600));
+        assertEquals("Should never exceed the budget", 1000, jobGen.getObjectBudget(3000, 2000));
+    }
+
+    /**
+     * Test that the size of the configurations is left to the packing, not checked when accepting a configuration.
+     */
+    @Test
+    public void testCanAcceptIgnoresRelativeSize() {
+        // Note: The configurations have these expectations:
+        // 500, 1400, 2400, 4000
+        DomainConfiguration dc1 = TestInfo.createConfig("kb.dk", "fuld_dybde", 112);
+        DomainConfiguration dc2 = TestInfo.createConfig("netarkivet.dk", "fuld_dybde", 1112);
+        DomainConfiguration dc3 = TestInfo.createConfig("statsbiblioteket.dk", "fuld_dybde", 2223);
+        Settings.set(HarvesterSettings.JOBS_MAX_RELATIVE_SIZE_DIFFERENCE, "3");
+        Settings.set(HarvesterSettings.JOBS_MIN_ABSOLUTE_SIZE_DIFFERENCE, "0");
+        Job job = JobTest.createDefaultJob(dc1);
+        job.addConfiguration(dc2);
+        assertTrue(new BinPackingJobGenerator().canAccept(job, dc3, null));
+    }
+
+    /**
+     * Test that a partition which would fit into one job is split over at least as many jobs as there are harvesters.
+     */
+    @Test
+    public void testPackDomainConfigurationsUsesAllHarvesters() {
+        Settings.set(HarvesterSettings.JOBGEN_BIN_PACKING_MAX_EXPECTED_OBJECTS, "100000");
+        Settings.set(HarvesterSettings.JOBGEN_BIN_PACKING_MAX_EXPECTED_BYTES, Long.toString(Long.MAX_VALUE));
+        Settings.set(HarvesterSettings.JOBGEN_BIN_PACKING_HARVESTERS, "2");
+        List<Job> jobs = assertPackedFirstFitDecreasing(new BinPackingJobGenerator());
+        assertTrue("Should make a job for each harvester, but got " + jobs.size(), jobs.size() >= 2);
+    }
+
+    /**
+     * Test that the configurations are packed largest first into the first job with room for them, without exceeding
+     * the expected number of objects or bytes of a job.
+     */
+    @Test
+    public void testPackDomainConfigurationsWithinLimits() {
+        // Note: The configurations have these expectations:
+        // 500, 1400, 2400, 4000
+        // so they cannot all fit into one job of 5000 objects
+        Settings.set(HarvesterSettings.JOBGEN_BIN_PACKING_MAX_EXPECTED_OBJECTS, "5000");
+        Settings.set(HarvesterSettings.JOBGEN_BIN_PACKING_HARVESTERS, "1");
+        HarvestDefinition hd = createOneOrderXmlHarvest();
+        long largestBytes = 0;
+        for (Iterator<DomainConfiguration> it = hd.getDomainConfigurations(); it.hasNext(); ) {
+            largestBytes = Math.max(largestBytes,
+                    it.next().getExpectedNumberOfBytes(hd.getMaxCountObjects(), hd.getMaxBytes()));
+        }
+        // Every configuration fits into a job on its own, but the bytes limit the jobs too
+        Settings.set(HarvesterSettings.JOBGEN_BIN_PACKING_MAX_EXPECTED_BYTES, Long.toString(largestBytes));
+        List<Job> jobs = assertPackedFirstFitDecreasing(new BinPackingJobGenerator(), hd);
+        assertTrue("Should split the configurations over more than one job", jobs.size() > 1);
+    }
+
+    /**
+     * Pack the configurations of a new harvest definition where all configurations use the same order.xml.
+     *
+     * @see #assertPackedFirstFitDecreasing(BinPackingJobGenerator, HarvestDefinition)
+     */
+    private List<Job> assertPackedFirstFitDecreasing(BinPackingJobGenerator jobGen) {
+        return assertPackedFirstFitDecreasing(jobGen, createOneOrderXmlHarvest());
+    }
+
+    /**
+     * Pack the configurations of a harvest definition, and check that each job holds the configurations a
+     * first-fit-decreasing packing within the object budget and the bytes limit puts there.
+     *
+     * @param jobGen the generator to pack with.
+     * @param hd a stored harvest definition.
+     * @return the jobs made.
+     */
+    private List<Job> assertPackedFirstFitDecreasing(BinPackingJobGenerator jobGen, HarvestDefinition hd) {
+        long maxBytes = Settings.getLong(HarvesterSettings.JOBGEN_BIN_PACKING_MAX_EXPECTED_BYTES);
+        List<DomainConfiguration> configs = new ArrayList<DomainConfiguration>();
+        long totalObjects = 0;
+        long largest = 0;
+        for (Iterator<DomainConfiguration> it = hd.getDomainConfigurations(); it.hasNext(); ) {
+            DomainConfiguration cfg = it.next();
+            configs.add(cfg);
+            long objects = cfg.getExpectedNumberOfObjects(hd.getMaxCountObjects(), hd.getMaxBytes());
+            totalObjects += objects;
+            largest = Math.max(largest, objects);
+        }
+        long objectBudget = jobGen.getObjectBudget(totalObjects, largest);
+
+        // Place the configurations by hand, largest first into the first job with room
+        List<DomainConfiguration> largestFirst = new ArrayList<DomainConfiguration>(configs);
+        List<Set<String>> expectedDomains = new ArrayList<Set<String>>();
+        List<long[]> expectedSizes = new ArrayList<long[]>();
+        while (!largestFirst.isEmpty()) {
+            DomainConfiguration next = largestFirst.get(0);
+            for (DomainConfiguration cfg : largestFirst) {
+                if (cfg.getExpectedNumberOfObjects(hd.getMaxCountObjects(), hd.getMaxBytes()) > next
+                        .getExpectedNumberOfObjects(hd.getMaxCountObjects(), hd.getMaxBytes())) {
+                    next = cfg;
+                }
+            }
+            largestFirst.remove(next);
+            long objects = next.getExpectedNumberOfObjects(hd.getMaxCountObjects(), hd.getMaxBytes());
+            long bytes = next.getExpectedNumberOfBytes(hd.getMaxCountObjects(), hd.getMaxBytes());
+            int target = expectedDomains.size();
+            for (int i = 0; i < expectedSizes.size(); i++) {
+                if (expectedSizes.get(i)[0] + objects <= objectBudget && expectedSizes.get(i)[1] + bytes <= maxBytes) {
+                    target = i;
+                    break;
+                }
+            }
+            if (target == expectedDomains.size()) {
+                expectedDomains.add(new HashSet<String>());
+                expectedSizes.add(new long[2]);
+            }
+            expectedDomains.get(target).add(next.getDomainName());
+            expectedSizes.get(target)[0] += objects;
+            expectedSizes.get(target)[1] += bytes;
+        }
+
+        List<Job> jobs = jobGen.packDomainConfigurations(hd, configs.iterator());
+        assertEquals("Should make the jobs of a first-fit-decreasing packing", expectedDomains.size(), jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            assertEquals("Job " + i + " should hold the configurations placed there first fit, largest first",
+                    expectedDomains.get(i), job.getDomainConfigurationMap().keySet());
+            long objects = 0;
+            long bytes = 0;
+            for (DomainConfiguration cfg : configs) {
+                if (job.getDomainConfigurationMap().containsKey(cfg.getDomainName())) {
+                    objects += cfg.getExpectedNumberOfObjects(hd.getMaxCountObjects(), hd.getMaxBytes());
+                    bytes += cfg.getExpectedNumberOfBytes(hd.getMaxCountObjects(), hd.getMaxBytes());
+                }
+            }
+            assertTrue("Job " + i + " should not exceed the object budget of " + objectBudget + ", but expects "
+                    + objects, objects <= objectBudget);
+            assertTrue("Job " + i + " should not exceed the bytes limit of " + maxBytes + ", but expects " + bytes,
+                    bytes <= maxBytes);
+        }
+        return jobs;
+    }
+
+    /**
+     * @return a stored harvest definition where all configurations use the same order.xml.
+     */
+    private HarvestDefinition createOneOrderXmlHarvest() {
+        HarvestDefinitionDAO hdao = HarvestDefinitionDAO.getInstance();
+        HarvestDefinition hd = TestInfo.getOneOrderXmlConfig();
+        hd.setSubmissionDate(new Date());
+        hdao.create(hd);
+        return hdao.read(hd.getOid());
+    }
+}
@@ -3,8 +3,11 @@ package dk.netarkivet.harvester.scheduler.jobgen;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -17,6 +20,7 @@ import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.DomainConfigurationTest;
 import dk.netarkivet.harvester.datamodel.H1HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.HarvestChannel;
+import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
 import dk.netarkivet.harvester.datamodel.JobTest;
@@ -130,6 +134,39 @@ public class DefaultJobGeneratorTest extends AbstractJobGeneratorTest {
         assertFalse(Collections.indexOfSubList(sortedNames, expected2) == -1);
     }
 
+    /**
+     * Test that sorting a subset gives the same order as sorting each partition and concatenating the partitions in
+     * the order of the partition comparator, which is what makes parallel job generation deterministic.
+     */
+    @Test
+    public void testPartitionsFollowSortOrder() {
+        List<DomainConfiguration> dcs = new ArrayList<>();
+        dcs.add(getDomainConfiguration("1.dk", 4000000L, 10, false, true));
+        dcs.add(getDomainConfiguration("2.dk", 2000000L, 20, false, true));
+        dcs.add(getDomainConfiguration("3.dk", 4000000L, 10, false, true));
+        dcs.add(getDomainConfiguration("4.dk", 2000000L, 20, false, false));
+        dcs.add(getDomainConfiguration("5.dk", 2000000L, 20, false, true));
+        dcs.add(getDomainConfiguration("6.dk", 20000000L, 20, false, true));
+        dcs.add(getDomainConfiguration("7.dk", 4000000L, 20, false, true));
+        HarvestDefinition harvest = mock(HarvestDefinition.class);
+        when(harvest.getMaxBytes()).thenReturn(10000000L);
+        when(harvest.getMaxCountObjects()).thenReturn(-1L);
+        DefaultJobGenerator jobGen = new DefaultJobGenerator();
+        Comparator<DomainConfiguration> partitionComparator = jobGen.getPartitionComparator(harvest);
+        Comparator<DomainConfiguration> subsetComparator = jobGen.getDomainConfigurationSubsetComparator(harvest);
+
+        Collection<List<DomainConfiguration>> partitions = PartitioningJobGenerator.partition(dcs, partitionComparator);
+        assertEquals("Should be partitioned by attributes and effective byte limit", 5,
+                partitions.size());
+        List<DomainConfiguration> partitioned = new ArrayList<>();
+        for (List<DomainConfiguration> partition : partitions) {
+            Collections.sort(partition, subsetComparator);
+            partitioned.addAll(partition);
+        }
+        Collections.sort(dcs, subsetComparator);
+        assertEquals(dcs, partitioned);
+    }
+
     public static DomainConfiguration getDomainConfiguration(String name, Long maxBytes, int maxHops,
             boolean obeyRobots, boolean extractJS) {
         DomainConfiguration dc1 = DomainConfigurationTest.createDefaultDomainConfiguration(name);
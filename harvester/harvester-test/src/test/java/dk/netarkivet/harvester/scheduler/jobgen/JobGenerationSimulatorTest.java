@@ -0,0 +1,28 @@
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class JobGenerationSimulatorTest {
+
+    /**
+     * Test that jobs are dispatched in order to the first idle harvester.
+     */
+    @Test
+    public void testGetMakespan() {
+        // 5 and 3 start at once, the second 3 follows the first at 3, 2 follows 5 at 5 and 1 follows the
+        // second 3 at 6, so the last jobs are done at 7
+        assertEquals("Should be done when the last harvester is", 7,
+                JobGenerationSimulator.getMakespan(Arrays.asList(5L, 3L, 3L, 2L, 1L), 2));
+        assertEquals("Should run the jobs one after another on one harvester", 14,
+                JobGenerationSimulator.getMakespan(Arrays.asList(5L, 3L, 3L, 2L, 1L), 1));
+        assertEquals("Should run the jobs side by side on enough harvesters", 5,
+                JobGenerationSimulator.getMakespan(Arrays.asList(5L, 3L, 3L, 2L, 1L), 5));
+        assertEquals("Should be done at once without jobs", 0,
+                JobGenerationSimulator.getMakespan(Collections.<Long>emptyList(), 2));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit tests for the CrawlLogIndex class.
+ */
+public class CrawlLogIndexTester {
+    private ReloadSettings rs = new ReloadSettings();
+    private File working = new File("tests/dk/netarkivet/viewerproxy/data/working");
+
+    @Before
+    public void setUp() throws Exception {
+        rs.setUp();
+        working.mkdirs();
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, new File(working, "commontempdir").getAbsolutePath());
+        Settings.set(CommonSettings.METADATA_CACHE, new File(working, "metadata_cache").getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.removeRecursively(working);
+        rs.tearDown();
+    }
+
+    @Test
+    public void testGetRequiredLiterals() {
+        assertEquals(Arrays.asList("www.netarkivet.dk/"),
+                CrawlLogIndex.getRequiredLiterals(".*www\\.netarkivet\\.dk/.*"));
+        assertEquals(Arrays.asList("abc", "text/html"), CrawlLogIndex.getRequiredLiterals(".*x?yz*abc+d.*text/html.*"));
+        assertEquals(Arrays.asList(".dk/"), CrawlLogIndex.getRequiredLiterals(".*(www|ftp)\\.dk/.*"));
+        assertEquals(Arrays.asList("123.html"), CrawlLogIndex.getRequiredLiterals(".*[p]123\\.html.*"));
+        assertEquals(Collections.emptyList(), CrawlLogIndex.getRequiredLiterals(".*netarkivet.*|.*kaarefc.*"));
+        assertEquals(Collections.emptyList(), CrawlLogIndex.getRequiredLiterals("(?i).*netarkivet.*"));
+        assertEquals(Collections.emptyList(), CrawlLogIndex.getRequiredLiterals(".*\\x41netarkivet.*"));
+    }
+
+    @Test
+    public void testGetLinesMatching() throws IOException {
+        final List<String> crawlLog = new ArrayList<String>();
+        for (int i = 0; i < 3 * CrawlLogIndex.BLOCK_LINES; i++) {
+            crawlLog.add(String.format("2020-01-01T00:00:%02d.000Z   200       1234 http://www.netarkivet.dk/page%d.html"
+                    + " LL http://www.netarkivet.dk/ text/html #001 20200101000000000+1 sha1:ABC - -", i % 60, i));
+        }
+        CrawlLogIndex index = CrawlLogIndex.getIndex(42, new CrawlLogIndex.CrawlLogSource() {
+            @Override
+            public File getSortedCrawlLog(long jobId) {
+                File file = new File(working, "crawl.log");
+                FileUtils.writeCollectionToFile(file, crawlLog);
+                return file;
+            }
+        });
+        File result = index.getLinesMatching(".*/page1[0-9]\\.html.*");
+        assertEquals(crawlLog.subList(10, 20), FileUtils.readListFromFile(result));
+        result = index.getLinesMatching(".*/page1000\\.html.*");
+        assertEquals(Collections.emptyList(), FileUtils.readListFromFile(result));
+        result = index.getLinesForDomain("netarkivet.dk",
+                line -> HarvestedUrlsForDomainBatchJob.lineMatchesDomain(line, "netarkivet.dk"));
+        assertEquals(crawlLog, FileUtils.readListFromFile(result));
+        result = index.getLinesForDomain("kaarefc.dk",
+                line -> HarvestedUrlsForDomainBatchJob.lineMatchesDomain(line, "kaarefc.dk"));
+        assertEquals(Collections.emptyList(), FileUtils.readListFromFile(result));
+    }
+
+    @Test
+    public void testRemovedIndexIsBuiltAgain() {
+        Settings.set(HarvesterSettings.CRAWLLOG_INDEX_MAX_SIZE, "1");
+        final List<String> crawlLog = Collections.singletonList("2020-01-01T00:00:00.000Z   200       1234 "
+                + "http://www.netarkivet.dk/ - - text/html #001 20200101000000000+1 sha1:ABC - -");
+        CrawlLogIndex.CrawlLogSource source = new CrawlLogIndex.CrawlLogSource() {
+            @Override
+            public File getSortedCrawlLog(long jobId) {
+                File file = new File(working, "crawl.log");
+                FileUtils.writeCollectionToFile(file, crawlLog);
+                return file;
+            }
+        };
+        CrawlLogIndex index = CrawlLogIndex.getIndex(42, source);
+        // Getting another index removes this one, as both do not fit within the maximal size
+        CrawlLogIndex.getIndex(43, source);
+        File result = index.getLinesMatching(".*netarkivet.*");
+        assertEquals(crawlLog, FileUtils.readListFromFile(result));
+    }
+}
@@ -64,6 +64,7 @@ public class ReportingWarcTester {
         utrf.setUp();
         working.mkdirs();
         Settings.set(CommonSettings.DIR_COMMONTEMPDIR, tempdir.getAbsolutePath());
+        Settings.set(CommonSettings.METADATA_CACHE, new File(working, "metadata_cache").getAbsolutePath());
         Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT, TrivialArcRepositoryClient.class.getName());
         ArcRepositoryClientFactory.getViewerInstance().close();
         tarc = (TrivialArcRepositoryClient) ArcRepositoryClientFactory.getViewerInstance();
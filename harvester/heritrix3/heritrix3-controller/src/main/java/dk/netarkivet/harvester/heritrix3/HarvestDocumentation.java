@@ -171,7 +171,8 @@ public class HarvestDocumentation {
             ArchiveProfile profile) {
         moveAwayForeignFiles(profile, archiveDir, files);
         File cdxFilesDir = FileUtils.createUniqueTempDir(files.getTmpMetadataDir(), "cdx");
-        CDXUtils.generateCDX(profile, archiveDir, cdxFilesDir);
+        CDXUtils.generateCDX(profile, archiveDir, cdxFilesDir,
+                Settings.getInt(Heritrix3Settings.METADATA_CDX_GENERATION_THREADS));
         writer.insertFiles(cdxFilesDir, FileUtils.CDX_FILE_FILTER, Constants.CDX_MIME_TYPE, 
         		files.getHarvestID(), files.getJobId());
     }
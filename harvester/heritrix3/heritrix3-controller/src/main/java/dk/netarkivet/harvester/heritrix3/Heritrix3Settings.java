@@ -195,4 +195,12 @@ public class Heritrix3Settings {
      * @see HarvestDocumentation#documentHarvest(dk.netarkivet.harvester.harvesting.IngestableFiles)
      */
     public static String METADATA_ARCHIVE_FILES_REPORT_HEADER = "settings.harvester.harvesting.metadata.archiveFilesReport.fileHeader";
+
+    /**
+     * <b>settings.harvester.harvesting.metadata.cdxGenerationThreads</b> The number of ARC/WARC files that are indexed
+     * at a time when the CDX files for the metadata file are generated. Default value is 4.
+     *
+     * @see HarvestDocumentation#documentHarvest(dk.netarkivet.harvester.harvesting.IngestableFiles)
+     */
+    public static String METADATA_CDX_GENERATION_THREADS = "settings.harvester.harvesting.metadata.cdxGenerationThreads";
 }
@@ -25,6 +25,7 @@ package dk.netarkivet.harvester.heritrix3;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +41,7 @@ import dk.netarkivet.common.utils.NotificationsFactory;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.JobStatus;
+import dk.netarkivet.harvester.harvesting.ArchiveFileUploader;
 import dk.netarkivet.harvester.harvesting.PersistentJobData;
 import dk.netarkivet.harvester.harvesting.distribute.CrawlStatusMessage;
 import dk.netarkivet.harvester.harvesting.report.DomainStatsReport;
@@ -153,12 +155,14 @@ public class PostProcessing {
         StringBuilder errorMessage = new StringBuilder();
         HarvestReport dhr = null;
         List<File> failedFiles = new ArrayList<File>();
+        ArchiveFileUploader uploader = new ArchiveFileUploader(arcRepController,
+                Settings.getInt(HarvesterSettings.UPLOAD_CONCURRENCY));
 
         Heritrix3Files files = Heritrix3Files.getH3HeritrixFiles(crawlDir, harvestInfo);
         
         try {
             log.info("Store files in directory '{}' " + "from jobID: {}.", crawlDir, jobID);
-            dhr = storeFiles(files, errorMessage, failedFiles);
+            dhr = storeFiles(files, uploader, errorMessage, failedFiles);
         } catch (Exception e) {
             String msg = "Trouble occurred during postprocessing (including upload of files) in '" + crawlDir.getAbsolutePath() + "'";
             log.warn(msg, e);
@@ -181,6 +185,10 @@ public class PostProcessing {
                 csm = new CrawlStatusMessage(jobID, JobStatus.FAILED, dhr);
                 setErrorMessages(csm, crawlException, errorMessage.toString(), dhr == null, failedFiles.size());
             }
+            if (uploader.getStatistics().getUploadedFiles() + uploader.getStatistics().getFailedFiles() > 0) {
+                log.info("Upload statistics for job {}: {}", jobID, uploader.getStatistics());
+                csm.setUploadStatistics(uploader.getStatistics());
+            }
             
             try { // TODO What kind of errors are we actually catching here if any
             	if (jmsConnection != null) {
@@ -243,14 +251,16 @@ public class PostProcessing {
      * Additionally, any leftover open ARC files are closed and harvest documentation is extracted before upload starts.
      *
      * @param files The HeritrixFiles object for this crawl. Not Null.
+     * @param uploader The uploader used to store the files. Not Null.
      * @param errorMessage A place where error messages accumulate. Not Null.
      * @param failedFiles List of files that failed to upload. Not Null.
      * @return An object containing info about the domains harvested.
      * @throws ArgumentNotValid if an argument isn't valid.
      */
-    private HarvestReport storeFiles(Heritrix3Files files, StringBuilder errorMessage, List<File> failedFiles)
-            throws ArgumentNotValid {
+    private HarvestReport storeFiles(Heritrix3Files files, ArchiveFileUploader uploader, StringBuilder errorMessage,
+            List<File> failedFiles) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(files, "Heritrix3Files files");
+        ArgumentNotValid.checkNotNull(uploader, "ArchiveFileUploader uploader");
         ArgumentNotValid.checkNotNull(errorMessage, "StringBuilder errorMessage");
         ArgumentNotValid.checkNotNull(failedFiles, "List<File> failedFiles");
         long jobID = files.getJobID();
@@ -265,26 +275,33 @@ public class PostProcessing {
 
             // Check, if arcsdir or warcsdir is empty
             // Send a notification, if this is the case
+            boolean dataFilesUploaded = true;
             if (inf.getArcFiles().isEmpty() && inf.getWarcFiles().isEmpty()) {
                 String errMsg = "Probable error in Heritrix job setup. "
                         + "No arcfiles or warcfiles generated by Heritrix for job " + jobID;
                 log.warn(errMsg);
                 NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
             } else {
-                if (!inf.getArcFiles().isEmpty()) {
-                	log.info("Beginning upload of {} ARC files", inf.getArcFiles().size());
-                    uploadFiles(inf.getArcFiles(), errorMessage, failedFiles);
-                }
-                if (!inf.getWarcFiles().isEmpty()) {
-                	log.info("Beginning upload of {} WARC files", inf.getWarcFiles().size());
-                    uploadFiles(inf.getWarcFiles(), errorMessage, failedFiles);
-                }
+                List<File> dataFiles = new ArrayList<File>(inf.getArcFiles());
+                dataFiles.addAll(inf.getWarcFiles());
+                log.info("Beginning upload of {} ARC files and {} WARC files", inf.getArcFiles().size(),
+                        inf.getWarcFiles().size());
+                dataFilesUploaded = uploadFiles(dataFiles, uploader, errorMessage, failedFiles);
             }
 
             // Now the ARC/WARC files have been uploaded,
             // we finally upload the metadata archive file.
-            log.info("Beginning upload of the {} metadafile(s) ", inf.getMetadataArcFiles().size());
-            uploadFiles(inf.getMetadataArcFiles(), errorMessage, failedFiles);
+            List<File> metadataFiles = inf.getMetadataArcFiles();
+            if (dataFilesUploaded || Settings.getBoolean(HarvesterSettings.ALLOW_UPLOAD_FAILURES)) {
+                log.info("Beginning upload of the {} metadafile(s) ", metadataFiles.size());
+                uploadFiles(metadataFiles, uploader, errorMessage, failedFiles);
+            } else {
+                String errMsg = "Not uploading the " + metadataFiles.size() + " metadata file(s) of job " + jobID
+                        + ", as not all ARC/WARC files were uploaded";
+                log.warn(errMsg);
+                errorMessage.append(errMsg).append("\n");
+                failedFiles.addAll(metadataFiles);
+            }
             
             // Make the harvestReport ready for transfer back to the scheduler 
             DomainStatsReport dsr =  HarvestReportGenerator.getDomainStatsReport(files);
@@ -298,36 +315,35 @@ public class PostProcessing {
     }
 
     /**
-     * Upload given files to the archive repository.
+     * Upload given files to the archive repository, and wait until they have all been stored or given up on.
      *
      * @param files List of (ARC/WARC) files to upload.
+     * @param uploader The uploader used to store the files.
      * @param errorMessage Accumulator for error messages.
      * @param failedFiles Accumulator for failed files.
+     * @return true if all files were uploaded
      */
-    private void uploadFiles(List<File> files, StringBuilder errorMessage, List<File> failedFiles) {
+    private boolean uploadFiles(List<File> files, ArchiveFileUploader uploader, StringBuilder errorMessage,
+            List<File> failedFiles) {
         // Upload all archive files
-        if (files != null) {
-        	int count=0;
-            for (File f : files) {
-            	count++;
-                try {
-                    log.info("Uploading file #{} - '{}' to arcrepository.", count, f.getName());
-                    arcRepController.store(f);
-                    log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
-                } catch (Exception e) {
-                    File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
-                    String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
-                            + oldJobsDir.getAbsolutePath() + "'";
-                    //TODO To make upload errors non fatal, simply don't append an errorMessage here. Use a flag.
-                    boolean allowUploadFailures = Settings.getBoolean(HarvesterSettings.ALLOW_UPLOAD_FAILURES);
-                    if (!allowUploadFailures) {
-                        errorMessage.append(errorMsg).append("\n").append(e.toString()).append("\n");
-                    }
-                    log.warn(errorMsg, e);
-                    failedFiles.add(f);
-                }
+        if (files == null) {
+            return true;
+        }
+        Map<File, Exception> failures = uploader.upload(files);
+        for (Map.Entry<File, Exception> failure : failures.entrySet()) {
+            File f = failure.getKey();
+            File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
+            String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
+                    + oldJobsDir.getAbsolutePath() + "'";
+            //TODO To make upload errors non fatal, simply don't append an errorMessage here. Use a flag.
+            boolean allowUploadFailures = Settings.getBoolean(HarvesterSettings.ALLOW_UPLOAD_FAILURES);
+            if (!allowUploadFailures) {
+                errorMessage.append(errorMsg).append("\n").append(failure.getValue().toString()).append("\n");
             }
+            log.warn(errorMsg, failure.getValue());
+            failedFiles.add(f);
         }
+        return failures.isEmpty();
     }
 
 }
@@ -0,0 +1,205 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matcher of URIs against a list of crawler trap regular expressions, matching a URI if any of them matches it in
+ * full. The expressions are compiled into as few {@link RegexAutomaton}s as their size allows, so a URI is matched in
+ * a single pass however many traps there are. Expressions an automaton cannot be made from are matched one at a time
+ * with java.util.regex, as are URIs containing surrogate characters or line terminators.
+ */
+final class CrawlerTrapMatcher {
+
+    /** Logger instance. */
+    private static final Logger logger = Logger.getLogger(CrawlerTrapMatcher.class.getName());
+
+    /** The largest number of states of one automaton. */
+    static final int MAX_STATES = 10000;
+
+    /** The automata of the supported expressions. */
+    private final List<RegexAutomaton> automata = new ArrayList<RegexAutomaton>();
+    /** The expressions not in any automaton. */
+    private final List<Pattern> fallback = new ArrayList<Pattern>();
+    /** All the expressions, for URIs the automata cannot match. */
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+    /**
+     * Compile a list of crawler traps. Invalid expressions are logged and ignored.
+     *
+     * @param regexes Regular expressions.
+     */
+    CrawlerTrapMatcher(Collection<String> regexes) {
+        Set<String> supported = new LinkedHashSet<String>();
+        for (String regex : new LinkedHashSet<String>(regexes)) {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                logger.warning("Ignoring invalid crawler trap '" + regex + "': " + e.getMessage());
+                continue;
+            }
+            patterns.add(pattern);
+            if (RegexAutomaton.isSupported(regex)) {
+                supported.add(regex);
+            } else {
+                fallback.add(pattern);
+            }
+        }
+        compile(new ArrayList<String>(supported));
+        if (!fallback.isEmpty()) {
+            logger.fine(fallback.size() + " of " + patterns.size() + " crawler traps are matched with java.util.regex");
+        }
+    }
+
+    /**
+     * Make automata of some supported expressions. The expressions are first compiled one by one, and expressions
+     * too large on their own are added to the fallback. The rest are grouped, expressions without loops first, into
+     * groups expected to make automata of at most {@link #MAX_STATES} states: each expression is expected to add its
+     * own number of states, and each of its loops to double the number of states of the group.
+     *
+     * @param regexes Supported regular expressions.
+     */
+    private void compile(List<String> regexes) {
+        List<List<String>> byLoops = new ArrayList<List<String>>();
+        Map<String, RegexAutomaton> single = new HashMap<String, RegexAutomaton>();
+        for (String regex : regexes) {
+            try {
+                single.put(regex, new RegexAutomaton(Collections.singletonList(regex), MAX_STATES));
+                int loops = RegexAutomaton.countLoops(regex);
+                while (byLoops.size() <= loops) {
+                    byLoops.add(new ArrayList<String>());
+                }
+                byLoops.get(loops).add(regex);
+            } catch (RegexAutomaton.UnsupportedRegexException e) {
+                fallback.add(Pattern.compile(regex));
+            }
+        }
+        List<String> group = new ArrayList<String>();
+        long states = 0;
+        long factor = 1;
+        for (int loops = 0; loops < byLoops.size(); loops++) {
+            for (String regex : byLoops.get(loops)) {
+                long regexStates = single.get(regex).getStateCount();
+                if (!group.isEmpty() && (states + regexStates) * (factor << loops) > MAX_STATES) {
+                    compileGroup(group, single);
+                    group = new ArrayList<String>();
+                    states = 0;
+                    factor = 1;
+                }
+                group.add(regex);
+                states += regexStates;
+                factor = Math.min(factor << loops, MAX_STATES);
+            }
+        }
+        if (!group.isEmpty()) {
+            compileGroup(group, single);
+        }
+    }
+
+    /**
+     * Make automata of a group of expressions, splitting it in halves until each automaton is small enough.
+     *
+     * @param group Regular expressions, each of which makes an automaton small enough on its own.
+     * @param single The automaton of each expression on its own.
+     */
+    private void compileGroup(List<String> group, Map<String, RegexAutomaton> single) {
+        if (group.size() == 1) {
+            automata.add(single.get(group.get(0)));
+            return;
+        }
+        try {
+            automata.add(new RegexAutomaton(group, MAX_STATES));
+        } catch (RegexAutomaton.UnsupportedRegexException e) {
+            int half = group.size() / 2;
+            compileGroup(group.subList(0, half), single);
+            compileGroup(group.subList(half, group.size()), single);
+        }
+    }
+
+    /**
+     * Check whether a URI is matched by a crawler trap.
+     *
+     * @param uri A URI.
+     * @return true if any of the expressions matches the whole URI.
+     */
+    boolean matches(String uri) {
+        for (int i = 0; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (Character.isSurrogate(c) || isLineTerminator(c)) {
+                return matchesAny(patterns, uri);
+            }
+        }
+        for (RegexAutomaton automaton : automata) {
+            if (automaton.matches(uri)) {
+                return true;
+            }
+        }
+        return matchesAny(fallback, uri);
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String uri) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(uri).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if there are no crawler traps.
+     */
+    boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    /**
+     * @return The number of automata the expressions were compiled into.
+     */
+    int getAutomatonCount() {
+        return automata.size();
+    }
+
+    /**
+     * @return The number of expressions matched with java.util.regex.
+     */
+    int getFallbackCount() {
+        return fallback.size();
+    }
+}
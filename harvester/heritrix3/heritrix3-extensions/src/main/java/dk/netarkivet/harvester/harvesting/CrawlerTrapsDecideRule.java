@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.PredicatedDecideRule;
+
+/**
+ * Decide rule for crawler traps, a replacement for the <code>MatchesListRegexDecideRule</code> used for them in the
+ * harvest templates. Like that rule, it applies its decision, by default REJECT, to URIs matched in full by any of
+ * its regular expressions, but the expressions are compiled into a {@link CrawlerTrapMatcher}, so each URI is matched
+ * by a few automata rather than by every expression in turn.
+ * <p>
+ * The traps of the global crawler trap lists and of the harvest are given in the <code>regexList</code> and apply to
+ * every URI. The traps of each domain are given in the <code>domainRegexLists</code>, keyed by domain name, and only
+ * apply to URIs of that domain and its sub-domains, e.g.
+ *
+ * <pre>
+ * &lt;bean id="crawlerTraps" class="dk.netarkivet.harvester.harvesting.CrawlerTrapsDecideRule"&gt;
+ *   &lt;property name="regexList"&gt;
+ *     &lt;list&gt;%{CRAWLERTRAPS_PLACEHOLDER}&lt;/list&gt;
+ *   &lt;/property&gt;
+ *   &lt;property name="domainRegexLists"&gt;
+ *     &lt;map&gt;%{DOMAIN_CRAWLERTRAPS_PLACEHOLDER}&lt;/map&gt;
+ *   &lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+public class CrawlerTrapsDecideRule extends PredicatedDecideRule {
+
+    /**
+     * UUID.
+     */
+    private static final long serialVersionUID = -2316412095046339764L;
+
+    /** Logger instance. */
+    private static final Logger logger = Logger.getLogger(CrawlerTrapsDecideRule.class.getName());
+
+    {
+        setDecision(DecideResult.REJECT);
+    }
+
+    /**
+     * The crawler traps applying to all URIs.
+     */
+    protected List<String> regexList = new ArrayList<String>();
+    public List<String> getRegexList() {
+        return regexList;
+    }
+    public void setRegexList(List<String> regexList) {
+        this.regexList = regexList;
+        compiled = null;
+    }
+
+    /**
+     * The crawler traps applying to the URIs of each domain, keyed by domain name.
+     */
+    protected Map<String, List<String>> domainRegexLists = new HashMap<String, List<String>>();
+    public Map<String, List<String>> getDomainRegexLists() {
+        return domainRegexLists;
+    }
+    public void setDomainRegexLists(Map<String, List<String>> domainRegexLists) {
+        this.domainRegexLists = domainRegexLists;
+        compiled = null;
+    }
+
+    /** The compiled crawler traps, made when first needed. */
+    private transient volatile Compiled compiled;
+
+    /**
+     * The crawler traps compiled into matchers.
+     */
+    private static final class Compiled {
+        /** The matcher of the traps applying to all URIs, or null if there are none. */
+        final CrawlerTrapMatcher global;
+        /** The matchers of the traps of each domain, keyed by lower case domain name. */
+        final Map<String, CrawlerTrapMatcher> domains = new HashMap<String, CrawlerTrapMatcher>();
+
+        Compiled(List<String> regexList, Map<String, List<String>> domainRegexLists) {
+            CrawlerTrapMatcher matcher = new CrawlerTrapMatcher(regexList);
+            global = matcher.isEmpty() ? null : matcher;
+            for (Map.Entry<String, List<String>> entry : domainRegexLists.entrySet()) {
+                matcher = new CrawlerTrapMatcher(entry.getValue());
+                if (!matcher.isEmpty()) {
+                    domains.put(entry.getKey().toLowerCase(Locale.ROOT), matcher);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The compiled crawler traps.
+     */
+    private Compiled getCompiled() {
+        Compiled result = compiled;
+        if (result == null) {
+            synchronized (this) {
+                result = compiled;
+                if (result == null) {
+                    long start = System.currentTimeMillis();
+                    result = new Compiled(regexList, domainRegexLists);
+                    compiled = result;
+                    logger.info("Compiled crawler traps for " + result.domains.size() + " domains in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean evaluate(CrawlURI curi) {
+        Compiled traps = getCompiled();
+        String uri = curi.toString();
+        if (traps.global != null && traps.global.matches(uri)) {
+            return true;
+        }
+        if (traps.domains.isEmpty()) {
+            return false;
+        }
+        String host;
+        try {
+            host = curi.getUURI().getReferencedHost();
+        } catch (URIException e) {
+            host = null;
+        }
+        if (host == null) {
+            // Without a host the domain is unknown, so every domain's traps apply
+            for (CrawlerTrapMatcher matcher : traps.domains.values()) {
+                if (matcher.matches(uri)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return matchesDomainTraps(traps.domains, host.toLowerCase(Locale.ROOT), uri);
+    }
+
+    /**
+     * Check a URI against the traps of the domains of its host, i.e. the host name and every name it is a sub-domain
+     * of.
+     *
+     * @param domains The matchers of the traps of each domain, keyed by lower case domain name.
+     * @param host The lower case host of the URI.
+     * @param uri The URI.
+     * @return true if a trap of one of the domains matches the URI.
+     */
+    static boolean matchesDomainTraps(Map<String, CrawlerTrapMatcher> domains, String host, String uri) {
+        int start = 0;
+        while (true) {
+            CrawlerTrapMatcher matcher = domains.get(host.substring(start));
+            if (matcher != null && matcher.matches(uri)) {
+                return true;
+            }
+            int dot = host.indexOf('.', start);
+            if (dot < 0) {
+                return false;
+            }
+            start = dot + 1;
+        }
+    }
+}
@@ -0,0 +1,1128 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A deterministic finite automaton accepting the strings matched in full, as by
+ * {@link java.util.regex.Matcher#matches()}, by any of a number of regular expressions. It is made by parsing the
+ * expressions into one Thompson NFA, which is then made deterministic by subset construction over the classes of
+ * characters the expressions tell apart. Matching a string is then a single table lookup per character, however many
+ * expressions there are.
+ * <p>
+ * Only the subset of the java.util.regex syntax used in crawler traps is supported: literal and escaped characters,
+ * <code>.</code>, character classes with ranges, negation and union, the <code>\d \D \w \W \s \S</code> shorthands,
+ * groups (capturing or <code>(?:</code>), alternation, the greedy and reluctant quantifiers
+ * <code>* + ? {n} {n,} {n,m}</code>, <code>$</code>, and <code>^</code> at the start of the expression. Expressions
+ * using anything else, e.g. back references, lookaround, flags or possessive quantifiers, are rejected by
+ * {@link #isSupported(String)}, and must be matched with java.util.regex. Characters are UTF-16 chars, so strings with
+ * surrogate pairs must also be matched with java.util.regex, where <code>.</code> matches a whole code point, and so
+ * must strings with line terminators, as <code>$</code> is taken to match only at the end of the input.
+ */
+final class RegexAutomaton {
+
+    /** The largest number of repetitions a bounded quantifier may give. */
+    private static final int MAX_REPETITIONS = 100;
+    /** The largest number of NFA states made from the expressions of one automaton. */
+    private static final int MAX_NFA_STATES = 1000000;
+    /** The characters not matched by <code>.</code>, as sorted ranges. */
+    private static final int[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029};
+    /** The characters matched by <code>.</code>. */
+    private static final int[] DOT = complement(LINE_TERMINATORS);
+    /** The characters matched by <code>\d</code>. */
+    private static final int[] DIGIT = {'0', '9'};
+    /** The characters matched by <code>\w</code>. */
+    private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+    /** The characters matched by <code>\s</code>. */
+    private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+
+    /** The transitions of each state by character class; -1 is a transition to the dead state. */
+    private final int[][] transitions;
+    /** Whether each state is accepting. */
+    private final boolean[] accepting;
+    /** The first character of each character class, followed by 0x10000. */
+    private final int[] classStarts;
+    /** The character class of each ASCII character. */
+    private final int[] asciiClasses = new int[128];
+    /** The state accepting every continuation of the input, or -1 if there is none. */
+    private int acceptAll = -1;
+
+    /**
+     * Thrown when an expression is not in the supported subset, or makes too large an automaton.
+     */
+    static final class UnsupportedRegexException extends Exception {
+        /**
+         * @param message What is not supported.
+         */
+        UnsupportedRegexException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Make the automaton of some expressions.
+     *
+     * @param regexes Regular expressions, all of which must be supported.
+     * @param maxStates The largest number of states the automaton may have.
+     * @throws UnsupportedRegexException If an expression is not supported, or the automaton would have more than
+     * maxStates states.
+     */
+    RegexAutomaton(Collection<String> regexes, int maxStates) throws UnsupportedRegexException {
+        Nfa nfa = new Nfa();
+        int accept = nfa.newState();
+        nfa.accept = accept;
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> unanchoredStarts = new ArrayList<Integer>();
+        for (String regex : regexes) {
+            Node node = new Parser(regex).parse();
+            Node rest = withoutLeadingDotStar(node);
+            if (rest != null) {
+                unanchoredStarts.add(nfa.compile(rest, accept));
+            } else {
+                starts.add(nfa.compile(node, accept));
+            }
+        }
+        if (!unanchoredStarts.isEmpty()) {
+            // Expressions starting with .* share a single .* rather than each being matched from every position
+            int dot = nfa.newState();
+            int loop = nfa.newState();
+            nfa.charSets[dot] = DOT;
+            nfa.next[dot] = loop;
+            unanchoredStarts.add(dot);
+            nfa.epsilon[loop] = toArray(unanchoredStarts);
+            starts.add(loop);
+        }
+        int start = nfa.newState();
+        nfa.epsilon[start] = toArray(starts);
+
+        classStarts = nfa.classStarts();
+        for (int c = 0; c < asciiClasses.length; c++) {
+            asciiClasses[c] = classOf(classStarts, c);
+        }
+        int classCount = classStarts.length - 1;
+        int[][] stateClasses = nfa.stateClasses(classStarts);
+
+        // Subset construction
+        List<int[]> stateSets = new ArrayList<int[]>();
+        List<int[]> table = new ArrayList<int[]>();
+        Map<StateSet, Integer> stateNumbers = new HashMap<StateSet, Integer>();
+        Deque<Integer> work = new ArrayDeque<Integer>();
+        int[] startSet = nfa.closure(new int[] {start});
+        stateSets.add(startSet);
+        stateNumbers.put(new StateSet(startSet), 0);
+        work.add(0);
+        if (nfa.acceptsAll(startSet)) {
+            acceptAll = 0;
+        }
+        int[] targetCounts = new int[classCount];
+        while (!work.isEmpty()) {
+            int state = work.poll();
+            while (table.size() <= state) {
+                table.add(null);
+            }
+            if (state == acceptAll) {
+                int[] row = new int[classCount];
+                Arrays.fill(row, acceptAll);
+                table.set(state, row);
+                continue;
+            }
+            int[] set = stateSets.get(state);
+            Arrays.fill(targetCounts, 0);
+            for (int nfaState : set) {
+                if (nfa.charSets[nfaState] != null) {
+                    for (int c : stateClasses[nfaState]) {
+                        targetCounts[c]++;
+                    }
+                }
+            }
+            int[][] byClass = new int[classCount][];
+            for (int c = 0; c < classCount; c++) {
+                byClass[c] = new int[targetCounts[c]];
+            }
+            Arrays.fill(targetCounts, 0);
+            for (int nfaState : set) {
+                if (nfa.charSets[nfaState] != null) {
+                    for (int c : stateClasses[nfaState]) {
+                        byClass[c][targetCounts[c]++] = nfa.next[nfaState];
+                    }
+                }
+            }
+            int[] row = new int[classCount];
+            // Many classes lead to the same states, e.g. those only matched by .*
+            Map<StateSet, Integer> rowTargets = new HashMap<StateSet, Integer>();
+            for (int c = 0; c < classCount; c++) {
+                if (targetCounts[c] == 0) {
+                    row[c] = -1;
+                    continue;
+                }
+                StateSet targets = new StateSet(byClass[c]);
+                Integer known = rowTargets.get(targets);
+                if (known != null) {
+                    row[c] = known;
+                    continue;
+                }
+                int[] targetSet = nfa.closure(targets.states);
+                if (nfa.acceptsAll(targetSet)) {
+                    // All such states are the same, so they are merged into one
+                    if (acceptAll < 0) {
+                        acceptAll = stateSets.size();
+                        stateSets.add(targetSet);
+                        work.add(acceptAll);
+                    }
+                    row[c] = acceptAll;
+                    rowTargets.put(targets, acceptAll);
+                    continue;
+                }
+                StateSet key = new StateSet(targetSet);
+                Integer number = stateNumbers.get(key);
+                if (number == null) {
+                    if (stateSets.size() >= maxStates) {
+                        throw new UnsupportedRegexException("More than " + maxStates + " states");
+                    }
+                    number = stateSets.size();
+                    stateSets.add(targetSet);
+                    stateNumbers.put(key, number);
+                    work.add(number);
+                }
+                row[c] = number;
+                rowTargets.put(targets, number);
+            }
+            table.set(state, row);
+        }
+        transitions = table.toArray(new int[table.size()][]);
+        accepting = new boolean[transitions.length];
+        for (int state = 0; state < accepting.length; state++) {
+            accepting[state] = nfa.acceptsAtEnd(stateSets.get(state));
+        }
+        pruneDeadStates();
+    }
+
+    /**
+     * Check whether an expression is in the supported subset.
+     *
+     * @param regex A regular expression.
+     * @return true if the expression can be part of an automaton.
+     */
+    static boolean isSupported(String regex) {
+        try {
+            new Parser(regex).parse();
+            return true;
+        } catch (UnsupportedRegexException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Count the unbounded repetitions of a supported expression, other than a leading or trailing <code>.*</code>.
+     * Each of them may multiply the number of states of an automaton shared with other expressions, as the automaton
+     * has to keep track of whether the input got past it.
+     *
+     * @param regex A supported regular expression.
+     * @return The number of unbounded repetitions.
+     * @throws UnsupportedRegexException If the expression is not supported.
+     */
+    static int countLoops(String regex) throws UnsupportedRegexException {
+        Node node = new Parser(regex).parse();
+        Node rest = withoutLeadingDotStar(node);
+        if (rest != null) {
+            node = rest;
+        }
+        int loops = countLoops(node);
+        if (node instanceof ConcatNode) {
+            List<Node> parts = ((ConcatNode) node).parts;
+            if (!parts.isEmpty() && isDotStar(parts.get(parts.size() - 1))) {
+                loops--;
+            }
+        }
+        return loops;
+    }
+
+    private static int countLoops(Node node) {
+        int loops = 0;
+        if (node instanceof ConcatNode) {
+            for (Node part : ((ConcatNode) node).parts) {
+                loops += countLoops(part);
+            }
+        } else if (node instanceof AltNode) {
+            for (Node choice : ((AltNode) node).choices) {
+                loops += countLoops(choice);
+            }
+        } else if (node instanceof RepeatNode) {
+            RepeatNode repeat = (RepeatNode) node;
+            loops = countLoops(repeat.node) + (repeat.max < 0 ? 1 : 0);
+        }
+        return loops;
+    }
+
+    /**
+     * Check whether a string is matched in full by any of the expressions.
+     *
+     * @param s A string without surrogate characters or line terminators.
+     * @return true if an expression matches the string.
+     */
+    boolean matches(CharSequence s) {
+        int state = 0;
+        for (int i = 0, length = s.length(); i < length && state >= 0 && state != acceptAll; i++) {
+            char c = s.charAt(i);
+            state = transitions[state][c < 128 ? asciiClasses[c] : classOf(classStarts, c)];
+        }
+        return state >= 0 && accepting[state];
+    }
+
+    /**
+     * @return The number of states of the automaton.
+     */
+    int getStateCount() {
+        return transitions.length;
+    }
+
+    /**
+     * Make transitions to states from which no accepting state can be reached go to the dead state instead, so a
+     * string that cannot be matched is rejected as soon as possible.
+     */
+    private void pruneDeadStates() {
+        boolean[] live = accepting.clone();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int state = 0; state < transitions.length; state++) {
+                if (live[state]) {
+                    continue;
+                }
+                for (int target : transitions[state]) {
+                    if (target >= 0 && live[target]) {
+                        live[state] = true;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for (int[] row : transitions) {
+            for (int c = 0; c < row.length; c++) {
+                if (row[c] >= 0 && !live[row[c]]) {
+                    row[c] = -1;
+                }
+            }
+        }
+        if (!live[0]) {
+            Arrays.fill(transitions[0], -1);
+        }
+    }
+
+    /**
+     * @param node A parsed expression.
+     * @return The rest of the expression if it starts with <code>.*</code>, otherwise null.
+     */
+    private static Node withoutLeadingDotStar(Node node) {
+        if (isDotStar(node)) {
+            return new ConcatNode(new ArrayList<Node>());
+        }
+        if (node instanceof ConcatNode) {
+            List<Node> parts = ((ConcatNode) node).parts;
+            if (!parts.isEmpty() && isDotStar(parts.get(0))) {
+                return new ConcatNode(parts.subList(1, parts.size()));
+            }
+        }
+        return null;
+    }
+
+    private static boolean isDotStar(Node node) {
+        if (!(node instanceof RepeatNode)) {
+            return false;
+        }
+        RepeatNode repeat = (RepeatNode) node;
+        return repeat.min == 0 && repeat.max < 0 && repeat.node instanceof CharSetNode
+                && Arrays.equals(((CharSetNode) repeat.node).ranges, DOT);
+    }
+
+    /**
+     * @param classStarts The first character of each class, followed by 0x10000.
+     * @param c A character.
+     * @return The class of the character.
+     */
+    private static int classOf(int[] classStarts, int c) {
+        int i = Arrays.binarySearch(classStarts, c);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * @param ranges Sorted, disjoint, inclusive ranges of characters, as pairs of first and last character.
+     * @return The ranges of the characters not in the given ranges.
+     */
+    private static int[] complement(int[] ranges) {
+        int[] result = new int[ranges.length + 2];
+        int n = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[n++] = next;
+                result[n++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) {
+            result[n++] = next;
+            result[n++] = Character.MAX_VALUE;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * @param a Ranges of characters, as pairs of first and last character.
+     * @param b Other ranges of characters.
+     * @return The sorted, disjoint ranges of the characters in either.
+     */
+    private static int[] union(int[] a, int[] b) {
+        int count = (a.length + b.length) / 2;
+        long[] ranges = new long[count];
+        for (int i = 0; i < a.length; i += 2) {
+            ranges[i / 2] = ((long) a[i] << 32) | a[i + 1];
+        }
+        for (int i = 0; i < b.length; i += 2) {
+            ranges[(a.length + i) / 2] = ((long) b[i] << 32) | b[i + 1];
+        }
+        Arrays.sort(ranges);
+        int[] result = new int[2 * count];
+        int n = 0;
+        for (long range : ranges) {
+            int first = (int) (range >>> 32);
+            int last = (int) range;
+            if (n > 0 && first <= result[n - 1] + 1) {
+                result[n - 1] = Math.max(result[n - 1], last);
+            } else {
+                result[n++] = first;
+                result[n++] = last;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** A sorted set of NFA states, as key of the DFA state made from it. */
+    private static final class StateSet {
+        final int[] states;
+        final int hash;
+
+        StateSet(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateSet && Arrays.equals(states, ((StateSet) o).states);
+        }
+    }
+
+    /** A node of a parsed expression. */
+    private abstract static class Node {
+    }
+
+    /** A single character from a set. */
+    private static final class CharSetNode extends Node {
+        final int[] ranges;
+
+        CharSetNode(int[] ranges) {
+            this.ranges = ranges;
+        }
+    }
+
+    /** A sequence of nodes. */
+    private static final class ConcatNode extends Node {
+        final List<Node> parts;
+
+        ConcatNode(List<Node> parts) {
+            this.parts = parts;
+        }
+    }
+
+    /** A choice between nodes. */
+    private static final class AltNode extends Node {
+        final List<Node> choices;
+
+        AltNode(List<Node> choices) {
+            this.choices = choices;
+        }
+    }
+
+    /** The end of the input. */
+    private static final class EndNode extends Node {
+    }
+
+    /** A repeated node; max is -1 for no upper bound. */
+    private static final class RepeatNode extends Node {
+        final Node node;
+        final int min;
+        final int max;
+
+        RepeatNode(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * A recursive descent parser of the supported subset of the java.util.regex syntax. The expression is assumed to
+     * be valid, i.e. accepted by {@link java.util.regex.Pattern#compile(String)}.
+     */
+    private static final class Parser {
+        private final String regex;
+        private int pos;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        Node parse() throws UnsupportedRegexException {
+            Node node = parseAlternatives(0);
+            if (pos < regex.length()) {
+                throw new UnsupportedRegexException("Unexpected '" + regex.charAt(pos) + "' at " + pos);
+            }
+            return node;
+        }
+
+        private Node parseAlternatives(int depth) throws UnsupportedRegexException {
+            List<Node> choices = new ArrayList<Node>();
+            choices.add(parseSequence(depth));
+            while (pos < regex.length() && regex.charAt(pos) == '|') {
+                pos++;
+                choices.add(parseSequence(depth));
+            }
+            return choices.size() == 1 ? choices.get(0) : new AltNode(choices);
+        }
+
+        private Node parseSequence(int depth) throws UnsupportedRegexException {
+            List<Node> parts = new ArrayList<Node>();
+            while (pos < regex.length()) {
+                char c = regex.charAt(pos);
+                if (c == '|' || (c == ')' && depth > 0)) {
+                    break;
+                }
+                if (c == '^') {
+                    // Only supported where it can only match at the start of the input
+                    if (depth > 0 || !parts.isEmpty()) {
+                        throw new UnsupportedRegexException("'^' not at the start");
+                    }
+                    pos++;
+                    continue;
+                }
+                if (c == '$') {
+                    // Without a line terminator at the end of the input, as in a URI, this is the end of the input
+                    pos++;
+                    parts.add(new EndNode());
+                    continue;
+                }
+                parts.add(parseQuantifier(parseAtom(depth)));
+            }
+            return parts.size() == 1 ? parts.get(0) : new ConcatNode(parts);
+        }
+
+        private Node parseAtom(int depth) throws UnsupportedRegexException {
+            char c = regex.charAt(pos);
+            switch (c) {
+            case '(':
+                pos++;
+                if (regex.startsWith("?:", pos)) {
+                    pos += 2;
+                } else if (pos < regex.length() && regex.charAt(pos) == '?') {
+                    throw new UnsupportedRegexException("Special group at " + pos);
+                }
+                Node group = parseAlternatives(depth + 1);
+                if (pos >= regex.length() || regex.charAt(pos) != ')') {
+                    throw new UnsupportedRegexException("Unclosed group");
+                }
+                pos++;
+                return group;
+            case '[':
+                return new CharSetNode(parseClass(false));
+            case '.':
+                pos++;
+                return new CharSetNode(DOT);
+            case '\\':
+                int escaped = parseEscape();
+                return new CharSetNode(escaped >= 0 ? new int[] {escaped, escaped} : escapedSet);
+            case ')':
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw new UnsupportedRegexException("Unexpected '" + c + "' at " + pos);
+            default:
+                pos++;
+                return new CharSetNode(new int[] {checkChar(c), c});
+            }
+        }
+
+        private Node parseQuantifier(Node atom) throws UnsupportedRegexException {
+            if (pos >= regex.length()) {
+                return atom;
+            }
+            int min;
+            int max;
+            switch (regex.charAt(pos)) {
+            case '*':
+                min = 0;
+                max = -1;
+                pos++;
+                break;
+            case '+':
+                min = 1;
+                max = -1;
+                pos++;
+                break;
+            case '?':
+                min = 0;
+                max = 1;
+                pos++;
+                break;
+            case '{':
+                int close = regex.indexOf('}', pos);
+                if (close < 0) {
+                    throw new UnsupportedRegexException("Unclosed repetition");
+                }
+                String bounds = regex.substring(pos + 1, close);
+                int comma = bounds.indexOf(',');
+                try {
+                    min = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+                    max = comma < 0 ? min : (comma == bounds.length() - 1 ? -1 : Integer.parseInt(bounds
+                            .substring(comma + 1)));
+                } catch (NumberFormatException e) {
+                    throw new UnsupportedRegexException("Bad repetition '" + bounds + "'");
+                }
+                if (min < 0 || min > MAX_REPETITIONS || max > MAX_REPETITIONS || (max >= 0 && max < min)) {
+                    throw new UnsupportedRegexException("Repetition '" + bounds + "' out of range");
+                }
+                pos = close + 1;
+                break;
+            default:
+                return atom;
+            }
+            if (pos < regex.length()) {
+                char c = regex.charAt(pos);
+                if (c == '?') {
+                    // A reluctant quantifier matches the same strings in full
+                    pos++;
+                } else if (c == '+') {
+                    throw new UnsupportedRegexException("Possessive quantifier at " + pos);
+                }
+            }
+            if (pos < regex.length() && "*+?{".indexOf(regex.charAt(pos)) >= 0) {
+                throw new UnsupportedRegexException("Repeated quantifier at " + pos);
+            }
+            return new RepeatNode(atom, min, max);
+        }
+
+        /** The set given by the last escape parsed, if it was not a single character. */
+        private int[] escapedSet;
+
+        /**
+         * Parse an escape, starting at the backslash.
+         *
+         * @return The escaped character, or -1 if the escape is a set of characters, which is then in escapedSet.
+         */
+        private int parseEscape() throws UnsupportedRegexException {
+            pos++;
+            if (pos >= regex.length()) {
+                throw new UnsupportedRegexException("Trailing backslash");
+            }
+            char c = regex.charAt(pos++);
+            switch (c) {
+            case 'd':
+                escapedSet = DIGIT;
+                return -1;
+            case 'D':
+                escapedSet = complement(DIGIT);
+                return -1;
+            case 'w':
+                escapedSet = WORD;
+                return -1;
+            case 'W':
+                escapedSet = complement(WORD);
+                return -1;
+            case 's':
+                escapedSet = SPACE;
+                return -1;
+            case 'S':
+                escapedSet = complement(SPACE);
+                return -1;
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return 0x07;
+            case 'e':
+                return 0x1B;
+            case 'x':
+                return checkChar(parseHex(2));
+            case 'u':
+                return checkChar(parseHex(4));
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    throw new UnsupportedRegexException("Escape '\\" + c + "'");
+                }
+                return checkChar(c);
+            }
+        }
+
+        private int parseHex(int digits) throws UnsupportedRegexException {
+            if (pos + digits > regex.length()) {
+                throw new UnsupportedRegexException("Short hex escape");
+            }
+            try {
+                int value = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+                pos += digits;
+                return value;
+            } catch (NumberFormatException e) {
+                throw new UnsupportedRegexException("Bad hex escape");
+            }
+        }
+
+        /**
+         * Parse a character class, starting at the opening bracket.
+         *
+         * @param nested Whether the class is nested in another class.
+         * @return The characters of the class, as ranges.
+         */
+        private int[] parseClass(boolean nested) throws UnsupportedRegexException {
+            pos++;
+            boolean negated = pos < regex.length() && regex.charAt(pos) == '^';
+            if (negated) {
+                if (nested) {
+                    // The meaning of this changed with Java 9
+                    throw new UnsupportedRegexException("Negated nested class at " + pos);
+                }
+                pos++;
+            }
+            if (pos < regex.length() && regex.charAt(pos) == ']') {
+                throw new UnsupportedRegexException("Class starting with ']'");
+            }
+            int[] ranges = new int[0];
+            while (true) {
+                if (pos >= regex.length()) {
+                    throw new UnsupportedRegexException("Unclosed class");
+                }
+                char c = regex.charAt(pos);
+                if (c == ']') {
+                    pos++;
+                    break;
+                }
+                if (regex.startsWith("&&", pos)) {
+                    throw new UnsupportedRegexException("Intersection at " + pos);
+                }
+                if (c == '[') {
+                    if (negated) {
+                        // The meaning of this changed with Java 9
+                        throw new UnsupportedRegexException("Nested class in negated class at " + pos);
+                    }
+                    ranges = union(ranges, parseClass(true));
+                    continue;
+                }
+                int first;
+                if (c == '\\') {
+                    first = parseEscape();
+                    if (first < 0) {
+                        ranges = union(ranges, escapedSet);
+                        if (isRangeDash()) {
+                            throw new UnsupportedRegexException("Range from a set at " + pos);
+                        }
+                        continue;
+                    }
+                } else {
+                    first = checkChar(c);
+                    pos++;
+                }
+                int last = first;
+                if (isRangeDash()) {
+                    pos++;
+                    char d = regex.charAt(pos);
+                    if (d == '\\') {
+                        last = parseEscape();
+                        if (last < 0) {
+                            throw new UnsupportedRegexException("Range to a set at " + pos);
+                        }
+                    } else {
+                        last = checkChar(d);
+                        pos++;
+                    }
+                    if (last < first) {
+                        throw new UnsupportedRegexException("Empty range");
+                    }
+                }
+                ranges = union(ranges, new int[] {first, last});
+            }
+            return negated ? complement(ranges) : ranges;
+        }
+
+        /** @return true if the next character is a dash starting a range, rather than a literal dash. */
+        private boolean isRangeDash() {
+            return pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']'
+                    && regex.charAt(pos + 1) != '[';
+        }
+
+        private int checkChar(int c) throws UnsupportedRegexException {
+            if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                throw new UnsupportedRegexException("Surrogate character");
+            }
+            return c;
+        }
+    }
+
+    /**
+     * A Thompson NFA. Each state has either a set of characters leading to the next state, or epsilon transitions,
+     * which for end states may only be followed at the end of the input.
+     */
+    private static final class Nfa {
+        int size;
+        int accept;
+        int[][] charSets = new int[16][];
+        int[] next = new int[16];
+        int[][] epsilon = new int[16][];
+        boolean[] end = new boolean[16];
+        /** Marks of the states visited by a closure. */
+        private int[] marks = new int[16];
+        /** The mark of the states visited by the latest closure. */
+        private int mark;
+        /** The closure of each state, made when first needed, once all states have been added. */
+        private int[][] closures;
+        /**
+         * Whether each state matches any character other than a line terminator, and is reached again after that in
+         * a state accepting at the end of the input.
+         */
+        private boolean[] loopsAll;
+
+        int newState() throws UnsupportedRegexException {
+            if (size >= MAX_NFA_STATES) {
+                throw new UnsupportedRegexException("Too many NFA states");
+            }
+            if (size == next.length) {
+                int capacity = 2 * size;
+                charSets = Arrays.copyOf(charSets, capacity);
+                next = Arrays.copyOf(next, capacity);
+                epsilon = Arrays.copyOf(epsilon, capacity);
+                end = Arrays.copyOf(end, capacity);
+                marks = Arrays.copyOf(marks, capacity);
+            }
+            epsilon[size] = new int[0];
+            return size++;
+        }
+
+        /**
+         * Add the states of a node, leading to a given state.
+         *
+         * @param node A parsed expression.
+         * @param out The state to go to after the node has been matched.
+         * @return The first state of the node.
+         */
+        int compile(Node node, int out) throws UnsupportedRegexException {
+            if (node instanceof CharSetNode) {
+                int state = newState();
+                charSets[state] = ((CharSetNode) node).ranges;
+                next[state] = out;
+                return state;
+            } else if (node instanceof ConcatNode) {
+                List<Node> parts = ((ConcatNode) node).parts;
+                int state = out;
+                for (int i = parts.size() - 1; i >= 0; i--) {
+                    state = compile(parts.get(i), state);
+                }
+                return state;
+            } else if (node instanceof EndNode) {
+                int state = newState();
+                end[state] = true;
+                epsilon[state] = new int[] {out};
+                return state;
+            } else if (node instanceof AltNode) {
+                List<Node> choices = ((AltNode) node).choices;
+                int[] starts = new int[choices.size()];
+                for (int i = 0; i < starts.length; i++) {
+                    starts[i] = compile(choices.get(i), out);
+                }
+                int state = newState();
+                epsilon[state] = starts;
+                return state;
+            } else {
+                RepeatNode repeat = (RepeatNode) node;
+                int state = out;
+                if (repeat.max < 0) {
+                    int loop = newState();
+                    int body = compile(repeat.node, loop);
+                    epsilon[loop] = new int[] {body, out};
+                    state = loop;
+                } else {
+                    for (int i = repeat.min; i < repeat.max; i++) {
+                        int body = compile(repeat.node, state);
+                        int optional = newState();
+                        epsilon[optional] = new int[] {body, state};
+                        state = optional;
+                    }
+                }
+                for (int i = 0; i < repeat.min; i++) {
+                    state = compile(repeat.node, state);
+                }
+                return state;
+            }
+        }
+
+        /**
+         * @param states Some states.
+         * @return The sorted states with characters, end states and the accepting state reachable by epsilon
+         * transitions from the states, not following those of end states. The array must not be modified.
+         */
+        int[] closure(int[] states) {
+            if (states.length == 1) {
+                return closure(states[0]);
+            }
+            // The closures of a few states, like that of the shared .*, are much larger than the others, so the
+            // others are collected and sorted on their own, and then merged with the largest one
+            int[][] parts = new int[states.length][];
+            int largest = 0;
+            int total = 0;
+            for (int i = 0; i < states.length; i++) {
+                parts[i] = closure(states[i]);
+                total += parts[i].length;
+                if (parts[i].length > parts[largest].length) {
+                    largest = i;
+                }
+            }
+            mark++;
+            for (int s : parts[largest]) {
+                marks[s] = mark;
+            }
+            int[] others = new int[total - parts[largest].length];
+            int count = 0;
+            for (int i = 0; i < parts.length; i++) {
+                if (i == largest) {
+                    continue;
+                }
+                for (int s : parts[i]) {
+                    if (marks[s] != mark) {
+                        marks[s] = mark;
+                        others[count++] = s;
+                    }
+                }
+            }
+            if (count == 0) {
+                return parts[largest];
+            }
+            others = Arrays.copyOf(others, count);
+            Arrays.sort(others);
+            return merge(parts[largest], others);
+        }
+
+        /**
+         * @param a Sorted states.
+         * @param b Other sorted states.
+         * @return The sorted states in either.
+         */
+        private static int[] merge(int[] a, int[] b) {
+            int[] result = new int[a.length + b.length];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    result[n++] = a[i++];
+                } else if (a[i] > b[j]) {
+                    result[n++] = b[j++];
+                } else {
+                    result[n++] = a[i++];
+                    j++;
+                }
+            }
+            while (i < a.length) {
+                result[n++] = a[i++];
+            }
+            while (j < b.length) {
+                result[n++] = b[j++];
+            }
+            return n == result.length ? result : Arrays.copyOf(result, n);
+        }
+
+        /**
+         * @param state A state.
+         * @return The closure of the state, which must not be modified.
+         */
+        private int[] closure(int state) {
+            if (closures == null) {
+                closures = new int[size][];
+            }
+            if (closures[state] != null) {
+                return closures[state];
+            }
+            mark++;
+            int[] result = new int[16];
+            int count = 0;
+            Deque<Integer> stack = new ArrayDeque<Integer>();
+            stack.push(state);
+            while (!stack.isEmpty()) {
+                int s = stack.pop();
+                if (marks[s] == mark) {
+                    continue;
+                }
+                marks[s] = mark;
+                if (charSets[s] != null || end[s] || s == accept) {
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, 2 * count);
+                    }
+                    result[count++] = s;
+                }
+                if (end[s]) {
+                    continue;
+                }
+                for (int e : epsilon[s]) {
+                    stack.push(e);
+                }
+            }
+            int[] sorted = Arrays.copyOf(result, count);
+            Arrays.sort(sorted);
+            closures[state] = sorted;
+            return sorted;
+        }
+
+        /**
+         * @param states A closure.
+         * @return true if the accepting state is reached from the states at the end of the input.
+         */
+        boolean acceptsAtEnd(int[] states) {
+            mark++;
+            Deque<Integer> stack = new ArrayDeque<Integer>();
+            for (int s : states) {
+                if (s == accept || end[s]) {
+                    stack.push(s);
+                }
+            }
+            while (!stack.isEmpty()) {
+                int s = stack.pop();
+                if (s == accept) {
+                    return true;
+                }
+                if (marks[s] == mark) {
+                    continue;
+                }
+                marks[s] = mark;
+                for (int e : epsilon[s]) {
+                    stack.push(e);
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @param states A closure.
+         * @return true if every string without line terminators is accepted from the states, as for the states
+         * reached after a match of an expression ending in <code>.*</code>.
+         */
+        boolean acceptsAll(int[] states) {
+            if (loopsAll == null) {
+                loopsAll = new boolean[size];
+                for (int s = 0; s < size; s++) {
+                    if (charSets[s] != null && Arrays.equals(union(charSets[s], LINE_TERMINATORS),
+                            new int[] {0, Character.MAX_VALUE})) {
+                        int[] after = closure(new int[] {next[s]});
+                        loopsAll[s] = Arrays.binarySearch(after, s) >= 0 && acceptsAtEnd(after);
+                    }
+                }
+            }
+            boolean loops = false;
+            for (int s : states) {
+                loops |= loopsAll[s];
+            }
+            return loops && acceptsAtEnd(states);
+        }
+
+        /**
+         * @return The first character of each class of characters not told apart by any state, followed by 0x10000.
+         */
+        int[] classStarts() {
+            TreeSet<Integer> starts = new TreeSet<Integer>();
+            starts.add(0);
+            starts.add(Character.MAX_VALUE + 1);
+            for (int s = 0; s < size; s++) {
+                int[] ranges = charSets[s];
+                if (ranges != null) {
+                    for (int i = 0; i < ranges.length; i += 2) {
+                        starts.add(ranges[i]);
+                        starts.add(ranges[i + 1] + 1);
+                    }
+                }
+            }
+            int[] result = new int[starts.size()];
+            int i = 0;
+            for (int start : starts) {
+                result[i++] = start;
+            }
+            return result;
+        }
+
+        /**
+         * @param classStarts The first character of each class, followed by 0x10000.
+         * @return The classes of characters of each state, or null for states without characters.
+         */
+        int[][] stateClasses(int[] classStarts) {
+            int[][] result = new int[size][];
+            for (int s = 0; s < size; s++) {
+                int[] ranges = charSets[s];
+                if (ranges == null) {
+                    continue;
+                }
+                int[] classes = new int[classStarts.length];
+                int n = 0;
+                for (int i = 0; i < ranges.length; i += 2) {
+                    for (int c = classOf(classStarts, ranges[i]); classStarts[c] <= ranges[i + 1]; c++) {
+                        classes[n++] = c;
+                    }
+                }
+                result[s] = Arrays.copyOf(classes, n);
+            }
+            return result;
+        }
+    }
+}
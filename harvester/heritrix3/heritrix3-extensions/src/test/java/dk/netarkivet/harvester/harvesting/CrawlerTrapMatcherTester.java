@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * Netarchivesuite - Heritrix 3 extensions
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class CrawlerTrapMatcherTester {
+
+    /** Crawler traps of the kinds found in the default templates. */
+    private static final List<String> TRAPS = Arrays.asList(
+            ".*(((year|week|day)\\.listevents)|(month\\.calendar)|(search\\.form)).*",
+            ".*(forum|wapb|mobil|valg)\\.tv2\\.no.*",
+            ".*(my|user|auth\\.|api\\.|\\_fe)login.*",
+            ".*=mini_cal.*d=.*",
+            ".*Calendar\\.asp\\?Time.*",
+            ".*Login.*Login.*Login.*",
+            ".*\\/(text|application)\\/[a-zA-Z0-9_-[\\.]]+$.*",
+            ".*\\/image\\/(bmp|gif|jpeg|png|tiff|vnd\\.(dwg|fpx|wap\\.wbmp))$.*",
+            ".*\\/u00\\d(\\d|[a-z])(\\d|[a-z])+($|\\/).*",
+            ".*\\/kalender\\/(20\\d\\d($|-(\\d|W\\d))|liste\\/20|ical).*",
+            ".*thumbshots\\.com.*url=[a-zA-Z0-9-]{1,}\\.[a-z]{2,3}$.*",
+            ".*flickr\\.com.*(format=rss_200|format=atom|[a-z0-9]{10,}\\/|=slideshow)$.*",
+            "^https?://[^/]*\\.example\\.org/(a|b)/\\1/.*",
+            ".*(\\/mm(?=/).*\\/mm(?=/).*\\/mm\\/|\\/yyyy(?=/).*\\/yyyy\\/).*");
+
+    /** URIs some of which are matched by the traps. */
+    private static final List<String> URIS = Arrays.asList(
+            "http://www.kb.dk/",
+            "http://www.kb.dk/day.listevents?x=1",
+            "http://forum.tv2.no/thread/1",
+            "http://www.tv2.no/forum",
+            "http://site.dk/userlogin.php",
+            "http://site.dk/index.php?p=mini_cal&d=2014",
+            "http://site.dk/Login/Login/Login/",
+            "http://site.dk/Login/Login/",
+            "http://site.dk/js/text/javascript",
+            "http://site.dk/js/text/java$script",
+            "http://site.dk/img/image/png",
+            "http://site.dk/img/image/png/",
+            "http://site.dk/u0041b",
+            "http://site.dk/u0041b/x",
+            "http://site.dk/kalender/2014",
+            "http://site.dk/kalender/2014-W1",
+            "http://site.dk/kalender/2014x",
+            "http://thumbshots.com/?url=kb.dk",
+            "http://thumbshots.com/?url=kb.info",
+            "http://www.flickr.com/photos/abcdefghij12/",
+            "http://www.example.org/a/a/index.html",
+            "http://www.example.org/a/b/index.html",
+            "http://site.dk/mm/x/mm/y/mm/",
+            "http://site.dk/\u00e6\u00f8\u00e5/login",
+            "http://site.dk/\ud83d\ude00/mylogin",
+            "http://site.dk/userlogin\n");
+
+    @Test
+    public void testMatchesAsJavaRegex() {
+        CrawlerTrapMatcher matcher = new CrawlerTrapMatcher(TRAPS);
+        // The trap with a back reference and the one with lookahead are not compiled into automata
+        assertEquals(2, matcher.getFallbackCount());
+        for (String uri : URIS) {
+            assertEquals("Match of " + uri, matchesAny(TRAPS, uri), matcher.matches(uri));
+        }
+    }
+
+    @Test
+    public void testMatchesRandomUris() {
+        CrawlerTrapMatcher matcher = new CrawlerTrapMatcher(TRAPS);
+        Random random = new Random(42);
+        String[] parts = {"/", ".", "-", "$", "?", "=", "a", "z", "0", "7", "login", "Login", "forum", ".tv2.no",
+                "/text", "/image", "png", "/u00", "/kalender/", "20", "W", "thumbshots.com", "url=", "flickr.com",
+                "format=atom", "=slideshow", "/mm", "/yyyy", "\u00e6", "\n"};
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder uri = new StringBuilder("http://");
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                uri.append(parts[random.nextInt(parts.length)]);
+            }
+            assertEquals("Match of " + uri, matchesAny(TRAPS, uri.toString()), matcher.matches(uri.toString()));
+        }
+    }
+
+    @Test
+    public void testSupportedSyntax() {
+        assertTrue(RegexAutomaton.isSupported(".*(a|b)?c{2,5}[^x-z\\d]+?\\.\\x41\\u00e6$"));
+        assertTrue(RegexAutomaton.isSupported("^(?:http|https)://[a-z[0-9]-]*\\.dk/.*"));
+        assertFalse(RegexAutomaton.isSupported("(a)\\1"));
+        assertFalse(RegexAutomaton.isSupported("a(?=b).*"));
+        assertFalse(RegexAutomaton.isSupported("(?i)login"));
+        assertFalse(RegexAutomaton.isSupported("a*+b"));
+        assertFalse(RegexAutomaton.isSupported("\\bword\\b"));
+        assertFalse(RegexAutomaton.isSupported("[a-z&&[^aeiou]]"));
+        assertFalse(RegexAutomaton.isSupported("a(^b)"));
+    }
+
+    @Test
+    public void testInvalidTrapsAreIgnored() {
+        CrawlerTrapMatcher matcher = new CrawlerTrapMatcher(Arrays.asList("(unclosed", ".*login.*"));
+        assertTrue(matcher.matches("http://site.dk/login"));
+        assertFalse(matcher.matches("http://site.dk/"));
+        assertTrue(new CrawlerTrapMatcher(Collections.singletonList("[")).isEmpty());
+    }
+
+    @Test
+    public void testLargeAutomataAreSplit() {
+        // Each of these makes an automaton of 2^9 states, so they cannot all be in one
+        List<String> traps = new ArrayList<String>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            traps.add(".*" + c + ".{8}");
+        }
+        // This one is too large on its own
+        traps.add(".*x.{20}");
+        CrawlerTrapMatcher matcher = new CrawlerTrapMatcher(traps);
+        assertTrue(matcher.getAutomatonCount() > 1);
+        assertEquals(1, matcher.getFallbackCount());
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder uri = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int j = 0; j < length; j++) {
+                uri.append((char) ('a' + random.nextInt(28)));
+            }
+            assertEquals("Match of " + uri, matchesAny(traps, uri.toString()), matcher.matches(uri.toString()));
+        }
+    }
+
+    @Test
+    public void testDomainTraps() {
+        Map<String, CrawlerTrapMatcher> domains = new HashMap<String, CrawlerTrapMatcher>();
+        domains.put("kb.dk", new CrawlerTrapMatcher(Collections.singletonList(".*calendar.*")));
+        domains.put("sub.example.org", new CrawlerTrapMatcher(Collections.singletonList(".*login.*")));
+        assertTrue(CrawlerTrapsDecideRule.matchesDomainTraps(domains, "kb.dk", "http://kb.dk/calendar"));
+        assertTrue(CrawlerTrapsDecideRule.matchesDomainTraps(domains, "www.kb.dk", "http://www.kb.dk/calendar"));
+        assertFalse(CrawlerTrapsDecideRule.matchesDomainTraps(domains, "www.kb.dk", "http://www.kb.dk/login"));
+        assertFalse(CrawlerTrapsDecideRule.matchesDomainTraps(domains, "kb.dk.other.org",
+                "http://kb.dk.other.org/calendar"));
+        assertFalse(CrawlerTrapsDecideRule.matchesDomainTraps(domains, "notkb.dk", "http://notkb.dk/calendar"));
+        assertTrue(CrawlerTrapsDecideRule.matchesDomainTraps(domains, "a.sub.example.org",
+                "http://a.sub.example.org/login"));
+        assertFalse(CrawlerTrapsDecideRule.matchesDomainTraps(domains, "example.org", "http://example.org/login"));
+    }
+
+    private static boolean matchesAny(List<String> regexes, String uri) {
+        for (String regex : regexes) {
+            if (Pattern.compile(regex).matcher(uri).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
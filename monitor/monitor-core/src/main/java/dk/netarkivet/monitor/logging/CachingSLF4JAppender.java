@@ -24,16 +24,17 @@
 package dk.netarkivet.monitor.logging;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.PatternLayout;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.AppenderBase;
 import ch.qos.logback.core.Context;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.monitor.MonitorSettings;
@@ -41,8 +42,17 @@ import dk.netarkivet.monitor.MonitorSettings;
 /**
  * SLF4J appender that caches a certain number of log entries in a cyclic manor.
  * "DEBUG and TRACE entries are excluded".
+ * <p>
+ * The entries are kept as the logged events in a ring buffer, and only formatted when read, so logging only costs
+ * claiming a place in the buffer, without any locking. A reader may miss an event being added concurrently. The last
+ * WARN and ERROR entries are also kept in a separate buffer, so they can be read without going through the INFO
+ * entries; it can be disabled by setting its size to 0.
  */
-public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
+public class CachingSLF4JAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    /** Conversion words of patterns needing the caller data of events. */
+    private static final Pattern CALLER_DATA_PATTERN = Pattern
+            .compile("%[-.0-9]*(C|class|F|file|L|line|M|method|caller)\\b");
 
 	/** Log format string pattern. */
     protected String pattern;
@@ -50,17 +60,29 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
     /** Pattern layouter used to format log string. */
     protected PatternLayout layout;
 
+    /** Whether to keep the caller data of events, or null to keep it if the pattern needs it. */
+    protected Boolean includeCallerData;
+
+    /** Whether the caller data of events is kept, decided when the appender is started. */
+    private boolean keepCallerData;
+
     /** The size of the logging cache. */
     protected final int loggingHistorySize;
 
-    /** The logging cache itself, caching the last "loggingHistorySize" log entries. */
-    protected final List<String> loggingHistory;
+    /** The logging cache itself, caching the last "loggingHistorySize" log events. */
+    protected final AtomicReferenceArray<ILoggingEvent> loggingHistory;
 
     /** The log entries exposed as MBeans. */
     protected final List<CachingSLF4JLogRecord> loggingMBeans;
 
-    /** The place in the loggingHistory for the next LogRecord. */
-    protected int currentIndex;
+    /** The number of events added to the loggingHistory; the next event goes at this number modulo its size. */
+    protected final AtomicLong loggingCount = new AtomicLong();
+
+    /** The WARN and ERROR cache, caching the last "warningHistorySize" of those log events, or null if disabled. */
+    protected AtomicReferenceArray<ILoggingEvent> warningHistory;
+
+    /** The number of events added to the warningHistory. */
+    protected final AtomicLong warningCount = new AtomicLong();
 
     /**
      * Initialize an instance of this class.
@@ -68,14 +90,12 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
     public CachingSLF4JAppender() {
         layout = new PatternLayout();
         loggingHistorySize = Settings.getInt(MonitorSettings.LOGGING_HISTORY_SIZE);
-        loggingHistory = Collections.synchronizedList(new ArrayList<String>(loggingHistorySize));
-        // Fill out the list with loggingHistorySize null-records.
-        loggingHistory.addAll(Arrays.asList(new String[loggingHistorySize]));
+        loggingHistory = new AtomicReferenceArray<ILoggingEvent>(loggingHistorySize);
+        warningHistory = new AtomicReferenceArray<ILoggingEvent>(loggingHistorySize);
         loggingMBeans = new ArrayList<CachingSLF4JLogRecord>(loggingHistorySize);
         for (int i = 0; i < loggingHistorySize; i++) {
             loggingMBeans.add(new CachingSLF4JLogRecord(i, this));
         }
-        currentIndex = 0;
     }
 
     /**
@@ -97,6 +117,46 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
         layout.setPattern(pattern);
     }
 
+    /**
+     * Returns whether the caller data of events is kept for formatting them later. Finding it is costly, so by default
+     * it is only kept if the pattern uses it.
+     * @return whether the caller data of events is kept
+     */
+    public boolean isIncludeCallerData() {
+        if (includeCallerData != null) {
+            return includeCallerData;
+        }
+        return pattern != null && CALLER_DATA_PATTERN.matcher(pattern).find();
+    }
+
+    /**
+     * Set whether the caller data of events is kept for formatting them later.
+     * The method should be called before the start() method.
+     * @param includeCallerData whether the caller data of events is kept
+     */
+    public void setIncludeCallerData(boolean includeCallerData) {
+        this.includeCallerData = includeCallerData;
+    }
+
+    /**
+     * Returns the number of WARN and ERROR entries cached on their own.
+     * @return the number of WARN and ERROR entries cached on their own, 0 if they are not
+     */
+    public int getWarningHistorySize() {
+        return warningHistory == null ? 0 : warningHistory.length();
+    }
+
+    /**
+     * Set the number of WARN and ERROR entries cached on their own, by default the logging history size.
+     * The method should be called before the start() method.
+     * @param warningHistorySize the number of entries, 0 to not cache them on their own
+     */
+    public void setWarningHistorySize(int warningHistorySize) {
+        ArgumentNotValid.checkNotNegative(warningHistorySize, "int warningHistorySize");
+        warningHistory = warningHistorySize == 0 ? null : new AtomicReferenceArray<ILoggingEvent>(warningHistorySize);
+        warningCount.set(0);
+    }
+
     @Override
     public void setContext(Context context) {
         super.setContext(context);
@@ -105,6 +165,7 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
 
     @Override
     public void start() {
+        keepCallerData = isIncludeCallerData();
         super.start();
         layout.start();
     }
@@ -120,7 +181,8 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
      */
     public void close() {
     	layout = null;
-    	loggingHistory.clear();
+    	clear(loggingHistory);
+    	clear(warningHistory);
     	if (!loggingMBeans.isEmpty()) {
     		Iterator<CachingSLF4JLogRecord> iter = loggingMBeans.iterator();
     		while (iter.hasNext()) {
@@ -130,22 +192,62 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
     	}
     }
 
+    private static void clear(AtomicReferenceArray<ILoggingEvent> history) {
+        if (history != null) {
+            for (int i = 0; i < history.length(); i++) {
+                history.set(i, null);
+            }
+        }
+    }
+
     @Override
     protected void append(ILoggingEvent event) {
     	switch (event.getLevel().toInt()) {
     	case Level.TRACE_INT:
     	case Level.DEBUG_INT:
     		break;
-    	case Level.INFO_INT:
     	case Level.WARN_INT:
     	case Level.ERROR_INT:
+    	    prepare(event);
+    	    AtomicReferenceArray<ILoggingEvent> warnings = warningHistory;
+    	    if (warnings != null) {
+    	        add(warnings, warningCount, event);
+    	    }
+    	    add(loggingHistory, loggingCount, event);
+    	    break;
+    	case Level.INFO_INT:
    		default:
-   	        loggingHistory.set(currentIndex, layout.doLayout(event));
-   	        currentIndex = (currentIndex + 1) % loggingHistorySize;
+   		    prepare(event);
+   		    add(loggingHistory, loggingCount, event);
    			break;
     	}
     }
 
+    /**
+     * Fix the parts of an event which would otherwise be computed when it is formatted, on another thread.
+     *
+     * @param event An event to cache.
+     */
+    private void prepare(ILoggingEvent event) {
+        event.prepareForDeferredProcessing();
+        if (keepCallerData) {
+            event.getCallerData();
+        }
+    }
+
+    private static void add(AtomicReferenceArray<ILoggingEvent> history, AtomicLong count, ILoggingEvent event) {
+        history.set((int) (count.getAndIncrement() % history.length()), event);
+    }
+
+    /**
+     * Returns the place in the loggingHistory for the next log entry.
+     *
+     * @return The index of the next log entry in the loggingHistory.
+     */
+    protected int getCurrentIndex() {
+        return (int) (loggingCount.get() % loggingHistorySize);
+    }
+
     /**
      * Returns the nth logrecord from the top.
      *
@@ -157,7 +259,44 @@ public class CachingSLF4JAppender extends AppenderBase<ILoggingEvent> {
             throw new ArgumentNotValid("Argument 'int n' must be between 0 and " + loggingHistorySize + ", but was "
                     + n + ".");
         }
-        return loggingHistory.get((currentIndex - n - 1 + loggingHistorySize) % loggingHistorySize);
+        return format(getNth(loggingHistory, loggingCount, n));
+    }
+
+    /**
+     * Returns the nth WARN or ERROR logrecord from the top.
+     *
+     * @param n The number of the log record to get
+     * @return The LogRecord which is number n from the top, or null for none.
+     */
+    public String getNthWarningRecord(int n) {
+        AtomicReferenceArray<ILoggingEvent> warnings = warningHistory;
+        int size = warnings == null ? 0 : warnings.length();
+        if ((n < 0) || (n >= size)) {
+            throw new ArgumentNotValid("Argument 'int n' must be between 0 and " + size + ", but was " + n + ".");
+        }
+        return format(getNth(warnings, warningCount, n));
+    }
+
+    private static ILoggingEvent getNth(AtomicReferenceArray<ILoggingEvent> history, AtomicLong count, int n) {
+        long last = count.get() - 1;
+        if (n > last) {
+            return null;
+        }
+        return history.get((int) ((last - n) % history.length()));
+    }
+
+    /**
+     * @param event A cached event, or null.
+     * @return The event formatted with the pattern, or null for none.
+     */
+    private String format(ILoggingEvent event) {
+        PatternLayout patternLayout = layout;
+        if (event == null || patternLayout == null) {
+            return null;
+        }
+        synchronized (patternLayout) {
+            return patternLayout.doLayout(event);
+        }
     }
 
 }
@@ -1,13 +1,25 @@
 package dk.netarkivet.monitor.logging;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import org.junit.Assert;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
 import org.slf4j.LoggerFactory;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AppenderBase;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.SlowTest;
 
 public class TestCachingSLF4JAppender {
 
@@ -107,8 +119,164 @@ public class TestCachingSLF4JAppender {
         appender.close();
 	}
 
+	@Test
+	public void test_warning_history() {
+		LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+		CachingSLF4JAppender appender = new CachingSLF4JAppender();
+		try {
+			appender.setPattern("%level [%file:%line] %msg");
+			Assert.assertTrue(appender.isIncludeCallerData());
+			appender.setWarningHistorySize(2);
+			appender.setContext(lc);
+			appender.start();
+
+			Logger logger = (Logger) LoggerFactory.getLogger("warningHistory");
+			logger.addAppender(appender);
+			logger.setLevel(Level.DEBUG);
+			logger.setAdditive(false);
+
+			Assert.assertNull(appender.getNthWarningRecord(0));
+			logger.warn("'1'");
+			logger.info("'2'");
+			logger.error("'3'");
+			List<String> list = new ArrayList<String>(Arrays.asList("'4'"));
+			logger.info("{}", list);
+			logger.warn("'5'");
+			// The message is formatted when logged, not when read
+			list.add("'6'");
+
+			// The caller data is found when logging, not when formatting on this thread
+			Assert.assertTrue(appender.getNthWarningRecord(0).startsWith("WARN [TestCachingSLF4JAppender.java:"));
+			Assert.assertTrue(appender.getNthWarningRecord(0).endsWith("] '5'"));
+			Assert.assertEquals("ERROR", appender.getNthWarningRecord(1).substring(0, 5));
+			Assert.assertTrue(appender.getNthWarningRecord(1).endsWith("'3'"));
+			Assert.assertTrue(appender.getNthLogRecord(1).endsWith("['4']"));
+			Assert.assertTrue(appender.getNthLogRecord(4).endsWith("'1'"));
+			try {
+				appender.getNthWarningRecord(2);
+				Assert.fail("Exception expected!");
+			} catch (ArgumentNotValid e) {
+			}
+
+			appender.setPattern("%level %msg");
+			Assert.assertFalse(appender.isIncludeCallerData());
+			logger.detachAppender(appender);
+		} finally {
+			appender.stop();
+			appender.close();
+		}
+	}
+
+	/**
+	 * Benchmark of logging from several threads to the appender, compared with the appender as it was when it
+	 * formatted every event and shifted a synchronized list.
+	 */
+	@Test
+	@Category(SlowTest.class)
+	public void test_logging_throughput() throws InterruptedException {
+		LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+		String pattern = "%d{yyyy-MM-dd HH:mm:ss.SSS} [%thread] %-5level %logger{64} - %msg%n";
+		int messages = 200000;
+		for (int threads : new int[] {1, 4, 8}) {
+			LegacyCachingAppender legacy = new LegacyCachingAppender(1000, pattern);
+			legacy.setContext(lc);
+			legacy.start();
+			double legacyRate = loggingRate(legacy, threads, messages);
+			legacy.stop();
+
+			CachingSLF4JAppender appender = new CachingSLF4JAppender();
+			try {
+				appender.setPattern(pattern);
+				appender.setContext(lc);
+				appender.start();
+				double rate = loggingRate(appender, threads, messages);
+				LoggerFactory.getLogger("benchmark").info("{} threads: {} events/second, {} events/second before",
+						threads, String.format("%.0f", rate), String.format("%.0f", legacyRate));
+				Assert.assertTrue(appender.getNthLogRecord(0).contains("message"));
+			} finally {
+				appender.stop();
+				appender.close();
+			}
+		}
+	}
+
+	/**
+	 * Log messages from several threads to an appender.
+	 *
+	 * @param appender The appender.
+	 * @param threads The number of threads.
+	 * @param messages The number of messages each thread logs.
+	 * @return The number of events appended per second.
+	 */
+	private static double loggingRate(Appender<ILoggingEvent> appender, int threads, final int messages)
+			throws InterruptedException {
+		final Logger logger = (Logger) LoggerFactory.getLogger("throughput");
+		logger.addAppender(appender);
+		logger.setLevel(Level.INFO);
+		logger.setAdditive(false);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < messages; j++) {
+						if (j % 10 == 0) {
+							logger.warn("Warning message {} of {}", j, getName());
+						} else {
+							logger.info("Info message {} of {}", j, getName());
+						}
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long nanos = System.nanoTime() - startTime;
+		logger.detachAppender(appender);
+		return (double) threads * messages * 1000000000L / nanos;
+	}
+
+	/**
+	 * The caching appender as it was, formatting every event when it is logged.
+	 */
+	private static class LegacyCachingAppender extends AppenderBase<ILoggingEvent> {
+		private final PatternLayout layout = new PatternLayout();
+		private final int size;
+		private final List<String> history;
+		private int currentIndex;
+
+		LegacyCachingAppender(int size, String pattern) {
+			this.size = size;
+			history = Collections.synchronizedList(new ArrayList<String>(Arrays.asList(new String[size])));
+			layout.setPattern(pattern);
+		}
+
+		@Override
+		public void start() {
+			layout.setContext(context);
+			layout.start();
+			super.start();
+		}
+
+		@Override
+		protected void append(ILoggingEvent event) {
+			history.set(currentIndex, layout.doLayout(event));
+			currentIndex = (currentIndex + 1) % size;
+		}
+	}
+
 	private int nthLogIndex(CachingSLF4JAppender appender, int n) {
-		return (appender.currentIndex - n - 1 + appender.loggingHistorySize) % appender.loggingHistorySize;
+		return (appender.getCurrentIndex() - n - 1 + appender.loggingHistorySize) % appender.loggingHistorySize;
 	}
 
 }
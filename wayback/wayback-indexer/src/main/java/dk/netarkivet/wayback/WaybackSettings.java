@@ -157,7 +157,30 @@ public class WaybackSettings {
      */
     public static String WAYBACK_RESOURCESTORE_CACHE_MAXFILES = "settings.wayback.resourcestore.maxfiles";
 
+    /**
+     * The maximum total size in bytes of the files in the resourcestore cache. The default is 100 GB.
+     */
+    public static String WAYBACK_RESOURCESTORE_CACHE_MAXBYTES = "settings.wayback.resourcestore.maxbytes";
+
     /** The cachedirectory. */
     public static String WAYBACK_RESOURCESTORE_CACHE_DIR = "settings.wayback.resourcestore.cachedir";
 
+    /**
+     * The base URL of the record server of a bitarchive, e.g. https://bitarchivehost:8070. Repeat the setting for each
+     * bitarchive read by the BitarchiveRangeResourceStore. Record servers using https are read with the certificate
+     * given by the settings.common.remoteFile keystore settings.
+     */
+    public static String WAYBACK_RESOURCESTORE_BITARCHIVE_URL = "settings.wayback.resourcestore.bitarchive.url";
+
+    /**
+     * The maximum number of file locations remembered by the BitarchiveRangeResourceStore. The default is 100000.
+     */
+    public static String WAYBACK_RESOURCESTORE_BITARCHIVE_MAXLOCATIONS = "settings.wayback.resourcestore.bitarchive.maxLocations";
+
+    /**
+     * The connect and read timeout in milliseconds for requests to the bitarchive record servers. The default is
+     * 10000.
+     */
+    public static String WAYBACK_RESOURCESTORE_BITARCHIVE_TIMEOUT = "settings.wayback.resourcestore.bitarchive.timeout";
+
 }
@@ -0,0 +1,391 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A cache of archive files downloaded from the bitarchive, for use by the wayback resource store.
+ * <p>
+ * Each file is downloaded once, in a background thread, however many requests ask for it at the same time: the
+ * requests wait for the same download, while requests for other files proceed in parallel. A request that only needs
+ * the first part of a file is answered as soon as that part has been written, without waiting for the rest of the
+ * download. This is a trade-off: a download which checks the transferred file against a checksum, as FTPRemoteFile
+ * does, only does so at the end, so the first part is served before it has been verified. If the check fails, the
+ * download fails and the file is removed from the cache, but responses already served from it are not recalled.
+ * Requests which need verified data must ask for the complete file.
+ * <p>
+ * The cache is limited both by the number of files and by their total size. When a download completes and the cache is
+ * over either limit, the least recently used files are deleted by a separate thread, so no request waits for the
+ * deletion. Files being downloaded are never deleted, and neither are files returned by
+ * {@link #get(String, long, Downloader)} until they have been released with {@link #release(String)}.
+ */
+public class ArchiveFileCache {
+
+    /** How long a request waits between looking at the size of a file being downloaded, in milliseconds. */
+    private static final long POLL_INTERVAL = 100;
+
+    /** The instance of this class. */
+    private static ArchiveFileCache instance;
+
+    /** Logger. */
+    private Log logger = LogFactory.getLog(getClass().getName());
+
+    /** The directory the files are stored in. */
+    private final File cacheDir;
+    /** The maximum number of files in the cache. */
+    private final int maxFiles;
+    /** The maximum total size of the files in the cache, in bytes. */
+    private final long maxBytes;
+    /** The entries of the cache by filename, least recently used first. Guarded by this. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /** The total size of the files completely downloaded. Guarded by this. */
+    private long bytesUsed;
+    /** Whether an eviction is scheduled but not yet run. Guarded by this. */
+    private boolean evictionScheduled;
+    /** The threads downloading files. */
+    private final ExecutorService downloaders = Executors.newCachedThreadPool(new CacheThreads("download"));
+    /** The thread deleting files from the cache. */
+    private final ExecutorService evictor = Executors.newSingleThreadExecutor(new CacheThreads("eviction"));
+
+    /**
+     * Something which can download a file from the archive.
+     */
+    public interface Downloader {
+        /**
+         * Download a file, writing it from the start to the end.
+         *
+         * @param filename The name of the file in the archive.
+         * @param toFile The file to write to. It does not exist when the download starts.
+         * @throws IOFailure If the file cannot be downloaded.
+         */
+        void download(String filename, File toFile) throws IOFailure;
+    }
+
+    /**
+     * A file in the cache, either completely downloaded or being downloaded.
+     */
+    private static class Entry {
+        /** The file in the cache directory. */
+        private final File file;
+        /** Completed with the file when the download is done. */
+        private final CompletableFuture<File> download = new CompletableFuture<File>();
+        /** The size of the file when the download was done. Guarded by the cache. */
+        private long size;
+        /** The number of requests using the file, which must not be deleted while in use. Guarded by the cache. */
+        private int pins;
+
+        /**
+         * @param file The file in the cache directory.
+         */
+        Entry(File file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Create a cache of files in a directory. Files already in the directory are taken to be complete and are part of
+     * the cache.
+     *
+     * @param dir The directory where the files are stored.
+     * @param maxFiles The maximum number of files in the cache.
+     * @param maxBytes The maximum total size of the files in the cache.
+     */
+    public ArchiveFileCache(File dir, int maxFiles, long maxBytes) {
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        ArgumentNotValid.checkPositive(maxFiles, "int maxFiles");
+        ArgumentNotValid.checkPositive(maxBytes, "long maxBytes");
+        dir.mkdirs();
+        ArgumentNotValid.checkTrue(dir.isDirectory(), "Cachedir '" + dir.getAbsolutePath() + "' does not exist");
+        this.cacheDir = dir;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+
+        logger.info("Initializing the cache with the contents of the cachedir '" + cacheDir.getAbsolutePath() + "'");
+        for (File cachefile : cacheDir.listFiles()) {
+            Entry entry = new Entry(cachefile);
+            entry.size = cachefile.length();
+            entry.download.complete(cachefile);
+            entries.put(cachefile.getName(), entry);
+            bytesUsed += entry.size;
+        }
+        logger.info("The contents of the cache is now " + entries.size() + " files of " + bytesUsed + " bytes");
+        scheduleEviction();
+    }
+
+    /**
+     * Constructor, where the arguments for the primary constructor is read from settings.
+     */
+    public ArchiveFileCache() {
+        this(new File(Settings.get(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_DIR)), Settings
+                .getInt(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXFILES), Settings
+                .getLong(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXBYTES));
+    }
+
+    /**
+     * @return instance of our Cache
+     */
+    public static synchronized ArchiveFileCache getInstance() {
+        if (instance == null) {
+            instance = new ArchiveFileCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get a file from the cache, downloading it if it is not there. If the file is being downloaded, the file is
+     * returned as soon as its first requiredLength bytes are written, or when the download completes. The file is
+     * not deleted from the cache until the caller has released it with {@link #release(String)}, which it must do once
+     * it has opened the file.
+     *
+     * @param filename The name of the file in the archive.
+     * @param requiredLength The number of bytes at the start of the file which are needed, or Long.MAX_VALUE if the
+     * complete file is needed.
+     * @param downloader The downloader to use if the file is not in the cache and is not being downloaded.
+     * @return The file in the cache. It may still be growing.
+     * @throws IOFailure If the download of the file fails.
+     */
+    public File get(String filename, long requiredLength, Downloader downloader) throws IOFailure {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkNotNull(downloader, "Downloader downloader");
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(filename);
+            if (entry != null && entry.download.isDone() && !entry.file.exists()) {
+                logger.warn("The file '" + entry.file + "' has disappeared from the cache");
+                entries.remove(filename);
+                bytesUsed -= entry.size;
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(new File(cacheDir, filename));
+                entries.put(filename, entry);
+                startDownload(filename, entry, downloader);
+            }
+            entry.pins++;
+        }
+        boolean success = false;
+        try {
+            while (true) {
+                try {
+                    File file = entry.download.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    success = true;
+                    return file;
+                } catch (TimeoutException e) {
+                    if (entry.file.length() >= requiredLength) {
+                        logger.debug("Using the first " + requiredLength + " bytes of '" + filename
+                                + "' while it is downloaded");
+                        success = true;
+                        return entry.file;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IOFailure("Could not download '" + filename + "' to the cache", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting for '" + filename + "'", e);
+        } finally {
+            if (!success) {
+                unpin(entry);
+            }
+        }
+    }
+
+    /**
+     * Release a file returned by {@link #get(String, long, Downloader)}, allowing it to be deleted from the cache. Files
+     * that are open can still be read after they are deleted, so callers release files as soon as they have opened them.
+     *
+     * @param filename The name of the file in the archive.
+     */
+    public synchronized void release(String filename) {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        Entry entry = entries.get(filename);
+        if (entry != null) {
+            unpin(entry);
+        }
+    }
+
+    /**
+     * Mark that a request no longer uses a file, and schedule eviction if this leaves the file unused.
+     *
+     * @param entry The entry of the file.
+     */
+    private synchronized void unpin(Entry entry) {
+        if (entry.pins > 0 && --entry.pins == 0) {
+            scheduleEviction();
+        }
+    }
+
+    /**
+     * Download a file in the background, completing the entry when done.
+     *
+     * @param filename The name of the file in the archive.
+     * @param entry The entry of the file.
+     * @param downloader The downloader to use.
+     */
+    private void startDownload(final String filename, final Entry entry, final Downloader downloader) {
+        logger.debug("The file '" + filename + "' was not found in the cache. ");
+        downloaders.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    downloader.download(filename, entry.file);
+                } catch (Throwable t) {
+                    synchronized (ArchiveFileCache.this) {
+                        entries.remove(filename);
+                    }
+                    if (entry.file.exists() && !entry.file.delete()) {
+                        logger.warn("Unable to delete partially downloaded file: " + entry.file);
+                    }
+                    entry.download.completeExceptionally(t);
+                    return;
+                }
+                synchronized (ArchiveFileCache.this) {
+                    entry.size = entry.file.length();
+                    bytesUsed += entry.size;
+                    // Complete before scheduling, so the evictor does not skip this file as still downloading
+                    entry.download.complete(entry.file);
+                    scheduleEviction();
+                }
+                logger.info("File '" + filename + "' downloaded from archive and put into the cache '"
+                        + cacheDir.getAbsolutePath() + "'.");
+            }
+        });
+    }
+
+    /**
+     * Schedule deletion of the least recently used files, if the cache is over its limits.
+     */
+    private synchronized void scheduleEviction() {
+        if (evictionScheduled || (entries.size() <= maxFiles && bytesUsed <= maxBytes)) {
+            return;
+        }
+        evictionScheduled = true;
+        evictor.execute(new Runnable() {
+            @Override
+            public void run() {
+                evict();
+            }
+        });
+    }
+
+    /**
+     * Remove the least recently used completed files not in use from the cache until it is within its limits, and
+     * delete them.
+     */
+    private void evict() {
+        List<File> evicted = new ArrayList<File>();
+        synchronized (this) {
+            evictionScheduled = false;
+            Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+            while (i.hasNext() && (entries.size() > maxFiles || bytesUsed > maxBytes)) {
+                Entry entry = i.next().getValue();
+                if (entry.download.isDone() && entry.pins == 0) {
+                    i.remove();
+                    bytesUsed -= entry.size;
+                    evicted.add(entry.file);
+                }
+            }
+        }
+        for (File file : evicted) {
+            logger.info("Deleting file '" + file.getAbsolutePath() + "' from cache.");
+            if (!file.delete()) {
+                logger.warn("Unable to delete LRU file from cache: " + file);
+            }
+        }
+    }
+
+    /**
+     * @return The number of files in the cache, including files being downloaded.
+     */
+    public synchronized int usedEntries() {
+        return entries.size();
+    }
+
+    /**
+     * @return The total size of the files completely downloaded to the cache.
+     */
+    public synchronized long usedBytes() {
+        return bytesUsed;
+    }
+
+    /**
+     * @return the cacheDir
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Stop the threads of the cache. Downloads in progress are interrupted.
+     */
+    public void shutdown() {
+        downloaders.shutdownNow();
+        evictor.shutdown();
+    }
+
+    /**
+     * Makes named daemon threads for the cache, so they do not keep the JVM alive.
+     */
+    private static class CacheThreads implements ThreadFactory {
+        /** The number of threads made, used in the thread names. */
+        private final AtomicInteger count = new AtomicInteger();
+        /** What the threads are for, used in the thread names. */
+        private final String purpose;
+
+        /**
+         * @param purpose What the threads are for.
+         */
+        CacheThreads(String purpose) {
+            this.purpose = purpose;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ArchiveFileCache-" + purpose + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.warc.WARCReader;
+import org.archive.wayback.ResourceStore;
+import org.archive.wayback.core.CaptureSearchResult;
+import org.archive.wayback.core.Resource;
+import org.archive.wayback.exception.ResourceNotAvailableException;
+import org.archive.wayback.resourcestore.resourcefile.ResourceFactory;
+
+import dk.netarkivet.common.distribute.HTTPSRemoteFileRegistry;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A resource store reading records directly from the record servers of the bitarchives (see
+ * dk.netarkivet.archive.bitarchive.distribute.BitarchiveRecordServer), instead of asking the ArcRepository for them
+ * over JMS.
+ * <p>
+ * The bitarchive holding a file is found by asking all the record servers, and is remembered in a bounded map of
+ * file locations, so later records from the same file are read with a single HTTP range request. If the length of
+ * the record is known from the index, only the record is requested, otherwise the rest of the file is requested and
+ * the connection is closed after the record has been read. ARC and WARC records are returned as read by their own
+ * readers.
+ * <p>
+ * Record servers given by https URLs are read with the shared certificate used by HTTPSRemoteFile, which the record
+ * servers require from their clients.
+ */
+public class BitarchiveRangeResourceStore implements ResourceStore {
+
+    /** Logger. */
+    private Log logger = LogFactory.getLog(getClass().getName());
+
+    /**
+     * Accepts any host name, as the record servers are identified by the shared certificate, not by their host names.
+     */
+    private static final HostnameVerifier SHARED_CERTIFICATE_VERIFIER = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession sslSession) {
+            return true;
+        }
+    };
+
+    /** The base URLs of the record servers. */
+    private final List<String> baseUrls;
+
+    /** The base URL of the record server holding each file recently read, in access order. */
+    private final Map<String, String> locations;
+
+    /** The connect and read timeout in milliseconds. */
+    private final int timeout;
+
+    /** The threads asking the record servers for a file. */
+    private final ExecutorService lookups;
+
+    /** The SSL context with the shared certificate, or null if no record server is given by an https URL. */
+    private final SSLContext sslContext;
+
+    /**
+     * Constructor. Reads the record servers from the settings.
+     */
+    public BitarchiveRangeResourceStore() {
+        this(getBaseUrlsFromSettings(), Settings.getInt(WaybackSettings.WAYBACK_RESOURCESTORE_BITARCHIVE_MAXLOCATIONS),
+                Settings.getInt(WaybackSettings.WAYBACK_RESOURCESTORE_BITARCHIVE_TIMEOUT));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param baseUrls The base URLs of the record servers, e.g. https://bitarchivehost:8070.
+     * @param maxLocations The maximum number of file locations to remember.
+     * @param timeout The connect and read timeout in milliseconds.
+     * @throws ArgumentNotValid If there are no record servers, or maxLocations or timeout is not positive.
+     * @throws IOFailure If a record server is given by an https URL, and the shared certificate cannot be read.
+     */
+    public BitarchiveRangeResourceStore(List<String> baseUrls, final int maxLocations, int timeout) {
+        ArgumentNotValid.checkNotNullOrEmpty(baseUrls, "List<String> baseUrls");
+        ArgumentNotValid.checkPositive(maxLocations, "int maxLocations");
+        ArgumentNotValid.checkPositive(timeout, "int timeout");
+        this.baseUrls = new ArrayList<String>();
+        boolean secure = false;
+        for (String baseUrl : baseUrls) {
+            this.baseUrls.add(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl);
+            secure |= baseUrl.startsWith("https:");
+        }
+        this.sslContext = secure ? HTTPSRemoteFileRegistry.createSSLContext() : null;
+        this.timeout = timeout;
+        this.locations = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxLocations;
+            }
+        });
+        this.lookups = Executors.newCachedThreadPool(new LookupThreads());
+    }
+
+    /**
+     * Transforms search result into a resource, according to the ResourceStore interface.
+     *
+     * @param captureSearchResult the search result.
+     * @return a valid resource containing metadata and a link to the ARC or WARC record.
+     * @throws ResourceNotAvailableException if the file is in none of the bitarchives, or the record cannot be read.
+     */
+    public Resource retrieveResource(CaptureSearchResult captureSearchResult) throws ResourceNotAvailableException {
+        String filename = captureSearchResult.getFile();
+        long offset;
+        try {
+            offset = captureSearchResult.getOffset();
+        } catch (NumberFormatException | NullPointerException e) {
+            logger.error("Error looking for non existing resource", e);
+            throw new ResourceNotAvailableException("BitarchiveRangeResourceStore cannot read the offset of the "
+                    + "CaptureResult given from Wayback.");
+        }
+        if (filename == null || filename.isEmpty()) {
+            throw new ResourceNotAvailableException("BitarchiveRangeResourceStore got a CaptureResult without file.");
+        }
+        long length = getRecordLength(captureSearchResult);
+        logger.debug("Received request for resource from file '" + filename + "' at offset '" + offset + "'");
+
+        String location = locate(filename);
+        InputStream in;
+        try {
+            in = openRange(location, filename, offset, length);
+        } catch (IOException e) {
+            // The file may have been moved to another bitarchive since we last read it.
+            logger.info("Could not read '" + filename + "' from " + location + ", looking for it again", e);
+            locations.remove(filename);
+            location = locate(filename);
+            try {
+                in = openRange(location, filename, offset, length);
+            } catch (IOException e2) {
+                logger.error("Could not read '" + filename + "' from " + location, e2);
+                throw new ResourceNotAvailableException("Could not read '" + filename + "' at offset " + offset);
+            }
+        }
+        return toResource(in, filename, offset);
+    }
+
+    /**
+     * Find the record server holding a file, asking all of them if the location is not known.
+     *
+     * @param filename The name of the file.
+     * @return The base URL of the record server holding the file.
+     * @throws ResourceNotAvailableException If no record server holds the file.
+     */
+    String locate(final String filename) throws ResourceNotAvailableException {
+        String location = locations.get(filename);
+        if (location != null) {
+            return location;
+        }
+        CompletionService<String> answers = new ExecutorCompletionService<String>(lookups);
+        List<Future<String>> asked = new ArrayList<Future<String>>();
+        for (final String baseUrl : baseUrls) {
+            asked.add(answers.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return hasFile(baseUrl, filename) ? baseUrl : null;
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < asked.size() && location == null; i++) {
+                location = answers.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Error looking for '" + filename + "'", e.getCause());
+        } finally {
+            for (Future<String> f : asked) {
+                f.cancel(true);
+            }
+        }
+        if (location == null) {
+            throw new ResourceNotAvailableException("The file '" + filename + "' was not found in any bitarchive");
+        }
+        locations.put(filename, location);
+        return location;
+    }
+
+    /**
+     * Ask a record server whether it holds a file.
+     *
+     * @param baseUrl The base URL of the record server.
+     * @param filename The name of the file.
+     * @return true if the record server holds the file, false if it does not or cannot be reached.
+     */
+    private boolean hasFile(String baseUrl, String filename) {
+        HttpURLConnection connection = null;
+        try {
+            connection = connect(baseUrl, filename);
+            connection.setRequestMethod("HEAD");
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            logger.warn("Could not ask " + baseUrl + " for '" + filename + "'", e);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Request a record from a record server.
+     *
+     * @param baseUrl The base URL of the record server.
+     * @param filename The name of the file.
+     * @param offset The offset of the record.
+     * @param length The length of the record, or -1 if unknown.
+     * @return A stream of the file, starting at the record.
+     * @throws IOException If the record server does not answer with the requested range.
+     */
+    private InputStream openRange(String baseUrl, String filename, long offset, long length) throws IOException {
+        HttpURLConnection connection = connect(baseUrl, filename);
+        connection.setRequestProperty("Range", "bytes=" + offset + "-" + (length > 0 ? offset + length - 1 : ""));
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_PARTIAL
+                && !(responseCode == HttpURLConnection.HTTP_OK && offset == 0)) {
+            connection.disconnect();
+            throw new IOException("Got response " + responseCode + " asking " + baseUrl + " for '" + filename
+                    + "' at offset " + offset);
+        }
+        return connection.getInputStream();
+    }
+
+    /**
+     * Open a connection to a file on a record server.
+     *
+     * @param baseUrl The base URL of the record server.
+     * @param filename The name of the file.
+     * @return The unconnected connection.
+     * @throws IOException If the connection cannot be opened.
+     */
+    private HttpURLConnection connect(String baseUrl, String filename) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/" + filename).openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+            httpsConnection.setSSLSocketFactory(sslContext.getSocketFactory());
+            httpsConnection.setHostnameVerifier(SHARED_CERTIFICATE_VERIFIER);
+        }
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    /**
+     * Read the record at the start of a stream.
+     *
+     * @param in A stream of a file, starting at the record. It is closed when the resource is closed.
+     * @param filename The name of the file, which tells whether it is an ARC or WARC file, and whether it is
+     * compressed.
+     * @param offset The offset of the record in the file.
+     * @return The record as a resource.
+     * @throws ResourceNotAvailableException If the record cannot be read.
+     */
+    private Resource toResource(InputStream in, String filename, long offset) throws ResourceNotAvailableException {
+        try {
+            ArchiveReader reader = ArchiveReaderFactory.get(filename, in, offset == 0);
+            ArchiveRecord record = reader.get();
+            if (reader instanceof WARCReader) {
+                return ResourceFactory.WARCArchiveRecordToResource(record, reader);
+            }
+            return ResourceFactory.ARCArchiveRecordToResource(record, reader);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not read record at offset " + offset + " of '" + filename + "'", e);
+            try {
+                in.close();
+            } catch (IOException e2) {
+                logger.debug("Could not close stream of '" + filename + "'", e2);
+            }
+            throw new ResourceNotAvailableException("Could not read record at offset " + offset + " of '" + filename
+                    + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the length of the record in the file, if it is known from the index.
+     *
+     * @param captureSearchResult the search result.
+     * @return The length of the record, or -1 if unknown.
+     */
+    private static long getRecordLength(CaptureSearchResult captureSearchResult) {
+        try {
+            return captureSearchResult.getCompressedLength();
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The record server base URLs given in the settings, ignoring empty ones.
+     */
+    private static List<String> getBaseUrlsFromSettings() {
+        List<String> baseUrls = new ArrayList<String>();
+        for (String baseUrl : Settings.getAll(WaybackSettings.WAYBACK_RESOURCESTORE_BITARCHIVE_URL)) {
+            if (!baseUrl.trim().isEmpty()) {
+                baseUrls.add(baseUrl.trim());
+            }
+        }
+        return baseUrls;
+    }
+
+    /**
+     * Shuts down this resource store, stopping the lookup threads.
+     *
+     * @throws IOException never.
+     */
+    public void shutdown() throws IOException {
+        lookups.shutdownNow();
+    }
+
+    /**
+     * Names the lookup threads, and makes them daemons so they do not keep wayback alive.
+     */
+    private static class LookupThreads implements ThreadFactory {
+        /** The number of threads made. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BitarchiveRangeResourceStore-lookup-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -47,7 +47,10 @@ import dk.netarkivet.common.utils.Settings;
  * Multi-licensed: EPL / LGPL / GPL / AL / BSD.
  * <p>
  * Modified slightly to fit the use of a wayback file cache.
+ *
+ * @deprecated Replaced by {@link ArchiveFileCache}, which downloads files without blocking other requests.
  */
+@Deprecated
 public class LRUCache {
     /** The hashtable loadfactor used here. */
     private static final float hashTableLoadFactor = 0.75f;
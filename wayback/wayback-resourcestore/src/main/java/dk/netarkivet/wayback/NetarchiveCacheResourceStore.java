@@ -37,6 +37,7 @@ import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.Settings;
 
 /**
@@ -51,21 +52,32 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
     /** Logger. */
     private Log logger = LogFactory.getLog(getClass().getName());
     /** The filecache being used by this class. */
-    private final LRUCache fileCache;
+    private final ArchiveFileCache fileCache;
     /** The replica being used by this class. */
     private Replica replicaUsed;
+    /** Downloads files from the replica to the cache. */
+    private final ArchiveFileCache.Downloader downloader = new ArchiveFileCache.Downloader() {
+        @Override
+        public void download(String filename, File toFile) {
+            client.getFile(filename, replicaUsed, toFile);
+        }
+    };
 
     /**
      * Constructor. Initiates the caching mechanism.
      */
     public NetarchiveCacheResourceStore() {
-        fileCache = LRUCache.getInstance();
+        fileCache = ArchiveFileCache.getInstance();
         client = ArcRepositoryClientFactory.getViewerInstance();
         replicaUsed = Replica.getReplicaFromId(Settings.get(CommonSettings.USE_REPLICA_ID));
     }
 
     /**
-     * Transforms search result into a resource, according to the ResourceStore interface.
+     * Transforms search result into a resource, according to the ResourceStore interface. If the file is not in the
+     * cache, it is downloaded, and the resource is made as soon as the record has been downloaded, provided the length
+     * of the record is known from the search result. Requests for other files are not held up by the download. A record
+     * served before the download is complete has not yet been verified by the checksum check done at the end of the
+     * download; see {@link ArchiveFileCache}.
      *
      * @param captureSearchResult the search result.
      * @return a valid resource containing metadata and a link to the ARC or warc-record
@@ -76,35 +88,39 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
 
         String arcfile = captureSearchResult.getFile();
         offset = captureSearchResult.getOffset();
+        long length = getRecordLength(captureSearchResult);
 
         logger.info("Received request for resource from file '" + arcfile + "' at offset '" + offset + "'");
 
-        // Try to lookup the file in the cache
-        // make synchronized to disallow more than one using
-        // the cache at any one time
-        synchronized (fileCache) {
-            File wantedFile = fileCache.get(arcfile);
+        // Without the length of the record, we cannot tell when it has
+        // been downloaded, so we wait for the whole file
+        long requiredLength = length > 0 ? offset + length : Long.MAX_VALUE;
+        try {
+            File wantedFile = fileCache.get(arcfile, requiredLength, downloader);
             try {
-                if (wantedFile != null && wantedFile.exists()) {
-                    logger.debug("Found the file '" + arcfile + "' in the cache. ");
-                    return ResourceFactory.getResource(wantedFile, offset);
-                } else {
-                    logger.debug("The file '" + arcfile + "' was not found in the cache. ");
-                    // Get file from bitarchive, and place it in the cachedir
-                    // directory
-                    File fileFromBitarchive = new File(fileCache.getCacheDir(), arcfile);
-                    client.getFile(arcfile, replicaUsed, fileFromBitarchive);
-                    // put into the cache
-                    fileCache.put(arcfile, fileFromBitarchive);
-                    logger.info("File '" + arcfile + "' downloaded from archive and put into the cache '"
-                            + fileCache.getCacheDir().getAbsolutePath() + "'.");
-                    return ResourceFactory.getResource(fileFromBitarchive, offset);
-                }
-            } catch (IOException e) {
-                logger.error("Error looking for non existing resource", e);
-                throw new ResourceNotAvailableException(this.getClass().getName() + "Throws Exception when accessing "
-                        + "CaptureResult given from Wayback.");
+                return ResourceFactory.getResource(wantedFile, offset);
+            } finally {
+                // The resource holds the file open, so the cache may delete it from now on
+                fileCache.release(arcfile);
             }
+        } catch (IOFailure | IOException e) {
+            logger.error("Error looking for non existing resource", e);
+            throw new ResourceNotAvailableException(this.getClass().getName() + "Throws Exception when accessing "
+                    + "CaptureResult given from Wayback.");
+        }
+    }
+
+    /**
+     * Get the length of the record in the file, if it is known from the index.
+     *
+     * @param captureSearchResult the search result.
+     * @return The length of the record, or -1 if unknown.
+     */
+    private static long getRecordLength(CaptureSearchResult captureSearchResult) {
+        try {
+            return captureSearchResult.getCompressedLength();
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/** Unit tests for ArchiveFileCache. */
+public class ArchiveFileCacheTester {
+
+    private static final File CACHE_DIR = new File(TestInfo.WORKING_DIR, "filecache");
+
+    private ExecutorService requests;
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(CACHE_DIR);
+        requests = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        requests.shutdownNow();
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+    }
+
+    /**
+     * Test that concurrent requests for the same file share one download.
+     */
+    @Test
+    public void testSingleDownload() throws Exception {
+        final ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 10, 1000000L);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger downloads = new AtomicInteger();
+        final ArchiveFileCache.Downloader downloader = new ArchiveFileCache.Downloader() {
+            @Override
+            public void download(String filename, File toFile) {
+                downloads.incrementAndGet();
+                await(release);
+                write(toFile, 0, 100);
+            }
+        };
+        Future<File> first = requestFile(cache, "a.warc", Long.MAX_VALUE, downloader);
+        Future<File> second = requestFile(cache, "a.warc", Long.MAX_VALUE, downloader);
+        Thread.sleep(300);
+        assertFalse("Request should wait for the download", first.isDone());
+        release.countDown();
+        assertEquals("Both requests should get the same file", first.get(10, TimeUnit.SECONDS),
+                second.get(10, TimeUnit.SECONDS));
+        assertEquals("The file should only be downloaded once", 1, downloads.get());
+        assertEquals("The file should be cached", 100, cache.usedBytes());
+
+        cache.get("a.warc", Long.MAX_VALUE, downloader);
+        assertEquals("A cached file should not be downloaded again", 1, downloads.get());
+        cache.shutdown();
+    }
+
+    /**
+     * Test that the start of a file can be used while the rest is downloaded, and that other files are not held up.
+     */
+    @Test
+    public void testPartialDownload() throws Exception {
+        final ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 10, 1000000L);
+        final CountDownLatch release = new CountDownLatch(1);
+        ArchiveFileCache.Downloader slow = new ArchiveFileCache.Downloader() {
+            @Override
+            public void download(String filename, File toFile) {
+                write(toFile, 0, 50);
+                await(release);
+                write(toFile, 50, 100);
+            }
+        };
+        File partial = requestFile(cache, "slow.warc", 50, slow).get(10, TimeUnit.SECONDS);
+        assertEquals("The start of the file should be available", 50, partial.length());
+
+        Future<File> whole = requestFile(cache, "slow.warc", Long.MAX_VALUE, slow);
+        File other = requestFile(cache, "other.warc", Long.MAX_VALUE, new ArchiveFileCache.Downloader() {
+            @Override
+            public void download(String filename, File toFile) {
+                write(toFile, 0, 10);
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertEquals("Another file should be downloaded meanwhile", 10, other.length());
+        assertFalse("The whole file should not be available yet", whole.isDone());
+        release.countDown();
+        assertEquals("The whole file should be available after the download", 100,
+                whole.get(10, TimeUnit.SECONDS).length());
+        cache.shutdown();
+    }
+
+    /**
+     * Test that the least recently used files are deleted when the cache is over its size limit, and that a failed
+     * download is not cached.
+     */
+    @Test
+    public void testEvictionAndFailure() throws Exception {
+        ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 10, 250L);
+        ArchiveFileCache.Downloader downloader = new ArchiveFileCache.Downloader() {
+            @Override
+            public void download(String filename, File toFile) {
+                write(toFile, 0, 100);
+            }
+        };
+        File first = getAndRelease(cache, "1.warc", downloader);
+        File second = getAndRelease(cache, "2.warc", downloader);
+        getAndRelease(cache, "1.warc", downloader);
+        File third = getAndRelease(cache, "3.warc", downloader);
+        for (int i = 0; i < 100 && second.exists(); i++) {
+            Thread.sleep(50);
+        }
+        assertFalse("The least recently used file should be deleted", second.exists());
+        assertTrue("Recently used files should be kept", first.exists() && third.exists());
+        assertEquals("Cache should be within its size limit", 200, cache.usedBytes());
+
+        try {
+            cache.get("broken.warc", Long.MAX_VALUE, new ArchiveFileCache.Downloader() {
+                @Override
+                public void download(String filename, File toFile) {
+                    write(toFile, 0, 10);
+                    throw new IOFailure("Download failed");
+                }
+            });
+            fail("A failed download should throw IOFailure");
+        } catch (IOFailure e) {
+            // expected
+        }
+        assertFalse("A failed download should not be left in the cache", new File(CACHE_DIR, "broken.warc").exists());
+        assertEquals("A failed download should not be counted", 2, cache.usedEntries());
+        cache.shutdown();
+    }
+
+    /**
+     * Test that a file is not deleted while it is in use, and is deleted once it has been released.
+     */
+    @Test
+    public void testFilesInUseAreKept() throws Exception {
+        ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 1, 1000000L);
+        ArchiveFileCache.Downloader downloader = new ArchiveFileCache.Downloader() {
+            @Override
+            public void download(String filename, File toFile) {
+                write(toFile, 0, 100);
+            }
+        };
+        File inUse = cache.get("1.warc", Long.MAX_VALUE, downloader);
+        getAndRelease(cache, "2.warc", downloader);
+        for (int i = 0; i < 100 && cache.usedEntries() > 1; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue("A file in use should not be deleted", inUse.exists());
+        assertFalse("An unused file should be deleted instead", new File(CACHE_DIR, "2.warc").exists());
+
+        cache.release("1.warc");
+        getAndRelease(cache, "3.warc", downloader);
+        for (int i = 0; i < 100 && inUse.exists(); i++) {
+            Thread.sleep(50);
+        }
+        assertFalse("A released file should be deleted", inUse.exists());
+        assertEquals("Cache should be within its file limit", 1, cache.usedEntries());
+        cache.shutdown();
+    }
+
+    private static File getAndRelease(ArchiveFileCache cache, String filename, ArchiveFileCache.Downloader downloader) {
+        File file = cache.get(filename, Long.MAX_VALUE, downloader);
+        cache.release(filename);
+        return file;
+    }
+
+    private Future<File> requestFile(final ArchiveFileCache cache, final String filename, final long requiredLength,
+            final ArchiveFileCache.Downloader downloader) {
+        return requests.submit(new Callable<File>() {
+            @Override
+            public File call() {
+                return cache.get(filename, requiredLength, downloader);
+            }
+        });
+    }
+
+    private static void write(File file, int from, int to) {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            for (int i = from; i < to; i++) {
+                out.write(i);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not write " + file, e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
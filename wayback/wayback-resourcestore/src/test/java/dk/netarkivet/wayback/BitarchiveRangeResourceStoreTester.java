@@ -0,0 +1,328 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.archive.wayback.ResourceStore;
+import org.archive.wayback.core.CaptureSearchResult;
+import org.archive.wayback.core.Resource;
+import org.archive.wayback.exception.ResourceNotAvailableException;
+import org.archive.wayback.resourceindex.cdx.CDXLineToSearchResultAdapter;
+import org.archive.wayback.resourcestore.resourcefile.ArcResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.archive.bitarchive.distribute.BitarchiveRecordServer;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.HTTPSRemoteFile;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/** Unit tests and replay benchmark for BitarchiveRangeResourceStore. */
+public class BitarchiveRangeResourceStoreTester {
+
+    private static final Logger log = LoggerFactory.getLogger(BitarchiveRangeResourceStoreTester.class);
+
+    private static final File ARCHIVE_DIR = new File("test/testdata/archive");
+
+    /** A keystore with the shared certificate, as used by the HTTPSRemoteFile tests. */
+    private static final File KEYSTORE = new File("test/testdata/testkeystore");
+
+    private static final String REDIRECT_CDX = "netarkivet.dk/ 20090706131100 http://netarkivet.dk/ text/html 302 "
+            + "3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ http://netarkivet.dk/index-da.php 3311 arcfile_withredirects.arc";
+    private static final String PAGE_CDX = "ing.dk/ 20090706131100 http://ing.dk/ text/html 200 "
+            + "Z3UM6JX4FCO6VMVTPM6VBNJPN5D6QLO3 - 3619 arcfile_withredirects.arc";
+
+    /** The number of replays measured for each store. */
+    private static final int REPLAYS = 500;
+
+    private ReloadSettings rs = new ReloadSettings();
+    private BitarchiveRecordServer emptyServer;
+    private BitarchiveRecordServer archiveServer;
+    private BitarchiveRangeResourceStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        rs.setUp();
+        emptyServer = new BitarchiveRecordServer("localhost", freePort(), false, new BitarchiveRecordServer.FileLocator() {
+            @Override
+            public File locate(String filename) {
+                return null;
+            }
+        });
+        emptyServer.start();
+        archiveServer = new BitarchiveRecordServer("localhost", freePort(), false, new BitarchiveRecordServer.FileLocator() {
+            @Override
+            public File locate(String filename) {
+                File file = new File(ARCHIVE_DIR, filename);
+                return file.isFile() ? file : null;
+            }
+        });
+        archiveServer.start();
+        store = new BitarchiveRangeResourceStore(Arrays.asList(baseUrl(emptyServer), baseUrl(archiveServer)), 10,
+                10000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.shutdown();
+        emptyServer.close();
+        archiveServer.close();
+        rs.tearDown();
+    }
+
+    /**
+     * Test that a record is read from the bitarchive holding the file, and that its location is remembered.
+     */
+    @Test
+    public void testRetrieveResource() throws Exception {
+        ArcResource resource = (ArcResource) store.retrieveResource(adapt(PAGE_CDX));
+        assertTrue(resource.getRecordLength() > 0);
+        assertEquals(200, resource.getStatusCode());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        resource.getArcRecord().dump(baos);
+        assertTrue(baos.toString("UTF-8").contains("Motorola"));
+        resource.close();
+        assertEquals(baseUrl(archiveServer), store.locate("arcfile_withredirects.arc"));
+
+        resource = (ArcResource) store.retrieveResource(adapt(REDIRECT_CDX));
+        assertEquals(302, resource.getStatusCode());
+        resource.close();
+    }
+
+    /**
+     * Test that a file in none of the bitarchives is reported as not available.
+     */
+    @Test(expected = ResourceNotAvailableException.class)
+    public void testUnknownFile() throws ResourceNotAvailableException {
+        store.retrieveResource(adapt(PAGE_CDX.replace("arcfile_withredirects.arc", "no-such-file.arc")));
+    }
+
+    /**
+     * Test that a file moved to another bitarchive is looked for again.
+     */
+    @Test
+    public void testMovedFile() throws Exception {
+        AtomicReferenceArray<File> holders = new AtomicReferenceArray<File>(new File[] {ARCHIVE_DIR, null});
+        BitarchiveRecordServer first = new BitarchiveRecordServer("localhost", freePort(), false, new HolderLocator(holders, 0));
+        BitarchiveRecordServer second = new BitarchiveRecordServer("localhost", freePort(), false, new HolderLocator(holders, 1));
+        first.start();
+        second.start();
+        BitarchiveRangeResourceStore movingStore = new BitarchiveRangeResourceStore(
+                Arrays.asList(baseUrl(first), baseUrl(second)), 10, 10000);
+        try {
+            assertEquals(baseUrl(first), movingStore.locate("arcfile_withredirects.arc"));
+            holders.set(1, ARCHIVE_DIR);
+            holders.set(0, null);
+            Resource resource = movingStore.retrieveResource(adapt(PAGE_CDX));
+            assertEquals(200, resource.getStatusCode());
+            resource.close();
+            assertEquals(baseUrl(second), movingStore.locate("arcfile_withredirects.arc"));
+            holders.set(1, null);
+            try {
+                movingStore.retrieveResource(adapt(PAGE_CDX));
+                fail("Should not find a file gone from all bitarchives");
+            } catch (ResourceNotAvailableException e) {
+                // expected
+            }
+        } finally {
+            movingStore.shutdown();
+            first.close();
+            second.close();
+        }
+    }
+
+    /**
+     * Test that a secure record server is read with the shared certificate, and refuses clients without it.
+     */
+    @Test
+    public void testSecureRecordServer() throws Exception {
+        Settings.set(HTTPSRemoteFile.HTTPSREMOTEFILE_KEYSTORE_FILE, KEYSTORE.getPath());
+        Settings.set(HTTPSRemoteFile.HTTPSREMOTEFILE_KEYSTORE_PASSWORD, "testpass");
+        Settings.set(HTTPSRemoteFile.HTTPSREMOTEFILE_KEY_PASSWORD, "testpass2");
+        BitarchiveRecordServer secureServer = new BitarchiveRecordServer("localhost", freePort(), true,
+                new BitarchiveRecordServer.FileLocator() {
+                    @Override
+                    public File locate(String filename) {
+                        File file = new File(ARCHIVE_DIR, filename);
+                        return file.isFile() ? file : null;
+                    }
+                });
+        secureServer.start();
+        String secureUrl = "https://localhost:" + secureServer.getPort();
+        BitarchiveRangeResourceStore secureStore = new BitarchiveRangeResourceStore(Arrays.asList(secureUrl), 10,
+                10000);
+        try {
+            Resource resource = secureStore.retrieveResource(adapt(PAGE_CDX));
+            assertEquals(200, resource.getStatusCode());
+            resource.close();
+
+            // A client trusting the server, but without the certificate itself, is refused.
+            KeyStore keyStore = KeyStore.getInstance("JCEKS");
+            try (FileInputStream in = new FileInputStream(KEYSTORE)) {
+                keyStore.load(in, "testpass".toCharArray());
+            }
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
+            tmf.init(keyStore);
+            SSLContext trustOnly = SSLContext.getInstance("SSL");
+            trustOnly.init(null, tmf.getTrustManagers(), null);
+            HttpsURLConnection connection = (HttpsURLConnection) new URL(secureUrl + "/arcfile_withredirects.arc")
+                    .openConnection();
+            connection.setSSLSocketFactory(trustOnly.getSocketFactory());
+            connection.setHostnameVerifier(new HostnameVerifier() {
+                @Override
+                public boolean verify(String hostname, SSLSession sslSession) {
+                    return true;
+                }
+            });
+            connection.setRequestMethod("HEAD");
+            try {
+                connection.getResponseCode();
+                fail("A client without the shared certificate should be refused");
+            } catch (IOException e) {
+                // expected
+            } finally {
+                connection.disconnect();
+            }
+        } finally {
+            secureStore.shutdown();
+            secureServer.close();
+        }
+    }
+
+    /**
+     * Replay the same captures through the direct store and through the ArcRepositoryClient path used by
+     * NetarchiveResourceStore, logging the median and 99th percentile latency of each. The ArcRepositoryClient is the
+     * local one, so the JMS broker itself is not part of the measurement, only the client and record handling.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testReplayLatency() throws Exception {
+        Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT,
+                "dk.netarkivet.common.distribute.arcrepository.LocalArcRepositoryClient");
+        Settings.set("settings.common.arcrepositoryClient.fileDir", ARCHIVE_DIR.getPath());
+        NetarchiveResourceStore clientStore = new NetarchiveResourceStore();
+        CaptureSearchResult[] captures = {adapt(PAGE_CDX), adapt(REDIRECT_CDX)};
+        try {
+            // warm up both paths
+            replay(store, captures, REPLAYS / 10);
+            replay(clientStore, captures, REPLAYS / 10);
+            long[] direct = replay(store, captures, REPLAYS);
+            long[] client = replay(clientStore, captures, REPLAYS);
+            log.info("Direct range reads: p50 {} us, p99 {} us", percentile(direct, 50) / 1000,
+                    percentile(direct, 99) / 1000);
+            log.info("ArcRepositoryClient reads: p50 {} us, p99 {} us", percentile(client, 50) / 1000,
+                    percentile(client, 99) / 1000);
+        } finally {
+            clientStore.shutdown();
+        }
+    }
+
+    /**
+     * Read captures from a store in turn, reading each resource to the end and checking that it is the record of the
+     * capture.
+     *
+     * @return The latency of each read in nanoseconds.
+     */
+    private static long[] replay(ResourceStore resourceStore, CaptureSearchResult[] captures,
+            int count) throws Exception {
+        long[] latencies = new long[count];
+        byte[] buffer = new byte[8192];
+        for (int i = 0; i < count; i++) {
+            CaptureSearchResult capture = captures[i % captures.length];
+            long start = System.nanoTime();
+            Resource resource = resourceStore.retrieveResource(capture);
+            long payload = 0;
+            for (int read = resource.read(buffer); read >= 0; read = resource.read(buffer)) {
+                payload += read;
+            }
+            resource.close();
+            latencies[i] = System.nanoTime() - start;
+            assertEquals("Replay should return the captured response", Integer.parseInt(capture.getHttpCode()),
+                    resource.getStatusCode());
+            assertTrue("Replay should return the payload", payload > 0);
+        }
+        return latencies;
+    }
+
+    private static long percentile(long[] values, int percent) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    /** Locates files in the directory at a given index of an array, if it is set. */
+    private static class HolderLocator implements BitarchiveRecordServer.FileLocator {
+        private final AtomicReferenceArray<File> holders;
+        private final int index;
+
+        HolderLocator(AtomicReferenceArray<File> holders, int index) {
+            this.holders = holders;
+            this.index = index;
+        }
+
+        @Override
+        public File locate(String filename) {
+            File dir = holders.get(index);
+            return dir == null ? null : new File(dir, filename);
+        }
+    }
+
+    private static CaptureSearchResult adapt(String cdxLine) {
+        return new CDXLineToSearchResultAdapter().adapt(cdxLine);
+    }
+
+    private static String baseUrl(BitarchiveRecordServer server) {
+        return "http://localhost:" + server.getPort();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}